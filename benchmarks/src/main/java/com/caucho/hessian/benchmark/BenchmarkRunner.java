@@ -0,0 +1,270 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.benchmark;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Runs the benchmarks with the GC profiler attached and optionally compares
+ * the scores with a baseline recorded from an earlier release.
+ *
+ * <pre>
+ * java -cp benchmarks.jar com.caucho.hessian.benchmark.BenchmarkRunner \
+ *   [-save current.properties] [-baseline release.properties]
+ *   [-threshold 5] [jmh options...]
+ * </pre>
+ *
+ * <p>Throughput, mean and p99 sample latency, and normalized allocation
+ * (bytes/op) are recorded for every benchmark and parameter combination.
+ * When a baseline is given, any metric that is worse by more than the
+ * threshold percentage is reported and the runner exits with status 1.
+ */
+public class BenchmarkRunner {
+  private static final String ALLOC_SUFFIX = "gc.alloc.rate.norm";
+  private static final String P99_SUFFIX = "p0.99";
+
+  public static void main(String []args)
+    throws Exception
+  {
+    String savePath = null;
+    String baselinePath = null;
+    double threshold = 5.0;
+
+    List<String> jmhArgs = new ArrayList<String>();
+
+    for (int i = 0; i < args.length; i++) {
+      if ("-save".equals(args[i]) && i + 1 < args.length)
+        savePath = args[++i];
+      else if ("-baseline".equals(args[i]) && i + 1 < args.length)
+        baselinePath = args[++i];
+      else if ("-threshold".equals(args[i]) && i + 1 < args.length)
+        threshold = Double.parseDouble(args[++i]);
+      else
+        jmhArgs.add(args[i]);
+    }
+
+    CommandLineOptions cmdOptions
+      = new CommandLineOptions(jmhArgs.toArray(new String[jmhArgs.size()]));
+
+    ChainedOptionsBuilder builder = new OptionsBuilder().parent(cmdOptions);
+
+    if (cmdOptions.getIncludes().isEmpty())
+      builder.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+
+    builder.addProfiler(GCProfiler.class);
+
+    Collection<RunResult> results = new Runner(builder.build()).run();
+
+    Map<String,Score> scores = collectScores(results);
+
+    if (savePath != null)
+      save(scores, savePath);
+
+    if (baselinePath != null) {
+      Map<String,Score> baseline = load(baselinePath);
+
+      if (! compare(baseline, scores, threshold))
+        System.exit(1);
+    }
+  }
+
+  /**
+   * Flattens the JMH results into metric name to score pairs.
+   */
+  static Map<String,Score> collectScores(Collection<RunResult> results)
+  {
+    Map<String,Score> scores = new TreeMap<String,Score>();
+
+    for (RunResult result : results) {
+      BenchmarkParams params = result.getParams();
+      String key = getKey(params);
+
+      // throughput is better when higher, time and allocation when lower
+      boolean isHigherBetter = params.getMode() == Mode.Throughput;
+
+      scores.put(key, new Score(result.getPrimaryResult().getScore(),
+                                isHigherBetter));
+
+      for (Map.Entry<String,Result> entry
+             : result.getSecondaryResults().entrySet()) {
+        String label = entry.getKey();
+
+        if (label.endsWith(ALLOC_SUFFIX))
+          scores.put(key + ":alloc",
+                     new Score(entry.getValue().getScore(), false));
+        else if (label.endsWith(P99_SUFFIX))
+          scores.put(key + ":p99",
+                     new Score(entry.getValue().getScore(), false));
+      }
+    }
+
+    return scores;
+  }
+
+  private static String getKey(BenchmarkParams params)
+  {
+    StringBuilder sb = new StringBuilder();
+
+    sb.append(params.getBenchmark());
+    sb.append(':').append(params.getMode().shortLabel());
+
+    for (String name : params.getParamsKeys()) {
+      sb.append('[').append(name).append('=');
+      sb.append(params.getParam(name)).append(']');
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Compares the current scores with the baseline, returning false if
+   * any metric regressed by more than the threshold percentage.
+   */
+  static boolean compare(Map<String,Score> baseline,
+                         Map<String,Score> current,
+                         double threshold)
+  {
+    boolean isOk = true;
+
+    for (Map.Entry<String,Score> entry : current.entrySet()) {
+      String key = entry.getKey();
+      Score oldEntry = baseline.get(key);
+
+      if (oldEntry == null || oldEntry._value == 0)
+        continue;
+
+      double oldScore = oldEntry._value;
+      double newScore = entry.getValue()._value;
+      double change = 100.0 * (newScore - oldScore) / oldScore;
+
+      double regression = entry.getValue()._isHigherBetter ? -change : change;
+
+      String status;
+      if (regression > threshold) {
+        status = "REGRESSED";
+        isOk = false;
+      }
+      else if (regression < -threshold)
+        status = "improved";
+      else
+        status = "ok";
+
+      System.out.println(String.format("%-10s %+8.2f%%  %14.3f -> %14.3f  %s",
+                                       status, change,
+                                       oldScore, newScore,
+                                       key));
+    }
+
+    return isOk;
+  }
+
+  private static void save(Map<String,Score> scores, String path)
+    throws IOException
+  {
+    Properties props = new Properties();
+
+    for (Map.Entry<String,Score> entry : scores.entrySet())
+      props.setProperty(entry.getKey(), entry.getValue().toString());
+
+    OutputStream os = new FileOutputStream(path);
+    try {
+      props.store(os, "hessian-sm benchmark scores");
+    } finally {
+      os.close();
+    }
+  }
+
+  private static Map<String,Score> load(String path)
+    throws IOException
+  {
+    Properties props = new Properties();
+
+    InputStream is = new FileInputStream(path);
+    try {
+      props.load(is);
+    } finally {
+      is.close();
+    }
+
+    Map<String,Score> scores = new TreeMap<String,Score>();
+
+    for (String key : props.stringPropertyNames())
+      scores.put(key, Score.valueOf(props.getProperty(key)));
+
+    return scores;
+  }
+
+  /**
+   * A metric's score and whether a higher score is better, saved as
+   * "&lt;score&gt; higher" or "&lt;score&gt; lower".
+   */
+  static final class Score {
+    private static final String HIGHER = "higher";
+    private static final String LOWER = "lower";
+
+    final double _value;
+    final boolean _isHigherBetter;
+
+    Score(double value, boolean isHigherBetter)
+    {
+      _value = value;
+      _isHigherBetter = isHigherBetter;
+    }
+
+    static Score valueOf(String text)
+    {
+      text = text.trim();
+
+      int p = text.indexOf(' ');
+
+      if (p < 0)
+        return new Score(Double.parseDouble(text), false);
+
+      String direction = text.substring(p + 1).trim();
+
+      return new Score(Double.parseDouble(text.substring(0, p)),
+                       HIGHER.equals(direction));
+    }
+
+    @Override
+    public String toString()
+    {
+      return _value + " " + (_isHigherBetter ? HIGHER : LOWER);
+    }
+  }
+}
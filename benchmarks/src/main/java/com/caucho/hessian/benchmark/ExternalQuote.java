@@ -0,0 +1,63 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.benchmark;
+
+import com.caucho.hessian.io.External;
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Hand-written External payload, the same shape as test.T1.
+ */
+public class ExternalQuote implements Serializable, External {
+  private int id;
+  private double price;
+  private String symbol;
+
+  public ExternalQuote()
+  {
+  }
+
+  public ExternalQuote(int id, double price, String symbol)
+  {
+    this.id = id;
+    this.price = price;
+    this.symbol = symbol;
+  }
+
+  @Override
+  public void writeExternal(Hessian2Output out)
+    throws IOException
+  {
+    out.writeInt(id);
+    out.writeDouble(price);
+    out.writeString(symbol);
+  }
+
+  @Override
+  public void readExternal(Hessian2Input in)
+    throws IOException
+  {
+    id = in.readInt();
+    price = in.readDouble();
+    symbol = in.readString();
+  }
+}
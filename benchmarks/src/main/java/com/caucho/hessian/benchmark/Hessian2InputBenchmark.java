@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.benchmark;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.SerializerFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Hessian2Input.readObject for the payloads in {@link Payloads}.
+ *
+ * <p>Each payload is encoded once during setup; every invocation decodes
+ * the full message, including its class definitions.  BeanDeserializer
+ * only reads map-encoded beans, so the BeanSerializer payload is measured
+ * on the write side only.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class Hessian2InputBenchmark {
+  @Param({Payloads.INT, Payloads.LONG, Payloads.DOUBLE,
+          Payloads.SHORT_STRING, Payloads.LONG_STRING, Payloads.UNICODE_STRING,
+          Payloads.BYTES,
+          Payloads.INT_ARRAY, Payloads.LONG_ARRAY, Payloads.DOUBLE_ARRAY,
+          Payloads.ARRAY_LIST, Payloads.HASH_MAP,
+          Payloads.UNSAFE_BEAN, Payloads.JAVA_BEAN,
+          Payloads.BEAN_LIST,
+          Payloads.EXTERNAL, Payloads.EXTERNAL_LIST})
+  public String payload;
+
+  private byte []_data;
+  private Hessian2Input _in;
+
+  @Setup(Level.Trial)
+  public void setup()
+    throws IOException
+  {
+    SerializerFactory factory = Payloads.createSerializerFactory(payload);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(bos);
+    out.setSerializerFactory(factory);
+    out.writeObject(Payloads.create(payload));
+    out.flushBuffer();
+
+    _data = bos.toByteArray();
+
+    _in = new Hessian2Input();
+    _in.setSerializerFactory(factory);
+  }
+
+  @Benchmark
+  public Object readObject()
+    throws IOException
+  {
+    Hessian2Input in = _in;
+
+    in.init(new ByteArrayInputStream(_data));
+
+    return in.readObject();
+  }
+
+  @Benchmark
+  public Object readObjectFromBytes()
+    throws IOException
+  {
+    Hessian2Input in = _in;
+
+    in.init(_data, 0, _data.length);
+
+    return in.readObject();
+  }
+}
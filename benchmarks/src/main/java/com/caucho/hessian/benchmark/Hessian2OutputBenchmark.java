@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.benchmark;
+
+import com.caucho.hessian.io.Hessian2Output;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Hessian2Output.writeObject for the payloads in {@link Payloads}.
+ *
+ * <p>The output and its target stream are reused between invocations, as a
+ * pooled writer from HessianFactory would be, so the score is the encoding
+ * cost rather than stream setup.  The buffer variants encode into pooled
+ * segments with initBuffer, either copying the result out once or leaving
+ * it in place.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class Hessian2OutputBenchmark {
+  @Param({Payloads.INT, Payloads.LONG, Payloads.DOUBLE,
+          Payloads.SHORT_STRING, Payloads.LONG_STRING, Payloads.UNICODE_STRING,
+          Payloads.BYTES,
+          Payloads.INT_ARRAY, Payloads.LONG_ARRAY, Payloads.DOUBLE_ARRAY,
+          Payloads.ARRAY_LIST, Payloads.HASH_MAP,
+          Payloads.UNSAFE_BEAN, Payloads.JAVA_BEAN, Payloads.BEAN_BEAN,
+          Payloads.BEAN_LIST,
+          Payloads.EXTERNAL, Payloads.EXTERNAL_LIST})
+  public String payload;
+
+  private Object _value;
+  private ByteArrayOutputStream _bos;
+  private Hessian2Output _out;
+
+  @Setup(Level.Trial)
+  public void setup()
+  {
+    _value = Payloads.create(payload);
+    _bos = new ByteArrayOutputStream(64 * 1024);
+    _out = new Hessian2Output();
+    _out.setSerializerFactory(Payloads.createSerializerFactory(payload));
+  }
+
+  @Benchmark
+  public int writeObject()
+    throws IOException
+  {
+    ByteArrayOutputStream bos = _bos;
+    Hessian2Output out = _out;
+
+    bos.reset();
+    out.init(bos);
+    out.writeObject(_value);
+    out.flushBuffer();
+
+    return bos.size();
+  }
+
+  @Benchmark
+  public byte []writeObjectToBuffer()
+    throws IOException
+  {
+    Hessian2Output out = _out;
+
+    out.initBuffer();
+    out.writeObject(_value);
+
+    return out.toByteArray();
+  }
+
+  @Benchmark
+  public int writeObjectToSegments()
+    throws IOException
+  {
+    Hessian2Output out = _out;
+
+    out.initBuffer();
+    out.writeObject(_value);
+
+    return out.getBufferLength();
+  }
+}
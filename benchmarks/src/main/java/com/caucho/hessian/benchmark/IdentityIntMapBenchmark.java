@@ -0,0 +1,122 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package com.caucho.hessian.benchmark;
+
+import com.caucho.hessian.util.IdentityIntMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares IdentityIntMap with the prime-modulo map it replaced, as
+ * Hessian2Output uses it for references: put each object of a message
+ * once, look some up again, then clear for the next message.
+ *
+ * <p>With <code>outlier</code> set, both maps first hold one large
+ * message, so the score shows the cost of clearing a grown table for
+ * every later small message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class IdentityIntMapBenchmark {
+  @Param({"16", "256", "4096"})
+  public int refs;
+
+  @Param({"false", "true"})
+  public boolean outlier;
+
+  private static final int OUTLIER_REFS = 1 << 20;
+
+  private Object []_objects;
+  private IdentityIntMap _map;
+  private LegacyIdentityIntMap _legacyMap;
+
+  @Setup(Level.Trial)
+  public void setup()
+  {
+    _objects = new Object[refs];
+
+    for (int i = 0; i < refs; i++)
+      _objects[i] = new Object();
+
+    _map = new IdentityIntMap(256);
+    _legacyMap = new LegacyIdentityIntMap(256);
+
+    if (outlier) {
+      for (int i = 0; i < OUTLIER_REFS; i++) {
+        Object value = new Object();
+
+        _map.put(value, i, false);
+        _legacyMap.put(value, i, false);
+      }
+    }
+  }
+
+  @Benchmark
+  public int identityIntMap()
+  {
+    IdentityIntMap map = _map;
+    Object []objects = _objects;
+    int sum = 0;
+
+    map.clear();
+
+    for (int i = 0; i < objects.length; i++)
+      sum += map.put(objects[i], i, false);
+
+    for (int i = 0; i < objects.length; i += 4)
+      sum += map.get(objects[i]);
+
+    return sum;
+  }
+
+  @Benchmark
+  public int legacyIdentityIntMap()
+  {
+    LegacyIdentityIntMap map = _legacyMap;
+    Object []objects = _objects;
+    int sum = 0;
+
+    map.clear();
+
+    for (int i = 0; i < objects.length; i++)
+      sum += map.put(objects[i], i, false);
+
+    for (int i = 0; i < objects.length; i += 4)
+      sum += map.get(objects[i]);
+
+    return sum;
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.benchmark;
+
+import com.caucho.hessian.io.BeanSerializerFactory;
+import com.caucho.hessian.io.Deserializer;
+import com.caucho.hessian.io.JavaDeserializer;
+import com.caucho.hessian.io.JavaSerializer;
+import com.caucho.hessian.io.Serializer;
+import com.caucho.hessian.io.SerializerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Named benchmark payloads.  Each payload names the object graph and the
+ * serializer factory that should encode it, so the same bean can be
+ * measured through UnsafeSerializer, JavaSerializer and BeanSerializer.
+ */
+public final class Payloads {
+  public static final String INT = "int";
+  public static final String LONG = "long";
+  public static final String DOUBLE = "double";
+  public static final String SHORT_STRING = "shortString";
+  public static final String LONG_STRING = "longString";
+  public static final String UNICODE_STRING = "unicodeString";
+  public static final String BYTES = "bytes";
+  public static final String INT_ARRAY = "intArray";
+  public static final String LONG_ARRAY = "longArray";
+  public static final String DOUBLE_ARRAY = "doubleArray";
+  public static final String ARRAY_LIST = "arrayList";
+  public static final String HASH_MAP = "hashMap";
+  public static final String UNSAFE_BEAN = "unsafeBean";
+  public static final String JAVA_BEAN = "javaBean";
+  public static final String BEAN_BEAN = "beanBean";
+  public static final String BEAN_LIST = "beanList";
+  public static final String EXTERNAL = "external";
+  public static final String EXTERNAL_LIST = "externalList";
+
+  private Payloads()
+  {
+  }
+
+  /**
+   * Creates the object graph for the named payload.
+   */
+  public static Object create(String name)
+  {
+    if (INT.equals(name))
+      return Integer.valueOf(123456789);
+    else if (LONG.equals(name))
+      return Long.valueOf(1234567890123L);
+    else if (DOUBLE.equals(name))
+      return Double.valueOf(3.14159265358979);
+    else if (SHORT_STRING.equals(name))
+      return "hessian";
+    else if (LONG_STRING.equals(name))
+      return repeat("hessian serialization ", 200);
+    else if (UNICODE_STRING.equals(name))
+      return repeat("héssiän 中文 ", 100);
+    else if (BYTES.equals(name)) {
+      byte []data = new byte[4096];
+      for (int i = 0; i < data.length; i++)
+        data[i] = (byte) i;
+      return data;
+    }
+    else if (INT_ARRAY.equals(name)) {
+      int []data = new int[1024];
+      for (int i = 0; i < data.length; i++)
+        data[i] = i * 7919;
+      return data;
+    }
+    else if (LONG_ARRAY.equals(name)) {
+      long []data = new long[1024];
+      for (int i = 0; i < data.length; i++)
+        data[i] = i * 1000000007L;
+      return data;
+    }
+    else if (DOUBLE_ARRAY.equals(name)) {
+      double []data = new double[1024];
+      for (int i = 0; i < data.length; i++)
+        data[i] = i * 0.3183098861837907;
+      return data;
+    }
+    else if (ARRAY_LIST.equals(name)) {
+      List<Object> list = new ArrayList<Object>();
+      for (int i = 0; i < 100; i++) {
+        list.add("item-" + i);
+        list.add(Integer.valueOf(i));
+      }
+      return list;
+    }
+    else if (HASH_MAP.equals(name)) {
+      Map<String,Object> map = new HashMap<String,Object>();
+      for (int i = 0; i < 100; i++)
+        map.put("key-" + i, Long.valueOf(i * 31L));
+      return map;
+    }
+    else if (UNSAFE_BEAN.equals(name)
+             || JAVA_BEAN.equals(name)
+             || BEAN_BEAN.equals(name))
+      return createBean(1);
+    else if (BEAN_LIST.equals(name)) {
+      List<Object> list = new ArrayList<Object>();
+      for (int i = 0; i < 100; i++)
+        list.add(createBean(i));
+      return list;
+    }
+    else if (EXTERNAL.equals(name))
+      return new ExternalQuote(1, 101.25, "VNT");
+    else if (EXTERNAL_LIST.equals(name)) {
+      List<Object> list = new ArrayList<Object>();
+      for (int i = 0; i < 100; i++)
+        list.add(new ExternalQuote(i, 100 + i * 0.25, "VNT" + i));
+      return list;
+    }
+    else
+      throw new IllegalArgumentException("unknown payload '" + name + "'");
+  }
+
+  /**
+   * Returns the serializer factory the payload is measured with.
+   */
+  public static SerializerFactory createSerializerFactory(String name)
+  {
+    if (JAVA_BEAN.equals(name))
+      return new JavaSerializerFactory();
+    else if (BEAN_BEAN.equals(name))
+      return new BeanSerializerFactory();
+    else
+      return new SerializerFactory();
+  }
+
+  private static QuoteBean createBean(int i)
+  {
+    return new QuoteBean(i, 1331251200000L + i, 100 + i * 0.25,
+                         (i & 1) == 0, "VNT" + i, "NASDAQ");
+  }
+
+  private static String repeat(String value, int count)
+  {
+    StringBuilder sb = new StringBuilder(value.length() * count);
+
+    for (int i = 0; i < count; i++)
+      sb.append(value);
+
+    return sb.toString();
+  }
+
+  /**
+   * Forces the reflection based JavaSerializer/JavaDeserializer pair
+   * even when sun.misc.Unsafe is available.
+   */
+  static class JavaSerializerFactory extends SerializerFactory {
+    @Override
+    protected Serializer getDefaultSerializer(Class cl)
+    {
+      return JavaSerializer.create(cl);
+    }
+
+    @Override
+    protected Deserializer getDefaultDeserializer(Class cl)
+    {
+      return new JavaDeserializer(cl);
+    }
+  }
+}
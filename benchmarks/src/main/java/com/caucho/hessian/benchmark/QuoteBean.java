@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.benchmark;
+
+import java.io.Serializable;
+
+/**
+ * Plain field bean used by the benchmarks.  It has getters and setters
+ * so the same class can be written through UnsafeSerializer,
+ * JavaSerializer and BeanSerializer.
+ */
+public class QuoteBean implements Serializable {
+  private int id;
+  private long timestamp;
+  private double price;
+  private boolean active;
+  private String symbol;
+  private String exchange;
+
+  public QuoteBean()
+  {
+  }
+
+  public QuoteBean(int id, long timestamp, double price,
+                   boolean active, String symbol, String exchange)
+  {
+    this.id = id;
+    this.timestamp = timestamp;
+    this.price = price;
+    this.active = active;
+    this.symbol = symbol;
+    this.exchange = exchange;
+  }
+
+  public int getId()
+  {
+    return id;
+  }
+
+  public void setId(int id)
+  {
+    this.id = id;
+  }
+
+  public long getTimestamp()
+  {
+    return timestamp;
+  }
+
+  public void setTimestamp(long timestamp)
+  {
+    this.timestamp = timestamp;
+  }
+
+  public double getPrice()
+  {
+    return price;
+  }
+
+  public void setPrice(double price)
+  {
+    this.price = price;
+  }
+
+  public boolean isActive()
+  {
+    return active;
+  }
+
+  public void setActive(boolean active)
+  {
+    this.active = active;
+  }
+
+  public String getSymbol()
+  {
+    return symbol;
+  }
+
+  public void setSymbol(String symbol)
+  {
+    this.symbol = symbol;
+  }
+
+  public String getExchange()
+  {
+    return exchange;
+  }
+
+  public void setExchange(String exchange)
+  {
+    this.exchange = exchange;
+  }
+}
@@ -0,0 +1,486 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates <code>FooHessianSerializer</code> and
+ * <code>FooHessianDeserializer</code> for each class <code>Foo</code>
+ * annotated with <code>@HessianExternal</code>.  The generated code reads
+ * and writes the fields directly, without reflection, in the same format as
+ * <code>ExternalSerializer</code>.
+ */
+@SupportedAnnotationTypes(HessianExternalProcessor.ANNOTATION)
+public class HessianExternalProcessor extends AbstractProcessor
+{
+  static final String ANNOTATION = "com.caucho.hessian.io.HessianExternal";
+
+  private static final String IO = "com.caucho.hessian.io.";
+
+  @Override
+  public SourceVersion getSupportedSourceVersion()
+  {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations,
+                         RoundEnvironment round)
+  {
+    TypeElement annotation
+      = processingEnv.getElementUtils().getTypeElement(ANNOTATION);
+
+    if (annotation == null)
+      return false;
+
+    for (Element element : round.getElementsAnnotatedWith(annotation)) {
+      if (element.getKind() != ElementKind.CLASS) {
+        error(element, "@HessianExternal is only allowed on classes");
+        continue;
+      }
+
+      TypeElement type = (TypeElement) element;
+
+      try {
+        List<Property> properties = introspect(type);
+
+        if (properties != null) {
+          writeSerializer(type, properties);
+          writeDeserializer(type, properties);
+        }
+      } catch (IOException e) {
+        error(type, "cannot generate Hessian codec: " + e);
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the serialized fields, superclass fields first, or null
+   * if the class cannot have a generated codec.
+   */
+  private List<Property> introspect(TypeElement type)
+  {
+    boolean isValid = true;
+
+    if (type.getModifiers().contains(Modifier.PRIVATE)
+        || type.getModifiers().contains(Modifier.ABSTRACT)) {
+      error(type, "@HessianExternal class must not be private or abstract");
+      isValid = false;
+    }
+
+    if (type.getNestingKind() == NestingKind.MEMBER
+        && ! type.getModifiers().contains(Modifier.STATIC)) {
+      error(type, "@HessianExternal nested class must be static");
+      isValid = false;
+    }
+
+    if (! hasConstructor(type)) {
+      error(type, "@HessianExternal class needs a non-private no-argument constructor");
+      isValid = false;
+    }
+
+    ArrayList<TypeElement> classes = new ArrayList<TypeElement>();
+
+    for (TypeElement cl = type; cl != null; cl = getSuperclass(cl)) {
+      if (cl.getQualifiedName().contentEquals("java.lang.Object"))
+        break;
+
+      classes.add(0, cl);
+    }
+
+    List<ExecutableElement> methods
+      = ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type));
+
+    ArrayList<Property> properties = new ArrayList<Property>();
+    HashSet<String> names = new HashSet<String>();
+
+    for (TypeElement cl : classes) {
+      for (VariableElement field : ElementFilter.fieldsIn(cl.getEnclosedElements())) {
+        Set<Modifier> modifiers = field.getModifiers();
+
+        if (modifiers.contains(Modifier.STATIC)
+            || modifiers.contains(Modifier.TRANSIENT))
+          continue;
+
+        if (! names.add(field.getSimpleName().toString())) {
+          error(field, "@HessianExternal field '" + field.getSimpleName()
+                + "' hides a superclass field");
+          isValid = false;
+        }
+
+        Property property = new Property(field);
+
+        if (isAccessible(type, field)) {
+          property._getter = field.getSimpleName().toString();
+
+          if (! modifiers.contains(Modifier.FINAL))
+            property._setter = field.getSimpleName().toString();
+        }
+
+        String name = capitalize(field.getSimpleName().toString());
+
+        for (ExecutableElement method : methods) {
+          if (! isAccessible(type, method))
+            continue;
+
+          String methodName = method.getSimpleName().toString();
+
+          if (property._getter == null
+              && method.getParameters().size() == 0
+              && (methodName.equals("get" + name)
+                  || (methodName.equals("is" + name)
+                      && field.asType().getKind() == TypeKind.BOOLEAN))
+              && isSameType(method.getReturnType(), field.asType())) {
+            property._getter = methodName + "()";
+          }
+          else if (property._setter == null
+                   && method.getParameters().size() == 1
+                   && methodName.equals("set" + name)
+                   && isSameType(method.getParameters().get(0).asType(),
+                                 field.asType())) {
+            property._setter = methodName + "(";
+          }
+        }
+
+        if (property._getter == null || property._setter == null) {
+          error(field, "@HessianExternal field '" + field.getSimpleName()
+                + "' needs to be non-private and non-final, or have a getter and setter");
+          isValid = false;
+        }
+
+        properties.add(property);
+      }
+    }
+
+    return isValid ? properties : null;
+  }
+
+  private void writeSerializer(TypeElement type, List<Property> properties)
+    throws IOException
+  {
+    String className = getGeneratedName(type, "HessianSerializer");
+    String typeName = type.getQualifiedName().toString();
+
+    PrintWriter out = startClass(type, className,
+                                 IO + "ExternalSerializer");
+
+    try {
+      out.println("  @Override");
+      out.println("  protected void writeInstance(Object value,");
+      out.println("                               " + IO + "AbstractHessianOutput out)");
+      out.println("    throws java.io.IOException");
+      out.println("  {");
+      out.println("    " + typeName + " obj = (" + typeName + ") value;");
+
+      if (properties.size() > 0)
+        out.println();
+
+      for (Property property : properties) {
+        String value = "obj." + property._getter;
+
+        switch (property.getKind()) {
+        case BOOLEAN:
+          out.println("    out.writeBoolean(" + value + ");");
+          break;
+
+        case BYTE:
+        case SHORT:
+        case INT:
+          out.println("    out.writeInt(" + value + ");");
+          break;
+
+        case LONG:
+          out.println("    out.writeLong(" + value + ");");
+          break;
+
+        case FLOAT:
+        case DOUBLE:
+          out.println("    out.writeDouble(" + value + ");");
+          break;
+
+        case CHAR:
+          out.println("    out.writeString(String.valueOf(" + value + "));");
+          break;
+
+        default:
+          if (property.isString())
+            out.println("    out.writeString(" + value + ");");
+          else
+            out.println("    out.writeObject(" + value + ");");
+          break;
+        }
+      }
+
+      out.println("  }");
+      out.println("}");
+    } finally {
+      out.close();
+    }
+  }
+
+  private void writeDeserializer(TypeElement type, List<Property> properties)
+    throws IOException
+  {
+    String className = getGeneratedName(type, "HessianDeserializer");
+    String typeName = type.getQualifiedName().toString();
+
+    PrintWriter out = startClass(type, className,
+                                 IO + "ExternalDeserializer");
+
+    try {
+      out.println("  @Override");
+      out.println("  public Class<?> getType()");
+      out.println("  {");
+      out.println("    return " + typeName + ".class;");
+      out.println("  }");
+      out.println();
+      out.println("  @Override");
+      out.println("  protected Object instantiate()");
+      out.println("  {");
+      out.println("    return new " + typeName + "();");
+      out.println("  }");
+      out.println();
+      out.println("  @Override");
+      out.println("  @SuppressWarnings(\"unchecked\")");
+      out.println("  protected void readFields(Object value,");
+      out.println("                            " + IO + "AbstractHessianInput in)");
+      out.println("    throws java.io.IOException");
+      out.println("  {");
+      out.println("    " + typeName + " obj = (" + typeName + ") value;");
+
+      if (properties.size() > 0)
+        out.println();
+
+      for (Property property : properties) {
+        String value;
+
+        switch (property.getKind()) {
+        case BOOLEAN:
+          value = "in.readBoolean()";
+          break;
+
+        case BYTE:
+          value = "(byte) in.readInt()";
+          break;
+
+        case SHORT:
+          value = "(short) in.readInt()";
+          break;
+
+        case INT:
+          value = "in.readInt()";
+          break;
+
+        case LONG:
+          value = "in.readLong()";
+          break;
+
+        case FLOAT:
+          value = "(float) in.readDouble()";
+          break;
+
+        case DOUBLE:
+          value = "in.readDouble()";
+          break;
+
+        case CHAR:
+          value = "readChar(in)";
+          break;
+
+        default:
+          if (property.isString())
+            value = "in.readString()";
+          else {
+            TypeMirror fieldType = property._field.asType();
+            TypeMirror rawType
+              = processingEnv.getTypeUtils().erasure(fieldType);
+
+            value = ("(" + fieldType + ") in.readObject("
+                     + rawType + ".class)");
+          }
+          break;
+        }
+
+        if (property._setter.endsWith("("))
+          out.println("    obj." + property._setter + value + ");");
+        else
+          out.println("    obj." + property._setter + " = " + value + ";");
+      }
+
+      out.println("  }");
+      out.println("}");
+    } finally {
+      out.close();
+    }
+  }
+
+  private PrintWriter startClass(TypeElement type,
+                                 String className,
+                                 String superClass)
+    throws IOException
+  {
+    String packageName = getPackage(type).getQualifiedName().toString();
+    String fullName = (packageName.length() > 0
+                       ? packageName + "." + className
+                       : className);
+
+    Writer writer = processingEnv.getFiler()
+      .createSourceFile(fullName, type).openWriter();
+
+    PrintWriter out = new PrintWriter(writer);
+
+    if (packageName.length() > 0) {
+      out.println("package " + packageName + ";");
+      out.println();
+    }
+
+    out.println("/**");
+    out.println(" * Hessian codec for " + type.getQualifiedName()
+                + ", generated by " + getClass().getSimpleName() + ".");
+    out.println(" */");
+    out.println("public class " + className + " extends " + superClass);
+    out.println("{");
+
+    return out;
+  }
+
+  /**
+   * Returns the generated class name, which SerializerFactory derives from
+   * the binary name of the class, e.g. Outer$InnerHessianSerializer.
+   */
+  private String getGeneratedName(TypeElement type, String suffix)
+  {
+    String binaryName
+      = processingEnv.getElementUtils().getBinaryName(type).toString();
+
+    int p = binaryName.lastIndexOf('.');
+
+    return binaryName.substring(p + 1) + suffix;
+  }
+
+  private boolean hasConstructor(TypeElement type)
+  {
+    for (ExecutableElement ctor
+           : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+      if (ctor.getParameters().size() == 0
+          && ! ctor.getModifiers().contains(Modifier.PRIVATE))
+        return true;
+    }
+
+    return false;
+  }
+
+  private TypeElement getSuperclass(TypeElement type)
+  {
+    TypeMirror superType = type.getSuperclass();
+
+    if (superType.getKind() != TypeKind.DECLARED)
+      return null;
+
+    return (TypeElement) ((DeclaredType) superType).asElement();
+  }
+
+  /**
+   * True if the generated code, in the package of the annotated class,
+   * can access the member directly.
+   */
+  private boolean isAccessible(TypeElement type, Element member)
+  {
+    Set<Modifier> modifiers = member.getModifiers();
+
+    if (modifiers.contains(Modifier.PRIVATE)
+        || modifiers.contains(Modifier.STATIC))
+      return false;
+    else if (modifiers.contains(Modifier.PUBLIC))
+      return true;
+    else
+      return getPackage(type).equals(getPackage(member));
+  }
+
+  private boolean isSameType(TypeMirror a, TypeMirror b)
+  {
+    return processingEnv.getTypeUtils().isSameType(a, b);
+  }
+
+  private PackageElement getPackage(Element element)
+  {
+    return processingEnv.getElementUtils().getPackageOf(element);
+  }
+
+  private static String capitalize(String name)
+  {
+    return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+  }
+
+  private void error(Element element, String message)
+  {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                                             message, element);
+  }
+
+  static class Property {
+    private final VariableElement _field;
+
+    // field name, or getter call "getFoo()"
+    private String _getter;
+    // field name, or setter call prefix "setFoo("
+    private String _setter;
+
+    Property(VariableElement field)
+    {
+      _field = field;
+    }
+
+    TypeKind getKind()
+    {
+      return _field.asType().getKind();
+    }
+
+    boolean isString()
+    {
+      return _field.asType().toString().equals("java.lang.String");
+    }
+  }
+}
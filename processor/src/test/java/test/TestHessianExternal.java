@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package test;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.SerializerFactory;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Round trip through the generated TradeHessianSerializer and
+ * TradeHessianDeserializer.
+ */
+public class TestHessianExternal {
+
+    private Trade createTrade(long id) {
+        Trade trade = new Trade();
+        trade.id = id;
+        trade.setAccount("acct-" + id);
+        trade.setSymbol("ABC");
+        trade.setPrice(10.25);
+        trade.setActive(true);
+        trade.quantity = 100;
+        trade.flags = 3;
+        trade.venue = 7;
+        trade.side = 'B';
+        trade.fee = 0.5f;
+        trade.parent = 42L;
+        trade.tags = Arrays.asList("a", "b");
+        trade.counts = new HashMap<String, Integer>();
+        trade.counts.put("x", 1);
+        trade.fills = new int[]{1, 2, 3};
+        trade.cached = "not sent";
+        return trade;
+    }
+
+    @Test(groups = {"test"})
+    public void testGeneratedCodec() throws Exception {
+        SerializerFactory factory = new SerializerFactory();
+        assertEquals(factory.getSerializer(Trade.class).getClass().getName(),
+                "test.TradeHessianSerializer");
+        assertEquals(factory.getDeserializer(Trade.class).getClass().getName(),
+                "test.TradeHessianDeserializer");
+
+        Trade trade = createTrade(1);
+        trade.previous = createTrade(2);
+
+        List<Trade> list = new ArrayList<Trade>();
+        list.add(trade);
+        list.add(trade.previous);
+
+        Hessian2Output out = new Hessian2Output();
+        out.initBuffer();
+        out.writeObject(list);
+        byte[] bs = out.toByteArray();
+
+        List<Trade> list1 = (List<Trade>) new Hessian2Input(bs, 0, bs.length).readObject();
+        Trade trade1 = list1.get(0);
+
+        assertEquals(trade1.id, 1L);
+        assertEquals(trade1.getAccount(), "acct-1");
+        assertEquals(trade1.getSymbol(), "ABC");
+        assertEquals(trade1.getPrice(), 10.25);
+        assertTrue(trade1.isActive());
+        assertEquals(trade1.quantity, 100);
+        assertEquals(trade1.flags, (byte) 3);
+        assertEquals(trade1.venue, (short) 7);
+        assertEquals(trade1.side, 'B');
+        assertEquals(trade1.fee, 0.5f);
+        assertEquals(trade1.parent, Long.valueOf(42));
+        assertEquals(trade1.tags, Arrays.asList("a", "b"));
+        assertEquals(trade1.counts.get("x"), Integer.valueOf(1));
+        assertTrue(Arrays.equals(trade1.fills, new int[]{1, 2, 3}));
+        assertEquals(trade1.cached, null);
+
+        // shared references are preserved
+        assertSame(list1.get(1), trade1.previous);
+        assertEquals(list1.get(1).id, 2L);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package test;
+
+import com.caucho.hessian.io.HessianExternal;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Annotated bean with a mix of field access and types.
+ */
+@HessianExternal
+public class Trade extends TradeBase {
+    private String symbol;
+    private double price;
+    private boolean active;
+    int quantity;
+    byte flags;
+    short venue;
+    char side;
+    float fee;
+    Long parent;
+    List<String> tags;
+    Map<String, Integer> counts;
+    Trade previous;
+    int[] fills;
+    transient String cached;
+
+    public Trade() {
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public void setSymbol(String symbol) {
+        this.symbol = symbol;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    public void setPrice(double price) {
+        this.price = price;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public void setActive(boolean active) {
+        this.active = active;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package com.caucho.hessian.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+
+/**
+ * A call sent by {@link HessianAsyncTransport}.  The request is buffered
+ * before sending, and the transport fills in the complete reply before
+ * calling {@link #onReply}, so reading it never blocks.  Batches use it
+ * to hold the reply of each call they carry.
+ */
+class HessianAsyncConnection extends AbstractHessianConnection {
+  private final URL _url;
+
+  private final ArrayList<String> _headers = new ArrayList<String>();
+  private final ByteArrayOutputStream _body = new ByteArrayOutputStream(1024);
+
+  private int _statusCode;
+  private String _statusMessage;
+  private String _contentEncoding;
+
+  private byte []_reply;
+  private int _replyOffset;
+  private int _replyLength;
+
+  HessianAsyncConnection(URL url)
+  {
+    _url = url;
+  }
+
+  URL getURL()
+  {
+    return _url;
+  }
+
+  /**
+   * Adds a HTTP header.
+   */
+  @Override
+  public void addHeader(String key, String value)
+  {
+    _headers.add(key);
+    _headers.add(value);
+  }
+
+  /**
+   * Returns the output stream for the request.
+   */
+  public OutputStream getOutputStream()
+  {
+    return _body;
+  }
+
+  /**
+   * Returns the request line, headers and body.
+   */
+  byte []encodeRequest()
+  {
+    byte []head
+      = HessianKeepAliveConnection.encodeHead(_url, _headers, _body.size());
+
+    byte []request = new byte[head.length + _body.size()];
+
+    System.arraycopy(head, 0, request, 0, head.length);
+    System.arraycopy(_body.toByteArray(), 0, request, head.length, _body.size());
+
+    return request;
+  }
+
+  /**
+   * Sets the reply read by the transport.
+   */
+  void setReply(int statusCode, String contentEncoding,
+                byte []buffer, int offset, int length)
+  {
+    _statusCode = statusCode;
+    _contentEncoding = contentEncoding;
+    _reply = buffer;
+    _replyOffset = offset;
+    _replyLength = length;
+  }
+
+  /**
+   * Called by the transport once the reply is complete, or with the
+   * failure.
+   */
+  protected void onReply(Throwable failure)
+  {
+  }
+
+  /**
+   * Checks the reply status, since the request has already been sent.
+   */
+  public void sendRequest()
+    throws IOException
+  {
+    if (_statusCode != 200) {
+      _statusMessage = new String(_reply, _replyOffset, _replyLength, "ISO-8859-1");
+
+      throw new HessianConnectionException(_statusCode + ": " + _statusMessage);
+    }
+  }
+
+  /**
+   * Returns the status code.
+   */
+  public int getStatusCode()
+  {
+    return _statusCode;
+  }
+
+  /**
+   * Returns the status string.
+   */
+  public String getStatusMessage()
+  {
+    return _statusMessage;
+  }
+
+  @Override
+  public String getContentEncoding()
+  {
+    return _contentEncoding;
+  }
+
+  /**
+   * Returns the InputStream to the result
+   */
+  public InputStream getInputStream()
+  {
+    return new ByteArrayInputStream(_reply, _replyOffset, _replyLength);
+  }
+
+  /**
+   * The transport owns the connection, so there is nothing to free.
+   */
+  public void destroy()
+  {
+    _reply = null;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "HessianAsyncConnection[" + _url + "]";
+  }
+}
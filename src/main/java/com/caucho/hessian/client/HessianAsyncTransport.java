@@ -0,0 +1,976 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package com.caucho.hessian.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Non-blocking HTTP/1.1 transport for asynchronous proxy calls.
+ *
+ * <p>One selector thread sends every request and reads every reply, so
+ * calls in flight do not hold a thread each.  Connections are kept alive
+ * and reused per host, at most
+ * {@link #setMaxConnectionsPerHost maxConnectionsPerHost} at a time;
+ * further calls queue until a connection is free.  A call failing on a
+ * reused connection before any reply arrives is retried once on a new
+ * connection.
+ *
+ * <p>The selector thread only moves bytes.  Complete replies are handed
+ * to the call, which decodes them on the factory's async executor.
+ * Timeouts come from the proxy factory: the connect timeout bounds the
+ * TCP connect and the read timeout bounds each wait for reply data.
+ *
+ * Only plain http is handled here; the proxy runs other calls on the
+ * executor with the blocking connection factory.
+ */
+public class HessianAsyncTransport implements Runnable {
+  private static final Logger log
+    = Logger.getLogger(HessianAsyncTransport.class.getName());
+
+  private static final long TICK = 100L;
+
+  private final HessianProxyFactory _factory;
+
+  private final ConcurrentLinkedQueue<Exchange> _submitQueue
+    = new ConcurrentLinkedQueue<Exchange>();
+
+  // owned by the selector thread
+  private final HashMap<String,Host> _hostMap = new HashMap<String,Host>();
+  private final ByteBuffer _readBuffer = ByteBuffer.allocate(64 * 1024);
+
+  private int _maxConnectionsPerHost = 20;
+  private long _idleTimeout = 30000L;
+
+  private Selector _selector;
+  private Thread _thread;
+  private volatile boolean _isClosed;
+
+  private final AtomicLong _createCount = new AtomicLong();
+  private final AtomicLong _reuseCount = new AtomicLong();
+  private final AtomicLong _retryCount = new AtomicLong();
+
+  public HessianAsyncTransport(HessianProxyFactory factory)
+  {
+    _factory = factory;
+  }
+
+  /**
+   * Sets the maximum number of connections to a single host.
+   */
+  public void setMaxConnectionsPerHost(int max)
+  {
+    if (max <= 0)
+      throw new IllegalArgumentException("maxConnectionsPerHost must be positive: " + max);
+
+    _maxConnectionsPerHost = max;
+  }
+
+  public int getMaxConnectionsPerHost()
+  {
+    return _maxConnectionsPerHost;
+  }
+
+  /**
+   * Sets the time in milliseconds an idle connection is kept open.
+   */
+  public void setIdleTimeout(long timeout)
+  {
+    _idleTimeout = timeout;
+  }
+
+  public long getIdleTimeout()
+  {
+    return _idleTimeout;
+  }
+
+  /**
+   * Returns the number of connections opened.
+   */
+  public long getCreateCount()
+  {
+    return _createCount.get();
+  }
+
+  /**
+   * Returns the number of calls sent on a recycled connection.
+   */
+  public long getReuseCount()
+  {
+    return _reuseCount.get();
+  }
+
+  /**
+   * Returns the number of calls retried after a reused connection turned
+   * out to be closed.
+   */
+  public long getRetryCount()
+  {
+    return _retryCount.get();
+  }
+
+  /**
+   * Queues the call for sending.  The host is resolved here, on the
+   * caller's thread, so a slow lookup never stalls the selector.
+   */
+  void send(HessianAsyncConnection conn)
+    throws IOException
+  {
+    Exchange exchange = new Exchange(conn, conn.encodeRequest());
+
+    exchange._address = resolve(conn.getURL());
+
+    Selector selector = start();
+
+    _submitQueue.add(exchange);
+
+    selector.wakeup();
+  }
+
+  private static InetSocketAddress resolve(URL url)
+    throws IOException
+  {
+    int port = url.getPort();
+
+    if (port < 0)
+      port = url.getDefaultPort();
+
+    InetSocketAddress address = new InetSocketAddress(url.getHost(), port);
+
+    if (address.isUnresolved()) {
+      UnknownHostException e = new UnknownHostException(url.getHost());
+
+      throw new HessianConnectionException(url + ": " + e, e);
+    }
+
+    return address;
+  }
+
+  private synchronized Selector start()
+    throws IOException
+  {
+    if (_isClosed)
+      throw new HessianConnectionException(this + " is closed");
+
+    if (_selector == null) {
+      _selector = Selector.open();
+
+      _thread = new Thread(this, "hessian-async-" + _factory.hashCode());
+      _thread.setDaemon(true);
+      _thread.start();
+    }
+
+    return _selector;
+  }
+
+  /**
+   * Closes all connections, failing the calls in progress.
+   */
+  public void close()
+  {
+    Selector selector;
+
+    synchronized (this) {
+      _isClosed = true;
+      selector = _selector;
+    }
+
+    if (selector != null)
+      selector.wakeup();
+  }
+
+  public void run()
+  {
+    Selector selector = _selector;
+
+    try {
+      while (! _isClosed) {
+        selector.select(TICK);
+
+        Exchange exchange;
+
+        while ((exchange = _submitQueue.poll()) != null) {
+          try {
+            dispatch(exchange);
+          } catch (RuntimeException e) {
+            abort(exchange, e);
+          }
+        }
+
+        Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+
+        while (iter.hasNext()) {
+          SelectionKey key = iter.next();
+          iter.remove();
+
+          handle(key);
+        }
+
+        expire(System.currentTimeMillis());
+      }
+    } catch (Throwable e) {
+      log.log(Level.WARNING, e.toString(), e);
+    } finally {
+      _isClosed = true;
+
+      shutdown(selector);
+    }
+  }
+
+  /**
+   * Sends the call on an idle connection, a new one, or queues it.
+   */
+  private void dispatch(Exchange exchange)
+  {
+    URL url = exchange._conn.getURL();
+    int port = exchange._address.getPort();
+
+    String key = url.getHost() + ":" + port;
+
+    Host host = _hostMap.get(key);
+
+    if (host == null) {
+      host = new Host(url.getHost(), port);
+      _hostMap.put(key, host);
+    }
+
+    exchange._host = host;
+    exchange._deadline = deadline(getReadTimeout());
+
+    Channel channel = host._idle.pollFirst();
+
+    if (channel != null) {
+      _reuseCount.incrementAndGet();
+      assign(channel, exchange, true);
+    }
+    else if (host._open < _maxConnectionsPerHost)
+      connect(host, exchange);
+    else
+      host._waiting.add(exchange);
+  }
+
+  private void connect(Host host, Exchange exchange)
+  {
+    SocketChannel socketChannel = null;
+
+    try {
+      socketChannel = SocketChannel.open();
+      host._open++;
+
+      socketChannel.configureBlocking(false);
+      socketChannel.socket().setTcpNoDelay(true);
+      socketChannel.socket().setKeepAlive(true);
+
+      _createCount.incrementAndGet();
+
+      Channel channel = new Channel(host, socketChannel);
+
+      boolean isConnected = socketChannel.connect(exchange._address);
+
+      channel._key = socketChannel.register(_selector, 0, channel);
+
+      assign(channel, exchange, false);
+
+      if (! isConnected) {
+        channel._key.interestOps(SelectionKey.OP_CONNECT);
+
+        long connectTimeout = _factory.getConnectTimeout();
+
+        if (connectTimeout > 0)
+          exchange._deadline = deadline(connectTimeout);
+      }
+    } catch (IOException e) {
+      connectFailed(host, socketChannel, exchange, e);
+    } catch (RuntimeException e) {
+      connectFailed(host, socketChannel, exchange, e);
+    }
+  }
+
+  private void connectFailed(Host host,
+                             SocketChannel socketChannel,
+                             Exchange exchange,
+                             Throwable e)
+  {
+    if (socketChannel != null) {
+      try {
+        socketChannel.close();
+      } catch (IOException e1) {
+      }
+
+      host._open--;
+
+      Channel channel = exchange._channel;
+
+      if (channel != null) {
+        channel._isClosed = true;
+        channel._exchange = null;
+        exchange._channel = null;
+      }
+    }
+
+    complete(exchange, e);
+  }
+
+  private void assign(Channel channel, Exchange exchange, boolean isReused)
+  {
+    channel._exchange = exchange;
+    exchange._channel = channel;
+    exchange._isReused = isReused;
+    exchange._request.rewind();
+    exchange._length = 0;
+    exchange._deadline = deadline(getReadTimeout());
+
+    channel._key.interestOps(SelectionKey.OP_WRITE);
+  }
+
+  private void handle(SelectionKey key)
+  {
+    Channel channel = (Channel) key.attachment();
+    Exchange exchange = channel._exchange;
+
+    try {
+      if (exchange == null) {
+        // an idle connection is readable only when the server closed it
+        close(channel);
+        return;
+      }
+
+      if (key.isConnectable()) {
+        channel._socket.finishConnect();
+
+        exchange._deadline = deadline(getReadTimeout());
+        key.interestOps(SelectionKey.OP_WRITE);
+      }
+
+      if (key.isWritable()) {
+        channel._socket.write(exchange._request);
+
+        if (! exchange._request.hasRemaining())
+          key.interestOps(SelectionKey.OP_READ);
+      }
+
+      if (key.isReadable()) {
+        ByteBuffer buffer = _readBuffer;
+
+        while (true) {
+          buffer.clear();
+
+          int len = channel._socket.read(buffer);
+
+          if (len < 0) {
+            if (exchange.isEndOfFile())
+              finish(channel, exchange);
+            else
+              throw new EOFException("unexpected end of reply from " + exchange._conn.getURL());
+
+            return;
+          }
+          else if (len == 0)
+            break;
+
+          exchange.append(buffer.array(), len);
+          exchange._deadline = deadline(getReadTimeout());
+
+          if (exchange.parse()) {
+            finish(channel, exchange);
+            return;
+          }
+
+          if (len < buffer.capacity())
+            break;
+        }
+      }
+    } catch (IOException e) {
+      failed(channel, e);
+    } catch (CancelledKeyException e) {
+      failed(channel, new IOException(e.toString()));
+    } catch (RuntimeException e) {
+      // fail only this call, never the selector loop
+      close(channel);
+
+      if (exchange != null)
+        complete(exchange, e);
+    }
+  }
+
+  /**
+   * Fails a call that could not be dispatched, releasing any connection
+   * it was given.
+   */
+  private void abort(Exchange exchange, RuntimeException e)
+  {
+    Channel channel = exchange._channel;
+
+    if (channel != null) {
+      channel._exchange = null;
+      exchange._channel = null;
+      close(channel);
+    }
+
+    if (exchange._host != null)
+      exchange._host._waiting.remove(exchange);
+
+    complete(exchange, e);
+  }
+
+  /**
+   * Completes the call and recycles its connection.
+   */
+  private void finish(Channel channel, Exchange exchange)
+  {
+    channel._exchange = null;
+    exchange._channel = null;
+
+    if (exchange._isKeepAlive && channel._socket.isOpen()) {
+      Host host = channel._host;
+      Exchange next = host._waiting.poll();
+
+      if (next != null)
+        assign(channel, next, true);
+      else {
+        channel._idleTime = System.currentTimeMillis();
+        channel._key.interestOps(SelectionKey.OP_READ);
+        host._idle.addFirst(channel);
+      }
+    }
+    else
+      close(channel);
+
+    exchange.setReply();
+
+    complete(exchange, null);
+  }
+
+  /**
+   * Handles a broken connection, retrying a call on a stale reused one.
+   */
+  private void failed(Channel channel, IOException e)
+  {
+    Exchange exchange = channel._exchange;
+
+    close(channel);
+
+    if (exchange == null)
+      return;
+
+    if (exchange._isReused && exchange._length == 0 && ! _isClosed) {
+      log.log(Level.FINEST, e.toString(), e);
+
+      _retryCount.incrementAndGet();
+      exchange._host._waiting.addFirst(exchange);
+      serveWaiting(exchange._host);
+    }
+    else
+      complete(exchange, e);
+  }
+
+  private void close(Channel channel)
+  {
+    Host host = channel._host;
+
+    channel._exchange = null;
+
+    host._idle.remove(channel);
+
+    try {
+      channel._socket.close();
+    } catch (IOException e) {
+      log.log(Level.FINEST, e.toString(), e);
+    }
+
+    if (! channel._isClosed) {
+      channel._isClosed = true;
+      host._open--;
+    }
+
+    serveWaiting(host);
+  }
+
+  private void serveWaiting(Host host)
+  {
+    while (host._open < _maxConnectionsPerHost && ! _isClosed) {
+      Exchange exchange = host._waiting.poll();
+
+      if (exchange == null)
+        return;
+
+      connect(host, exchange);
+    }
+  }
+
+  private void complete(Exchange exchange, Throwable failure)
+  {
+    if (failure instanceof IOException) {
+      failure = new HessianConnectionException(exchange._conn.getURL() + ": " + failure,
+                                               failure);
+    }
+
+    try {
+      exchange._conn.onReply(failure);
+    } catch (Throwable e) {
+      log.log(Level.WARNING, e.toString(), e);
+    }
+  }
+
+  /**
+   * Closes expired idle connections and fails calls past their deadline.
+   */
+  private void expire(long now)
+  {
+    ArrayList<Channel> timedOut = null;
+
+    for (SelectionKey key : _selector.keys()) {
+      Channel channel = (Channel) key.attachment();
+
+      if (channel == null || channel._isClosed)
+        continue;
+
+      Exchange exchange = channel._exchange;
+
+      if (exchange != null && exchange._deadline < now
+          || exchange == null && _idleTimeout >= 0
+             && channel._idleTime + _idleTimeout < now) {
+        if (timedOut == null)
+          timedOut = new ArrayList<Channel>();
+
+        timedOut.add(channel);
+      }
+    }
+
+    if (timedOut != null) {
+      for (Channel channel : timedOut) {
+        Exchange exchange = channel._exchange;
+
+        close(channel);
+
+        if (exchange != null)
+          complete(exchange, new SocketTimeoutException("timeout waiting for " + exchange._conn.getURL()));
+      }
+    }
+
+    for (Host host : _hostMap.values()) {
+      Iterator<Exchange> iter = host._waiting.iterator();
+
+      while (iter.hasNext()) {
+        Exchange exchange = iter.next();
+
+        if (exchange._deadline < now) {
+          iter.remove();
+
+          complete(exchange, new SocketTimeoutException("timeout waiting for a connection to "
+                                                        + exchange._conn.getURL()));
+        }
+      }
+    }
+  }
+
+  private void shutdown(Selector selector)
+  {
+    HessianConnectionException closed
+      = new HessianConnectionException(this + " is closed");
+
+    for (SelectionKey key : selector.keys()) {
+      Channel channel = (Channel) key.attachment();
+
+      Exchange exchange = channel._exchange;
+
+      try {
+        channel._socket.close();
+      } catch (IOException e) {
+      }
+
+      if (exchange != null)
+        complete(exchange, closed);
+    }
+
+    for (Host host : _hostMap.values()) {
+      Exchange exchange;
+
+      while ((exchange = host._waiting.poll()) != null) {
+        complete(exchange, closed);
+      }
+
+      host._idle.clear();
+    }
+
+    _hostMap.clear();
+
+    Exchange exchange;
+
+    while ((exchange = _submitQueue.poll()) != null) {
+      complete(exchange, closed);
+    }
+
+    try {
+      selector.close();
+    } catch (IOException e) {
+      log.log(Level.FINEST, e.toString(), e);
+    }
+  }
+
+  private long getReadTimeout()
+  {
+    return _factory.getReadTimeout();
+  }
+
+  private static long deadline(long timeout)
+  {
+    if (timeout > 0)
+      return System.currentTimeMillis() + timeout;
+    else
+      return Long.MAX_VALUE;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _factory + "]";
+  }
+
+  /**
+   * The connections and queued calls for one host.
+   */
+  static final class Host {
+    final String _host;
+    final int _port;
+
+    final ArrayDeque<Channel> _idle = new ArrayDeque<Channel>();
+    final ArrayDeque<Exchange> _waiting = new ArrayDeque<Exchange>();
+
+    int _open;
+
+    Host(String host, int port)
+    {
+      _host = host;
+      _port = port;
+    }
+  }
+
+  /**
+   * An open connection.
+   */
+  static final class Channel {
+    final Host _host;
+    final SocketChannel _socket;
+
+    SelectionKey _key;
+    Exchange _exchange;
+    long _idleTime;
+    boolean _isClosed;
+
+    Channel(Host host, SocketChannel socket)
+    {
+      _host = host;
+      _socket = socket;
+    }
+  }
+
+  /**
+   * One call: the encoded request and the reply read so far.
+   */
+  static final class Exchange {
+    final HessianAsyncConnection _conn;
+    final ByteBuffer _request;
+
+    InetSocketAddress _address;
+    Host _host;
+    Channel _channel;
+    boolean _isReused;
+    long _deadline;
+
+    byte []_buffer = new byte[8192];
+    int _length;
+
+    // parsed reply head
+    int _headEnd = -1;
+    int _statusCode;
+    boolean _isKeepAlive;
+    boolean _isChunked;
+    long _contentLength = -1;
+    String _contentEncoding;
+
+    // decoded body
+    byte []_body;
+    int _bodyOffset;
+    int _bodyLength;
+
+    Exchange(HessianAsyncConnection conn, byte []request)
+    {
+      _conn = conn;
+      _request = ByteBuffer.wrap(request);
+    }
+
+    void append(byte []data, int len)
+    {
+      if (_buffer.length < _length + len) {
+        byte []buffer = new byte[Math.max(2 * _buffer.length, _length + len)];
+        System.arraycopy(_buffer, 0, buffer, 0, _length);
+        _buffer = buffer;
+      }
+
+      System.arraycopy(data, 0, _buffer, _length, len);
+      _length += len;
+    }
+
+    /**
+     * Parses the reply read so far, returning true when it is complete.
+     */
+    boolean parse()
+      throws IOException
+    {
+      while (_headEnd < 0) {
+        int end = indexOfEmptyLine(_buffer, 0, _length);
+
+        if (end < 0)
+          return false;
+
+        parseHead(end);
+
+        if (_statusCode >= 200)
+          _headEnd = end;
+        else {
+          // drop an interim 1xx reply
+          System.arraycopy(_buffer, end, _buffer, 0, _length - end);
+          _length -= end;
+        }
+      }
+
+      if (_isChunked)
+        return parseChunks();
+      else if (_contentLength >= 0) {
+        if (_length - _headEnd < _contentLength)
+          return false;
+
+        _body = _buffer;
+        _bodyOffset = _headEnd;
+        _bodyLength = (int) _contentLength;
+
+        return true;
+      }
+      else
+        return false;
+    }
+
+    /**
+     * Returns true when the end of file also ends the reply.
+     */
+    boolean isEndOfFile()
+      throws IOException
+    {
+      if (_headEnd < 0 || _isChunked || _contentLength >= 0)
+        return false;
+
+      _isKeepAlive = false;
+      _body = _buffer;
+      _bodyOffset = _headEnd;
+      _bodyLength = _length - _headEnd;
+
+      return true;
+    }
+
+    void setReply()
+    {
+      _conn.setReply(_statusCode, _contentEncoding,
+                     _body, _bodyOffset, _bodyLength);
+    }
+
+    private void parseHead(int end)
+      throws IOException
+    {
+      String head = new String(_buffer, 0, end, "ISO-8859-1");
+      String []lines = head.split("\r?\n");
+      String status = lines[0];
+
+      if (! status.startsWith("HTTP/"))
+        throw new HessianConnectionException("bad HTTP status line '" + status + "'");
+
+      int p = status.indexOf(' ');
+      int q = status.indexOf(' ', p + 1);
+
+      try {
+        _statusCode = Integer.parseInt(q > 0 ? status.substring(p + 1, q) : status.substring(p + 1));
+      } catch (RuntimeException e) {
+        throw new HessianConnectionException("bad HTTP status line '" + status + "'");
+      }
+
+      _isKeepAlive = status.startsWith("HTTP/1.1");
+      _isChunked = false;
+      _contentLength = -1;
+      _contentEncoding = null;
+
+      for (int i = 1; i < lines.length; i++) {
+        String line = lines[i];
+        int colon = line.indexOf(':');
+
+        if (colon <= 0)
+          continue;
+
+        String key = line.substring(0, colon).trim();
+        String value = line.substring(colon + 1).trim();
+
+        if (key.equalsIgnoreCase("content-length")) {
+          try {
+            _contentLength = Long.parseLong(value);
+          } catch (NumberFormatException e) {
+            throw new HessianConnectionException("bad Content-Length '" + value + "'");
+          }
+        }
+        else if (key.equalsIgnoreCase("transfer-encoding"))
+          _isChunked = value.toLowerCase().indexOf("chunked") >= 0;
+        else if (key.equalsIgnoreCase("content-encoding"))
+          _contentEncoding = value;
+        else if (key.equalsIgnoreCase("connection")) {
+          value = value.toLowerCase();
+
+          if (value.indexOf("close") >= 0)
+            _isKeepAlive = false;
+          else if (value.indexOf("keep-alive") >= 0)
+            _isKeepAlive = true;
+        }
+      }
+
+      if (! _isChunked && _contentLength < 0)
+        _isKeepAlive = false;
+    }
+
+    /**
+     * Decodes the chunked body once the final chunk has arrived.
+     */
+    private boolean parseChunks()
+      throws IOException
+    {
+      int offset = _headEnd;
+      int bodyLength = 0;
+
+      while (true) {
+        int lineEnd = indexOfLineEnd(_buffer, offset, _length);
+
+        if (lineEnd < 0)
+          return false;
+
+        long size = parseChunkSize(offset, lineEnd);
+
+        offset = lineEnd + 2;
+
+        if (size == 0)
+          break;
+
+        offset += size + 2;
+        bodyLength += size;
+
+        if (offset > _length)
+          return false;
+      }
+
+      // trailers, ending with an empty line
+      while (true) {
+        int lineEnd = indexOfLineEnd(_buffer, offset, _length);
+
+        if (lineEnd < 0)
+          return false;
+
+        boolean isEmpty = lineEnd == offset;
+
+        offset = lineEnd + 2;
+
+        if (isEmpty)
+          break;
+      }
+
+      byte []body = new byte[bodyLength];
+      int bodyOffset = 0;
+
+      offset = _headEnd;
+
+      while (true) {
+        int lineEnd = indexOfLineEnd(_buffer, offset, _length);
+        int size = (int) parseChunkSize(offset, lineEnd);
+
+        offset = lineEnd + 2;
+
+        if (size == 0)
+          break;
+
+        System.arraycopy(_buffer, offset, body, bodyOffset, size);
+        bodyOffset += size;
+        offset += size + 2;
+      }
+
+      _body = body;
+      _bodyOffset = 0;
+      _bodyLength = bodyLength;
+
+      return true;
+    }
+
+    private long parseChunkSize(int offset, int end)
+      throws IOException
+    {
+      String line = new String(_buffer, offset, end - offset, "ISO-8859-1");
+      int p = line.indexOf(';');
+
+      try {
+        return Long.parseLong((p >= 0 ? line.substring(0, p) : line).trim(), 16);
+      } catch (NumberFormatException e) {
+        throw new HessianConnectionException("bad chunk length '" + line + "'");
+      }
+    }
+
+    private static int indexOfLineEnd(byte []buffer, int offset, int length)
+    {
+      for (int i = offset; i + 1 < length; i++) {
+        if (buffer[i] == '\r' && buffer[i + 1] == '\n')
+          return i;
+      }
+
+      return -1;
+    }
+
+    /**
+     * Returns the offset after the CRLF CRLF ending the head.
+     */
+    private static int indexOfEmptyLine(byte []buffer, int offset, int length)
+    {
+      for (int i = offset; i + 3 < length; i++) {
+        if (buffer[i] == '\r' && buffer[i + 1] == '\n'
+            && buffer[i + 2] == '\r' && buffer[i + 3] == '\n')
+          return i + 4;
+      }
+
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package com.caucho.hessian.client;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * Scope collecting proxy calls into batches, sending each service's calls
+ * in a single HTTP request.
+ *
+ * <pre>
+ * HessianBatch batch = factory.beginBatch();
+ * try {
+ *   HessianFuture&lt;User&gt; user = api.getUser(id);
+ *   HessianFuture&lt;List&lt;Order&gt;&gt; orders = api.getOrders(id);
+ *
+ *   String name = api.getName(id);  // sends all three calls
+ * } finally {
+ *   batch.close();
+ * }
+ * </pre>
+ *
+ * <p>While the scope is open, calls from the same thread to proxies of the
+ * factory are queued.  A method returning a future returns at once; any
+ * other method sends the queued calls with its own and waits for its
+ * reply.  {@link #flush} sends the queue explicitly, as does reaching
+ * {@link #setMaxCalls maxCalls}, and {@link #close} sends what is left.
+ *
+ * <p>The server runs the calls of a batch in order, or in parallel when
+ * its skeleton has a batch executor, and each call gets its own reply or
+ * fault.  A server without batch support answers the batch with a
+ * NoSuchMethodException fault, and the calls are then sent one by one.
+ */
+public class HessianBatch {
+  private final HessianProxyFactory _factory;
+
+  private final ArrayList<Call> _calls = new ArrayList<Call>();
+
+  private int _maxCalls = 64;
+  private boolean _isClosed;
+
+  HessianBatch(HessianProxyFactory factory)
+  {
+    _factory = factory;
+  }
+
+  /**
+   * Sets the number of queued calls which triggers a flush.
+   */
+  public void setMaxCalls(int maxCalls)
+  {
+    if (maxCalls <= 0)
+      throw new IllegalArgumentException("maxCalls must be positive: " + maxCalls);
+
+    _maxCalls = maxCalls;
+  }
+
+  public int getMaxCalls()
+  {
+    return _maxCalls;
+  }
+
+  /**
+   * Returns the number of calls waiting to be sent.
+   */
+  public int getPendingCount()
+  {
+    return _calls.size();
+  }
+
+  /**
+   * Queues a call, returning the future for its reply.
+   */
+  HessianFuture<Object> add(HessianProxy proxy,
+                            String methodName,
+                            Object []args,
+                            Class<?> returnType)
+  {
+    if (_isClosed)
+      throw new IllegalStateException(this + " is closed");
+
+    Call call = new Call(proxy, methodName, args, returnType,
+                         new HessianFuture<Object>(_factory.getAsyncExecutor()));
+
+    _calls.add(call);
+
+    if (_maxCalls <= _calls.size())
+      flush();
+
+    return call._future;
+  }
+
+  /**
+   * Sends the queued calls, one request for each service URL.  The
+   * replies arrive through the calls' futures.
+   */
+  public void flush()
+  {
+    if (_calls.size() == 0)
+      return;
+
+    LinkedHashMap<URL,ArrayList<Call>> callMap
+      = new LinkedHashMap<URL,ArrayList<Call>>();
+
+    for (int i = 0; i < _calls.size(); i++) {
+      Call call = _calls.get(i);
+      URL url = call._proxy.getURL();
+
+      ArrayList<Call> calls = callMap.get(url);
+
+      if (calls == null) {
+        calls = new ArrayList<Call>();
+        callMap.put(url, calls);
+      }
+
+      calls.add(call);
+    }
+
+    _calls.clear();
+
+    for (ArrayList<Call> calls : callMap.values()) {
+      calls.get(0)._proxy.invokeBatch(calls);
+    }
+  }
+
+  /**
+   * Sends the queued calls and ends the scope.
+   */
+  public void close()
+  {
+    if (_isClosed)
+      return;
+
+    try {
+      flush();
+    } finally {
+      _isClosed = true;
+
+      _factory.endBatch(this);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[pending=" + _calls.size() + "]";
+  }
+
+  /**
+   * A queued call.
+   */
+  static final class Call {
+    final HessianProxy _proxy;
+    final String _methodName;
+    final Object []_args;
+    final Class<?> _returnType;
+    final HessianFuture<Object> _future;
+
+    Call(HessianProxy proxy,
+         String methodName,
+         Object []args,
+         Class<?> returnType,
+         HessianFuture<Object> future)
+    {
+      _proxy = proxy;
+      _methodName = methodName;
+      _args = args;
+      _returnType = returnType;
+      _future = future;
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package com.caucho.hessian.client;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a proxy method as a pure lookup whose results the client may
+ * cache in the factory's {@link HessianResultCache}.  Results are keyed by
+ * the service URL, the method and the serialized arguments.
+ *
+ * Within <code>ttl</code> a cached result is returned without a call.
+ * For a further <code>staleWhileRevalidate</code> milliseconds the stale
+ * result is still returned, while a single background call refreshes it.
+ */
+@Target({ElementType.METHOD })
+@Retention(RetentionPolicy.RUNTIME)
+public @interface HessianCacheable
+{
+  /**
+   * Time in milliseconds a result stays fresh.
+   */
+  long ttl() default 60000L;
+
+  /**
+   * Time in milliseconds after expiry during which the stale result is
+   * served while it is refreshed.
+   */
+  long staleWhileRevalidate() default 0L;
+}
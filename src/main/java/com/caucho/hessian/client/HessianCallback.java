@@ -0,0 +1,37 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package com.caucho.hessian.client;
+
+/**
+ * Receives the outcome of an asynchronous Hessian call.
+ *
+ * @see HessianFuture#addCallback
+ */
+public interface HessianCallback<T> {
+  /**
+   * Called with the value returned by the remote method.
+   */
+  public void onResult(T value);
+
+  /**
+   * Called with the exception thrown by the remote method, or the failure
+   * to reach it.
+   */
+  public void onFault(Throwable fault);
+}
@@ -0,0 +1,291 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package com.caucho.hessian.client;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Result of an asynchronous Hessian call.
+ *
+ * <p>A proxy method declared to return {@link Future} or
+ * <code>HessianFuture</code> returns immediately with one of these:
+ *
+ * <pre>
+ * public interface BasicAPI {
+ *   public HessianFuture&lt;String&gt; hello();
+ * }
+ *
+ * api.hello().addCallback(new HessianCallback&lt;String&gt;() { ... });
+ * </pre>
+ *
+ * Callbacks run on the executor given to the future, which for proxies is
+ * the factory's async executor.  Cancelling a future does not abort a
+ * request already sent; its reply is discarded.
+ */
+public class HessianFuture<T> implements Future<T> {
+  private static final Logger log
+    = Logger.getLogger(HessianFuture.class.getName());
+
+  private static final int PENDING = 0;
+  private static final int RESULT = 1;
+  private static final int FAULT = 2;
+  private static final int CANCELLED = 3;
+
+  private final Executor _executor;
+
+  private int _state = PENDING;
+  private T _value;
+  private Throwable _fault;
+
+  private ArrayList<HessianCallback<? super T>> _callbacks;
+
+  /**
+   * Creates a future whose callbacks run on the executor, or in the
+   * completing thread when the executor is null.
+   */
+  public HessianFuture(Executor executor)
+  {
+    _executor = executor;
+  }
+
+  /**
+   * Completes the future with a value.
+   *
+   * @return false if the future was already complete
+   */
+  public boolean complete(T value)
+  {
+    ArrayList<HessianCallback<? super T>> callbacks;
+
+    synchronized (this) {
+      if (_state != PENDING)
+        return false;
+
+      _value = value;
+      _state = RESULT;
+      callbacks = _callbacks;
+      _callbacks = null;
+
+      notifyAll();
+    }
+
+    dispatch(callbacks);
+
+    return true;
+  }
+
+  /**
+   * Completes the future with a fault.
+   *
+   * @return false if the future was already complete
+   */
+  public boolean fail(Throwable fault)
+  {
+    if (fault == null)
+      throw new NullPointerException();
+
+    return finish(FAULT, fault);
+  }
+
+  public boolean cancel(boolean isInterrupt)
+  {
+    return finish(CANCELLED, new CancellationException());
+  }
+
+  private boolean finish(int state, Throwable fault)
+  {
+    ArrayList<HessianCallback<? super T>> callbacks;
+
+    synchronized (this) {
+      if (_state != PENDING)
+        return false;
+
+      _fault = fault;
+      _state = state;
+      callbacks = _callbacks;
+      _callbacks = null;
+
+      notifyAll();
+    }
+
+    dispatch(callbacks);
+
+    return true;
+  }
+
+  public synchronized boolean isCancelled()
+  {
+    return _state == CANCELLED;
+  }
+
+  public synchronized boolean isDone()
+  {
+    return _state != PENDING;
+  }
+
+  /**
+   * Waits for the call to complete, returning its value.
+   */
+  public T get()
+    throws InterruptedException, ExecutionException
+  {
+    synchronized (this) {
+      while (_state == PENDING)
+        wait();
+
+      return getValue();
+    }
+  }
+
+  /**
+   * Waits up to the timeout for the call to complete, returning its value.
+   */
+  public T get(long timeout, TimeUnit unit)
+    throws InterruptedException, ExecutionException, TimeoutException
+  {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+    synchronized (this) {
+      while (_state == PENDING) {
+        long delta = deadline - System.nanoTime();
+
+        if (delta <= 0)
+          throw new TimeoutException();
+
+        TimeUnit.NANOSECONDS.timedWait(this, delta);
+      }
+
+      return getValue();
+    }
+  }
+
+  private T getValue()
+    throws ExecutionException
+  {
+    switch (_state) {
+    case RESULT:
+      return _value;
+
+    case CANCELLED:
+      throw (CancellationException) _fault;
+
+    default:
+      throw new ExecutionException(_fault);
+    }
+  }
+
+  /**
+   * Adds a callback for the outcome.  A callback added after completion
+   * is dispatched at once.
+   */
+  public HessianFuture<T> addCallback(HessianCallback<? super T> callback)
+  {
+    if (callback == null)
+      throw new NullPointerException();
+
+    synchronized (this) {
+      if (_state == PENDING) {
+        if (_callbacks == null)
+          _callbacks = new ArrayList<HessianCallback<? super T>>(2);
+
+        _callbacks.add(callback);
+
+        return this;
+      }
+    }
+
+    dispatch(callback);
+
+    return this;
+  }
+
+  private void dispatch(ArrayList<HessianCallback<? super T>> callbacks)
+  {
+    if (callbacks == null)
+      return;
+
+    for (int i = 0; i < callbacks.size(); i++) {
+      dispatch(callbacks.get(i));
+    }
+  }
+
+  private void dispatch(final HessianCallback<? super T> callback)
+  {
+    Runnable task = new Runnable() {
+        public void run()
+        {
+          call(callback);
+        }
+      };
+
+    if (_executor != null) {
+      try {
+        _executor.execute(task);
+      } catch (RejectedExecutionException e) {
+        task.run();
+      }
+    }
+    else
+      task.run();
+  }
+
+  private void call(HessianCallback<? super T> callback)
+  {
+    try {
+      T value;
+      Throwable fault;
+
+      synchronized (this) {
+        value = _value;
+        fault = _fault;
+      }
+
+      if (fault == null)
+        callback.onResult(value);
+      else
+        callback.onFault(fault);
+    } catch (RuntimeException e) {
+      log.log(Level.WARNING, e.toString(), e);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    synchronized (this) {
+      switch (_state) {
+      case PENDING:
+        return getClass().getSimpleName() + "[pending]";
+      case RESULT:
+        return getClass().getSimpleName() + "[" + _value + "]";
+      default:
+        return getClass().getSimpleName() + "[" + _fault + "]";
+      }
+    }
+  }
+}
@@ -0,0 +1,581 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package com.caucho.hessian.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One request/reply exchange on a pooled HTTP/1.1 connection from
+ * {@link HessianKeepAliveConnectionFactory}.
+ *
+ * The request body is buffered so it can be sent with a Content-Length
+ * and resent if a reused connection turns out to be closed before any of
+ * the reply arrives.  A timeout is never retried, since the server may
+ * still be processing the request.  Reading the reply to its end and
+ * closing the stream returns the connection to its pool.
+ */
+public class HessianKeepAliveConnection extends AbstractHessianConnection {
+  private static final Logger log
+    = Logger.getLogger(HessianKeepAliveConnection.class.getName());
+
+  private static final int DRAIN_MAX = 64 * 1024;
+
+  private final HessianKeepAliveConnectionFactory _factory;
+  private final HessianKeepAliveConnectionFactory.HostPool _pool;
+  private final URL _url;
+
+  private HessianKeepAliveConnectionFactory.Channel _channel;
+  private boolean _isReleased;
+
+  private final ArrayList<String> _headers = new ArrayList<String>();
+  private ByteArrayOutputStream _body;
+
+  private int _statusCode;
+  private String _statusMessage;
+  private HashMap<String,String> _responseHeaders
+    = new HashMap<String,String>();
+  private boolean _isKeepAlive;
+
+  private ReplyInputStream _is;
+
+  HessianKeepAliveConnection(HessianKeepAliveConnectionFactory factory,
+                             HessianKeepAliveConnectionFactory.HostPool pool,
+                             URL url,
+                             HessianKeepAliveConnectionFactory.Channel channel)
+  {
+    _factory = factory;
+    _pool = pool;
+    _url = url;
+    _channel = channel;
+  }
+
+  /**
+   * Adds a HTTP header.
+   */
+  @Override
+  public void addHeader(String key, String value)
+  {
+    _headers.add(key);
+    _headers.add(value);
+  }
+
+  /**
+   * Returns the output stream for the request.
+   */
+  public OutputStream getOutputStream()
+    throws IOException
+  {
+    if (_body == null)
+      _body = new ByteArrayOutputStream(1024);
+
+    return _body;
+  }
+
+  /**
+   * Sends the request and reads the reply headers.
+   */
+  public void sendRequest()
+    throws IOException
+  {
+    if (_isReleased)
+      throw new IllegalStateException(this + " is closed");
+
+    byte []head = encodeHead(_url, _headers, _body != null ? _body.size() : 0);
+
+    while (true) {
+      boolean isReused = _channel != null;
+
+      if (_channel == null)
+        _channel = _factory.connect(_pool);
+
+      boolean isReplied = false;
+
+      try {
+        OutputStream os = _channel._os;
+
+        os.write(head);
+
+        if (_body != null)
+          _body.writeTo(os);
+
+        os.flush();
+
+        int ch = _channel._is.read();
+
+        if (ch >= 0) {
+          isReplied = true;
+          readStatus(ch, _channel._is);
+          break;
+        }
+        else if (! isReused)
+          throw new EOFException("unexpected end of file from " + _url);
+      } catch (InterruptedIOException e) {
+        // a timeout may mean the server is still processing the request
+        throw e;
+      } catch (IOException e) {
+        if (! isReused || isReplied)
+          throw e;
+
+        log.log(Level.FINEST, e.toString(), e);
+      }
+
+      // the server closed the idle connection before replying
+      _factory.retried();
+      _channel.close();
+      _channel = null;
+    }
+
+    readHeaders(_channel._is);
+
+    _is = new ReplyInputStream(_channel._is);
+
+    if (_statusCode != 200) {
+      StringBuilder sb = new StringBuilder();
+      int ch;
+
+      try {
+        while ((ch = _is.read()) >= 0)
+          sb.append((char) ch);
+
+        _statusMessage = sb.toString();
+      } catch (IOException e) {
+        throw new HessianConnectionException(_statusCode + ": " + e, e);
+      } finally {
+        _is.close();
+      }
+
+      throw new HessianConnectionException(_statusCode + ": " + sb);
+    }
+  }
+
+  /**
+   * Encodes the request line and headers of a Hessian POST.
+   */
+  static byte []encodeHead(URL url, ArrayList<String> headers, int contentLength)
+  {
+    String path = url.getFile();
+
+    if (path.length() == 0)
+      path = "/";
+
+    int port = url.getPort();
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("POST ").append(path).append(" HTTP/1.1\r\n");
+    sb.append("Host: ").append(url.getHost());
+    if (port >= 0 && port != url.getDefaultPort())
+      sb.append(':').append(port);
+    sb.append("\r\n");
+
+    for (int i = 0; i < headers.size(); i += 2) {
+      sb.append(headers.get(i)).append(": ").append(headers.get(i + 1));
+      sb.append("\r\n");
+    }
+
+    sb.append("Content-Length: ").append(contentLength);
+    sb.append("\r\n\r\n");
+
+    try {
+      return sb.toString().getBytes("ISO-8859-1");
+    } catch (java.io.UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Reads the status line, starting with its already-read first byte.
+   */
+  private void readStatus(int ch, InputStream is)
+    throws IOException
+  {
+    String line = ch == '\n' ? "" : readLine(is);
+
+    if (ch != '\r' && ch != '\n')
+      line = (char) ch + line;
+
+    // skip any interim 1xx replies
+    while (true) {
+      if (! line.startsWith("HTTP/"))
+        throw new HessianConnectionException("bad HTTP status line '" + line + "' from " + _url);
+
+      int p = line.indexOf(' ');
+      int q = line.indexOf(' ', p + 1);
+
+      try {
+        _statusCode = Integer.parseInt(q > 0 ? line.substring(p + 1, q) : line.substring(p + 1));
+      } catch (RuntimeException e) {
+        throw new HessianConnectionException("bad HTTP status line '" + line + "' from " + _url);
+      }
+
+      _isKeepAlive = line.startsWith("HTTP/1.1");
+
+      if (_statusCode >= 200)
+        return;
+
+      _responseHeaders.clear();
+      readHeaders(is);
+
+      line = readLine(is);
+
+      if (line == null)
+        throw new EOFException("unexpected end of file from " + _url);
+    }
+  }
+
+  private void readHeaders(InputStream is)
+    throws IOException
+  {
+    String line;
+
+    while ((line = readLine(is)) != null && line.length() > 0) {
+      int p = line.indexOf(':');
+
+      if (p > 0) {
+        String key = line.substring(0, p).trim().toLowerCase();
+        String value = line.substring(p + 1).trim();
+
+        _responseHeaders.put(key, value);
+      }
+    }
+
+    if (line == null)
+      throw new EOFException("unexpected end of file from " + _url);
+
+    String connection = _responseHeaders.get("connection");
+
+    if (connection != null) {
+      connection = connection.toLowerCase();
+
+      if (connection.indexOf("close") >= 0)
+        _isKeepAlive = false;
+      else if (connection.indexOf("keep-alive") >= 0)
+        _isKeepAlive = true;
+    }
+  }
+
+  private static String readLine(InputStream is)
+    throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+    int ch;
+
+    while ((ch = is.read()) >= 0 && ch != '\n') {
+      if (ch != '\r')
+        sb.append((char) ch);
+    }
+
+    if (ch < 0 && sb.length() == 0)
+      return null;
+
+    return sb.toString();
+  }
+
+  /**
+   * Returns the status code.
+   */
+  public int getStatusCode()
+  {
+    return _statusCode;
+  }
+
+  /**
+   * Returns the status string.
+   */
+  public String getStatusMessage()
+  {
+    return _statusMessage;
+  }
+
+  /**
+   * Returns a reply header.
+   */
+  public String getResponseHeader(String key)
+  {
+    return _responseHeaders.get(key.toLowerCase());
+  }
+
+  @Override
+  public String getContentEncoding()
+  {
+    return _responseHeaders.get("content-encoding");
+  }
+
+  /**
+   * Returns the InputStream to the result
+   */
+  @Override
+  public InputStream getInputStream()
+    throws IOException
+  {
+    if (_is == null)
+      throw new IllegalStateException(this + " has no reply");
+
+    return _is;
+  }
+
+  /**
+   * Closes the reply, returning the connection to the pool when the
+   * reply was complete.
+   */
+  @Override
+  public void close()
+    throws IOException
+  {
+    if (_is != null)
+      _is.close();
+    else
+      destroy();
+  }
+
+  /**
+   * Closes the underlying connection.
+   */
+  @Override
+  public void destroy()
+  {
+    release(false);
+  }
+
+  private void release(boolean isReusable)
+  {
+    if (_isReleased)
+      return;
+
+    _isReleased = true;
+
+    HessianKeepAliveConnectionFactory.Channel channel = _channel;
+    _channel = null;
+
+    _factory.release(_pool, channel, isReusable);
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _url + "]";
+  }
+
+  /**
+   * The reply body, framed by Content-Length, chunked transfer encoding,
+   * or the end of the connection.
+   */
+  class ReplyInputStream extends InputStream {
+    private final InputStream _next;
+    private final boolean _isChunked;
+
+    // bytes left in the body or the current chunk, -1 until end of file
+    private long _length;
+    private boolean _isEnd;
+    private boolean _isClosed;
+
+    ReplyInputStream(InputStream next)
+      throws IOException
+    {
+      _next = next;
+
+      String transferEncoding = _responseHeaders.get("transfer-encoding");
+      String contentLength = _responseHeaders.get("content-length");
+
+      _isChunked = (transferEncoding != null
+                    && transferEncoding.toLowerCase().indexOf("chunked") >= 0);
+
+      if (_isChunked)
+        _length = 0;
+      else if (contentLength != null) {
+        try {
+          _length = Long.parseLong(contentLength);
+        } catch (NumberFormatException e) {
+          throw new HessianConnectionException("bad Content-Length '" + contentLength + "' from " + _url);
+        }
+      }
+      else {
+        _length = -1;
+        _isKeepAlive = false;
+      }
+
+      if (! _isChunked && _length == 0)
+        _isEnd = true;
+    }
+
+    @Override
+    public int read()
+      throws IOException
+    {
+      if (! fill())
+        return -1;
+
+      int ch = _next.read();
+
+      if (ch < 0)
+        return unexpectedEnd();
+
+      if (_length > 0)
+        _length--;
+
+      return ch;
+    }
+
+    @Override
+    public int read(byte []buffer, int offset, int length)
+      throws IOException
+    {
+      if (length == 0)
+        return 0;
+
+      if (! fill())
+        return -1;
+
+      if (_length > 0 && _length < length)
+        length = (int) _length;
+
+      int sublen = _next.read(buffer, offset, length);
+
+      if (sublen < 0)
+        return unexpectedEnd();
+
+      if (_length > 0)
+        _length -= sublen;
+
+      return sublen;
+    }
+
+    @Override
+    public int available()
+      throws IOException
+    {
+      if (_isEnd || _isClosed)
+        return 0;
+
+      int available = _next.available();
+
+      return _length >= 0 ? (int) Math.min(available, _length) : available;
+    }
+
+    /**
+     * Positions the stream at the next body byte, returning false at
+     * the end of the body.
+     */
+    private boolean fill()
+      throws IOException
+    {
+      if (_isClosed)
+        throw new IOException(HessianKeepAliveConnection.this + " reply is closed");
+
+      if (_isEnd)
+        return false;
+
+      if (_length != 0)
+        return true;
+
+      if (! _isChunked) {
+        _isEnd = true;
+        return false;
+      }
+
+      String line = readLine(_next);
+
+      // CRLF ending the previous chunk
+      if (line != null && line.length() == 0)
+        line = readLine(_next);
+
+      if (line == null) {
+        unexpectedEnd();
+        return false;
+      }
+
+      int p = line.indexOf(';');
+
+      try {
+        _length = Long.parseLong((p >= 0 ? line.substring(0, p) : line).trim(), 16);
+      } catch (NumberFormatException e) {
+        throw new HessianConnectionException("bad chunk length '" + line + "' from " + _url);
+      }
+
+      if (_length > 0)
+        return true;
+
+      // trailers
+      while ((line = readLine(_next)) != null && line.length() > 0) {
+      }
+
+      _isEnd = true;
+
+      return false;
+    }
+
+    private int unexpectedEnd()
+      throws IOException
+    {
+      if (_length < 0) {
+        _isEnd = true;
+        return -1;
+      }
+
+      throw new EOFException("unexpected end of reply from " + _url);
+    }
+
+    /**
+     * Finishes the reply.  A short unread remainder is skipped so the
+     * connection can still be reused.
+     */
+    @Override
+    public void close()
+    {
+      if (_isClosed)
+        return;
+
+      boolean isReusable = false;
+
+      try {
+        if (_isKeepAlive) {
+          byte []buffer = null;
+          int drained = 0;
+
+          while (! _isEnd && drained < DRAIN_MAX) {
+            if (buffer == null)
+              buffer = new byte[1024];
+
+            int sublen = read(buffer, 0, buffer.length);
+
+            if (sublen > 0)
+              drained += sublen;
+          }
+
+          isReusable = _isEnd;
+        }
+      } catch (IOException e) {
+        log.log(Level.FINEST, e.toString(), e);
+      }
+
+      _isClosed = true;
+
+      release(isReusable);
+    }
+  }
+}
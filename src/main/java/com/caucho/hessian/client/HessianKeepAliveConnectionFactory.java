@@ -0,0 +1,675 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package com.caucho.hessian.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Connection factory keeping a bounded pool of persistent HTTP/1.1
+ * connections per host.
+ *
+ * <p>Unlike {@link HessianURLConnectionFactory}, a call does not pay for
+ * a new TCP (and TLS) handshake: the socket is returned to its host's
+ * pool once the reply has been read and is reused by the next call.
+ * At most {@link #setMaxConnectionsPerHost maxConnectionsPerHost}
+ * connections are open to one host; further callers wait up to
+ * {@link #setMaxWait maxWait} for one to be released.
+ *
+ * <p>Idle connections are closed after
+ * {@link #setIdleTimeout idleTimeout}.  A connection idle for longer than
+ * {@link #setHealthCheckInterval healthCheckInterval} is checked before
+ * reuse, and a request failing on a reused connection before any reply
+ * is retried once on a fresh one, since the server may have closed it.
+ *
+ * <pre>
+ * HessianKeepAliveConnectionFactory pool
+ *   = new HessianKeepAliveConnectionFactory();
+ * pool.setMaxConnectionsPerHost(32);
+ *
+ * HessianProxyFactory factory = new HessianProxyFactory();
+ * factory.setConnectionFactory(pool);
+ * </pre>
+ *
+ * Only http and https URLs are pooled; other schemes are delegated to a
+ * {@link HessianURLConnectionFactory}.
+ */
+public class HessianKeepAliveConnectionFactory
+  extends AbstractHessianConnectionFactory
+{
+  private static final Logger log
+    = Logger.getLogger(HessianKeepAliveConnectionFactory.class.getName());
+
+  private final ConcurrentHashMap<String,HostPool> _poolMap
+    = new ConcurrentHashMap<String,HostPool>();
+
+  private int _maxConnectionsPerHost = 20;
+  private int _maxIdlePerHost = -1;
+  private long _idleTimeout = 30000L;
+  private long _healthCheckInterval = 2000L;
+  private long _maxWait = 10000L;
+
+  private HessianURLConnectionFactory _urlFactory;
+  private Timer _reaper;
+  private boolean _isClosed;
+
+  private final AtomicLong _createCount = new AtomicLong();
+  private final AtomicLong _reuseCount = new AtomicLong();
+  private final AtomicLong _retryCount = new AtomicLong();
+  private final AtomicLong _idleEvictCount = new AtomicLong();
+  private final AtomicLong _healthCheckFailCount = new AtomicLong();
+  private final AtomicLong _waitCount = new AtomicLong();
+  private final AtomicLong _waitTimeoutCount = new AtomicLong();
+
+  /**
+   * Sets the maximum number of open connections to a single host,
+   * busy and idle together.
+   */
+  public void setMaxConnectionsPerHost(int max)
+  {
+    if (max <= 0)
+      throw new IllegalArgumentException("maxConnectionsPerHost must be positive: " + max);
+
+    _maxConnectionsPerHost = max;
+  }
+
+  public int getMaxConnectionsPerHost()
+  {
+    return _maxConnectionsPerHost;
+  }
+
+  /**
+   * Sets the maximum number of idle connections kept for a host.
+   * Defaults to the maximum number of connections.
+   */
+  public void setMaxIdlePerHost(int max)
+  {
+    _maxIdlePerHost = max;
+  }
+
+  public int getMaxIdlePerHost()
+  {
+    return _maxIdlePerHost >= 0 ? _maxIdlePerHost : _maxConnectionsPerHost;
+  }
+
+  /**
+   * Sets the time in milliseconds an idle connection is kept open.
+   */
+  public void setIdleTimeout(long timeout)
+  {
+    _idleTimeout = timeout;
+  }
+
+  public long getIdleTimeout()
+  {
+    return _idleTimeout;
+  }
+
+  /**
+   * Sets the idle time in milliseconds after which a connection is checked
+   * before reuse.  0 checks every reused connection, negative disables
+   * the check.
+   */
+  public void setHealthCheckInterval(long interval)
+  {
+    _healthCheckInterval = interval;
+  }
+
+  public long getHealthCheckInterval()
+  {
+    return _healthCheckInterval;
+  }
+
+  /**
+   * Sets the time in milliseconds to wait for a connection when the host
+   * is at its limit.  Negative waits indefinitely.
+   */
+  public void setMaxWait(long maxWait)
+  {
+    _maxWait = maxWait;
+  }
+
+  public long getMaxWait()
+  {
+    return _maxWait;
+  }
+
+  /**
+   * Opens a recycled or new connection to the HTTP server.
+   */
+  public HessianConnection open(URL url)
+    throws IOException
+  {
+    String protocol = url.getProtocol();
+    boolean isSecure = "https".equals(protocol);
+
+    if (! isSecure && ! "http".equals(protocol))
+      return getURLConnectionFactory().open(url);
+
+    if (log.isLoggable(Level.FINER))
+      log.finer(this + " open(" + url + ")");
+
+    HostPool pool = getPool(url, isSecure);
+
+    Channel channel = pool.acquire(_maxWait);
+
+    if (channel != null && ! isHealthy(channel)) {
+      _healthCheckFailCount.incrementAndGet();
+      channel.close();
+      channel = null;
+    }
+
+    if (channel != null)
+      _reuseCount.incrementAndGet();
+
+    return new HessianKeepAliveConnection(this, pool, url, channel);
+  }
+
+  private HostPool getPool(URL url, boolean isSecure)
+  {
+    int port = url.getPort();
+
+    if (port < 0)
+      port = url.getDefaultPort();
+
+    String key = url.getProtocol() + "://" + url.getHost() + ":" + port;
+
+    HostPool pool = _poolMap.get(key);
+
+    if (pool == null) {
+      pool = new HostPool(url.getHost(), port, isSecure);
+
+      HostPool oldPool = _poolMap.putIfAbsent(key, pool);
+
+      if (oldPool != null)
+        pool = oldPool;
+      else
+        startReaper();
+    }
+
+    return pool;
+  }
+
+  private synchronized HessianURLConnectionFactory getURLConnectionFactory()
+  {
+    if (_urlFactory == null) {
+      _urlFactory = new HessianURLConnectionFactory();
+      _urlFactory.setHessianProxyFactory(getHessianProxyFactory());
+    }
+
+    return _urlFactory;
+  }
+
+  /**
+   * Opens a new socket to the pool's host.
+   */
+  Channel connect(HostPool pool)
+    throws IOException
+  {
+    HessianProxyFactory factory = getHessianProxyFactory();
+
+    long connectTimeout = factory != null ? factory.getConnectTimeout() : -1;
+    long readTimeout = factory != null ? factory.getReadTimeout() : -1;
+
+    Socket socket;
+
+    if (pool._isSecure)
+      socket = SSLSocketFactory.getDefault().createSocket();
+    else
+      socket = new Socket();
+
+    boolean isValid = false;
+
+    try {
+      socket.setTcpNoDelay(true);
+      socket.setKeepAlive(true);
+
+      if (readTimeout > 0)
+        socket.setSoTimeout((int) readTimeout);
+
+      InetSocketAddress addr = new InetSocketAddress(pool._host, pool._port);
+
+      socket.connect(addr, connectTimeout > 0 ? (int) connectTimeout : 0);
+
+      if (socket instanceof SSLSocket) {
+        SSLSocket sslSocket = (SSLSocket) socket;
+        SSLParameters params = sslSocket.getSSLParameters();
+        params.setEndpointIdentificationAlgorithm("HTTPS");
+        sslSocket.setSSLParameters(params);
+        sslSocket.startHandshake();
+      }
+
+      Channel channel = new Channel(socket, readTimeout);
+
+      _createCount.incrementAndGet();
+      isValid = true;
+
+      return channel;
+    } finally {
+      if (! isValid)
+        socket.close();
+    }
+  }
+
+  /**
+   * Returns a connection to its pool after a complete reply, or closes it.
+   */
+  void release(HostPool pool, Channel channel, boolean isReusable)
+  {
+    if (isReusable && _isClosed)
+      isReusable = false;
+
+    pool.release(channel, isReusable);
+  }
+
+  void retried()
+  {
+    _retryCount.incrementAndGet();
+  }
+
+  /**
+   * Checks that an idle connection has not been closed by the server.
+   * A closed connection reads end of file, and an open one has nothing to
+   * read between replies.
+   */
+  private boolean isHealthy(Channel channel)
+  {
+    Socket socket = channel._socket;
+
+    if (socket.isClosed() || socket.isInputShutdown()
+        || socket.isOutputShutdown())
+      return false;
+
+    if (_healthCheckInterval < 0
+        || System.currentTimeMillis() - channel._idleTime < _healthCheckInterval)
+      return true;
+
+    try {
+      if (channel._is.available() > 0)
+        return false;
+
+      socket.setSoTimeout(1);
+
+      try {
+        // either end of file or unsolicited data: not reusable
+        channel._is.read();
+
+        return false;
+      } catch (SocketTimeoutException e) {
+        return true;
+      } finally {
+        socket.setSoTimeout(channel._readTimeout > 0 ? (int) channel._readTimeout : 0);
+      }
+    } catch (IOException e) {
+      log.log(Level.FINEST, e.toString(), e);
+
+      return false;
+    }
+  }
+
+  private synchronized void startReaper()
+  {
+    if (_reaper != null || _isClosed || _idleTimeout <= 0)
+      return;
+
+    long period = Math.max(_idleTimeout / 2, 100);
+
+    _reaper = new Timer("hessian-keepalive-reaper", true);
+    _reaper.schedule(new TimerTask() {
+        public void run()
+        {
+          evictIdleConnections();
+        }
+      }, period, period);
+  }
+
+  /**
+   * Closes connections idle for longer than the idle timeout.
+   */
+  public void evictIdleConnections()
+  {
+    long expireTime = System.currentTimeMillis() - _idleTimeout;
+
+    for (HostPool pool : _poolMap.values()) {
+      pool.evict(expireTime);
+    }
+  }
+
+  /**
+   * Closes all idle connections.  Busy connections are closed when they
+   * are released.
+   */
+  public void close()
+  {
+    synchronized (this) {
+      _isClosed = true;
+
+      if (_reaper != null)
+        _reaper.cancel();
+
+      _reaper = null;
+    }
+
+    for (HostPool pool : _poolMap.values()) {
+      pool.evict(Long.MAX_VALUE);
+    }
+  }
+
+  /**
+   * Returns the number of connections opened.
+   */
+  public long getCreateCount()
+  {
+    return _createCount.get();
+  }
+
+  /**
+   * Returns the number of requests sent on a recycled connection.
+   */
+  public long getReuseCount()
+  {
+    return _reuseCount.get();
+  }
+
+  /**
+   * Returns the number of requests retried after a reused connection
+   * turned out to be closed.
+   */
+  public long getRetryCount()
+  {
+    return _retryCount.get();
+  }
+
+  /**
+   * Returns the number of connections closed by the idle timeout.
+   */
+  public long getIdleEvictCount()
+  {
+    return _idleEvictCount.get();
+  }
+
+  /**
+   * Returns the number of idle connections failing the health check.
+   */
+  public long getHealthCheckFailCount()
+  {
+    return _healthCheckFailCount.get();
+  }
+
+  /**
+   * Returns the number of requests which waited for a connection.
+   */
+  public long getWaitCount()
+  {
+    return _waitCount.get();
+  }
+
+  /**
+   * Returns the number of requests which gave up waiting for a connection.
+   */
+  public long getWaitTimeoutCount()
+  {
+    return _waitTimeoutCount.get();
+  }
+
+  /**
+   * Returns the number of idle connections over all hosts.
+   */
+  public int getIdleCount()
+  {
+    int count = 0;
+
+    for (HostPool pool : _poolMap.values()) {
+      count += pool.getIdleCount();
+    }
+
+    return count;
+  }
+
+  /**
+   * Returns the number of connections in use over all hosts.
+   */
+  public int getActiveCount()
+  {
+    int count = 0;
+
+    for (HostPool pool : _poolMap.values()) {
+      count += pool.getActiveCount();
+    }
+
+    return count;
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[active=" + getActiveCount()
+            + ",idle=" + getIdleCount()
+            + ",create=" + getCreateCount()
+            + ",reuse=" + getReuseCount() + "]");
+  }
+
+  /**
+   * An open socket with its buffered streams.
+   */
+  static final class Channel {
+    final Socket _socket;
+    final BufferedInputStream _is;
+    final OutputStream _os;
+    final long _readTimeout;
+
+    long _idleTime;
+
+    Channel(Socket socket, long readTimeout)
+      throws IOException
+    {
+      _socket = socket;
+      _is = new BufferedInputStream(socket.getInputStream(), 8192);
+      _os = new BufferedOutputStream(socket.getOutputStream(), 8192);
+      _readTimeout = readTimeout;
+    }
+
+    void close()
+    {
+      try {
+        _socket.close();
+      } catch (IOException e) {
+        log.log(Level.FINEST, e.toString(), e);
+      }
+    }
+  }
+
+  /**
+   * The connections to one host.  Idle connections are reused most
+   * recently released first, so that the oldest ones expire.
+   */
+  final class HostPool {
+    final String _host;
+    final int _port;
+    final boolean _isSecure;
+
+    private final ArrayDeque<Channel> _idle = new ArrayDeque<Channel>();
+    private int _active;
+
+    HostPool(String host, int port, boolean isSecure)
+    {
+      _host = host;
+      _port = port;
+      _isSecure = isSecure;
+    }
+
+    /**
+     * Reserves a connection slot, returning an idle connection or null
+     * when the caller must open a new one.
+     */
+    Channel acquire(long maxWait)
+      throws IOException
+    {
+      long expireTime = System.currentTimeMillis() - _idleTimeout;
+      ArrayList<Channel> expired = null;
+      boolean isWait = false;
+
+      try {
+        synchronized (this) {
+          long now = System.currentTimeMillis();
+          long deadline = maxWait >= 0 ? now + maxWait : Long.MAX_VALUE;
+
+          while (true) {
+            Channel channel;
+
+            while ((channel = _idle.pollFirst()) != null) {
+              if (_idleTimeout > 0 && channel._idleTime < expireTime) {
+                if (expired == null)
+                  expired = new ArrayList<Channel>();
+
+                expired.add(channel);
+              }
+              else {
+                _active++;
+                return channel;
+              }
+            }
+
+            if (_active < _maxConnectionsPerHost) {
+              _active++;
+              return null;
+            }
+
+            if (! isWait) {
+              isWait = true;
+              _waitCount.incrementAndGet();
+            }
+
+            long delta = deadline - now;
+
+            if (delta <= 0) {
+              _waitTimeoutCount.incrementAndGet();
+
+              throw new HessianConnectionException("no connection to " + _host + ":" + _port
+                                                   + " available after " + maxWait + "ms"
+                                                   + " (max " + _maxConnectionsPerHost + ")");
+            }
+
+            try {
+              if (deadline == Long.MAX_VALUE)
+                wait();
+              else
+                wait(delta);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+
+              throw new HessianConnectionException("interrupted waiting for a connection to "
+                                                   + _host + ":" + _port, e);
+            }
+
+            now = System.currentTimeMillis();
+          }
+        }
+      } finally {
+        closeExpired(expired);
+      }
+    }
+
+    void release(Channel channel, boolean isReusable)
+    {
+      synchronized (this) {
+        _active--;
+
+        if (channel != null && isReusable && _idle.size() < getMaxIdlePerHost()) {
+          channel._idleTime = System.currentTimeMillis();
+          _idle.addFirst(channel);
+          channel = null;
+        }
+
+        notify();
+      }
+
+      if (channel != null)
+        channel.close();
+    }
+
+    void evict(long expireTime)
+    {
+      ArrayList<Channel> expired = null;
+
+      synchronized (this) {
+        Iterator<Channel> iter = _idle.descendingIterator();
+
+        while (iter.hasNext()) {
+          Channel channel = iter.next();
+
+          if (channel._idleTime <= expireTime) {
+            iter.remove();
+
+            if (expired == null)
+              expired = new ArrayList<Channel>();
+
+            expired.add(channel);
+          }
+          else
+            break;
+        }
+      }
+
+      closeExpired(expired);
+    }
+
+    private void closeExpired(ArrayList<Channel> expired)
+    {
+      if (expired == null)
+        return;
+
+      for (Channel channel : expired) {
+        _idleEvictCount.incrementAndGet();
+        channel.close();
+      }
+    }
+
+    synchronized int getIdleCount()
+    {
+      return _idle.size();
+    }
+
+    synchronized int getActiveCount()
+    {
+      return _active;
+    }
+  }
+}
@@ -23,12 +23,18 @@ import java.io.*;
 import java.util.logging.*;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Proxy;
-import java.util.WeakHashMap;
+import java.lang.reflect.Type;
+import java.util.List;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.zip.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Proxy implementation for Hessian clients.  Applications will generally
@@ -40,8 +46,12 @@ public class HessianProxy implements InvocationHandler, Serializable {
   
   protected HessianProxyFactory _factory;
   
-  private WeakHashMap<Method,String> _mangleMap
-    = new WeakHashMap<Method,String>();
+  // immutable plans, built when the proxy is created
+  private final ConcurrentHashMap<Method,CallPlan> _planMap
+    = new ConcurrentHashMap<Method,CallPlan>();
+
+  private final ConcurrentHashMap<String,HessianCallHeader> _headerMap
+    = new ConcurrentHashMap<String,HessianCallHeader>();
 
   private Class<?> _type;
   private URL _url;
@@ -64,6 +74,8 @@ public class HessianProxy implements InvocationHandler, Serializable {
     _factory = factory;
     _url = url;
     _type = type;
+
+    initPlans();
   }
 
   /**
@@ -84,19 +96,14 @@ public class HessianProxy implements InvocationHandler, Serializable {
   public Object invoke(Object proxy, Method method, Object []args)
     throws Throwable
   {
-    String mangleName;
+    CallPlan plan = _planMap.get(method);
 
-    synchronized (_mangleMap) {
-      mangleName = _mangleMap.get(method);
-    }
+    if (plan == null)
+      plan = addPlan(method);
 
-    if (mangleName == null) {
-      String methodName = method.getName();
-      Class<?> []params = method.getParameterTypes();
-
-      // equals and hashCode are special cased
-      if (methodName.equals("equals")
-          && params.length == 1 && params[0].equals(Object.class)) {
+    switch (plan._kind) {
+    case CallPlan.EQUALS:
+      {
         Object value = args[0];
         if (value == null || ! Proxy.isProxyClass(value.getClass()))
           return Boolean.FALSE;
@@ -110,34 +117,278 @@ public class HessianProxy implements InvocationHandler, Serializable {
 
         return new Boolean(_url.equals(handler.getURL()));
       }
-      else if (methodName.equals("hashCode") && params.length == 0)
-        return new Integer(_url.hashCode());
-      else if (methodName.equals("getHessianType"))
-        return proxy.getClass().getInterfaces()[0].getName();
-      else if (methodName.equals("getHessianURL"))
-        return _url.toString();
-      else if (methodName.equals("toString") && params.length == 0)
-        return "HessianProxy[" + _url + "]";
-      
-      if (! _factory.isOverloadEnabled())
-        mangleName = method.getName();
-      else
-        mangleName = mangleName(method);
 
-      synchronized (_mangleMap) {
-        _mangleMap.put(method, mangleName);
+    case CallPlan.HASH_CODE:
+      return new Integer(_url.hashCode());
+
+    case CallPlan.HESSIAN_TYPE:
+      return proxy.getClass().getInterfaces()[0].getName();
+
+    case CallPlan.HESSIAN_URL:
+      return _url.toString();
+
+    case CallPlan.TO_STRING:
+      return "HessianProxy[" + _url + "]";
+    }
+
+    if (plan._cacheTtl > 0)
+      return invokeCached(plan, args);
+    else
+      return invokeRemote(plan, args);
+  }
+
+  /**
+   * Calls the server, in the current batch if one is open.
+   */
+  private Object invokeRemote(CallPlan plan, Object []args)
+    throws Throwable
+  {
+    String mangleName = plan._mangleName;
+
+    if (log.isLoggable(Level.FINER))
+      log.finer("Hessian[" + _url + "] calling " + mangleName);
+
+    if (plan._isAsync)
+      return invokeRemoteAsync(plan, args);
+
+    HessianBatch batch = _factory.getBatch();
+
+    if (batch != null) {
+      HessianFuture<Object> future
+        = batch.add(this, mangleName, args, plan._replyType);
+
+      batch.flush();
+
+      try {
+        return future.get();
+      } catch (ExecutionException e) {
+        throw e.getCause();
       }
     }
 
-    InputStream is = null;
-    HessianConnection conn = null;
-    
+    HessianConnection conn = sendRequest(mangleName, args);
+
+    return readReply(conn, plan._replyType);
+  }
+
+  /**
+   * Starts an asynchronous call, in the current batch if one is open.
+   */
+  private HessianFuture<Object> invokeRemoteAsync(CallPlan plan,
+                                                  Object []args)
+  {
+    HessianBatch batch = _factory.getBatch();
+
+    if (batch != null)
+      return batch.add(this, plan._mangleName, args, plan._replyType);
+    else
+      return invokeAsync(plan._mangleName, args, plan._replyType);
+  }
+
+  /**
+   * Answers a {@link HessianCacheable} call from the factory's result
+   * cache, calling the server on a miss.  Faults are not cached.
+   */
+  private Object invokeCached(final CallPlan plan, final Object []args)
+    throws Throwable
+  {
+    final HessianResultCache cache = _factory.getResultCache();
+    final SerializerFactory serializerFactory
+      = _factory.getSerializerFactory();
+
+    final HessianResultCache.Key key
+      = cache.createKey(_url.toString(), plan._mangleName, args,
+                        serializerFactory);
+
+    HessianResultCache.Entry entry = cache.get(key);
+
+    if (entry != null) {
+      if (entry.isStale())
+        refresh(cache, key, entry, plan, args);
+
+      Object value = cache.decode(entry, plan._replyType, serializerFactory);
+
+      if (! plan._isAsync)
+        return value;
+
+      HessianFuture<Object> future
+        = new HessianFuture<Object>(_factory.getAsyncExecutor());
+      future.complete(value);
+
+      return future;
+    }
+
+    if (! plan._isAsync) {
+      Object value = invokeRemote(plan, args);
+
+      cache.put(key, value, plan._cacheTtl, plan._cacheStale,
+                serializerFactory);
+
+      return value;
+    }
+
+    HessianFuture<Object> future = invokeRemoteAsync(plan, args);
+
+    future.addCallback(new HessianCallback<Object>() {
+        public void onResult(Object result)
+        {
+          try {
+            cache.put(key, result, plan._cacheTtl, plan._cacheStale,
+                      serializerFactory);
+          } catch (IOException e) {
+            log.log(Level.FINE, e.toString(), e);
+          }
+        }
+
+        public void onFault(Throwable fault)
+        {
+        }
+      });
+
+    return future;
+  }
+
+  /**
+   * Refreshes a stale entry in the background, at most once at a time.
+   */
+  private void refresh(final HessianResultCache cache,
+                       final HessianResultCache.Key key,
+                       final HessianResultCache.Entry entry,
+                       final CallPlan plan,
+                       final Object []args)
+  {
+    if (! entry._isRefreshing.compareAndSet(false, true))
+      return;
+
+    final SerializerFactory serializerFactory
+      = _factory.getSerializerFactory();
+
+    Runnable task = new Runnable() {
+        public void run()
+        {
+          try {
+            HessianConnection conn = sendRequest(plan._mangleName, args);
+
+            Object value = readReply(conn, plan._replyType);
+
+            cache.put(key, value, plan._cacheTtl, plan._cacheStale,
+                      serializerFactory);
+            cache.refreshed();
+          } catch (Throwable e) {
+            log.log(Level.FINE, "Hessian[" + _url + "] refresh of "
+                    + plan._mangleName + " failed: " + e, e);
+          } finally {
+            // a failed refresh leaves the stale entry, so a later hit retries
+            entry._isRefreshing.set(false);
+          }
+        }
+      };
+
     try {
-      if (log.isLoggable(Level.FINER))
-        log.finer("Hessian[" + _url + "] calling " + mangleName);
-      
-      conn = sendRequest(mangleName, args);
+      _factory.getAsyncExecutor().execute(task);
+    } catch (RejectedExecutionException e) {
+      entry._isRefreshing.set(false);
 
+      log.log(Level.FINE, e.toString(), e);
+    }
+  }
+
+  /**
+   * Builds the plans for all methods of the API, so calls only read the
+   * plan map.
+   */
+  private void initPlans()
+  {
+    try {
+      addPlan(Object.class.getMethod("equals", Object.class));
+      addPlan(Object.class.getMethod("hashCode"));
+      addPlan(Object.class.getMethod("toString"));
+    } catch (NoSuchMethodException e) {
+      throw new IllegalStateException(e);
+    }
+
+    if (_type != null) {
+      for (Method method : _type.getMethods()) {
+        addPlan(method);
+      }
+    }
+  }
+
+  /**
+   * Returns the plan for the method, building it on first use for
+   * methods outside the API, e.g. for a proxy without an API class.
+   */
+  private CallPlan addPlan(Method method)
+  {
+    CallPlan plan = createPlan(method);
+
+    CallPlan oldPlan = _planMap.putIfAbsent(method, plan);
+
+    if (oldPlan != null)
+      return oldPlan;
+
+    if (plan._header != null)
+      _headerMap.putIfAbsent(plan._mangleName, plan._header);
+
+    return plan;
+  }
+
+  private CallPlan createPlan(Method method)
+  {
+    String methodName = method.getName();
+    Class<?> []params = method.getParameterTypes();
+
+    // equals and hashCode are special cased
+    if (methodName.equals("equals")
+        && params.length == 1 && params[0].equals(Object.class))
+      return new CallPlan(CallPlan.EQUALS);
+    else if (methodName.equals("hashCode") && params.length == 0)
+      return new CallPlan(CallPlan.HASH_CODE);
+    else if (methodName.equals("getHessianType"))
+      return new CallPlan(CallPlan.HESSIAN_TYPE);
+    else if (methodName.equals("getHessianURL"))
+      return new CallPlan(CallPlan.HESSIAN_URL);
+    else if (methodName.equals("toString") && params.length == 0)
+      return new CallPlan(CallPlan.TO_STRING);
+
+    String mangleName;
+
+    if (! _factory.isOverloadEnabled())
+      mangleName = method.getName();
+    else
+      mangleName = mangleName(method);
+
+    Class<?> returnType = method.getReturnType();
+    boolean isAsync = (returnType == Future.class
+                       || returnType == HessianFuture.class);
+
+    if (isAsync)
+      returnType = getFutureType(method);
+
+    long cacheTtl = 0;
+    long cacheStale = 0;
+
+    HessianCacheable cacheable = method.getAnnotation(HessianCacheable.class);
+
+    if (cacheable != null && returnType != void.class) {
+      cacheTtl = cacheable.ttl();
+      cacheStale = cacheable.staleWhileRevalidate();
+    }
+
+    return new CallPlan(mangleName,
+                        new HessianCallHeader(mangleName, params.length),
+                        returnType, isAsync, cacheTtl, cacheStale);
+  }
+
+  /**
+   * Reads the reply to a call, closing the connection.
+   */
+  protected Object readReply(HessianConnection conn, Class<?> returnType)
+    throws Throwable
+  {
+    InputStream is = null;
+
+    try {
       is = getInputStream(conn);
 
       if (log.isLoggable(Level.FINEST)) {
@@ -160,7 +411,7 @@ public class HessianProxy implements InvocationHandler, Serializable {
 
         in = _factory.getHessian2Input(is);
 
-        Object value = in.readReply(method.getReturnType());
+        Object value = in.readReply(returnType);
 
         return value;
       }
@@ -172,7 +423,7 @@ public class HessianProxy implements InvocationHandler, Serializable {
 
         in.startReplyBody();
 
-        Object value = in.readObject(method.getReturnType());
+        Object value = in.readObject(returnType);
 
         if (value instanceof InputStream) {
           value = new ResultInputStream(conn, is, in, (InputStream) value);
@@ -196,9 +447,10 @@ public class HessianProxy implements InvocationHandler, Serializable {
         log.log(Level.FINE, e.toString(), e);
       }
       
+      // close rather than destroy, so a keep-alive connection is reused
       try {
         if (conn != null)
-          conn.destroy();
+          conn.close();
       } catch (Exception e) {
         log.log(Level.FINE, e.toString(), e);
       }
@@ -211,7 +463,7 @@ public class HessianProxy implements InvocationHandler, Serializable {
     InputStream is = conn.getInputStream();
 
     if ("deflate".equals(conn.getContentEncoding())) {
-      is = new InflaterInputStream(is, new Inflater(true));
+      is = _factory.getDeflaterPool().openInputStream(is, true);
     }
     
     return is;
@@ -239,27 +491,7 @@ public class HessianProxy implements InvocationHandler, Serializable {
     boolean isValid = false;
 
     try {
-      addRequestHeaders(conn);
-
-      OutputStream os = null;
-
-      try {
-        os = conn.getOutputStream();
-      } catch (Exception e) {
-        throw new HessianRuntimeException(e);
-      }
-
-      if (log.isLoggable(Level.FINEST)) {
-        PrintWriter dbg = new PrintWriter(new LogWriter(log));
-        HessianDebugOutputStream dOs = new HessianDebugOutputStream(os, dbg);
-        dOs.startTop2();
-        os = dOs;
-      }
-      
-      AbstractHessianOutput out = _factory.getHessianOutput(os);
-
-      out.call(methodName, args);
-      out.flush();
+      writeRequest(conn, methodName, args);
 
       conn.sendRequest();
 
@@ -272,6 +504,248 @@ public class HessianProxy implements InvocationHandler, Serializable {
     }
   }
 
+  /**
+   * Writes the request headers and the call to the connection.
+   */
+  protected void writeRequest(HessianConnection conn,
+                              String methodName,
+                              Object []args)
+    throws IOException
+  {
+    addRequestHeaders(conn);
+
+    OutputStream os = null;
+
+    try {
+      os = conn.getOutputStream();
+    } catch (Exception e) {
+      throw new HessianRuntimeException(e);
+    }
+
+    if (log.isLoggable(Level.FINEST)) {
+      PrintWriter dbg = new PrintWriter(new LogWriter(log));
+      HessianDebugOutputStream dOs = new HessianDebugOutputStream(os, dbg);
+      dOs.startTop2();
+      os = dOs;
+    }
+      
+    AbstractHessianOutput out = _factory.getHessianOutput(os);
+
+    writeCall(out, methodName, args);
+    out.flush();
+  }
+
+  /**
+   * Writes the call, using the header encoded in the method's plan.
+   */
+  private void writeCall(AbstractHessianOutput out,
+                         String methodName,
+                         Object []args)
+    throws IOException
+  {
+    HessianCallHeader header = _headerMap.get(methodName);
+
+    if (header != null)
+      out.call(header, args);
+    else
+      out.call(methodName, args);
+  }
+
+  /**
+   * Starts a call for a method returning a Future.  Plain http calls are
+   * sent by the factory's non-blocking transport; other URLs make the
+   * blocking call on the async executor.  Either way the reply is
+   * decoded on the async executor.
+   */
+  protected HessianFuture<Object> invokeAsync(final String methodName,
+                                              final Object []args,
+                                              final Class<?> returnType)
+  {
+    final Executor executor = _factory.getAsyncExecutor();
+    final HessianFuture<Object> future = new HessianFuture<Object>(executor);
+
+    if (! "http".equals(_url.getProtocol())) {
+      executor.execute(new Runnable() {
+          public void run()
+          {
+            if (future.isDone())
+              return;
+
+            try {
+              HessianConnection conn = sendRequest(methodName, args);
+
+              future.complete(readReply(conn, returnType));
+            } catch (Throwable e) {
+              future.fail(e);
+            }
+          }
+        });
+
+      return future;
+    }
+
+    HessianAsyncConnection conn = new HessianAsyncConnection(_url) {
+        @Override
+        protected void onReply(final Throwable failure)
+        {
+          final HessianAsyncConnection conn = this;
+
+          Runnable task = new Runnable() {
+              public void run()
+              {
+                if (failure != null) {
+                  future.fail(failure);
+                  return;
+                }
+
+                try {
+                  conn.sendRequest();
+
+                  future.complete(readReply(conn, returnType));
+                } catch (Throwable e) {
+                  future.fail(e);
+                }
+              }
+            };
+
+          try {
+            executor.execute(task);
+          } catch (RejectedExecutionException e) {
+            // the future must still complete
+            task.run();
+          }
+        }
+      };
+
+    try {
+      writeRequest(conn, methodName, args);
+
+      _factory.getAsyncTransport().send(conn);
+    } catch (Throwable e) {
+      future.fail(e);
+    }
+
+    return future;
+  }
+
+  /**
+   * Sends a batch of calls in one request, completing each call's future
+   * from its reply.  Calls to a server without batch support are resent
+   * one by one.
+   */
+  void invokeBatch(final List<HessianBatch.Call> calls)
+  {
+    Object []requests = new Object[calls.size()];
+
+    try {
+      for (int i = 0; i < requests.length; i++) {
+        HessianBatch.Call call = calls.get(i);
+
+        requests[i] = encodeCall(call._methodName, call._args);
+      }
+    } catch (Throwable e) {
+      for (HessianBatch.Call call : calls) {
+        call._future.fail(e);
+      }
+
+      return;
+    }
+
+    HessianFuture<Object> future
+      = invokeAsync(AbstractSkeleton.BATCH_METHOD,
+                    new Object[] { requests },
+                    Object[].class);
+
+    future.addCallback(new HessianCallback<Object>() {
+        public void onResult(Object value)
+        {
+          Object []replies = null;
+
+          if (value instanceof Object[])
+            replies = (Object []) value;
+
+          try {
+            for (int i = 0; i < calls.size(); i++) {
+              HessianBatch.Call call = calls.get(i);
+
+              try {
+                if (replies == null || replies.length <= i)
+                  throw new HessianProtocolException("batch reply is missing call " + i);
+                else if (! (replies[i] instanceof byte[]))
+                  throw new HessianProtocolException("batch reply for call " + i + " is not an encoded reply");
+
+                byte []reply = (byte []) replies[i];
+
+                HessianAsyncConnection conn = new HessianAsyncConnection(_url);
+                conn.setReply(200, null, reply, 0, reply.length);
+
+                call._future.complete(readReply(conn, call._returnType));
+              } catch (Throwable e) {
+                call._future.fail(e);
+              }
+            }
+          } finally {
+            // every call completes, even if a callback failed the loop
+            for (HessianBatch.Call call : calls) {
+              if (! call._future.isDone())
+                call._future.fail(new HessianProtocolException("batch reply was not read"));
+            }
+          }
+        }
+
+        public void onFault(Throwable fault)
+        {
+          boolean isUnsupported
+            = (fault instanceof HessianServiceException
+               && "NoSuchMethodException".equals(((HessianServiceException) fault).getCode()));
+
+          for (HessianBatch.Call call : calls) {
+            if (isUnsupported)
+              invokeAsync(call._methodName, call._args, call._returnType)
+                .addCallback(new ForwardCallback(call._future));
+            else
+              call._future.fail(fault);
+          }
+        }
+      });
+  }
+
+  /**
+   * Encodes a complete call, as it would be sent on its own.
+   */
+  private byte []encodeCall(String methodName, Object []args)
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+    AbstractHessianOutput out = _factory.getHessianOutput(bos);
+
+    writeCall(out, methodName, args);
+    out.flush();
+
+    return bos.toByteArray();
+  }
+
+  /**
+   * Returns the class of the value of a Future return type.
+   */
+  private static Class<?> getFutureType(Method method)
+  {
+    Type type = method.getGenericReturnType();
+
+    if (type instanceof ParameterizedType) {
+      Type arg = ((ParameterizedType) type).getActualTypeArguments()[0];
+
+      if (arg instanceof ParameterizedType)
+        arg = ((ParameterizedType) arg).getRawType();
+
+      if (arg instanceof Class<?>)
+        return (Class<?>) arg;
+    }
+
+    return Object.class;
+  }
+
   /**
    * Method that allows subclasses to add request headers such as cookies.
    * Default implementation is empty. 
@@ -280,6 +754,7 @@ public class HessianProxy implements InvocationHandler, Serializable {
   {
     conn.addHeader("Content-Type", "x-application/hessian");
     conn.addHeader("Accept-Encoding", "deflate");
+    conn.addHeader(AbstractSkeleton.PACKED_ARRAYS_HEADER, "true");
 
     String basicAuth = _factory.getBasicAuth();
 
@@ -301,6 +776,77 @@ public class HessianProxy implements InvocationHandler, Serializable {
     return new HessianRemote(_type.getName(), _url.toString());
   }
 
+  /**
+   * What a proxy method does, resolved once: the mangled name, the encoded
+   * call header, the type to decode the reply as and, for
+   * {@link HessianCacheable} methods, how long results stay cached.
+   */
+  static final class CallPlan {
+    static final int REMOTE = 0;
+    static final int EQUALS = 1;
+    static final int HASH_CODE = 2;
+    static final int HESSIAN_TYPE = 3;
+    static final int HESSIAN_URL = 4;
+    static final int TO_STRING = 5;
+
+    final int _kind;
+    final String _mangleName;
+    final HessianCallHeader _header;
+    final Class<?> _replyType;
+    final boolean _isAsync;
+    final long _cacheTtl;
+    final long _cacheStale;
+
+    CallPlan(int kind)
+    {
+      _kind = kind;
+      _mangleName = null;
+      _header = null;
+      _replyType = null;
+      _isAsync = false;
+      _cacheTtl = 0;
+      _cacheStale = 0;
+    }
+
+    CallPlan(String mangleName,
+             HessianCallHeader header,
+             Class<?> replyType,
+             boolean isAsync,
+             long cacheTtl,
+             long cacheStale)
+    {
+      _kind = REMOTE;
+      _mangleName = mangleName;
+      _header = header;
+      _replyType = replyType;
+      _isAsync = isAsync;
+      _cacheTtl = cacheTtl;
+      _cacheStale = cacheStale;
+    }
+  }
+
+  /**
+   * Completes a future with the outcome of another call.
+   */
+  static class ForwardCallback implements HessianCallback<Object> {
+    private final HessianFuture<Object> _future;
+
+    ForwardCallback(HessianFuture<Object> future)
+    {
+      _future = future;
+    }
+
+    public void onResult(Object value)
+    {
+      _future.complete(value);
+    }
+
+    public void onFault(Throwable fault)
+    {
+      _future.fail(fault);
+    }
+  }
+
   static class ResultInputStream extends InputStream {
     private HessianConnection _conn;
     private InputStream _connIs;
@@ -24,6 +24,10 @@ import java.lang.reflect.Proxy;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Hashtable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.naming.Context;
@@ -43,6 +47,7 @@ import com.caucho.hessian.io.HessianOutput;
 import com.caucho.hessian.io.HessianRemoteObject;
 import com.caucho.hessian.io.HessianRemoteResolver;
 import com.caucho.hessian.io.SerializerFactory;
+import com.caucho.hessian.util.HessianDeflaterPool;
 import com.caucho.services.client.ServiceProxyFactory;
 
 /**
@@ -80,6 +85,23 @@ import com.caucho.services.client.ServiceProxyFactory;
  * System.out.println("Hello: " + hello.helloWorld());
  * </pre>
  *
+ * <h3>Asynchronous calls</h3>
+ *
+ * <p>A method declared to return {@link java.util.concurrent.Future} or
+ * {@link HessianFuture} is called asynchronously: it returns at once, and
+ * the value arrives through the future.  The remote method has the same
+ * name and arguments and returns the future's value type.
+ *
+ * <pre>
+ * public interface AsyncBasicAPI {
+ *   public HessianFuture&lt;String&gt; hello();
+ * }
+ * </pre>
+ *
+ * <p>Plain http calls share one non-blocking
+ * {@link HessianAsyncTransport}; replies are decoded on the
+ * {@link #setAsyncExecutor async executor}.
+ *
  * <h3>Authentication</h3>
  *
  * <p>The proxy can use HTTP basic authentication if the user and the
@@ -106,12 +128,25 @@ public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
   private boolean _isHessian2Reply = true;
   private boolean _isHessian2Request = false;
 
+  private boolean _isPackedArrays = false;
+
+  private HessianDeflaterPool _deflaterPool = HessianDeflaterPool.getDefault();
+
   private boolean _isChunkedPost = true;
   private boolean _isDebug = false;
 
   private long _readTimeout = -1;
   private long _connectTimeout = -1;
 
+  private Executor _asyncExecutor;
+  private HessianAsyncTransport _asyncTransport;
+  private HessianResultCache _resultCache;
+
+  private static Executor _defaultAsyncExecutor;
+
+  private final ThreadLocal<HessianBatch> _batchLocal
+    = new ThreadLocal<HessianBatch>();
+
   /**
    * Creates the new proxy factory.
    */
@@ -280,6 +315,151 @@ public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
       _isHessian2Reply = true;
   }
 
+  /**
+   * True if Hessian 2 requests should write primitive arrays as packed
+   * blocks.  Only enable for servers which understand the extension.
+   * Replies are packed whenever the server supports it.
+   */
+  public void setPackedArrays(boolean isPackedArrays)
+  {
+    _isPackedArrays = isPackedArrays;
+  }
+
+  /**
+   * True if Hessian 2 requests write primitive arrays as packed blocks.
+   */
+  public boolean isPackedArrays()
+  {
+    return _isPackedArrays;
+  }
+
+  /**
+   * Sets the pool of inflaters used for deflate-encoded replies.
+   */
+  public void setDeflaterPool(HessianDeflaterPool pool)
+  {
+    if (pool == null)
+      throw new NullPointerException();
+
+    _deflaterPool = pool;
+  }
+
+  /**
+   * Returns the pool of inflaters used for deflate-encoded replies.
+   */
+  public HessianDeflaterPool getDeflaterPool()
+  {
+    return _deflaterPool;
+  }
+
+  /**
+   * Sets the executor which decodes asynchronous replies and runs
+   * {@link HessianFuture} callbacks.
+   */
+  public void setAsyncExecutor(Executor executor)
+  {
+    _asyncExecutor = executor;
+  }
+
+  /**
+   * Returns the executor for asynchronous replies, by default a shared
+   * pool of daemon threads.
+   */
+  public Executor getAsyncExecutor()
+  {
+    if (_asyncExecutor == null)
+      _asyncExecutor = getDefaultAsyncExecutor();
+
+    return _asyncExecutor;
+  }
+
+  private static synchronized Executor getDefaultAsyncExecutor()
+  {
+    if (_defaultAsyncExecutor == null) {
+      _defaultAsyncExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+          private final AtomicInteger _count = new AtomicInteger();
+
+          public Thread newThread(Runnable task)
+          {
+            Thread thread = new Thread(task, "hessian-async-reply-" + _count.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+          }
+        });
+    }
+
+    return _defaultAsyncExecutor;
+  }
+
+  /**
+   * Sets the non-blocking transport for asynchronous calls.
+   */
+  public void setAsyncTransport(HessianAsyncTransport transport)
+  {
+    _asyncTransport = transport;
+  }
+
+  /**
+   * Returns the non-blocking transport for asynchronous calls.
+   */
+  public synchronized HessianAsyncTransport getAsyncTransport()
+  {
+    if (_asyncTransport == null)
+      _asyncTransport = new HessianAsyncTransport(this);
+
+    return _asyncTransport;
+  }
+
+  /**
+   * Sets the cache for the results of {@link HessianCacheable} methods.
+   */
+  public void setResultCache(HessianResultCache cache)
+  {
+    _resultCache = cache;
+  }
+
+  /**
+   * Returns the cache for the results of {@link HessianCacheable} methods.
+   */
+  public synchronized HessianResultCache getResultCache()
+  {
+    if (_resultCache == null)
+      _resultCache = new HessianResultCache();
+
+    return _resultCache;
+  }
+
+  /**
+   * Starts a batch scope for the current thread: calls to this factory's
+   * proxies are queued until the batch is flushed or closed.
+   */
+  public HessianBatch beginBatch()
+  {
+    if (_batchLocal.get() != null)
+      throw new IllegalStateException("a batch is already open in this thread");
+
+    HessianBatch batch = new HessianBatch(this);
+
+    _batchLocal.set(batch);
+
+    return batch;
+  }
+
+  /**
+   * Returns the batch open in the current thread, or null.
+   */
+  public HessianBatch getBatch()
+  {
+    return _batchLocal.get();
+  }
+
+  void endBatch(HessianBatch batch)
+  {
+    if (_batchLocal.get() == batch)
+      _batchLocal.remove();
+  }
+
   /**
    * Returns the remote resolver.
    */
@@ -467,8 +647,13 @@ public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
   {
     AbstractHessianOutput out;
 
-    if (_isHessian2Request)
-      out = new Hessian2Output(os);
+    if (_isHessian2Request) {
+      Hessian2Output out2 = new Hessian2Output(os);
+
+      out2.setPackedArrays(_isPackedArrays);
+
+      out = out2;
+    }
     else {
       HessianOutput out1 = new HessianOutput(os);
       out = out1;
@@ -0,0 +1,412 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package com.caucho.hessian.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.SerializerFactory;
+
+/**
+ * Client-side cache of the results of {@link HessianCacheable} methods.
+ *
+ * <p>Results are stored as Hessian-encoded bytes and decoded on every hit,
+ * so callers never share or modify a cached object.  The cache is bounded
+ * by its number of entries and their total size; beyond either, entries
+ * are evicted in insertion order, except that an entry read since the
+ * last pass gets a second chance (CLOCK).  Lookups do not lock.
+ *
+ * <pre>
+ * HessianProxyFactory factory = new HessianProxyFactory();
+ * factory.setResultCache(new HessianResultCache(10000, 64 * 1024 * 1024));
+ * </pre>
+ */
+public class HessianResultCache {
+  private final int _maxEntries;
+  private final long _maxBytes;
+
+  private final ConcurrentHashMap<Key,Entry> _entryMap
+    = new ConcurrentHashMap<Key,Entry>();
+
+  private final ConcurrentLinkedQueue<Entry> _clock
+    = new ConcurrentLinkedQueue<Entry>();
+
+  private final AtomicInteger _size = new AtomicInteger();
+  private final AtomicLong _byteSize = new AtomicLong();
+
+  private final AtomicLong _hitCount = new AtomicLong();
+  private final AtomicLong _staleHitCount = new AtomicLong();
+  private final AtomicLong _missCount = new AtomicLong();
+  private final AtomicLong _evictCount = new AtomicLong();
+  private final AtomicLong _expireCount = new AtomicLong();
+  private final AtomicLong _refreshCount = new AtomicLong();
+
+  /**
+   * Creates a cache of up to 1024 entries and 16M of results.
+   */
+  public HessianResultCache()
+  {
+    this(1024, 16L * 1024 * 1024);
+  }
+
+  /**
+   * Creates a cache.
+   *
+   * @param maxEntries the maximum number of cached results
+   * @param maxBytes the maximum total size of the encoded results
+   */
+  public HessianResultCache(int maxEntries, long maxBytes)
+  {
+    if (maxEntries <= 0 || maxBytes <= 0)
+      throw new IllegalArgumentException("cache bounds must be positive: "
+                                         + maxEntries + ", " + maxBytes);
+
+    _maxEntries = maxEntries;
+    _maxBytes = maxBytes;
+  }
+
+  public int getMaxEntries()
+  {
+    return _maxEntries;
+  }
+
+  public long getMaxBytes()
+  {
+    return _maxBytes;
+  }
+
+  /**
+   * Creates the key of a call.
+   */
+  Key createKey(String url, String method, Object []args,
+                SerializerFactory serializerFactory)
+    throws IOException
+  {
+    byte []data = null;
+
+    if (args != null && args.length > 0) {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      Hessian2Output out = new Hessian2Output(bos);
+      out.setSerializerFactory(serializerFactory);
+
+      for (int i = 0; i < args.length; i++) {
+        out.writeObject(args[i]);
+      }
+
+      out.close();
+
+      data = bos.toByteArray();
+    }
+
+    return new Key(url, method, data);
+  }
+
+  /**
+   * Returns the fresh or stale entry for the key, or null on a miss.
+   */
+  Entry get(Key key)
+  {
+    Entry entry = _entryMap.get(key);
+
+    if (entry == null) {
+      _missCount.incrementAndGet();
+      return null;
+    }
+
+    long now = System.currentTimeMillis();
+
+    if (entry._staleTime <= now) {
+      if (remove(entry))
+        _expireCount.incrementAndGet();
+
+      _missCount.incrementAndGet();
+      return null;
+    }
+
+    entry._isAccessed = true;
+
+    if (entry._expireTime <= now)
+      _staleHitCount.incrementAndGet();
+    else
+      _hitCount.incrementAndGet();
+
+    return entry;
+  }
+
+  /**
+   * Decodes a cached result.
+   */
+  Object decode(Entry entry, Class<?> type,
+                SerializerFactory serializerFactory)
+    throws IOException
+  {
+    Hessian2Input in
+      = new Hessian2Input(new ByteArrayInputStream(entry._data));
+    in.setSerializerFactory(serializerFactory);
+
+    return in.readObject(type);
+  }
+
+  /**
+   * Caches a result.
+   */
+  void put(Key key, Object value, long ttl, long staleWhileRevalidate,
+           SerializerFactory serializerFactory)
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(bos);
+    out.setSerializerFactory(serializerFactory);
+    out.writeObject(value);
+    out.close();
+
+    byte []data = bos.toByteArray();
+
+    if (_maxBytes < data.length)
+      return;
+
+    long now = System.currentTimeMillis();
+
+    Entry entry = new Entry(key, data, now + ttl,
+                            now + ttl + Math.max(staleWhileRevalidate, 0));
+
+    Entry oldEntry = _entryMap.put(key, entry);
+
+    _byteSize.addAndGet(data.length);
+
+    if (oldEntry != null)
+      _byteSize.addAndGet(- oldEntry._data.length);
+    else
+      _size.incrementAndGet();
+
+    _clock.add(entry);
+
+    evict();
+  }
+
+  void refreshed()
+  {
+    _refreshCount.incrementAndGet();
+  }
+
+  /**
+   * Evicts entries until the cache is within its bounds.
+   */
+  private void evict()
+  {
+    int passes = 2 * _size.get() + 1;
+
+    while ((_maxEntries < _size.get() || _maxBytes < _byteSize.get())
+           && passes-- > 0) {
+      Entry entry = _clock.poll();
+
+      if (entry == null)
+        return;
+
+      // replaced or removed since it was queued
+      if (_entryMap.get(entry._key) != entry)
+        continue;
+
+      if (entry._isAccessed && passes > 0) {
+        entry._isAccessed = false;
+        _clock.add(entry);
+      }
+      else if (remove(entry))
+        _evictCount.incrementAndGet();
+    }
+  }
+
+  private boolean remove(Entry entry)
+  {
+    if (_entryMap.remove(entry._key, entry)) {
+      _size.decrementAndGet();
+      _byteSize.addAndGet(- entry._data.length);
+
+      return true;
+    }
+    else
+      return false;
+  }
+
+  /**
+   * Removes all entries.
+   */
+  public void clear()
+  {
+    for (Entry entry : _entryMap.values()) {
+      remove(entry);
+    }
+
+    _clock.clear();
+  }
+
+  /**
+   * Returns the number of cached results.
+   */
+  public int getSize()
+  {
+    return _size.get();
+  }
+
+  /**
+   * Returns the total size of the encoded results.
+   */
+  public long getByteSize()
+  {
+    return _byteSize.get();
+  }
+
+  /**
+   * Returns the number of calls answered with a fresh result.
+   */
+  public long getHitCount()
+  {
+    return _hitCount.get();
+  }
+
+  /**
+   * Returns the number of calls answered with a stale result while it
+   * was refreshed.
+   */
+  public long getStaleHitCount()
+  {
+    return _staleHitCount.get();
+  }
+
+  /**
+   * Returns the number of calls sent to the server.
+   */
+  public long getMissCount()
+  {
+    return _missCount.get();
+  }
+
+  /**
+   * Returns the number of entries evicted to stay within the bounds.
+   */
+  public long getEvictCount()
+  {
+    return _evictCount.get();
+  }
+
+  /**
+   * Returns the number of entries dropped after expiring.
+   */
+  public long getExpireCount()
+  {
+    return _expireCount.get();
+  }
+
+  /**
+   * Returns the number of stale entries refreshed in the background.
+   */
+  public long getRefreshCount()
+  {
+    return _refreshCount.get();
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[size=" + getSize()
+            + ",hit=" + getHitCount()
+            + ",stale=" + getStaleHitCount()
+            + ",miss=" + getMissCount() + "]");
+  }
+
+  /**
+   * A call: service URL, mangled method name and encoded arguments.
+   */
+  static final class Key {
+    private final String _url;
+    private final String _method;
+    private final byte []_args;
+    private final int _hash;
+
+    Key(String url, String method, byte []args)
+    {
+      _url = url;
+      _method = method;
+      _args = args;
+
+      int hash = 65521 * url.hashCode() + method.hashCode();
+
+      _hash = 65521 * hash + Arrays.hashCode(args);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return _hash;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (this == o)
+        return true;
+      else if (! (o instanceof Key))
+        return false;
+
+      Key key = (Key) o;
+
+      return (_hash == key._hash
+              && _method.equals(key._method)
+              && _url.equals(key._url)
+              && Arrays.equals(_args, key._args));
+    }
+  }
+
+  /**
+   * An encoded result.
+   */
+  static final class Entry {
+    final Key _key;
+    final byte []_data;
+    final long _expireTime;
+    final long _staleTime;
+
+    final AtomicBoolean _isRefreshing = new AtomicBoolean();
+
+    volatile boolean _isAccessed;
+
+    Entry(Key key, byte []data, long expireTime, long staleTime)
+    {
+      _key = key;
+      _data = data;
+      _expireTime = expireTime;
+      _staleTime = staleTime;
+    }
+
+    boolean isStale()
+    {
+      return _expireTime <= System.currentTimeMillis();
+    }
+  }
+}
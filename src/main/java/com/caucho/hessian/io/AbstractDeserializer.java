@@ -96,6 +96,17 @@ public class AbstractDeserializer implements Deserializer {
     return name;
   }
   
+  /**
+   * Creates the field array for a projection of the wire fields, where
+   * fields outside the projection are skipped.  The default
+   * implementation returns null, meaning the object is read whole.
+   */
+  public Object []createProjectedFields(String []fieldNames,
+                                        HessianProjection projection)
+  {
+    return null;
+  }
+  
   @Override
   public Object readObject(AbstractHessianInput in,
                            String []fieldNames)
@@ -360,6 +360,28 @@ abstract public class AbstractHessianInput {
   abstract public Object readObject()
     throws IOException;
 
+  /**
+   * Skips the next value.  The default implementation reads the value
+   * and drops it.
+   */
+  public void skipValue()
+    throws IOException
+  {
+    readObject();
+  }
+
+  /**
+   * Skips a field value the reader does not keep.  Unlike
+   * <code>skipValue</code>, objects, lists and maps are still read, since
+   * a later back reference may point to them.  The default implementation
+   * reads the value and drops it.
+   */
+  public void skipFieldValue()
+    throws IOException
+  {
+    readObject();
+  }
+
   /**
    * Reads a remote object reference to the stream.  The type is the
    * type of the remote interface.
@@ -19,6 +19,8 @@ package com.caucho.hessian.io;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * Abstract output stream for Hessian requests.
@@ -108,6 +110,16 @@ abstract public class AbstractHessianOutput {
     completeCall();
   }
 
+  /**
+   * Writes a complete method call whose header was encoded in advance.
+   * Outputs which cannot use the encoded header write the call normally.
+   */
+  public void call(HessianCallHeader header, Object []args)
+    throws IOException
+  {
+    call(header.getMethod(), args);
+  }
+
   /**
    * Starts the method call:
    *
@@ -469,6 +481,66 @@ abstract public class AbstractHessianOutput {
   abstract public void writeListEnd()
     throws IOException;
 
+  /**
+   * Writes a primitive array as a packed block, if the output supports
+   * and has enabled the packed array extension.  The caller has already
+   * added the array as a reference.
+   *
+   * @return false if the caller must write the array as a list.
+   */
+  public boolean writePackedArray(Object array)
+    throws IOException
+  {
+    return false;
+  }
+
+  /**
+   * Writes a list of beans of one class column by column, if the output
+   * supports and has enabled columnar lists.  The caller has already
+   * added the list as a reference.
+   *
+   * @return false if the caller must write the list row by row.
+   */
+  public boolean writeColumnarList(Collection<?> list)
+    throws IOException
+  {
+    return false;
+  }
+
+  /**
+   * Returns true if a list or map of the given length should be written
+   * with <code>writeParallel</code>.
+   */
+  public boolean isParallel(int length)
+  {
+    return false;
+  }
+
+  /**
+   * Writes the elements of a list, or the entries of a map, encoding
+   * segments of them concurrently.  The caller has already written the
+   * list or map header, and writes the end after.
+   *
+   * @param values the list elements, or the map's <code>Map.Entry</code>s
+   * @param isEntries true if the values are map entries
+   */
+  public void writeParallel(Object []values, boolean isEntries)
+    throws IOException
+  {
+    if (isEntries) {
+      for (int i = 0; i < values.length; i++) {
+        Map.Entry<?,?> entry = (Map.Entry<?,?>) values[i];
+
+        writeObject(entry.getKey());
+        writeObject(entry.getValue());
+      }
+    }
+    else {
+      for (int i = 0; i < values.length; i++)
+        writeObject(values[i]);
+    }
+  }
+
   /**
    * Writes the map header to the stream.  Map writers will call
    * <code>writeMapBegin</code> followed by the map contents and then
@@ -508,6 +580,20 @@ abstract public class AbstractHessianOutput {
     return -2;
   }
 
+  /**
+   * Writes the object header using a pre-encoded class definition.  The
+   * definition holds the complete <code>C type int &lt;key>*</code> block
+   * and is only written the first time the class appears in the stream.
+   *
+   * @return the definition reference if the header was written, -1 if the
+   * caller must write the definition itself, or -2 for a Hessian 1.0 map.
+   */
+  public int writeObjectBegin(String type, byte []definition)
+    throws IOException
+  {
+    return writeObjectBegin(type);
+  }
+
   /**
    * Writes the end of the class.
    */
@@ -17,6 +17,7 @@
 package com.caucho.hessian.io;
 
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.util.logging.*;
 
 import com.caucho.hessian.HessianException;
@@ -99,6 +100,19 @@ abstract public class AbstractSerializer implements Serializer {
     throw new UnsupportedOperationException(getClass().getName());
   }
 
+  /**
+   * Returns the encoded Hessian 2.0 class definition for the fields.
+   */
+  protected static byte []encodeDefinition(Class<?> cl, Field []fields)
+  {
+    String []fieldNames = new String[fields.length];
+
+    for (int i = 0; i < fields.length; i++)
+      fieldNames[i] = fields[i].getName();
+
+    return Hessian2Output.encodeDefinition(cl.getName(), fieldNames);
+  }
+
   protected void writeInstance(Object obj,
                             AbstractHessianOutput out)
     throws IOException
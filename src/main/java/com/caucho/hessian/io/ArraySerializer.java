@@ -33,8 +33,12 @@ public class ArraySerializer extends AbstractSerializer {
     boolean hasEnd = out.writeListBegin(array.length,
                                         getArrayType(obj.getClass()));
 
-    for (int i = 0; i < array.length; i++)
-      out.writeObject(array[i]);
+    if (out.isParallel(array.length))
+      out.writeParallel(array, false);
+    else {
+      for (int i = 0; i < array.length; i++)
+        out.writeObject(array[i]);
+    }
 
     if (hasEnd)
       out.writeListEnd();
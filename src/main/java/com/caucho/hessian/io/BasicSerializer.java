@@ -155,6 +155,10 @@ public class BasicSerializer extends AbstractSerializer
         return;
       
       short []data = (short []) obj;
+
+      if (out.writePackedArray(data))
+        return;
+
       boolean hasEnd = out.writeListBegin(data.length, "[short");
       
       for (int i = 0; i < data.length; i++)
@@ -171,6 +175,9 @@ public class BasicSerializer extends AbstractSerializer
         return;
       
       int []data = (int []) obj;
+
+      if (out.writePackedArray(data))
+        return;
       
       boolean hasEnd = out.writeListBegin(data.length, "[int");
       
@@ -189,6 +196,9 @@ public class BasicSerializer extends AbstractSerializer
         return;
       
       long []data = (long []) obj;
+
+      if (out.writePackedArray(data))
+        return;
       
       boolean hasEnd = out.writeListBegin(data.length, "[long");
       
@@ -206,6 +216,9 @@ public class BasicSerializer extends AbstractSerializer
         return;
       
       float []data = (float []) obj;
+
+      if (out.writePackedArray(data))
+        return;
       
       boolean hasEnd = out.writeListBegin(data.length, "[float");
       
@@ -223,6 +236,10 @@ public class BasicSerializer extends AbstractSerializer
         return;
       
       double []data = (double []) obj;
+
+      if (out.writePackedArray(data))
+        return;
+
       boolean hasEnd = out.writeListBegin(data.length, "[double");
       
       for (int i = 0; i < data.length; i++)
@@ -53,6 +53,9 @@ public class CollectionSerializer extends AbstractSerializer
 
     Collection list = (Collection) obj;
 
+    if (out.writeColumnarList(list))
+      return;
+
     Class cl = obj.getClass();
     boolean hasEnd;
     
@@ -78,11 +81,15 @@ public class CollectionSerializer extends AbstractSerializer
       hasEnd = out.writeListBegin(list.size(), obj.getClass().getName());
     }
 
-    Iterator iter = list.iterator();
-    while (iter.hasNext()) {
-      Object value = iter.next();
+    if (out.isParallel(list.size()))
+      out.writeParallel(list.toArray(), false);
+    else {
+      Iterator iter = list.iterator();
+      while (iter.hasNext()) {
+        Object value = iter.next();
 
-      out.writeObject(value);
+        out.writeObject(value);
+      }
     }
 
     if (hasEnd)
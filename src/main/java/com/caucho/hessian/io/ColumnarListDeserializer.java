@@ -0,0 +1,349 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+
+/**
+ * Reads a list written by <code>ColumnarListSerializer</code>, either as
+ * an ArrayList of beans or as a <code>HessianColumnarList</code> view.
+ */
+public class ColumnarListDeserializer extends AbstractListDeserializer {
+  @Override
+  public Class<?> getType()
+  {
+    return ArrayList.class;
+  }
+
+  @Override
+  public Object readLengthList(AbstractHessianInput in, int length)
+    throws IOException
+  {
+    if (! (in instanceof Hessian2Input))
+      throw new HessianProtocolException("columnar lists require Hessian2Input");
+
+    Hessian2Input hIn = (Hessian2Input) in;
+    SerializerFactory factory = hIn.findSerializerFactory();
+
+    String type = in.readString();
+    int size = in.readInt();
+    int fieldCount = in.readInt();
+
+    if (size < 0 || fieldCount < 0)
+      throw error("illegal columnar list size " + size + " fields " + fieldCount);
+
+    String []fieldNames = new String[fieldCount];
+
+    for (int i = 0; i < fieldCount; i++)
+      fieldNames[i] = in.readString();
+
+    Class<?> cl;
+
+    try {
+      cl = Class.forName(type, false, factory.getClassLoader());
+    } catch (ClassNotFoundException e) {
+      throw new HessianProtocolException("'" + type + "' is an unknown class", e);
+    }
+
+    Deserializer deserializer = factory.getDeserializer(cl);
+
+    Field []fields = new Field[fieldCount];
+    Object []columns = new Object[fieldCount];
+
+    for (int i = 0; i < fieldCount; i++)
+      fields[i] = findField(cl, fieldNames[i]);
+
+    HessianColumnarList columnarList
+      = new HessianColumnarList(cl, fieldNames, fields, columns,
+                                size, deserializer);
+
+    // the list is registered before its columns, so rows can refer to it
+    ArrayList<Object> list = null;
+
+    if (hIn.isColumnarView())
+      in.addRef(columnarList);
+    else {
+      list = new ArrayList<Object>(size);
+      in.addRef(list);
+    }
+
+    for (int i = 0; i < fieldCount; i++)
+      columns[i] = readColumn(in, fields[i], size);
+
+    if (list == null)
+      return columnarList;
+
+    columnarList.fillList(list);
+
+    return list;
+  }
+
+  private Object readColumn(AbstractHessianInput in, Field field, int size)
+    throws IOException
+  {
+    int code = in.readInt();
+    Class<?> type = field != null ? field.getType() : null;
+
+    switch (code) {
+    case ColumnarListSerializer.COLUMN_PRIMITIVE:
+      return decodePrimitive(in.readBytes(), type, size);
+
+    case ColumnarListSerializer.COLUMN_DICTIONARY: {
+      int length = in.readInt();
+      String []dictionary = new String[length];
+
+      for (int i = 0; i < length; i++)
+        dictionary[i] = in.readString();
+
+      byte []data = in.readBytes();
+      String []values = new String[size];
+      int []offset = new int[1];
+
+      for (int i = 0; i < size; i++) {
+        int index = (int) readVarLong(data, offset);
+
+        if (index > length)
+          throw error("illegal dictionary index " + index);
+
+        values[i] = index > 0 ? dictionary[index - 1] : null;
+      }
+
+      return values;
+    }
+
+    case ColumnarListSerializer.COLUMN_OBJECT: {
+      Object []values;
+
+      if (type == String.class)
+        values = new String[size];
+      else
+        values = new Object[size];
+
+      Class<?> valueType = type != null && ! type.isPrimitive() ? type : null;
+
+      for (int i = 0; i < size; i++) {
+        if (valueType != null)
+          values[i] = in.readObject(valueType);
+        else
+          values[i] = in.readObject();
+      }
+
+      return values;
+    }
+
+    default:
+      throw error("unknown column code 0x" + Integer.toHexString(code));
+    }
+  }
+
+  private Object decodePrimitive(byte []data, Class<?> type, int size)
+    throws IOException
+  {
+    if (data.length == 0)
+      throw error("empty primitive column");
+
+    int code = data[0];
+
+    switch (code) {
+    case ColumnarListSerializer.BOOLEAN_BITS: {
+      checkLength(data, 1 + (size + 7) / 8);
+
+      boolean []values = new boolean[size];
+
+      for (int i = 0; i < size; i++)
+        values[i] = (data[1 + (i >> 3)] & (1 << (i & 7))) != 0;
+
+      return values;
+    }
+
+    case ColumnarListSerializer.FLOAT_BITS: {
+      checkLength(data, 1 + 4 * size);
+
+      float []values = new float[size];
+
+      for (int i = 0; i < size; i++)
+        values[i] = Float.intBitsToFloat(getInt(data, 1 + 4 * i));
+
+      return values;
+    }
+
+    case ColumnarListSerializer.DOUBLE_BITS: {
+      checkLength(data, 1 + 8 * size);
+
+      double []values = new double[size];
+
+      for (int i = 0; i < size; i++) {
+        long bits = (((long) getInt(data, 1 + 8 * i) << 32)
+                     | (getInt(data, 5 + 8 * i) & 0xffffffffL));
+
+        values[i] = Double.longBitsToDouble(bits);
+      }
+
+      return values;
+    }
+
+    case ColumnarListSerializer.DELTA:
+    case ColumnarListSerializer.RUN_DELTA:
+      return toFieldArray(decodeLongs(data, code, size), type);
+
+    default:
+      throw error("unknown primitive column encoding 0x"
+                  + Integer.toHexString(code & 0xff));
+    }
+  }
+
+  private long []decodeLongs(byte []data, int code, int size)
+    throws IOException
+  {
+    long []values = new long[size];
+    int []offset = new int[] { 1 };
+    long prev = 0;
+
+    if (code == ColumnarListSerializer.DELTA) {
+      for (int i = 0; i < size; i++) {
+        prev += unzigzag(readVarLong(data, offset));
+        values[i] = prev;
+      }
+    }
+    else {
+      int i = 0;
+
+      while (i < size) {
+        long count = readVarLong(data, offset);
+        long delta = unzigzag(readVarLong(data, offset));
+
+        if (count <= 0 || size - i < count)
+          throw error("illegal run length " + count);
+
+        for (; count > 0; count--) {
+          prev += delta;
+          values[i++] = prev;
+        }
+      }
+    }
+
+    return values;
+  }
+
+  /**
+   * Narrows a decoded integral column to the array type of the field.
+   */
+  private static Object toFieldArray(long []values, Class<?> type)
+  {
+    int size = values.length;
+
+    if (type == int.class) {
+      int []array = new int[size];
+      for (int i = 0; i < size; i++)
+        array[i] = (int) values[i];
+      return array;
+    }
+    else if (type == short.class) {
+      short []array = new short[size];
+      for (int i = 0; i < size; i++)
+        array[i] = (short) values[i];
+      return array;
+    }
+    else if (type == byte.class) {
+      byte []array = new byte[size];
+      for (int i = 0; i < size; i++)
+        array[i] = (byte) values[i];
+      return array;
+    }
+    else if (type == char.class) {
+      char []array = new char[size];
+      for (int i = 0; i < size; i++)
+        array[i] = (char) values[i];
+      return array;
+    }
+    else
+      return values;
+  }
+
+  private long readVarLong(byte []data, int []offsetRef)
+    throws IOException
+  {
+    int offset = offsetRef[0];
+    long value = 0;
+    int shift = 0;
+
+    while (true) {
+      if (offset >= data.length || shift > 63)
+        throw error("truncated column");
+
+      int b = data[offset++];
+
+      value |= (long) (b & 0x7f) << shift;
+
+      if ((b & 0x80) == 0)
+        break;
+
+      shift += 7;
+    }
+
+    offsetRef[0] = offset;
+
+    return value;
+  }
+
+  private static long unzigzag(long value)
+  {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static int getInt(byte []data, int offset)
+  {
+    return (((data[offset] & 0xff) << 24)
+            + ((data[offset + 1] & 0xff) << 16)
+            + ((data[offset + 2] & 0xff) << 8)
+            + (data[offset + 3] & 0xff));
+  }
+
+  private void checkLength(byte []data, int length)
+    throws IOException
+  {
+    if (data.length < length)
+      throw error("truncated column");
+  }
+
+  /**
+   * Finds a serialized field by name, preferring the subclass's field.
+   */
+  private static Field findField(Class<?> cl, String name)
+  {
+    for (; cl != null; cl = cl.getSuperclass()) {
+      try {
+        Field field = cl.getDeclaredField(name);
+
+        if (Modifier.isTransient(field.getModifiers())
+            || Modifier.isStatic(field.getModifiers()))
+          return null;
+
+        field.setAccessible(true);
+
+        return field;
+      } catch (NoSuchFieldException e) {
+      }
+    }
+
+    return null;
+  }
+}
@@ -0,0 +1,459 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes a list of beans of one class as columns.
+ *
+ * <p>The list is written as a fixed-length list typed
+ * <code>com.caucho.hessian.io.HessianColumnarList</code>, so readers
+ * that don't decode it can still skip it:
+ *
+ * <code><pre>
+ * V HessianColumnarList length
+ *   type size field-count field-name* column*
+ *
+ * column ::= 'P' binary              # primitive values
+ *        ::= 'S' int string* binary  # string dictionary and indexes
+ *        ::= 'O' value*              # one value per row
+ * </pre></code>
+ *
+ * The first byte of a primitive column selects its encoding:
+ * 'B' packed bits, 'D' zigzag varint deltas, 'R' runs of equal deltas
+ * as (count, delta) varint pairs, 'F' big-endian float bits and
+ * 'G' big-endian double bits.  Dictionary indexes are varints, with 0
+ * for null and i + 1 for the i-th dictionary entry.
+ */
+final class ColumnarListSerializer {
+  static final int COLUMN_PRIMITIVE = 'P';
+  static final int COLUMN_DICTIONARY = 'S';
+  static final int COLUMN_OBJECT = 'O';
+
+  static final int BOOLEAN_BITS = 'B';
+  static final int DELTA = 'D';
+  static final int RUN_DELTA = 'R';
+  static final int FLOAT_BITS = 'F';
+  static final int DOUBLE_BITS = 'G';
+
+  // largest string dictionary per column
+  private static final int DICTIONARY_MAX = 64 * 1024;
+
+  private static final ClassValue<Field[]> _fieldsValue
+    = new ClassValue<Field[]>() {
+    @Override
+    protected Field []computeValue(Class<?> cl)
+    {
+      return UnsafeSerializer.getSerializedFields(cl);
+    }
+  };
+
+  private ColumnarListSerializer()
+  {
+  }
+
+  /**
+   * Writes the list as columns.
+   *
+   * @return false if the list doesn't hold beans of a single class
+   */
+  static boolean writeList(Hessian2Output out, Collection<?> list)
+    throws IOException
+  {
+    Object []rows = list.toArray();
+
+    if (rows.length == 0 || rows[0] == null)
+      return false;
+
+    Class<?> cl = rows[0].getClass();
+
+    for (int i = 1; i < rows.length; i++) {
+      if (rows[i] == null || rows[i].getClass() != cl)
+        return false;
+    }
+
+    Serializer serializer = out.findSerializerFactory().getSerializer(cl);
+
+    // subclasses may customize the bean's encoding, so only the plain
+    // field serializers qualify
+    if (serializer.getClass() != UnsafeSerializer.class
+        && serializer.getClass() != JavaSerializer.class)
+      return false;
+
+    Field []fields = _fieldsValue.get(cl);
+
+    if (fields.length == 0)
+      return false;
+
+    Column []columns = new Column[fields.length];
+    int length = 3 + fields.length;
+
+    try {
+      for (int i = 0; i < fields.length; i++) {
+        columns[i] = encodeColumn(fields[i], rows);
+        length += columns[i].getLength(rows.length);
+      }
+    } catch (IllegalAccessException e) {
+      throw new IOExceptionWrapper(e);
+    }
+
+    boolean hasEnd = out.writeListBegin(length,
+                                        HessianColumnarList.class.getName());
+
+    out.writeString(cl.getName());
+    out.writeInt(rows.length);
+    out.writeInt(fields.length);
+
+    for (int i = 0; i < fields.length; i++)
+      out.writeString(fields[i].getName());
+
+    for (int i = 0; i < columns.length; i++)
+      columns[i].write(out);
+
+    if (hasEnd)
+      out.writeListEnd();
+
+    return true;
+  }
+
+  private static Column encodeColumn(Field field, Object []rows)
+    throws IllegalAccessException
+  {
+    Class<?> type = field.getType();
+    int length = rows.length;
+
+    if (type == boolean.class) {
+      byte []data = new byte[1 + (length + 7) / 8];
+      data[0] = (byte) BOOLEAN_BITS;
+
+      for (int i = 0; i < length; i++) {
+        if (field.getBoolean(rows[i]))
+          data[1 + (i >> 3)] |= (byte) (1 << (i & 7));
+      }
+
+      return new Column(data);
+    }
+    else if (type == int.class || type == long.class
+             || type == short.class || type == byte.class
+             || type == char.class) {
+      long []values = new long[length];
+
+      if (type == int.class) {
+        for (int i = 0; i < length; i++)
+          values[i] = field.getInt(rows[i]);
+      }
+      else if (type == long.class) {
+        for (int i = 0; i < length; i++)
+          values[i] = field.getLong(rows[i]);
+      }
+      else if (type == short.class) {
+        for (int i = 0; i < length; i++)
+          values[i] = field.getShort(rows[i]);
+      }
+      else if (type == byte.class) {
+        for (int i = 0; i < length; i++)
+          values[i] = field.getByte(rows[i]);
+      }
+      else {
+        for (int i = 0; i < length; i++)
+          values[i] = field.getChar(rows[i]);
+      }
+
+      return new Column(encodeLongs(values));
+    }
+    else if (type == float.class) {
+      byte []data = new byte[1 + 4 * length];
+      data[0] = (byte) FLOAT_BITS;
+
+      for (int i = 0; i < length; i++)
+        putInt(data, 1 + 4 * i, Float.floatToRawIntBits(field.getFloat(rows[i])));
+
+      return new Column(data);
+    }
+    else if (type == double.class) {
+      byte []data = new byte[1 + 8 * length];
+      data[0] = (byte) DOUBLE_BITS;
+
+      for (int i = 0; i < length; i++) {
+        long bits = Double.doubleToRawLongBits(field.getDouble(rows[i]));
+
+        putInt(data, 1 + 8 * i, (int) (bits >> 32));
+        putInt(data, 5 + 8 * i, (int) bits);
+      }
+
+      return new Column(data);
+    }
+
+    Object []values = new Object[length];
+
+    for (int i = 0; i < length; i++)
+      values[i] = field.get(rows[i]);
+
+    if (type == String.class) {
+      Column column = encodeDictionary(values);
+
+      if (column != null)
+        return column;
+    }
+
+    return new Column(values);
+  }
+
+  /**
+   * Encodes integral values as deltas, run-length encoded when runs of
+   * equal deltas, e.g. constants or sequences, make up the column.
+   */
+  private static byte []encodeLongs(long []values)
+  {
+    int length = values.length;
+    int runs = 0;
+    long prev = 0;
+    long prevDelta = 0;
+
+    for (int i = 0; i < length; i++) {
+      long delta = values[i] - prev;
+
+      if (i == 0 || delta != prevDelta)
+        runs++;
+
+      prevDelta = delta;
+      prev = values[i];
+    }
+
+    ColumnBuffer buffer = new ColumnBuffer(2 * length + 1);
+
+    prev = 0;
+
+    if (2 * runs <= length) {
+      buffer.write(RUN_DELTA);
+
+      int i = 0;
+
+      while (i < length) {
+        long delta = values[i] - prev;
+        int count = 1;
+
+        prev = values[i];
+
+        for (i++; i < length && values[i] - prev == delta; i++) {
+          prev = values[i];
+          count++;
+        }
+
+        buffer.writeVarLong(count);
+        buffer.writeVarLong(zigzag(delta));
+      }
+    }
+    else {
+      buffer.write(DELTA);
+
+      for (int i = 0; i < length; i++) {
+        buffer.writeVarLong(zigzag(values[i] - prev));
+        prev = values[i];
+      }
+    }
+
+    return buffer.toByteArray();
+  }
+
+  /**
+   * Encodes strings as a dictionary and indexes, or returns null if most
+   * values are distinct.
+   */
+  private static Column encodeDictionary(Object []values)
+  {
+    HashMap<Object,Integer> indexMap = new HashMap<Object,Integer>();
+    int limit = Math.min(values.length / 2, DICTIONARY_MAX);
+
+    for (int i = 0; i < values.length; i++) {
+      Object value = values[i];
+
+      if (value != null && ! indexMap.containsKey(value)) {
+        if (indexMap.size() >= limit)
+          return null;
+
+        indexMap.put(value, Integer.valueOf(indexMap.size()));
+      }
+    }
+
+    String []dictionary = new String[indexMap.size()];
+
+    for (Map.Entry<Object,Integer> entry : indexMap.entrySet())
+      dictionary[entry.getValue().intValue()] = (String) entry.getKey();
+
+    ColumnBuffer buffer = new ColumnBuffer(values.length + 1);
+
+    for (int i = 0; i < values.length; i++) {
+      Object value = values[i];
+
+      if (value == null)
+        buffer.writeVarLong(0);
+      else
+        buffer.writeVarLong(indexMap.get(value).intValue() + 1);
+    }
+
+    return new Column(dictionary, buffer.toByteArray());
+  }
+
+  private static long zigzag(long value)
+  {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static void putInt(byte []data, int offset, int value)
+  {
+    data[offset] = (byte) (value >> 24);
+    data[offset + 1] = (byte) (value >> 16);
+    data[offset + 2] = (byte) (value >> 8);
+    data[offset + 3] = (byte) value;
+  }
+
+  /**
+   * An encoded column.
+   */
+  static final class Column {
+    private final int _code;
+    private final byte []_data;
+    private final String []_dictionary;
+    private final Object []_values;
+
+    Column(byte []data)
+    {
+      _code = COLUMN_PRIMITIVE;
+      _data = data;
+      _dictionary = null;
+      _values = null;
+    }
+
+    Column(String []dictionary, byte []indexes)
+    {
+      _code = COLUMN_DICTIONARY;
+      _data = indexes;
+      _dictionary = dictionary;
+      _values = null;
+    }
+
+    Column(Object []values)
+    {
+      _code = COLUMN_OBJECT;
+      _data = null;
+      _dictionary = null;
+      _values = values;
+    }
+
+    /**
+     * Returns the number of list elements the column takes.
+     */
+    int getLength(int rows)
+    {
+      switch (_code) {
+      case COLUMN_PRIMITIVE:
+        return 2;
+      case COLUMN_DICTIONARY:
+        return 3 + _dictionary.length;
+      default:
+        return 1 + rows;
+      }
+    }
+
+    void write(Hessian2Output out)
+      throws IOException
+    {
+      out.writeInt(_code);
+
+      switch (_code) {
+      case COLUMN_PRIMITIVE:
+        out.writeBytes(_data);
+        break;
+
+      case COLUMN_DICTIONARY:
+        out.writeInt(_dictionary.length);
+
+        for (int i = 0; i < _dictionary.length; i++)
+          out.writeString(_dictionary[i]);
+
+        out.writeBytes(_data);
+        break;
+
+      default:
+        for (int i = 0; i < _values.length; i++)
+          out.writeObject(_values[i]);
+        break;
+      }
+    }
+  }
+
+  /**
+   * Growable byte array for encoding a column.
+   */
+  static final class ColumnBuffer {
+    private byte []_data;
+    private int _length;
+
+    ColumnBuffer(int capacity)
+    {
+      _data = new byte[Math.max(16, capacity)];
+    }
+
+    void write(int value)
+    {
+      if (_length == _data.length)
+        grow();
+
+      _data[_length++] = (byte) value;
+    }
+
+    void writeVarLong(long value)
+    {
+      if (_data.length < _length + 10)
+        grow();
+
+      byte []data = _data;
+      int length = _length;
+
+      while ((value & ~0x7fL) != 0) {
+        data[length++] = (byte) ((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+
+      data[length++] = (byte) value;
+
+      _length = length;
+    }
+
+    private void grow()
+    {
+      byte []data = new byte[2 * _data.length + 10];
+      System.arraycopy(_data, 0, data, 0, _length);
+      _data = data;
+    }
+
+    byte []toByteArray()
+    {
+      byte []data = new byte[_length];
+      System.arraycopy(_data, 0, data, 0, _length);
+
+      return data;
+    }
+  }
+}
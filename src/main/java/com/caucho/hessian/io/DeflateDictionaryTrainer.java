@@ -0,0 +1,382 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Builds a <code>HessianDeflateDictionary</code> from sample messages.
+ *
+ * <p>The trainer counts the 6-byte sequences which occur in more than one
+ * sample, joins the runs of such sequences into segments and keeps the
+ * highest scoring segments which add new sequences.  The best segments
+ * are placed at the end of the dictionary, where deflate can refer to
+ * them with the shortest distances.
+ *
+ * <p>The trainer can also be run from the command line on files which
+ * each contain one sample message:
+ *
+ * <pre>
+ * java com.caucho.hessian.io.DeflateDictionaryTrainer [-size n] [-id n] \
+ *   dictionary.hessian sample1 sample2 ...
+ * </pre>
+ */
+public class DeflateDictionaryTrainer {
+  private static final int GRAM_LENGTH = 6;
+  private static final int SEGMENT_MAX = 256;
+
+  public static final int DEFAULT_SIZE = 16 * 1024;
+
+  private final int _maxSize;
+  private final ArrayList<byte[]> _samples = new ArrayList<byte[]>();
+
+  private SerializerFactory _serializerFactory;
+
+  public DeflateDictionaryTrainer()
+  {
+    this(DEFAULT_SIZE);
+  }
+
+  /**
+   * Creates a trainer.
+   *
+   * @param maxSize the largest dictionary to build
+   */
+  public DeflateDictionaryTrainer(int maxSize)
+  {
+    if (maxSize <= 0 || HessianDeflateDictionary.MAX_LENGTH < maxSize)
+      throw new IllegalArgumentException("invalid dictionary size " + maxSize);
+
+    _maxSize = maxSize;
+  }
+
+  /**
+   * Sets the serializer factory used to encode sample objects.
+   */
+  public void setSerializerFactory(SerializerFactory factory)
+  {
+    _serializerFactory = factory;
+  }
+
+  /**
+   * Adds an encoded sample message.
+   */
+  public DeflateDictionaryTrainer addSample(byte []data)
+  {
+    _samples.add(data.clone());
+
+    return this;
+  }
+
+  /**
+   * Adds a sample value, encoded as a Hessian 2.0 object.
+   */
+  public DeflateDictionaryTrainer addSampleObject(Object value)
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Hessian2Output out = new Hessian2Output(bos);
+
+    if (_serializerFactory != null)
+      out.setSerializerFactory(_serializerFactory);
+
+    out.writeObject(value);
+    out.close();
+
+    _samples.add(bos.toByteArray());
+
+    return this;
+  }
+
+  public int getSampleCount()
+  {
+    return _samples.size();
+  }
+
+  /**
+   * Builds a dictionary identified by the checksum of its contents.
+   */
+  public HessianDeflateDictionary train()
+  {
+    return new HessianDeflateDictionary(buildDictionary());
+  }
+
+  /**
+   * Builds a dictionary with the given id.
+   */
+  public HessianDeflateDictionary train(int id)
+  {
+    return new HessianDeflateDictionary(id, buildDictionary());
+  }
+
+  private byte []buildDictionary()
+  {
+    HashMap<Long,int[]> counts = countGrams();
+
+    ArrayList<Segment> segments = findSegments(counts);
+
+    Collections.sort(segments, new Comparator<Segment>() {
+      public int compare(Segment a, Segment b)
+      {
+        return a._score < b._score ? 1 : a._score == b._score ? 0 : -1;
+      }
+    });
+
+    HashSet<Long> covered = new HashSet<Long>();
+    ArrayList<Segment> selected = new ArrayList<Segment>();
+    int size = 0;
+
+    for (Segment segment : segments) {
+      if (_maxSize < size + segment._data.length)
+        continue;
+
+      byte []data = segment._data;
+      int grams = data.length - GRAM_LENGTH + 1;
+      int newGrams = 0;
+
+      for (int i = 0; i < grams; i++) {
+        if (! covered.contains(gram(data, i)))
+          newGrams++;
+      }
+
+      // mostly repeats what the dictionary already holds
+      if (2 * newGrams < grams)
+        continue;
+
+      for (int i = 0; i < grams; i++)
+        covered.add(gram(data, i));
+
+      selected.add(segment);
+      size += data.length;
+    }
+
+    byte []dictionary = new byte[size];
+    int offset = size;
+
+    // best segments last, closest to the message
+    for (Segment segment : selected) {
+      offset -= segment._data.length;
+
+      System.arraycopy(segment._data, 0, dictionary, offset,
+                       segment._data.length);
+    }
+
+    return dictionary;
+  }
+
+  /**
+   * Counts the number of samples containing each gram.
+   */
+  private HashMap<Long,int[]> countGrams()
+  {
+    HashMap<Long,int[]> counts = new HashMap<Long,int[]>();
+    HashSet<Long> seen = new HashSet<Long>();
+
+    for (byte []sample : _samples) {
+      seen.clear();
+
+      for (int i = 0; i + GRAM_LENGTH <= sample.length; i++) {
+        Long gram = gram(sample, i);
+
+        if (! seen.add(gram))
+          continue;
+
+        int []count = counts.get(gram);
+
+        if (count == null) {
+          count = new int[1];
+          counts.put(gram, count);
+        }
+
+        count[0]++;
+      }
+    }
+
+    return counts;
+  }
+
+  /**
+   * Returns the distinct runs of shared grams, scored by the number of
+   * samples their grams appear in.
+   */
+  private ArrayList<Segment> findSegments(HashMap<Long,int[]> counts)
+  {
+    HashMap<String,Segment> segmentMap = new HashMap<String,Segment>();
+    ArrayList<Segment> segments = new ArrayList<Segment>();
+
+    for (byte []sample : _samples) {
+      int i = 0;
+
+      while (i + GRAM_LENGTH <= sample.length) {
+        if (counts.get(gram(sample, i))[0] < 2) {
+          i++;
+          continue;
+        }
+
+        int start = i;
+        long score = 0;
+
+        for (;
+             i + GRAM_LENGTH <= sample.length
+               && i - start + GRAM_LENGTH < SEGMENT_MAX;
+             i++) {
+          int count = counts.get(gram(sample, i))[0];
+
+          if (count < 2)
+            break;
+
+          score += count;
+        }
+
+        int end = i + GRAM_LENGTH - 1;
+
+        byte []data = new byte[end - start];
+        System.arraycopy(sample, start, data, 0, data.length);
+
+        String key = toKey(data);
+
+        if (! segmentMap.containsKey(key)) {
+          Segment segment = new Segment(data, score);
+
+          segmentMap.put(key, segment);
+          segments.add(segment);
+        }
+      }
+    }
+
+    return segments;
+  }
+
+  private static Long gram(byte []data, int offset)
+  {
+    long value = 0;
+
+    for (int i = 0; i < GRAM_LENGTH; i++)
+      value = (value << 8) | (data[offset + i] & 0xff);
+
+    return Long.valueOf(value);
+  }
+
+  private static String toKey(byte []data)
+  {
+    char []chars = new char[data.length];
+
+    for (int i = 0; i < data.length; i++)
+      chars[i] = (char) (data[i] & 0xff);
+
+    return new String(chars);
+  }
+
+  static final class Segment {
+    final byte []_data;
+    final long _score;
+
+    Segment(byte []data, long score)
+    {
+      _data = data;
+      _score = score;
+    }
+  }
+
+  /**
+   * Trains a dictionary from sample files and writes it to a file.
+   */
+  public static void main(String []args)
+    throws IOException
+  {
+    int size = DEFAULT_SIZE;
+    Integer id = null;
+    int i = 0;
+
+    for (; i < args.length && args[i].startsWith("-"); i += 2) {
+      if (i + 1 >= args.length)
+        usage();
+      else if ("-size".equals(args[i]))
+        size = Integer.parseInt(args[i + 1]);
+      else if ("-id".equals(args[i]))
+        id = Integer.valueOf(args[i + 1]);
+      else
+        usage();
+    }
+
+    if (args.length < i + 2)
+      usage();
+
+    DeflateDictionaryTrainer trainer = new DeflateDictionaryTrainer(size);
+
+    for (int j = i + 1; j < args.length; j++)
+      trainer.addSample(readFile(args[j]));
+
+    HessianDeflateDictionary dictionary;
+
+    if (id != null)
+      dictionary = trainer.train(id.intValue());
+    else
+      dictionary = trainer.train();
+
+    FileOutputStream fos = new FileOutputStream(args[i]);
+
+    try {
+      Hessian2Output out = new Hessian2Output(fos);
+
+      dictionary.writeDictionary(out);
+
+      out.flush();
+    } finally {
+      fos.close();
+    }
+
+    System.out.println(dictionary + " from " + trainer.getSampleCount()
+                       + " samples");
+  }
+
+  private static byte []readFile(String name)
+    throws IOException
+  {
+    InputStream is = new FileInputStream(name);
+
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      byte []buffer = new byte[8192];
+      int len;
+
+      while ((len = is.read(buffer, 0, buffer.length)) > 0)
+        bos.write(buffer, 0, len);
+
+      return bos.toByteArray();
+    } finally {
+      is.close();
+    }
+  }
+
+  private static void usage()
+  {
+    throw new IllegalArgumentException("usage: DeflateDictionaryTrainer"
+                                       + " [-size n] [-id n]"
+                                       + " dictionary-file sample-file...");
+  }
+}
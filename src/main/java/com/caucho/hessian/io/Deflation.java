@@ -17,21 +17,38 @@
 package com.caucho.hessian.io;
 
 import java.util.*;
-import java.util.zip.*;
 
 import java.io.*;
 
 import com.caucho.hessian.io.*;
+import com.caucho.hessian.util.HessianDeflaterPool;
 
 public class Deflation extends HessianEnvelope {
+  private final HessianDeflaterPool _pool;
+
   public Deflation()
   {
+    this(HessianDeflaterPool.getDefault());
+  }
+
+  /**
+   * Creates the envelope using the pool's deflaters, compression level
+   * and threshold.
+   */
+  public Deflation(HessianDeflaterPool pool)
+  {
+    if (pool == null)
+      throw new NullPointerException();
+
+    _pool = pool;
   }
 
   public Hessian2Output wrap(Hessian2Output out)
     throws IOException
   {
-    OutputStream os = new DeflateOutputStream(out);
+    DeflateOutputStream os = new DeflateOutputStream(out, _pool);
+
+    os.open();
     
     Hessian2Output filterOut = new Hessian2Output(os);
 
@@ -57,7 +74,9 @@ public class Deflation extends HessianEnvelope {
   public Hessian2Input unwrapHeaders(Hessian2Input in)
     throws IOException
   {
-    InputStream is = new DeflateInputStream(in);
+    DeflateInputStream is = new DeflateInputStream(in, _pool);
+
+    is.open();
 
     Hessian2Input filter = new Hessian2Input(is);
     
@@ -66,23 +85,48 @@ public class Deflation extends HessianEnvelope {
     return filter;
   }
   
+  /**
+   * Writes the envelope.  Subclasses change the method, headers and
+   * deflater; <code>open</code> writes the header once they are set up.
+   */
   static class DeflateOutputStream extends OutputStream {
     private Hessian2Output _out;
+    private final HessianDeflaterPool _pool;
     private OutputStream _bodyOut;
-    private DeflaterOutputStream _deflateOut;
+    private OutputStream _deflateOut;
     
-    DeflateOutputStream(Hessian2Output out)
-      throws IOException
+    DeflateOutputStream(Hessian2Output out, HessianDeflaterPool pool)
     {
       _out = out;
+      _pool = pool;
+    }
 
-      _out.startEnvelope(Deflation.class.getName());
+    void open()
+      throws IOException
+    {
+      _out.startEnvelope(getMethod());
     
-      _out.writeInt(0);
+      writeHeaders(_out);
 
       _bodyOut = _out.getBytesOutputStream();
     
-      _deflateOut = new DeflaterOutputStream(_bodyOut);
+      _deflateOut = openDeflater(_bodyOut, _pool);
+    }
+
+    String getMethod()
+    {
+      return Deflation.class.getName();
+    }
+
+    void writeHeaders(Hessian2Output out)
+      throws IOException
+    {
+      out.writeInt(0);
+    }
+
+    OutputStream openDeflater(OutputStream os, HessianDeflaterPool pool)
+    {
+      return pool.openOutputStream(os, false);
     }
     
     public void write(int ch)
@@ -116,25 +160,44 @@ public class Deflation extends HessianEnvelope {
     }
   }
   
+  /**
+   * Reads the envelope.  Subclasses change the headers and inflater.
+   */
   static class DeflateInputStream extends InputStream {
     private Hessian2Input _in;
+    private final HessianDeflaterPool _pool;
     
     private InputStream _bodyIn;
-    private InflaterInputStream _inflateIn;
+    private InputStream _inflateIn;
     
-    DeflateInputStream(Hessian2Input in)
-      throws IOException
+    DeflateInputStream(Hessian2Input in, HessianDeflaterPool pool)
     {
       _in = in;
+      _pool = pool;
+    }
+
+    void open()
+      throws IOException
+    {
+      readHeaders(_in);
+      
+      _bodyIn = _in.readInputStream();
+
+      _inflateIn = openInflater(_bodyIn, _pool);
+    }
 
+    void readHeaders(Hessian2Input in)
+      throws IOException
+    {
       int len = in.readInt();
 
       if (len != 0)
         throw new IOException("expected no headers");
-      
-      _bodyIn = _in.readInputStream();
+    }
 
-      _inflateIn = new InflaterInputStream(_bodyIn);
+    InputStream openInflater(InputStream is, HessianDeflaterPool pool)
+    {
+      return pool.openInputStream(is, false);
     }
     
     public int read()
@@ -0,0 +1,209 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+
+import com.caucho.hessian.util.HessianDeflaterPool;
+
+/**
+ * Deflate envelope using a preset dictionary, for short messages which
+ * share class names, field names and common strings.
+ *
+ * <p>The envelope has a single <code>dictionary</code> header with the id
+ * of the dictionary.  Readers can hold older dictionaries as well, so the
+ * writers' dictionary can be replaced without breaking stored messages.
+ *
+ * <pre>
+ * HessianDeflateDictionary dict = new DeflateDictionaryTrainer()
+ *   .addSample(message1)
+ *   .addSample(message2)
+ *   .train();
+ *
+ * Hessian2Output out = new DictionaryDeflation(dict).wrap(out);
+ * </pre>
+ */
+public class DictionaryDeflation extends HessianEnvelope {
+  private final HessianDeflateDictionary _dictionary;
+  private final HessianDeflaterPool _pool;
+
+  private final HashMap<Integer,HessianDeflateDictionary> _dictionaryMap
+    = new HashMap<Integer,HessianDeflateDictionary>();
+
+  public DictionaryDeflation(HessianDeflateDictionary dictionary)
+  {
+    this(dictionary, HessianDeflaterPool.getDefault());
+  }
+
+  /**
+   * Creates the envelope using the pool's deflaters, compression level
+   * and threshold.
+   */
+  public DictionaryDeflation(HessianDeflateDictionary dictionary,
+                             HessianDeflaterPool pool)
+  {
+    if (dictionary == null || pool == null)
+      throw new NullPointerException();
+
+    _dictionary = dictionary;
+    _pool = pool;
+
+    _dictionaryMap.put(dictionary.getId(), dictionary);
+  }
+
+  /**
+   * Adds a dictionary which can be read, but is not used for writing.
+   * Not thread safe; add all dictionaries before sharing the envelope.
+   */
+  public DictionaryDeflation addDictionary(HessianDeflateDictionary dictionary)
+  {
+    _dictionaryMap.put(dictionary.getId(), dictionary);
+
+    return this;
+  }
+
+  public HessianDeflateDictionary getDictionary()
+  {
+    return _dictionary;
+  }
+
+  public Hessian2Output wrap(Hessian2Output out)
+    throws IOException
+  {
+    DeflateOutputStream os = new DeflateOutputStream(out, _dictionary, _pool);
+
+    os.open();
+
+    Hessian2Output filterOut = new Hessian2Output(os);
+
+    filterOut.setCloseStreamOnClose(true);
+
+    return filterOut;
+  }
+
+  public Hessian2Input unwrap(Hessian2Input in)
+    throws IOException
+  {
+    int version = in.readEnvelope();
+
+    String method = in.readMethod();
+
+    if (! method.equals(getClass().getName()))
+      throw new IOException("expected hessian Envelope method '" +
+                            getClass().getName() + "' at '" + method + "'");
+
+    return unwrapHeaders(in);
+  }
+
+  public Hessian2Input unwrapHeaders(Hessian2Input in)
+    throws IOException
+  {
+    DeflateInputStream is = new DeflateInputStream(in, this);
+
+    is.open();
+
+    Hessian2Input filter = new Hessian2Input(is);
+
+    filter.setCloseStreamOnClose(true);
+
+    return filter;
+  }
+
+  private HessianDeflateDictionary getDictionary(int id)
+    throws IOException
+  {
+    HessianDeflateDictionary dictionary = _dictionaryMap.get(id);
+
+    if (dictionary == null)
+      throw new IOException("unknown deflate dictionary " + id);
+
+    return dictionary;
+  }
+
+  static class DeflateOutputStream extends Deflation.DeflateOutputStream {
+    private final HessianDeflateDictionary _dictionary;
+
+    DeflateOutputStream(Hessian2Output out,
+                        HessianDeflateDictionary dictionary,
+                        HessianDeflaterPool pool)
+    {
+      super(out, pool);
+
+      _dictionary = dictionary;
+    }
+
+    @Override
+    String getMethod()
+    {
+      return DictionaryDeflation.class.getName();
+    }
+
+    @Override
+    void writeHeaders(Hessian2Output out)
+      throws IOException
+    {
+      out.writeInt(1);
+      out.writeString("dictionary");
+      out.writeInt(_dictionary.getId());
+    }
+
+    @Override
+    OutputStream openDeflater(OutputStream os, HessianDeflaterPool pool)
+    {
+      return pool.openOutputStream(os, _dictionary.getDataBuffer());
+    }
+  }
+
+  static class DeflateInputStream extends Deflation.DeflateInputStream {
+    private final DictionaryDeflation _envelope;
+    private HessianDeflateDictionary _dictionary;
+
+    DeflateInputStream(Hessian2Input in, DictionaryDeflation envelope)
+    {
+      super(in, envelope._pool);
+
+      _envelope = envelope;
+    }
+
+    @Override
+    void readHeaders(Hessian2Input in)
+      throws IOException
+    {
+      int len = in.readInt();
+
+      if (len != 1)
+        throw new IOException("expected a dictionary header");
+
+      String header = in.readString();
+
+      if (! "dictionary".equals(header))
+        throw new IOException("'" + header + "' is an unexpected header");
+
+      _dictionary = _envelope.getDictionary(in.readInt());
+    }
+
+    @Override
+    InputStream openInflater(InputStream is, HessianDeflaterPool pool)
+    {
+      return pool.openInputStream(is, _dictionary.getDataBuffer());
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+
+/**
+ * Base class for deserializers generated for {@link HessianExternal}
+ * classes, reading the values written by the matching
+ * {@link ExternalSerializer}.
+ */
+abstract public class ExternalDeserializer extends AbstractDeserializer {
+  @Override
+  abstract public Class<?> getType();
+
+  @Override
+  public Object readObject(AbstractHessianInput in,
+                           Object []fields)
+    throws IOException
+  {
+    return readInstance(in);
+  }
+
+  @Override
+  public Object readObject(AbstractHessianInput in,
+                           String []fieldNames)
+    throws IOException
+  {
+    return readInstance(in);
+  }
+
+  private Object readInstance(AbstractHessianInput in)
+    throws IOException
+  {
+    Object obj = instantiate();
+
+    in.addRef(obj);
+
+    readFields(obj, in);
+
+    return obj;
+  }
+
+  /**
+   * Creates a new, empty instance.
+   */
+  abstract protected Object instantiate();
+
+  /**
+   * Reads the field values into the instance.
+   */
+  abstract protected void readFields(Object obj,
+                                     AbstractHessianInput in)
+    throws IOException;
+
+  /**
+   * Reads a char written as a one-character string.
+   */
+  protected static char readChar(AbstractHessianInput in)
+    throws IOException
+  {
+    String value = in.readString();
+
+    if (value != null && value.length() > 0)
+      return value.charAt(0);
+    else
+      return 0;
+  }
+}
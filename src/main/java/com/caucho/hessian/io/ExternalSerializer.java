@@ -0,0 +1,43 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+
+/**
+ * Base class for serializers generated for {@link HessianExternal} classes.
+ * The object is written as a Hessian 2.0 class with no declared fields,
+ * followed by the field values in declaration order.
+ */
+abstract public class ExternalSerializer extends AbstractSerializer {
+  @Override
+  protected void writeDefinition20(Class<?> cl,
+                                   AbstractHessianOutput out)
+    throws IOException
+  {
+    out.writeClassFieldLength(0);
+  }
+
+  /**
+   * Writes the field values.
+   */
+  @Override
+  abstract protected void writeInstance(Object obj,
+                                        AbstractHessianOutput out)
+    throws IOException;
+}
@@ -103,6 +103,9 @@ public interface Hessian2Constants
   
   public static final int BC_TRUE = 'T';
 
+  // packed primitive array extension, uses the reserved 0x40 code
+  public static final int BC_PACKED_ARRAY = 0x40;
+
   public static final int P_PACKET_CHUNK = 0x4f;
   public static final int P_PACKET = 'P';
 
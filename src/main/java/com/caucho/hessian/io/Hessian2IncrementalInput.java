@@ -0,0 +1,924 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Non-blocking input for a stream of Hessian 2 values, fed with
+ * partial buffers as they arrive, for example on an NIO selector
+ * thread.
+ *
+ * <code><pre>
+ * Hessian2IncrementalInput in = new Hessian2IncrementalInput();
+ *
+ * // on each read event
+ * in.feed(byteBuffer);
+ *
+ * while (in.hasObject())
+ *   handle(in.readObject());
+ * </pre></code>
+ *
+ * Incoming bytes are scanned as they arrive, keeping the position
+ * within the current value (open objects, lists and maps, and partial
+ * strings and binaries), so each byte is scanned once.  Once a value is
+ * complete, it is decoded in place without blocking.  Only the bytes
+ * of the current value are buffered, up to the maximum value length.
+ * <p/>
+ * Objects which encode themselves, like <code>External</code> classes,
+ * can't be scanned.  A value containing one is instead decoded
+ * tentatively on each feed until it completes.
+ * <p/>
+ * References and class definitions carry over from value to value, as
+ * when reading the stream with a single <code>Hessian2Input</code>.
+ */
+public class Hessian2IncrementalInput
+{
+  private static final int SIZE = 1024;
+  private static final int SHRINK_SIZE = 64 * 1024;
+
+  private static final long NEED_MORE = Long.MIN_VALUE;
+
+  // field counts of class definitions
+  private static final int UNKNOWN = -2;
+  private static final int CUSTOM = -1;
+
+  private final Hessian2Input _in = new Hessian2Input();
+  private HessianClassDictionary _classDictionary;
+
+  private int _maxValueLength = 64 * 1024 * 1024;
+
+  private byte []_buffer = new byte[SIZE];
+  // start of the current value
+  private int _start;
+  // scan position
+  private int _offset;
+  // end of the buffered bytes
+  private int _length;
+
+  private boolean _isComplete;
+  private boolean _isTentative;
+  private boolean _isDecoded;
+  private Object _value;
+
+  // remaining payload of the current scalar
+  private boolean _isPayload;
+  private long _skip;
+  private int _chars;
+  private int _chunk;
+
+  // remaining values of each open container, -1 until 'Z'
+  private int []_stack = new int[16];
+  private int _depth;
+
+  // field count of each class definition reference
+  private int []_defFields = new int[16];
+  private int _defCount;
+
+  public void setSerializerFactory(SerializerFactory factory)
+  {
+    _in.setSerializerFactory(factory);
+  }
+
+  public SerializerFactory getSerializerFactory()
+  {
+    return _in.getSerializerFactory();
+  }
+
+  /**
+   * Sets the shared class dictionary, which must match the writer's.
+   * Must be called before the first value.
+   */
+  public void setClassDictionary(HessianClassDictionary dictionary)
+  {
+    _classDictionary = dictionary;
+    _in.setClassDictionary(dictionary);
+
+    resetDefinitions();
+  }
+
+  public HessianClassDictionary getClassDictionary()
+  {
+    return _classDictionary;
+  }
+
+  /**
+   * Sets the maximum encoded length of a single value.
+   */
+  public void setMaxValueLength(int length)
+  {
+    _maxValueLength = length;
+  }
+
+  public int getMaxValueLength()
+  {
+    return _maxValueLength;
+  }
+
+  /**
+   * Returns the number of buffered bytes not yet returned as values.
+   */
+  public int getBufferedLength()
+  {
+    return _length - _start;
+  }
+
+  /**
+   * Adds the remaining bytes of the buffer, consuming them.
+   */
+  public void feed(ByteBuffer buffer)
+  {
+    int length = buffer.remaining();
+
+    ensureCapacity(length);
+
+    buffer.get(_buffer, _length, length);
+    _length += length;
+  }
+
+  /**
+   * Adds bytes from the array.
+   */
+  public void feed(byte []buffer, int offset, int length)
+  {
+    ensureCapacity(length);
+
+    System.arraycopy(buffer, offset, _buffer, _length, length);
+    _length += length;
+  }
+
+  /**
+   * Returns true if a complete value is buffered, false if more bytes
+   * are needed.
+   */
+  public boolean hasObject()
+    throws IOException
+  {
+    if (_isComplete)
+      return true;
+
+    if (! _isTentative && scan()) {
+      _isComplete = true;
+      return true;
+    }
+
+    if (_isTentative && decodeTentative())
+      return true;
+
+    int length = _isTentative ? _length - _start : _offset - _start;
+
+    if (_maxValueLength < length)
+      throw new HessianProtocolException("value is longer than "
+                                         + _maxValueLength + " bytes");
+
+    return false;
+  }
+
+  /**
+   * Returns the next complete value.
+   *
+   * @throws IllegalStateException if more bytes are needed
+   */
+  public Object readObject()
+    throws IOException
+  {
+    if (! hasObject())
+      throw new IllegalStateException("value is incomplete");
+
+    Object value;
+
+    if (_isDecoded) {
+      value = _value;
+      _value = null;
+      _isDecoded = false;
+    }
+    else {
+      _in.initValue(_buffer, _start, _offset - _start);
+
+      value = _in.readObject();
+
+      if (_in.getBufferOffset() != _offset)
+        throw new HessianProtocolException("value length mismatch");
+    }
+
+    _isComplete = false;
+    _start = _offset;
+
+    if (_start == _length) {
+      _start = _offset = _length = 0;
+
+      if (SHRINK_SIZE < _buffer.length)
+        _buffer = new byte[SIZE];
+    }
+
+    return value;
+  }
+
+  /**
+   * Discards buffered bytes, references and class definitions, to
+   * start a new stream.
+   */
+  public void reset()
+  {
+    _in.reset();
+
+    _start = _offset = _length = 0;
+    _isComplete = _isTentative = _isDecoded = false;
+    _value = null;
+
+    resetScan();
+    resetDefinitions();
+  }
+
+  private void resetScan()
+  {
+    _isPayload = false;
+    _skip = 0;
+    _chars = 0;
+    _chunk = 0;
+    _depth = 0;
+  }
+
+  private void resetDefinitions()
+  {
+    _defCount = 0;
+
+    if (_classDictionary != null)
+      addDefinitions(_classDictionary.getSize());
+  }
+
+  private void ensureCapacity(int length)
+  {
+    if (length <= _buffer.length - _length)
+      return;
+
+    if (_start > 0) {
+      System.arraycopy(_buffer, _start, _buffer, 0, _length - _start);
+
+      _length -= _start;
+      _offset -= _start;
+      _start = 0;
+    }
+
+    if (_buffer.length - _length < length) {
+      int capacity = Math.max(2 * _buffer.length, _length + length);
+
+      _buffer = Arrays.copyOf(_buffer, capacity);
+    }
+  }
+
+  /**
+   * Scans the new bytes, returning true when the value is complete.
+   */
+  private boolean scan()
+    throws IOException
+  {
+    while (true) {
+      if (_isPayload) {
+        if (! scanPayload())
+          return false;
+
+        _isPayload = false;
+
+        if (endValue())
+          return true;
+
+        continue;
+      }
+
+      if (_length <= _offset)
+        return false;
+
+      int mark = _offset;
+
+      if (! scanValue()) {
+        _offset = mark;
+        return false;
+      }
+
+      if (_isTentative)
+        return false;
+    }
+  }
+
+  /**
+   * Counts a completed value against its container, closing the
+   * containers it completes.
+   *
+   * @return true if the top-level value is complete
+   */
+  private boolean endValue()
+  {
+    while (_depth > 0) {
+      int top = _depth - 1;
+
+      if (_stack[top] < 0 || --_stack[top] > 0)
+        return false;
+
+      _depth--;
+    }
+
+    return true;
+  }
+
+  private void push(int length)
+  {
+    if (length == 0) {
+      _isPayload = true;
+      return;
+    }
+
+    if (_depth == _stack.length)
+      _stack = Arrays.copyOf(_stack, 2 * _depth);
+
+    _stack[_depth++] = length;
+  }
+
+  /**
+   * Scans a value's code and header.  The header is scanned whole, or
+   * not at all if it's incomplete.
+   */
+  private boolean scanValue()
+    throws IOException
+  {
+    int tag = _buffer[_offset++] & 0xff;
+
+    if (tag <= 0x1f || tag >= 0x30 && tag <= 0x33
+        || tag == 'S' || tag == 'R') {
+      if (! scanString(tag))
+        return false;
+    }
+    else if (tag <= 0x2f || tag >= 0x34 && tag <= 0x37
+             || tag == 'B' || tag == 'A') {
+      if (! scanBinary(tag))
+        return false;
+    }
+    else if (tag <= 0x3f)
+      _skip = 2; // long short
+    else if (tag >= 0x60 && tag <= 0x6f)
+      return scanObject(tag - 0x60);
+    else if (tag >= 0x70 && tag <= 0x77) {
+      if (! scanType())
+        return false;
+
+      push(tag - 0x70);
+      return true;
+    }
+    else if (tag >= 0x78 && tag <= 0x7f) {
+      push(tag - 0x78);
+      return true;
+    }
+    else if (tag >= 0x80 && tag <= 0xbf
+             || tag >= 0xd8 && tag <= 0xef) {
+      // int and long direct
+    }
+    else if (tag >= 0xc0 && tag <= 0xcf || tag >= 0xf0)
+      _skip = 1;
+    else if (tag >= 0xd0 && tag <= 0xd7)
+      _skip = 2;
+    else {
+      switch (tag) {
+      case 'N': case 'T': case 'F':
+      case Hessian2Constants.BC_DOUBLE_ZERO:
+      case Hessian2Constants.BC_DOUBLE_ONE:
+        break;
+
+      case Hessian2Constants.BC_DOUBLE_BYTE:
+        _skip = 1;
+        break;
+
+      case Hessian2Constants.BC_DOUBLE_SHORT:
+        _skip = 2;
+        break;
+
+      case 'I':
+      case Hessian2Constants.BC_LONG_INT:
+      case Hessian2Constants.BC_DOUBLE_MILL:
+      case Hessian2Constants.BC_DATE_MINUTE:
+        _skip = 4;
+        break;
+
+      case 'L':
+      case 'D':
+      case Hessian2Constants.BC_DATE:
+        _skip = 8;
+        break;
+
+      case Hessian2Constants.BC_REF:
+        if (parseInt() == NEED_MORE)
+          return false;
+        break;
+
+      case 'C':
+        return scanDefinition();
+
+      case 'O': {
+        long ref = parseInt();
+
+        if (ref == NEED_MORE)
+          return false;
+
+        return scanObject((int) ref);
+      }
+
+      case Hessian2Constants.BC_LIST_VARIABLE:
+      case 'M':
+        if (! scanType())
+          return false;
+
+        push(-1);
+        return true;
+
+      case Hessian2Constants.BC_LIST_VARIABLE_UNTYPED:
+      case 'H':
+        push(-1);
+        return true;
+
+      case Hessian2Constants.BC_LIST_FIXED:
+      case Hessian2Constants.BC_LIST_FIXED_UNTYPED: {
+        if (tag == Hessian2Constants.BC_LIST_FIXED && ! scanType())
+          return false;
+
+        long length = parseInt();
+
+        if (length == NEED_MORE)
+          return false;
+        else if (length < 0)
+          throw new HessianProtocolException("illegal list length " + length);
+
+        push((int) length);
+        return true;
+      }
+
+      case 'Z':
+        if (_depth == 0 || _stack[_depth - 1] >= 0)
+          throw new HessianProtocolException("unexpected end of list or map");
+
+        _depth--;
+        break;
+
+      case Hessian2Constants.BC_PACKED_ARRAY:
+        if (! scanPackedArray())
+          return false;
+        break;
+
+      default:
+        throw new HessianProtocolException("unknown code 0x"
+                                           + Integer.toHexString(tag));
+      }
+    }
+
+    _isPayload = true;
+
+    return true;
+  }
+
+  private boolean scanObject(int ref)
+    throws IOException
+  {
+    int fields = getDefinitionFields(ref);
+
+    if (fields == CUSTOM)
+      _isTentative = true;
+    else
+      push(fields);
+
+    return true;
+  }
+
+  private boolean scanDefinition()
+    throws IOException
+  {
+    String type = parseString();
+
+    if (type == null)
+      return false;
+
+    long length = parseInt();
+
+    if (length == NEED_MORE)
+      return false;
+    else if (length < 0)
+      throw new HessianProtocolException("illegal field count " + length);
+
+    String []fieldNames = new String[(int) length];
+
+    for (int i = 0; i < fieldNames.length; i++) {
+      if ((fieldNames[i] = parseString()) == null)
+        return false;
+    }
+
+    Hessian2Input.ObjectDefinition def
+      = _in.createObjectDefinition(type, fieldNames);
+
+    addDefinitions(1);
+
+    if (Hessian2Input.isCustomEncoding(def)) {
+      _defFields[_defCount - 1] = CUSTOM;
+
+      // an External instance follows its definition directly
+      if (def.isExternal())
+        _isTentative = true;
+    }
+    else
+      _defFields[_defCount - 1] = fieldNames.length;
+
+    return true;
+  }
+
+  private int getDefinitionFields(int ref)
+    throws IOException
+  {
+    if (ref < 0 || _defCount <= ref)
+      throw new HessianProtocolException("illegal object reference #" + ref);
+
+    int fields = _defFields[ref];
+
+    if (fields != UNKNOWN)
+      return fields;
+
+    Hessian2Input.ObjectDefinition def = _in.findClassDefinition(ref);
+
+    if (def == null)
+      throw new HessianProtocolException("illegal object reference #" + ref);
+
+    if (Hessian2Input.isCustomEncoding(def))
+      fields = CUSTOM;
+    else
+      fields = def.getFieldNames().length;
+
+    _defFields[ref] = fields;
+
+    return fields;
+  }
+
+  private void addDefinitions(int count)
+  {
+    if (_defFields.length < _defCount + count)
+      _defFields = Arrays.copyOf(_defFields, Math.max(2 * _defFields.length,
+                                                      _defCount + count));
+
+    Arrays.fill(_defFields, _defCount, _defCount + count, UNKNOWN);
+
+    _defCount += count;
+  }
+
+  private boolean scanPackedArray()
+    throws IOException
+  {
+    int code = next();
+
+    if (code < 0)
+      return false;
+
+    long length = parseInt();
+
+    if (length == NEED_MORE)
+      return false;
+
+    switch (code) {
+    case 'D': case 'J':
+      _skip = 8 * length;
+      break;
+    case 'I': case 'F':
+      _skip = 4 * length;
+      break;
+    case 'S':
+      _skip = 2 * length;
+      break;
+    default:
+      throw new HessianProtocolException("unknown packed array code 0x"
+                                         + Integer.toHexString(code));
+    }
+
+    return true;
+  }
+
+  /**
+   * Scans the rest of a scalar: fixed bytes, characters and chunks.
+   */
+  private boolean scanPayload()
+    throws IOException
+  {
+    while (true) {
+      if (_skip > 0) {
+        int sublen = (int) Math.min(_skip, _length - _offset);
+
+        _offset += sublen;
+        _skip -= sublen;
+
+        if (_skip > 0)
+          return false;
+      }
+
+      if (_chars > 0 && ! skipChars())
+        return false;
+
+      if (_chunk == 0)
+        return true;
+
+      int mark = _offset;
+      int tag = next();
+
+      boolean isHeader;
+
+      if (tag < 0)
+        isHeader = false;
+      else if (_chunk == 'R')
+        isHeader = scanString(tag);
+      else
+        isHeader = scanBinary(tag);
+
+      if (! isHeader) {
+        _offset = mark;
+        return false;
+      }
+    }
+  }
+
+  private boolean scanString(int tag)
+    throws IOException
+  {
+    if (tag <= 0x1f) {
+      _chars = tag;
+      _chunk = 0;
+    }
+    else if (tag >= 0x30 && tag <= 0x33) {
+      int b = next();
+
+      if (b < 0)
+        return false;
+
+      _chars = ((tag - 0x30) << 8) + b;
+      _chunk = 0;
+    }
+    else if (tag == 'S' || tag == 'R') {
+      int length = parseShort();
+
+      if (length < 0)
+        return false;
+
+      _chars = length;
+      _chunk = tag == 'R' ? 'R' : 0;
+    }
+    else
+      throw new HessianProtocolException("expected string chunk at 0x"
+                                         + Integer.toHexString(tag));
+
+    return true;
+  }
+
+  private boolean scanBinary(int tag)
+    throws IOException
+  {
+    if (tag >= 0x20 && tag <= 0x2f) {
+      _skip = tag - 0x20;
+      _chunk = 0;
+    }
+    else if (tag >= 0x34 && tag <= 0x37) {
+      int b = next();
+
+      if (b < 0)
+        return false;
+
+      _skip = ((tag - 0x34) << 8) + b;
+      _chunk = 0;
+    }
+    else if (tag == 'B' || tag == 'A') {
+      int length = parseShort();
+
+      if (length < 0)
+        return false;
+
+      _skip = length;
+      _chunk = tag == 'A' ? 'A' : 0;
+    }
+    else
+      throw new HessianProtocolException("expected binary chunk at 0x"
+                                         + Integer.toHexString(tag));
+
+    return true;
+  }
+
+  private boolean scanType()
+    throws IOException
+  {
+    if (_length <= _offset)
+      return false;
+
+    int tag = _buffer[_offset] & 0xff;
+
+    if (tag <= 0x1f || tag >= 0x30 && tag <= 0x33
+        || tag == 'S' || tag == 'R')
+      return parseString() != null;
+    else
+      return parseInt() != NEED_MORE;
+  }
+
+  /**
+   * Skips whole UTF-8 characters of the current chunk.
+   */
+  private boolean skipChars()
+    throws IOException
+  {
+    byte []buffer = _buffer;
+    int offset = _offset;
+    int length = _length;
+    int chars = _chars;
+
+    while (chars > 0 && offset < length) {
+      int ch = buffer[offset] & 0xff;
+      int size;
+
+      if (ch < 0x80)
+        size = 1;
+      else if ((ch & 0xe0) == 0xc0)
+        size = 2;
+      else if ((ch & 0xf0) == 0xe0)
+        size = 3;
+      else
+        throw new HessianProtocolException("bad utf-8 encoding at 0x"
+                                           + Integer.toHexString(ch));
+
+      if (length - offset < size)
+        break;
+
+      offset += size;
+      chars--;
+    }
+
+    _offset = offset;
+    _chars = chars;
+
+    return chars == 0;
+  }
+
+  private int next()
+  {
+    return _offset < _length ? _buffer[_offset++] & 0xff : -1;
+  }
+
+  private int parseShort()
+  {
+    if (_length - _offset < 2)
+      return -1;
+
+    return (next() << 8) + next();
+  }
+
+  private long parseInt()
+    throws IOException
+  {
+    int tag = next();
+
+    if (tag < 0)
+      return NEED_MORE;
+    else if (tag >= 0x80 && tag <= 0xbf)
+      return tag - Hessian2Constants.BC_INT_ZERO;
+    else if (tag >= 0xc0 && tag <= 0xcf) {
+      int b = next();
+
+      return b < 0 ? NEED_MORE : ((tag - Hessian2Constants.BC_INT_BYTE_ZERO) << 8) + b;
+    }
+    else if (tag >= 0xd0 && tag <= 0xd7) {
+      int b = parseShort();
+
+      return b < 0 ? NEED_MORE : ((tag - Hessian2Constants.BC_INT_SHORT_ZERO) << 16) + b;
+    }
+    else if (tag == 'I') {
+      if (_length - _offset < 4)
+        return NEED_MORE;
+
+      return (next() << 24) + (next() << 16) + (next() << 8) + next();
+    }
+    else
+      throw new HessianProtocolException("expected integer at 0x"
+                                         + Integer.toHexString(tag));
+  }
+
+  /**
+   * Parses a whole string, returning null if it's incomplete.
+   */
+  private String parseString()
+    throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+
+    while (true) {
+      int tag = next();
+
+      if (tag < 0 || ! scanString(tag))
+        return null;
+
+      boolean isLast = _chunk == 0;
+
+      for (; _chars > 0; _chars--) {
+        int ch = next();
+
+        if (ch < 0)
+          return null;
+        else if (ch < 0x80)
+          sb.append((char) ch);
+        else if ((ch & 0xe0) == 0xc0) {
+          int ch1 = next();
+
+          if (ch1 < 0)
+            return null;
+
+          sb.append((char) (((ch & 0x1f) << 6) + (ch1 & 0x3f)));
+        }
+        else if ((ch & 0xf0) == 0xe0) {
+          if (_length - _offset < 2)
+            return null;
+
+          int ch1 = next();
+          int ch2 = next();
+
+          sb.append((char) (((ch & 0x0f) << 12)
+                            + ((ch1 & 0x3f) << 6) + (ch2 & 0x3f)));
+        }
+        else
+          throw new HessianProtocolException("bad utf-8 encoding at 0x"
+                                             + Integer.toHexString(ch));
+      }
+
+      if (isLast)
+        return sb.toString();
+    }
+  }
+
+  /**
+   * Decodes a value with a custom-encoded object, rolling back the
+   * input's references and definitions if it's incomplete.  Any other
+   * failure means the value is malformed and is rethrown.
+   */
+  private boolean decodeTentative()
+    throws IOException
+  {
+    int []mark = _in.mark();
+
+    _in.initValue(_buffer, _start, _length - _start);
+
+    Object value;
+
+    try {
+      value = _in.readObject();
+    } catch (IOException e) {
+      _in.rollback(mark);
+
+      if (_in.isEndOfValue())
+        return false;
+
+      throw e;
+    } catch (RuntimeException e) {
+      _in.rollback(mark);
+
+      // e.g. an External's readExternal wrapping the end of the value
+      if (_in.isEndOfValue())
+        return false;
+
+      throw e;
+    }
+
+    _offset = _in.getBufferOffset();
+    _value = value;
+    _isDecoded = true;
+    _isComplete = true;
+    _isTentative = false;
+
+    resetScan();
+
+    // definitions the input read past the scan
+    int count = _in.getClassDefinitionCount();
+
+    if (_classDictionary != null)
+      count += _classDictionary.getSize();
+
+    if (_defCount < count)
+      addDefinitions(count - _defCount);
+
+    return true;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + getBufferedLength() + " bytes]";
+  }
+}
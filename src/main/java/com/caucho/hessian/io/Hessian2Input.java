@@ -18,6 +18,7 @@ package com.caucho.hessian.io;
 
 import java.io.*;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -39,6 +40,15 @@ import java.util.logging.Logger;
  * value = in.readString(); // read string value
  * in.completeReply();      // read reply footer
  * </pre>
+ * <p/>
+ * <p>When the whole message is already in memory, the input can decode
+ * directly from a byte array slice or a ByteBuffer without an
+ * InputStream wrapper or the copy into the internal buffer:
+ * <p/>
+ * <pre>
+ * Hessian2Input in = new Hessian2Input(bytes, offset, length);
+ * Object value = in.readObject();
+ * </pre>
  */
 public class Hessian2Input
         extends AbstractHessianInput
@@ -67,9 +77,29 @@ public class Hessian2Input
     protected ArrayList<String> _types
             = new ArrayList<String>();
 
+    // shared class definitions, numbered before the message's own
+    private HessianClassDictionary _classDictionary;
+    // dictionary definitions resolved with _dictionaryFactory
+    private ObjectDefinition[] _dictionaryDefs;
+    private SerializerFactory _dictionaryFactory;
+
+    // fields to materialize for the objects being read, null for all
+    private HessianProjection _projection;
+
     // the underlying input stream
     private InputStream _is;
-    private final byte[] _buffer = new byte[SIZE];
+    // the buffer filled from the input stream
+    private final byte[] _streamBuffer = new byte[SIZE];
+    // the buffer being decoded, either _streamBuffer or a caller's array
+    private byte[] _buffer = _streamBuffer;
+    // a direct buffer drained into _streamBuffer
+    private ByteBuffer _byteBuffer;
+    // a complete value decoded by initValue, which must not read past the end
+    private boolean _isBoundedValue;
+    // set when a bounded value is read past its end
+    private boolean _isEndOfValue;
+    // true if columnar lists are returned as columns instead of beans
+    private boolean _isColumnarView;
 
     // a peek character
     private int _offset;
@@ -106,6 +136,20 @@ public class Hessian2Input
         init(is);
     }
 
+    /**
+     * Creates a new Hessian input stream which decodes directly from
+     * a byte array slice.
+     *
+     * @param buffer the encoded message
+     * @param offset the start of the message in the buffer
+     * @param length the length of the message
+     */
+    public Hessian2Input(byte[] buffer, int offset, int length) {
+        this();
+
+        init(buffer, offset, length);
+    }
+
     /**
      * Sets the serializer factory.
      */
@@ -126,6 +170,21 @@ public class Hessian2Input
         return _serializerFactory;
     }
 
+    /**
+     * Sets the shared class dictionary, which must match the writer's.
+     */
+    public void setClassDictionary(HessianClassDictionary dictionary) {
+        _classDictionary = dictionary;
+        _dictionaryDefs = null;
+    }
+
+    /**
+     * Returns the shared class dictionary.
+     */
+    public HessianClassDictionary getClassDictionary() {
+        return _classDictionary;
+    }
+
     /**
      * Gets the serializer factory.
      */
@@ -141,6 +200,21 @@ public class Hessian2Input
         return factory;
     }
 
+    /**
+     * Returns columnar lists as a HessianColumnarList, which exposes the
+     * columns directly, instead of an ArrayList of beans.
+     */
+    public void setColumnarView(boolean isColumnarView) {
+        _isColumnarView = isColumnarView;
+    }
+
+    /**
+     * Returns true if columnar lists are returned as columns.
+     */
+    public boolean isColumnarView() {
+        return _isColumnarView;
+    }
+
     public void setCloseStreamOnClose(boolean isClose) {
         _isCloseStreamOnClose = isClose;
     }
@@ -170,17 +244,74 @@ public class Hessian2Input
             is = _dIs;
         }
 
+        releaseBuffer();
+
         _is = is;
 
         reset();
     }
 
+    /**
+     * Initializes the input to decode directly from a byte array slice.
+     * The bytes are read in place; the array must not be modified until
+     * decoding completes.
+     *
+     * @param buffer the encoded message
+     * @param offset the start of the message in the buffer
+     * @param length the length of the message
+     */
+    public void init(byte[] buffer, int offset, int length) {
+        if (offset < 0 || length < 0 || buffer.length < offset + length)
+            throw new IndexOutOfBoundsException("offset=" + offset
+                    + " length=" + length
+                    + " buffer.length=" + buffer.length);
+
+        _is = null;
+        _byteBuffer = null;
+        _isBoundedValue = false;
+
+        _buffer = buffer;
+        _offset = offset;
+        _length = offset + length;
+
+        reset();
+    }
+
+    /**
+     * Initializes the input to decode the remaining bytes of a ByteBuffer.
+     * Heap buffers are read in place.  Direct buffers are drained in
+     * chunks into the internal buffer.  The position of the caller's
+     * buffer is not modified.
+     *
+     * @param buffer the encoded message
+     */
+    public void init(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            init(buffer.array(),
+                    buffer.arrayOffset() + buffer.position(),
+                    buffer.remaining());
+            return;
+        }
+
+        _is = null;
+        _isBoundedValue = false;
+
+        _buffer = _streamBuffer;
+        _offset = 0;
+        _length = 0;
+        _byteBuffer = buffer.slice();
+
+        reset();
+    }
+
     public void initPacket(InputStream is) {
         if (_dIs != null) {
             _dIs.initPacket(is);
             is = _dIs;
         }
 
+        releaseBuffer();
+
         _is = is;
 
         resetReferences();
@@ -2204,6 +2335,34 @@ public class Hessian2Input
         return map;
     }
 
+    /**
+     * Reads an object from the input stream with an expected type,
+     * materializing only the projected fields of objects.  Other fields
+     * are skipped, and keep their default values.
+     */
+    public Object readObject(Class<?> cl, HessianProjection projection)
+            throws IOException {
+        HessianProjection oldProjection = _projection;
+        _projection = projection;
+
+        try {
+            return readObject(cl);
+        } finally {
+            _projection = oldProjection;
+        }
+    }
+
+    /**
+     * Sets the projection for the objects being read, returning the
+     * previous one.
+     */
+    HessianProjection setProjection(HessianProjection projection) {
+        HessianProjection oldProjection = _projection;
+        _projection = projection;
+
+        return oldProjection;
+    }
+
     /**
      * Reads an object from the input stream with an expected type.
      */
@@ -2268,25 +2427,21 @@ public class Hessian2Input
             case 0x6e:
             case 0x6f: {
                 int ref = tag - 0x60;
-                int size = _classDefs.size();
+                ObjectDefinition def = findClassDefinition(ref);
 
-                if (ref < 0 || size <= ref)
+                if (def == null)
                     throw new HessianProtocolException("'" + ref + "' is an unknown class definition");
 
-                ObjectDefinition def = _classDefs.get(ref);
-
                 return readObjectInstance(cl, def);
             }
 
             case 'O': {
                 int ref = readInt();
-                int size = _classDefs.size();
+                ObjectDefinition def = findClassDefinition(ref);
 
-                if (ref < 0 || size <= ref)
+                if (def == null)
                     throw new HessianProtocolException("'" + ref + "' is an unknown class definition");
 
-                ObjectDefinition def = _classDefs.get(ref);
-
                 return readObjectInstance(cl, def);
             }
 
@@ -2376,6 +2531,9 @@ public class Hessian2Input
 
                 return _refs.get(ref);
             }
+
+            case BC_PACKED_ARRAY:
+                return readPackedArray();
         }
 
         if (tag >= 0)
@@ -2834,23 +2992,22 @@ public class Hessian2Input
             case 0x6e:
             case 0x6f: {
                 int ref = tag - 0x60;
+                ObjectDefinition def = findClassDefinition(ref);
 
-                if (_classDefs.size() <= ref)
+                if (def == null)
                     throw error("No classes defined at reference '"
                             + Integer.toHexString(tag) + "'");
 
-                ObjectDefinition def = _classDefs.get(ref);
-
                 return readObjectInstance(null, def);
             }
 
             case 'O': {
                 int ref = readInt();
+                ObjectDefinition def = findClassDefinition(ref);
 
-                if (_classDefs.size() <= ref)
+                if (def == null)
                     throw error("Illegal object reference #" + ref);
 
-                ObjectDefinition def = _classDefs.get(ref);
                 if (def.isExternal()) return readExternal(def, this);
                 else return readObjectInstance(null, def);
                 //return readObjectInstance(null, def);
@@ -2862,6 +3019,9 @@ public class Hessian2Input
                 return _refs.get(ref);
             }
 
+            case BC_PACKED_ARRAY:
+                return readPackedArray();
+
             default:
                 if (tag < 0)
                     throw new EOFException("readObject: unexpected end of file");
@@ -2882,30 +3042,103 @@ public class Hessian2Input
         String type = readString();
         int len = readInt();
 
-        SerializerFactory factory = findSerializerFactory();
-
-        Deserializer reader = factory.getObjectDeserializer(type, null);
-
-        Object[] fields = reader.createFields(len);
         String[] fieldNames = new String[len];
 
         for (int i = 0; i < len; i++) {
-            String name = readString();
-
-            fields[i] = reader.createField(name);
-            fieldNames[i] = name;
+            fieldNames[i] = readString();
         }
 
-        ObjectDefinition def
-                = new ObjectDefinition(type, reader, fields, fieldNames);
+        ObjectDefinition def = createObjectDefinition(type, fieldNames);
 
         _classDefs.add(def);
         return def;
     }
 
+    /**
+     * Returns the resolved definition, shared through the serializer
+     * factory so repeated definitions are only a lookup.
+     */
+    ObjectDefinition createObjectDefinition(String type,
+                                            String[] fieldNames)
+            throws IOException {
+        return findSerializerFactory().getObjectDefinition(type, fieldNames);
+    }
+
+    /**
+     * Returns the definition for a class reference, looking in the class
+     * dictionary first, or null if the reference is undefined.
+     */
+    ObjectDefinition findClassDefinition(int ref)
+            throws IOException {
+        if (ref < 0)
+            return null;
+
+        HessianClassDictionary dictionary = _classDictionary;
+
+        if (dictionary != null) {
+            int size = dictionary.getSize();
+
+            if (ref < size)
+                return getDictionaryDefinition(dictionary, ref);
+
+            ref -= size;
+        }
+
+        if (_classDefs.size() <= ref)
+            return null;
+
+        return _classDefs.get(ref);
+    }
+
+    private ObjectDefinition getDictionaryDefinition(HessianClassDictionary dictionary,
+                                                     int ref)
+            throws IOException {
+        SerializerFactory factory = findSerializerFactory();
+        ObjectDefinition[] defs = _dictionaryDefs;
+
+        if (defs == null || _dictionaryFactory != factory) {
+            defs = new ObjectDefinition[dictionary.getSize()];
+            _dictionaryDefs = defs;
+            _dictionaryFactory = factory;
+        }
+
+        ObjectDefinition def = defs[ref];
+
+        if (def == null) {
+            def = createObjectDefinition(dictionary.getType(ref),
+                    dictionary.getFieldNamesRef(ref));
+            defs[ref] = def;
+        }
+
+        return def;
+    }
+
+    /**
+     * Returns the number of class definitions read from the current
+     * message, not counting the class dictionary.
+     */
+    int getClassDefinitionCount() {
+        return _classDefs.size();
+    }
+
+    String getClassDefinitionType(int index) {
+        return _classDefs.get(index).getType();
+    }
+
+    String[] getClassDefinitionFieldNames(int index) {
+        return _classDefs.get(index).getFieldNames();
+    }
+
     private Object readObjectInstance(Class<?> cl,
                                       ObjectDefinition def)
             throws IOException {
+        // instances after the first come through compact class references
+        if (def.isExternal())
+            return readExternal(def, this);
+
+        if (_projection != null)
+            return readProjectedInstance(cl, def);
+
         String type = def.getType();
         Deserializer reader = def.getReader();
         Object[] fields = def.getFields();
@@ -2915,12 +3148,43 @@ public class Hessian2Input
         if (cl != reader.getType() && cl != null) {
             reader = factory.getObjectDeserializer(type, cl);
 
-            return reader.readObject(this, def.getFieldNames());
+            if (reader instanceof UnsafeDeserializer
+                    || reader instanceof JavaDeserializer)
+                return reader.readObject(this, def.getNarrowFields(reader));
+            else
+                return reader.readObject(this, def.getFieldNames());
         } else {
             return reader.readObject(this, fields);
         }
     }
 
+    private Object readProjectedInstance(Class<?> cl,
+                                         ObjectDefinition def)
+            throws IOException {
+        HessianProjection projection = _projection;
+        Deserializer reader = def.getReader();
+
+        if (cl != reader.getType() && cl != null)
+            reader = findSerializerFactory().getObjectDeserializer(def.getType(), cl);
+
+        Object[] fields = null;
+
+        if (reader instanceof AbstractDeserializer)
+            fields = projection.getFields(def, (AbstractDeserializer) reader);
+
+        if (fields != null)
+            return reader.readObject(this, fields);
+
+        // the reader can't project, so the object is read whole
+        _projection = null;
+
+        try {
+            return readObjectInstance(cl, def);
+        } finally {
+            _projection = projection;
+        }
+    }
+
     /**
      * Reads a remote object.
      */
@@ -3015,89 +3279,631 @@ public class Hessian2Input
     }
 
     /**
-     * Adds a list/map reference.
+     * Advances past the next value without materializing it.  Nested
+     * objects, lists and maps are skipped recursively and chunked
+     * strings and binaries chunk by chunk.
+     * <p/>
+     * Skipped objects, lists and maps still take their reference
+     * numbers, so later back references resolve to the right values,
+     * but a back reference to a skipped value reads as null.  Class
+     * definitions and type names are recorded as usual, and objects
+     * with a custom encoding (no wire fields) are read and dropped.
+     * Deserializers dropping a field use <code>skipFieldValue</code>,
+     * which keeps back references intact.
      */
     @Override
-    public int addRef(Object ref) {
-        if (_refs == null)
-            _refs = new ArrayList();
+    public void skipValue()
+            throws IOException {
+        int tag = _offset < _length ? (_buffer[_offset++] & 0xff) : read();
 
-        _refs.add(ref);
+        while (tag == 'C') {
+            ObjectDefinition def = readObjectDefinition(null);
 
-        return _refs.size() - 1;
-    }
+            // an External instance follows its definition directly
+            if (def.isExternal()) {
+                readExternal(def, this);
+                return;
+            }
 
-    /**
-     * Adds a list/map reference.
-     */
-    public void setRef(int i, Object ref) {
-        _refs.set(i, ref);
+            tag = read();
+        }
+
+        if (tag < 0)
+            throw new EOFException("skipValue: unexpected end of file");
+        else if (tag <= 0x1f || tag >= 0x30 && tag <= 0x33)
+            skipString(tag);
+        else if (tag <= 0x2f || tag >= 0x34 && tag <= 0x37)
+            skipBinary(tag);
+        else if (tag <= 0x3f)
+            skip(2); // long short
+        else if (tag >= 0x60 && tag <= 0x6f)
+            skipObject(readObjectHeader(tag));
+        else if (tag >= 0x70 && tag <= 0x7f)
+            skipList(readListHeader(tag));
+        else if (tag >= 0x80 && tag <= 0xbf)
+            return; // int direct
+        else if (tag >= 0xc0 && tag <= 0xcf)
+            skip(1); // int byte
+        else if (tag >= 0xd0 && tag <= 0xd7)
+            skip(2); // int short
+        else if (tag >= 0xd8 && tag <= 0xef)
+            return; // long direct
+        else if (tag >= 0xf0)
+            skip(1); // long byte
+        else {
+            switch (tag) {
+                case 'N':
+                case 'T':
+                case 'F':
+                case BC_DOUBLE_ZERO:
+                case BC_DOUBLE_ONE:
+                    break;
+
+                case BC_DOUBLE_BYTE:
+                    skip(1);
+                    break;
+
+                case BC_DOUBLE_SHORT:
+                    skip(2);
+                    break;
+
+                case 'I':
+                case BC_LONG_INT:
+                case BC_DOUBLE_MILL:
+                case BC_DATE_MINUTE:
+                    skip(4);
+                    break;
+
+                case 'L':
+                case 'D':
+                case BC_DATE:
+                    skip(8);
+                    break;
+
+                case BC_STRING_CHUNK:
+                case 'S':
+                    skipString(tag);
+                    break;
+
+                case BC_BINARY_CHUNK:
+                case 'B':
+                    skipBinary(tag);
+                    break;
+
+                case BC_REF:
+                    readInt();
+                    break;
+
+                case 'O':
+                    skipObject(readObjectHeader(tag));
+                    break;
+
+                case BC_LIST_VARIABLE:
+                case BC_LIST_FIXED:
+                case BC_LIST_VARIABLE_UNTYPED:
+                case BC_LIST_FIXED_UNTYPED:
+                    skipList(readListHeader(tag));
+                    break;
+
+                case 'H':
+                case 'M':
+                    readMapHeader(tag);
+
+                    while (!isEnd()) {
+                        skipValue();
+                        skipValue();
+                    }
+
+                    readMapEnd();
+                    break;
+
+                case BC_PACKED_ARRAY:
+                    skipPackedArray();
+                    break;
+
+                default:
+                    throw error("skipValue: unknown code " + codeName(tag));
+            }
+        }
     }
 
     /**
-     * Resets the references for streaming.
+     * Skips a field value the reader does not keep.  Strings, binaries
+     * and numbers are skipped without decoding them; objects, lists and
+     * maps are read whole, without a projection, so a later back
+     * reference to them or to a value inside them resolves correctly.
      */
     @Override
-    public void resetReferences() {
-        _refs.clear();
-    }
+    public void skipFieldValue()
+            throws IOException {
+        if (!isReferenceCode(peekValueCode())) {
+            skipValue();
+            return;
+        }
 
-    public void reset() {
-        resetReferences();
+        HessianProjection projection = _projection;
+        _projection = null;
 
-        _classDefs.clear();
-        _types.clear();
+        try {
+            readObject();
+        } finally {
+            _projection = projection;
+        }
     }
 
-    public void resetBuffer() {
-        int offset = _offset;
-        _offset = 0;
+    /**
+     * True if the code starts a value that takes a reference number.
+     */
+    private static boolean isReferenceCode(int code) {
+        if (code >= 0x60 && code <= 0x7f)
+            return true; // compact objects and lists
 
-        int length = _length;
-        _length = 0;
+        switch (code) {
+            case 'C':
+            case 'O':
+            case 'H':
+            case 'M':
+            case BC_LIST_VARIABLE:
+            case BC_LIST_FIXED:
+            case BC_LIST_VARIABLE_UNTYPED:
+            case BC_LIST_FIXED_UNTYPED:
+            case BC_PACKED_ARRAY:
+                return true;
 
-        if (length > 0 && offset != length)
-            throw new IllegalStateException("offset=" + offset + " length=" + length);
+            default:
+                return false;
+        }
     }
 
-    public Object readStreamingObject()
+    /**
+     * Returns the code of the next value without consuming it.
+     */
+    int peekValueCode()
             throws IOException {
-        if (_refs != null)
-            _refs.clear();
+        int tag = _offset < _length ? (_buffer[_offset++] & 0xff) : read();
 
-        return readObject();
+        if (tag >= 0)
+            _offset--;
+
+        return tag;
     }
 
     /**
-     * Resolves a remote object.
+     * Returns the definition of the object starting at the next value,
+     * leaving the object unread.  Class definitions ahead of an ordinary
+     * object are read, as <code>readObject</code> would read them.  An
+     * <code>External</code> definition is left unread, since its object's
+     * data follows it directly.
      */
-    public Object resolveRemote(String type, String url)
+    ObjectDefinition peekObjectDefinition()
             throws IOException {
-        HessianRemoteResolver resolver = getRemoteResolver();
+        int tag = peekValueCode();
 
-        if (resolver != null)
-            return resolver.lookup(type, url);
-        else
-            return new HessianRemote(type, url);
+        while (tag == 'C') {
+            ObjectDefinition def = peekClassDefinition();
+
+            if (def != null && def.isExternal())
+                return def;
+
+            read();
+            readObjectDefinition(null);
+
+            tag = peekValueCode();
+        }
+
+        if (tag >= 0x60 && tag <= 0x6f)
+            return findClassDefinition(tag - 0x60);
+        else if (tag != 'O')
+            throw expect("object", tag);
+
+        // 'O' and its int, which is read ahead only as far as it goes
+        fillBuffer(2);
+
+        if (_length - _offset >= 2) {
+            int code = _buffer[_offset + 1] & 0xff;
+
+            if (code == 'I')
+                fillBuffer(6);
+            else if (code >= 0xd0 && code <= 0xd7)
+                fillBuffer(4);
+            else if (code >= 0xc0 && code <= 0xcf)
+                fillBuffer(3);
+        }
+
+        int offset = _offset;
+
+        read();
+        int ref = readInt();
+
+        _offset = offset;
+
+        return findClassDefinition(ref);
     }
 
     /**
-     * Parses a type from the stream.
-     * <p/>
-     * <pre>
-     * type ::= string
-     * type ::= int
-     * </pre>
+     * Decodes the class definition at the next 'C' without consuming it,
+     * reading ahead only as far as the definition goes.  Returns null if
+     * the definition is longer than the buffer.
      */
-    public String readType()
+    private ObjectDefinition peekClassDefinition()
             throws IOException {
-        int code = _offset < _length ? (_buffer[_offset++] & 0xff) : read();
-        _offset--;
+        while (true) {
+            int available = _length - _offset;
 
-        switch (code) {
-            case 0x00:
-            case 0x01:
-            case 0x02:
+            Hessian2Input in
+                = new Hessian2Input(_buffer, _offset + 1, available - 1);
+
+            try {
+                String type = in.readString();
+                String[] fieldNames = new String[in.readInt()];
+
+                for (int i = 0; i < fieldNames.length; i++) {
+                    fieldNames[i] = in.readString();
+                }
+
+                return createObjectDefinition(type, fieldNames);
+            } catch (IOException e) {
+                // truncated in the buffer, so read more of the stream
+            }
+
+            fillBuffer(available + 1);
+
+            if (_length - _offset <= available)
+                return null;
+        }
+    }
+
+    /**
+     * Reads ahead until at least <code>length</code> bytes are buffered,
+     * the buffer is full, or the stream ends.
+     */
+    private void fillBuffer(int length)
+            throws IOException {
+        while (_length - _offset < length && _buffer == _streamBuffer) {
+            int available = _length - _offset;
+
+            if (available == SIZE
+                    || !readBuffer()
+                    || _length - _offset <= available)
+                return;
+        }
+    }
+
+    /**
+     * Reads an object's definition and reference, taking the object's
+     * reference number without creating the object.
+     */
+    ObjectDefinition readObjectHeader()
+            throws IOException {
+        int tag = read();
+
+        while (tag == 'C') {
+            ObjectDefinition def = readObjectDefinition(null);
+
+            if (def.isExternal())
+                throw error(def.getType() + " is External and must be read with readObject()");
+
+            tag = read();
+        }
+
+        ObjectDefinition def = readObjectHeader(tag);
+
+        addRef(null);
+
+        return def;
+    }
+
+    /**
+     * Reads a list's code, type and length, taking the list's reference
+     * number.
+     *
+     * @return the length, or -1 for a variable length list
+     */
+    int readListHeader()
+            throws IOException {
+        return readListHeader(read());
+    }
+
+    /**
+     * Reads a map's code and type, taking the map's reference number.
+     */
+    void readMapHeader()
+            throws IOException {
+        readMapHeader(read());
+    }
+
+    /**
+     * True if the definition's values can't be skipped by count,
+     * because the class writes them itself.
+     */
+    static boolean isCustomEncoding(ObjectDefinition def) {
+        return def.isExternal() || def.getReader() instanceof ExternalDeserializer;
+    }
+
+    private ObjectDefinition readObjectHeader(int tag)
+            throws IOException {
+        int ref;
+
+        if (tag == 'O')
+            ref = readInt();
+        else if (tag >= 0x60 && tag <= 0x6f)
+            ref = tag - 0x60;
+        else
+            throw expect("object", tag);
+
+        ObjectDefinition def = findClassDefinition(ref);
+
+        if (def == null)
+            throw error("Illegal object reference #" + ref);
+
+        return def;
+    }
+
+    private int readListHeader(int tag)
+            throws IOException {
+        int length;
+
+        switch (tag) {
+            case BC_LIST_VARIABLE:
+                readType();
+                length = -1;
+                break;
+
+            case BC_LIST_FIXED:
+                readType();
+                length = readInt();
+                break;
+
+            case BC_LIST_VARIABLE_UNTYPED:
+                length = -1;
+                break;
+
+            case BC_LIST_FIXED_UNTYPED:
+                length = readInt();
+                break;
+
+            default:
+                if (tag >= 0x70 && tag <= 0x77) {
+                    readType();
+                    length = tag - 0x70;
+                } else if (tag >= 0x78 && tag <= 0x7f)
+                    length = tag - 0x78;
+                else
+                    throw expect("list", tag);
+        }
+
+        addRef(null);
+
+        return length;
+    }
+
+    private void readMapHeader(int tag)
+            throws IOException {
+        if (tag == 'M')
+            readType();
+        else if (tag != 'H')
+            throw expect("map", tag);
+
+        addRef(null);
+    }
+
+    private void skipObject(ObjectDefinition def)
+            throws IOException {
+        if (isCustomEncoding(def)) {
+            if (def.isExternal())
+                readExternal(def, this);
+            else
+                readObjectInstance(null, def);
+
+            return;
+        }
+
+        addRef(null);
+
+        for (int i = def.getFieldNames().length; i > 0; i--)
+            skipValue();
+    }
+
+    private void skipList(int length)
+            throws IOException {
+        if (length < 0) {
+            while (!isEnd())
+                skipValue();
+
+            readListEnd();
+        } else {
+            for (; length > 0; length--)
+                skipValue();
+        }
+    }
+
+    private void skipPackedArray()
+            throws IOException {
+        int code = read();
+        int length = readInt();
+        int size;
+
+        switch (code) {
+            case 'D':
+            case 'J':
+                size = 8;
+                break;
+            case 'I':
+            case 'F':
+                size = 4;
+                break;
+            case 'S':
+                size = 2;
+                break;
+            default:
+                throw error("skipValue: unknown packed array code " + codeName(code));
+        }
+
+        addRef(null);
+
+        skip((long) length * size);
+    }
+
+    private void skipString(int tag)
+            throws IOException {
+        while (true) {
+            if (tag >= 0 && tag <= 0x1f) {
+                skipChars(tag);
+                return;
+            } else if (tag >= 0x30 && tag <= 0x33) {
+                skipChars(((tag - 0x30) << 8) + read());
+                return;
+            } else if (tag == 'S' || tag == BC_STRING_CHUNK) {
+                skipChars((read() << 8) + read());
+
+                if (tag == 'S')
+                    return;
+
+                tag = read();
+            } else
+                throw expect("string", tag);
+        }
+    }
+
+    private void skipChars(int length)
+            throws IOException {
+        for (; length > 0; length--) {
+            int ch = _offset < _length ? (_buffer[_offset++] & 0xff) : read();
+
+            if (ch < 0)
+                throw new EOFException("skipValue: unexpected end of file");
+            else if (ch < 0x80)
+                continue;
+            else if ((ch & 0xe0) == 0xc0)
+                skip(1);
+            else if ((ch & 0xf0) == 0xe0)
+                skip(2);
+            else
+                throw error("bad utf-8 encoding at " + codeName(ch));
+        }
+    }
+
+    private void skipBinary(int tag)
+            throws IOException {
+        while (true) {
+            if (tag >= 0x20 && tag <= 0x2f) {
+                skip(tag - 0x20);
+                return;
+            } else if (tag >= 0x34 && tag <= 0x37) {
+                skip(((tag - 0x34) << 8) + read());
+                return;
+            } else if (tag == 'B' || tag == BC_BINARY_CHUNK) {
+                skip((read() << 8) + read());
+
+                if (tag == 'B')
+                    return;
+
+                tag = read();
+            } else
+                throw expect("binary", tag);
+        }
+    }
+
+    private void skip(long length)
+            throws IOException {
+        while (length > 0) {
+            if (_length <= _offset && !readBuffer())
+                throw new EOFException("skipValue: unexpected end of file");
+
+            int sublen = _length - _offset;
+
+            if (length < sublen)
+                sublen = (int) length;
+
+            _offset += sublen;
+            length -= sublen;
+        }
+    }
+
+    /**
+     * Adds a list/map reference.
+     */
+    @Override
+    public int addRef(Object ref) {
+        if (_refs == null)
+            _refs = new ArrayList();
+
+        _refs.add(ref);
+
+        return _refs.size() - 1;
+    }
+
+    /**
+     * Adds a list/map reference.
+     */
+    public void setRef(int i, Object ref) {
+        _refs.set(i, ref);
+    }
+
+    /**
+     * Resets the references for streaming.
+     */
+    @Override
+    public void resetReferences() {
+        _refs.clear();
+    }
+
+    public void reset() {
+        resetReferences();
+
+        _classDefs.clear();
+        _types.clear();
+    }
+
+    public void resetBuffer() {
+        int offset = _offset;
+        _offset = 0;
+
+        int length = _length;
+        _length = 0;
+
+        if (length > 0 && offset != length)
+            throw new IllegalStateException("offset=" + offset + " length=" + length);
+    }
+
+    public Object readStreamingObject()
+            throws IOException {
+        if (_refs != null)
+            _refs.clear();
+
+        return readObject();
+    }
+
+    /**
+     * Resolves a remote object.
+     */
+    public Object resolveRemote(String type, String url)
+            throws IOException {
+        HessianRemoteResolver resolver = getRemoteResolver();
+
+        if (resolver != null)
+            return resolver.lookup(type, url);
+        else
+            return new HessianRemote(type, url);
+    }
+
+    /**
+     * Parses a type from the stream.
+     * <p/>
+     * <pre>
+     * type ::= string
+     * type ::= int
+     * </pre>
+     */
+    public String readType()
+            throws IOException {
+        int code = _offset < _length ? (_buffer[_offset++] & 0xff) : read();
+        _offset--;
+
+        switch (code) {
+            case 0x00:
+            case 0x01:
+            case 0x02:
             case 0x03:
             case 0x04:
             case 0x05:
@@ -3574,6 +4380,92 @@ public class Hessian2Input
         return readLength;
     }
 
+    /**
+     * Reads a packed primitive array, copying the big-endian values
+     * straight out of the read buffer.
+     */
+    private Object readPackedArray()
+            throws IOException {
+        int code = read();
+        int length = readInt();
+
+        if (length < 0)
+            throw error("readObject: illegal packed array length " + length);
+
+        Object array;
+        int size;
+
+        switch (code) {
+            case 'D':
+                array = new double[length];
+                size = 8;
+                break;
+            case 'I':
+                array = new int[length];
+                size = 4;
+                break;
+            case 'J':
+                array = new long[length];
+                size = 8;
+                break;
+            case 'F':
+                array = new float[length];
+                size = 4;
+                break;
+            case 'S':
+                array = new short[length];
+                size = 2;
+                break;
+            default:
+                throw error("readObject: unknown packed array code " + codeName(code));
+        }
+
+        addRef(array);
+
+        int i = 0;
+
+        while (i < length) {
+            int available = _length - _offset;
+            int sublen = available / size;
+
+            if (sublen == 0) {
+                // a value straddles the buffer end
+                if (!readBuffer() || _length - _offset <= available)
+                    throw new EOFException("readObject: unexpected end of packed array");
+
+                continue;
+            }
+
+            if (length - i < sublen)
+                sublen = length - i;
+
+            ByteBuffer view = ByteBuffer.wrap(_buffer, _offset, sublen * size);
+
+            switch (code) {
+                case 'D':
+                    view.asDoubleBuffer().get((double[]) array, i, sublen);
+                    break;
+                case 'I':
+                    view.asIntBuffer().get((int[]) array, i, sublen);
+                    break;
+                case 'J':
+                    view.asLongBuffer().get((long[]) array, i, sublen);
+                    break;
+                case 'F':
+                    view.asFloatBuffer().get((float[]) array, i, sublen);
+                    break;
+                default:
+                    view.asShortBuffer().get((short[]) array, i, sublen);
+                    break;
+            }
+
+            _offset += sublen * size;
+            i += sublen;
+        }
+
+        return array;
+    }
+
     /**
      * Normally, shouldn't be called externally, but needed for QA, e.g.
      * ejb/3b01.
@@ -3599,6 +4491,19 @@ public class Hessian2Input
         int offset = _offset;
         int length = _length;
 
+        // a caller's array is decoded in place and never refilled
+        if (buffer != _streamBuffer) {
+            if (_isBoundedValue) {
+                _isEndOfValue = true;
+                throw new EOFException("unexpected end of value");
+            }
+
+            return false;
+        }
+
+        if (_is == null)
+            return readByteBuffer();
+
         if (offset < length) {
             System.arraycopy(buffer, offset, buffer, 0, length - offset);
             offset = length - offset;
@@ -3620,6 +4525,119 @@ public class Hessian2Input
         return true;
     }
 
+    /**
+     * Drains the next chunk of a direct ByteBuffer into the stream buffer.
+     */
+    private boolean readByteBuffer() {
+        ByteBuffer byteBuffer = _byteBuffer;
+
+        if (byteBuffer == null || !byteBuffer.hasRemaining())
+            return false;
+
+        byte[] buffer = _buffer;
+        int offset = _offset;
+        int length = _length;
+
+        if (offset < length) {
+            System.arraycopy(buffer, offset, buffer, 0, length - offset);
+            offset = length - offset;
+        } else
+            offset = 0;
+
+        int len = Math.min(byteBuffer.remaining(), SIZE - offset);
+
+        byteBuffer.get(buffer, offset, len);
+
+        _length = offset + len;
+        _offset = 0;
+
+        return true;
+    }
+
+    /**
+     * Continues decoding the stream from a caller's array, keeping the
+     * references and definitions of the values already read.  Reading
+     * past the end of the array throws <code>EOFException</code>.
+     */
+    void initValue(byte[] buffer, int offset, int length) {
+        _is = null;
+        _byteBuffer = null;
+        _isBoundedValue = true;
+        _isEndOfValue = false;
+
+        _buffer = buffer;
+        _offset = offset;
+        _length = offset + length;
+    }
+
+    /**
+     * True if the value set with <code>initValue</code> was read past its
+     * end, i.e. it is incomplete rather than malformed.
+     */
+    boolean isEndOfValue() {
+        return _isEndOfValue;
+    }
+
+    /**
+     * Returns the read position in the current buffer.
+     */
+    int getBufferOffset() {
+        return _offset;
+    }
+
+    /**
+     * Starts with the class definitions and types of the preceding
+     * packets, which were read by another input.
+     */
+    void initDefinitions(ObjectDefinition[] defs, int defCount,
+                         String[] types, int typeCount) {
+        _classDefs.clear();
+
+        for (int i = 0; i < defCount; i++)
+            _classDefs.add(defs[i]);
+
+        _types.clear();
+
+        for (int i = 0; i < typeCount; i++)
+            _types.add(types[i]);
+    }
+
+    /**
+     * Returns the number of references, class definitions and types, to
+     * restore with <code>rollback</code> after an incomplete value.
+     */
+    int[] mark() {
+        int refs = _refs != null ? _refs.size() : 0;
+
+        return new int[] { refs, _classDefs.size(), _types.size() };
+    }
+
+    /**
+     * Drops the references, class definitions and types added since
+     * the mark.
+     */
+    void rollback(int[] mark) {
+        if (_refs != null)
+            _refs.subList(mark[0], _refs.size()).clear();
+
+        _classDefs.subList(mark[1], _classDefs.size()).clear();
+        _types.subList(mark[2], _types.size()).clear();
+    }
+
+    /**
+     * Drops any caller-supplied buffer and returns to stream mode.
+     */
+    void releaseBuffer() {
+        _isBoundedValue = false;
+
+        if (_buffer != _streamBuffer || _byteBuffer != null) {
+            _buffer = _streamBuffer;
+            _byteBuffer = null;
+            _offset = 0;
+            _length = 0;
+        }
+    }
+
     public Reader getReader() {
         return null;
     }
@@ -3701,6 +4719,9 @@ public class Hessian2Input
 
     public void free() {
         reset();
+
+        setClassDictionary(null);
+        releaseBuffer();
     }
 
     @Override
@@ -3709,6 +4730,8 @@ public class Hessian2Input
         InputStream is = _is;
         _is = null;
 
+        releaseBuffer();
+
         if (_isCloseStreamOnClose && is != null)
             is.close();
     }
@@ -3758,24 +4781,38 @@ public class Hessian2Input
      * @return
      */
     private Object readExternal(ObjectDefinition def, Hessian2Input in) {
+        HessianProjection projection = _projection;
+        _projection = null;
+
         try {
             Object obj = def.getCls().newInstance();
             ((External) obj).readExternal(in);
             return obj;
         } catch (Exception ex) {
             throw new RuntimeException(ex.getMessage(), ex);
+        } finally {
+            _projection = projection;
         }
 
     }
 
+    /**
+     * Resolved class definition.  Definitions are immutable and shared
+     * between inputs, see SerializerFactory.getObjectDefinition.
+     */
     final static class ObjectDefinition {
+        // target classes remembered per definition
+        private static final int MAX_NARROW_READERS = 8;
+
         private final String _type;
         private final Deserializer _reader;
         private final Object[] _fields;
         private final String[] _fieldNames;
         // add class for support of class implements External interface
         private final Class cls;
-        private boolean external = false;
+        private final boolean external;
+        // fields resolved for each narrower reader of the definition
+        private volatile NarrowFields[] _narrowFields = new NarrowFields[0];
 
         ObjectDefinition(String type,
                          Deserializer reader,
@@ -3792,7 +4829,10 @@ public class Hessian2Input
                 } catch (ClassNotFoundException ex) {
                     throw new RuntimeException(ex.getMessage(), ex);
                 }
-            } else cls = null;
+            } else {
+                cls = null;
+                external = false;
+            }
 
         }
 
@@ -3832,6 +4872,47 @@ public class Hessian2Input
         String[] getFieldNames() {
             return _fieldNames;
         }
+
+        /**
+         * Returns the field readers of a reader for a different class
+         * than the definition's, so reading into a narrower class drops
+         * the missing fields without looking them up per object.  The
+         * readers of several target classes are kept.
+         */
+        Object[] getNarrowFields(Deserializer reader) {
+            NarrowFields[] narrowFields = _narrowFields;
+
+            for (NarrowFields entry : narrowFields) {
+                if (entry._reader == reader)
+                    return entry._fields;
+            }
+
+            Object[] fields = reader.createFields(_fieldNames.length);
+
+            for (int i = 0; i < _fieldNames.length; i++) {
+                fields[i] = reader.createField(_fieldNames[i]);
+            }
+
+            // copy on write; a racing update only loses a cache entry
+            int length = Math.min(narrowFields.length, MAX_NARROW_READERS - 1);
+            NarrowFields[] newFields = new NarrowFields[length + 1];
+            newFields[0] = new NarrowFields(reader, fields);
+            System.arraycopy(narrowFields, 0, newFields, 1, length);
+
+            _narrowFields = newFields;
+
+            return fields;
+        }
+    }
+
+    private static final class NarrowFields {
+        private final Deserializer _reader;
+        private final Object[] _fields;
+
+        NarrowFields(Deserializer reader, Object[] fields) {
+            _reader = reader;
+            _fields = fields;
+        }
     }
 
     static {
@@ -16,12 +16,21 @@
 
 package com.caucho.hessian.io;
 
+import com.caucho.hessian.util.HessianBufferPool;
 import com.caucho.hessian.util.IdentityIntMap;
 
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Output stream for Hessian 2 requests.
@@ -41,6 +50,18 @@ import java.util.HashMap;
  * out.writeString("arg1");   // write a string argument
  * out.completeCall();        // complete the call
  * </pre>
+ *
+ * <p>To encode into memory without an OutputStream, initialize the output
+ * with <code>initBuffer</code>.  Full buffers are handed off as segments
+ * and replaced from a pool instead of being copied:
+ *
+ * <pre>
+ * Hessian2Output out = new Hessian2Output();
+ * out.initBuffer();
+ * out.writeObject(value);
+ * byte []data = out.toByteArray(); // or toByteBuffer(), getSegments()
+ * out.free();                      // returns the segments to the pool
+ * </pre>
  */
 public class Hessian2Output
   extends AbstractHessianOutput
@@ -49,6 +70,34 @@ public class Hessian2Output
   // should match Resin buffer size for perf
   public final static int SIZE = 8 * 1024;
 
+  // default element count for parallel lists and maps
+  public final static int PARALLEL_THRESHOLD = 64 * 1024;
+
+  // default element count for columnar lists
+  public final static int COLUMNAR_THRESHOLD = 64;
+
+  // most type names kept in their encoded form
+  private final static int TYPE_BYTES_MAX = 4096;
+
+  private final static ConcurrentHashMap<String,byte[]> _typeBytesMap
+    = new ConcurrentHashMap<String,byte[]>();
+
+  // true for subclasses which override writeObjectBegin(String)
+  private final static ClassValue<Boolean> _isObjectBeginOverrideValue
+    = new ClassValue<Boolean>() {
+    @Override
+    protected Boolean computeValue(Class<?> cl)
+    {
+      try {
+        Method method = cl.getMethod("writeObjectBegin", String.class);
+
+        return method.getDeclaringClass() != Hessian2Output.class;
+      } catch (NoSuchMethodException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  };
+
   // the output stream/
   protected OutputStream _os;
 
@@ -64,16 +113,40 @@ public class Hessian2Output
   private final IdentityIntMap _classRefs
     = new IdentityIntMap(256);
 
+  // shared class definitions, numbered before the message's own
+  private HessianClassDictionary _classDictionary;
+  private int _classDefCount;
+
   // map of types
   private HashMap<String,Integer> _typeRefs;
+  private int _typeCount;
 
-  private final byte []_buffer = new byte[SIZE];
+  private byte []_buffer = new byte[SIZE];
   private int _offset;
 
+  // segment pool and completed segments when encoding into memory
+  private HessianBufferPool _bufferPool;
+  private ArrayList<ByteBuffer> _segments;
+
   private boolean _isPacket;
   
   private boolean _isUnshared;
 
+  private boolean _isPackedArrays;
+
+  private boolean _isColumnarLists;
+  private int _columnarThreshold = COLUMNAR_THRESHOLD;
+
+  // pool for encoding large lists and maps in parallel segments
+  private ForkJoinPool _parallelPool;
+  private int _parallelThreshold = PARALLEL_THRESHOLD;
+
+  // the segment being encoded, when this output encodes part of a list
+  private Hessian2Segment _segment;
+
+  private final boolean _isObjectBeginOverride
+    = _isObjectBeginOverrideValue.get(getClass());
+
   /**
    * Creates a new Hessian output stream, initialized with an
    * underlying output stream.
@@ -100,9 +173,43 @@ public class Hessian2Output
   {
     reset();
 
+    releaseSegments();
+    _bufferPool = null;
+
     _os = os;
   }
 
+  /**
+   * Initializes the output to encode into pooled memory segments
+   * from the default pool.
+   */
+  public void initBuffer()
+  {
+    initBuffer(HessianBufferPool.getDefault());
+  }
+
+  /**
+   * Initializes the output to encode into memory segments drawn from
+   * the given pool.  The pool's segments must be <code>SIZE</code> bytes.
+   */
+  public void initBuffer(HessianBufferPool pool)
+  {
+    if (pool.getSegmentSize() != SIZE)
+      throw new IllegalArgumentException("segment size "
+                                         + pool.getSegmentSize()
+                                         + " must be " + SIZE);
+
+    reset();
+
+    releaseSegments();
+
+    if (_segments == null)
+      _segments = new ArrayList<ByteBuffer>();
+
+    _bufferPool = pool;
+    _os = null;
+  }
+
   public void initPacket(OutputStream os)
   {
     resetReferences();
@@ -134,6 +241,113 @@ public class Hessian2Output
     return oldIsUnshared;
   }
 
+  /**
+   * Sets the shared class dictionary.  Classes in the dictionary are
+   * written by reference, without their definitions, so the reader
+   * must use the same dictionary.
+   */
+  public void setClassDictionary(HessianClassDictionary dictionary)
+  {
+    _classDictionary = dictionary;
+
+    _classDefCount = dictionary != null ? dictionary.getSize() : 0;
+  }
+
+  /**
+   * Returns the shared class dictionary.
+   */
+  public HessianClassDictionary getClassDictionary()
+  {
+    return _classDictionary;
+  }
+
+  /**
+   * Writes short, int, long, float and double arrays as packed blocks
+   * of big-endian values.  Readers older than the extension can't
+   * decode them, so it must only be enabled when the reader is known
+   * to support it.
+   */
+  public void setPackedArrays(boolean isPackedArrays)
+  {
+    _isPackedArrays = isPackedArrays;
+  }
+
+  /**
+   * Returns true if primitive arrays are written as packed blocks.
+   */
+  public boolean isPackedArrays()
+  {
+    return _isPackedArrays;
+  }
+
+  /**
+   * Writes ArrayLists of beans of a single class as columns: each field's
+   * values are written together, with integer columns delta or
+   * run-length encoded and string columns dictionary encoded.  Readers
+   * older than the extension see a typed list they can't decode, so it
+   * must only be enabled when the reader is known to support it.
+   *
+   * <p>Elements of a columnar list are written by value; an element
+   * referenced elsewhere in the graph is decoded as a separate copy.
+   */
+  public void setColumnarLists(boolean isColumnarLists)
+  {
+    _isColumnarLists = isColumnarLists;
+  }
+
+  /**
+   * Returns true if lists of beans are written as columns.
+   */
+  public boolean isColumnarLists()
+  {
+    return _isColumnarLists;
+  }
+
+  /**
+   * Sets the smallest list written as columns.
+   */
+  public void setColumnarThreshold(int threshold)
+  {
+    _columnarThreshold = threshold;
+  }
+
+  /**
+   * Sets the pool for encoding large lists, arrays and maps in parallel
+   * segments, or null to encode them on the calling thread.
+   *
+   * Objects shared between segments are written once per segment, so
+   * their identity is only kept within a segment.
+   */
+  public void setParallelPool(ForkJoinPool pool)
+  {
+    _parallelPool = pool;
+  }
+
+  /**
+   * Returns the pool for parallel encoding.
+   */
+  public ForkJoinPool getParallelPool()
+  {
+    return _parallelPool;
+  }
+
+  /**
+   * Sets the minimum number of elements of a list, array or map to
+   * encode in parallel.
+   */
+  public void setParallelThreshold(int length)
+  {
+    _parallelThreshold = length;
+  }
+
+  /**
+   * Returns the minimum number of elements for parallel encoding.
+   */
+  public int getParallelThreshold()
+  {
+    return _parallelThreshold;
+  }
+
   /**
    * Writes a complete method call.
    */
@@ -156,6 +370,35 @@ public class Hessian2Output
     flush();
   }
 
+  /**
+   * Writes a complete method call, copying the pre-encoded header.
+   */
+  @Override
+  public void call(HessianCallHeader header, Object []args)
+    throws IOException
+  {
+    int length = args != null ? args.length : 0;
+
+    if (length != header.getLength()) {
+      call(header.getMethod(), args);
+      return;
+    }
+
+    writeVersion();
+
+    byte []data = header.getHessian2Header();
+
+    writeRaw(data, 0, data.length);
+
+    for (int i = 0; i < length; i++) {
+      writeObject(args[i]);
+    }
+
+    completeCall();
+
+    flush();
+  }
+
   /**
    * Starts the method call.  Clients would use <code>startCall</code>
    * instead of <code>call</code> if they wanted finer control over
@@ -511,6 +754,198 @@ public class Hessian2Output
     _buffer[_offset++] = (byte) BC_END;
   }
 
+  /**
+   * Returns true if the list or map is large enough to encode in
+   * parallel segments.  Segments are never split again.
+   */
+  @Override
+  public boolean isParallel(int length)
+  {
+    return (_parallelPool != null
+            && _parallelThreshold <= length
+            && _segment == null);
+  }
+
+  /**
+   * Encodes segments of the values concurrently, each with its own
+   * references and class definitions, and appends them renumbered
+   * to follow this output's.
+   */
+  @Override
+  public void writeParallel(Object []values, boolean isEntries)
+    throws IOException
+  {
+    Hessian2Segment.write(this, values, isEntries, _parallelPool);
+  }
+
+  /**
+   * Starts encoding a segment for the parent output.
+   */
+  void initSegment(Hessian2Segment segment, Hessian2Output parent)
+  {
+    _segment = segment;
+
+    setSerializerFactory(parent.findSerializerFactory());
+    setClassDictionary(parent._classDictionary);
+    _isPackedArrays = parent._isPackedArrays;
+    _isColumnarLists = parent._isColumnarLists;
+    _columnarThreshold = parent._columnarThreshold;
+    _isUnshared = parent._isUnshared;
+
+    _refCount = parent._refCount;
+    _classDefCount = parent._classDefCount;
+    _typeCount = parent._typeCount;
+  }
+
+  int getRefCount()
+  {
+    return _refCount;
+  }
+
+  int getClassDefCount()
+  {
+    return _classDefCount;
+  }
+
+  int getTypeCount()
+  {
+    return _typeCount;
+  }
+
+  /**
+   * Counts the references, class definitions and types of appended
+   * segments.
+   */
+  void addSegmentCounts(int refs, int classDefs, int types)
+  {
+    _refCount += refs;
+    _classDefCount += classDefs;
+    _typeCount += types;
+  }
+
+  /**
+   * Appends already encoded bytes.
+   */
+  void writeRaw(byte []data, int offset, int length)
+    throws IOException
+  {
+    while (length > 0) {
+      int sublen = SIZE - _offset;
+
+      if (sublen == 0) {
+        flushBuffer();
+        continue;
+      }
+
+      if (length < sublen)
+        sublen = length;
+
+      System.arraycopy(data, offset, _buffer, _offset, sublen);
+
+      _offset += sublen;
+      offset += sublen;
+      length -= sublen;
+    }
+  }
+
+  /**
+   * Writes a primitive array as a packed block.
+   *
+   * <code><pre>
+   * x40 code int b*
+   * </pre></code>
+   *
+   * The code is the array's element descriptor, 'S', 'I', 'J', 'F'
+   * or 'D', followed by the element count and the raw big-endian values.
+   */
+  @Override
+  public boolean writePackedArray(Object array)
+    throws IOException
+  {
+    if (! _isPackedArrays)
+      return false;
+
+    if (array instanceof double [])
+      writePackedArray('D', 8, array, ((double []) array).length);
+    else if (array instanceof int [])
+      writePackedArray('I', 4, array, ((int []) array).length);
+    else if (array instanceof long [])
+      writePackedArray('J', 8, array, ((long []) array).length);
+    else if (array instanceof float [])
+      writePackedArray('F', 4, array, ((float []) array).length);
+    else if (array instanceof short [])
+      writePackedArray('S', 2, array, ((short []) array).length);
+    else
+      return false;
+
+    return true;
+  }
+
+  /**
+   * Writes an ArrayList of beans as columns.
+   *
+   * @see ColumnarListSerializer
+   */
+  @Override
+  public boolean writeColumnarList(Collection<?> list)
+    throws IOException
+  {
+    if (! _isColumnarLists
+        || list.size() < _columnarThreshold
+        || list.getClass() != ArrayList.class)
+      return false;
+
+    return ColumnarListSerializer.writeList(this, list);
+  }
+
+  private void writePackedArray(int code, int size, Object array, int length)
+    throws IOException
+  {
+    flushIfFull();
+
+    _buffer[_offset++] = (byte) BC_PACKED_ARRAY;
+    _buffer[_offset++] = (byte) code;
+
+    writeInt(length);
+
+    int i = 0;
+
+    while (i < length) {
+      int sublen = (SIZE - _offset) / size;
+
+      if (sublen == 0) {
+        flushBuffer();
+        continue;
+      }
+
+      if (length - i < sublen)
+        sublen = length - i;
+
+      ByteBuffer view = ByteBuffer.wrap(_buffer, _offset, sublen * size);
+
+      switch (code) {
+      case 'D':
+        view.asDoubleBuffer().put((double []) array, i, sublen);
+        break;
+      case 'I':
+        view.asIntBuffer().put((int []) array, i, sublen);
+        break;
+      case 'J':
+        view.asLongBuffer().put((long []) array, i, sublen);
+        break;
+      case 'F':
+        view.asFloatBuffer().put((float []) array, i, sublen);
+        break;
+      default:
+        view.asShortBuffer().put((short []) array, i, sublen);
+        break;
+      }
+
+      _offset += sublen * size;
+      i += sublen;
+    }
+  }
+
   /**
    * Writes the map header to the stream.  Map writers will call
    * <code>writeMapBegin</code> followed by the map contents and then
@@ -559,24 +994,22 @@ public class Hessian2Output
   public int writeObjectBegin(String type)
     throws IOException
   {
-    int newRef = _classRefs.size();
-    int ref = _classRefs.put(type, newRef, false);
+    int ref = findClassRef(type);
 
-    if (newRef != ref) {
+    if (ref != IdentityIntMap.NULL) {
       if (SIZE < _offset + 32)
         flushBuffer();
 
-      if (ref <= OBJECT_DIRECT_MAX) {
-        _buffer[_offset++] = (byte) (BC_OBJECT_DIRECT + ref);
-      }
-      else {
-        _buffer[_offset++] = (byte) 'O';
-        writeInt(ref);
-      }
+      if (_segment != null)
+        _segment.addClassRef(_offset, ref);
+
+      writeObjectRef(ref);
 
       return ref;
     }
     else {
+      _classRefs.put(type, _classDefCount++, false);
+
       if (SIZE < _offset + 32)
         flushBuffer();
 
@@ -588,6 +1021,110 @@ public class Hessian2Output
     }
   }
 
+  /**
+   * Writes the object header, copying the pre-encoded definition
+   * from <code>encodeDefinition</code> the first time the class is used.
+   * Subclasses which override <code>writeObjectBegin(String)</code> get
+   * that method instead, so their override sees every object.
+   */
+  @Override
+  public int writeObjectBegin(String type, byte []definition)
+    throws IOException
+  {
+    if (_isObjectBeginOverride)
+      return writeObjectBegin(type);
+
+    int ref = findClassRef(type);
+
+    if (ref == IdentityIntMap.NULL) {
+      ref = _classDefCount++;
+
+      _classRefs.put(type, ref, false);
+
+      writeRaw(definition, 0, definition.length);
+    }
+
+    if (SIZE < _offset + 32)
+      flushBuffer();
+
+    if (_segment != null)
+      _segment.addClassRef(_offset, ref);
+
+    writeObjectRef(ref);
+
+    return ref;
+  }
+
+  /**
+   * Returns the reference of an already defined class, or NULL.
+   */
+  private int findClassRef(String type)
+  {
+    int ref = _classRefs.get(type);
+
+    if (ref == IdentityIntMap.NULL && _segment != null) {
+      ref = _segment.getParent()._classRefs.get(type);
+
+      if (ref != IdentityIntMap.NULL)
+        _classRefs.put(type, ref, false);
+    }
+
+    if (ref == IdentityIntMap.NULL && _classDictionary != null) {
+      ref = _classDictionary.getRef(type);
+
+      if (ref >= 0)
+        _classRefs.put(type, ref, false);
+      else
+        ref = IdentityIntMap.NULL;
+    }
+
+    return ref;
+  }
+
+  /**
+   * Encodes a complete class definition, <code>C type int &lt;key>*</code>,
+   * for <code>writeObjectBegin(String, byte[])</code>.
+   */
+  public static byte []encodeDefinition(String type, String []fieldNames)
+  {
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      bos.write('C');
+
+      Hessian2Output out = new Hessian2Output(bos);
+
+      out.writeString(type);
+      out.writeInt(fieldNames.length);
+
+      for (int i = 0; i < fieldNames.length; i++)
+        out.writeString(fieldNames[i]);
+
+      out.flushBuffer();
+
+      return bos.toByteArray();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Writes a reference to a class definition.
+   */
+  void writeObjectRef(int ref)
+    throws IOException
+  {
+    if (SIZE < _offset + 16)
+      flushBuffer();
+
+    if (ref <= OBJECT_DIRECT_MAX) {
+      _buffer[_offset++] = (byte) (BC_OBJECT_DIRECT + ref);
+    }
+    else {
+      _buffer[_offset++] = (byte) 'O';
+      writeInt(ref);
+    }
+  }
+
   /**
    * Writes the tail of the class definition to the stream.
    */
@@ -628,16 +1165,90 @@ public class Hessian2Output
 
     Integer typeRefV = (Integer) _typeRefs.get(type);
 
+    if (typeRefV == null && _segment != null) {
+      HashMap<String,Integer> parentTypeRefs = _segment.getParent()._typeRefs;
+
+      if (parentTypeRefs != null
+          && (typeRefV = parentTypeRefs.get(type)) != null)
+        _typeRefs.put(type, typeRefV);
+    }
+
     if (typeRefV != null) {
       int typeRef = typeRefV.intValue();
 
+      if (_segment != null)
+        _segment.addTypeRef(_offset, typeRef);
+
       writeInt(typeRef);
     }
     else {
-      _typeRefs.put(type, Integer.valueOf(_typeRefs.size()));
+      _typeRefs.put(type, Integer.valueOf(_typeCount++));
 
-      writeString(type);
+      byte []typeBytes = _typeBytesMap.get(type);
+
+      if (typeBytes == null
+          && _typeBytesMap.size() < TYPE_BYTES_MAX
+          && len <= STRING_SHORT_MAX) {
+        typeBytes = encodeString(type);
+
+        _typeBytesMap.putIfAbsent(type, typeBytes);
+      }
+
+      if (typeBytes != null)
+        writeRaw(typeBytes, 0, typeBytes.length);
+      else
+        writeString(type);
+    }
+  }
+
+  /**
+   * Returns the encoded form of a string of at most STRING_SHORT_MAX
+   * characters, as writeString writes it.
+   */
+  private static byte []encodeString(String value)
+  {
+    int length = value.length();
+    int byteLength = length <= STRING_DIRECT_MAX ? 1 : 2;
+
+    for (int i = 0; i < length; i++) {
+      char ch = value.charAt(i);
+
+      if (ch < 0x80)
+        byteLength += 1;
+      else if (ch < 0x800)
+        byteLength += 2;
+      else
+        byteLength += 3;
+    }
+
+    byte []buffer = new byte[byteLength];
+    int offset = 0;
+
+    if (length <= STRING_DIRECT_MAX) {
+      buffer[offset++] = (byte) (BC_STRING_DIRECT + length);
+    }
+    else {
+      buffer[offset++] = (byte) (BC_STRING_SHORT + (length >> 8));
+      buffer[offset++] = (byte) (length);
+    }
+
+    for (int i = 0; i < length; i++) {
+      char ch = value.charAt(i);
+
+      if (ch < 0x80)
+        buffer[offset++] = (byte) (ch);
+      else if (ch < 0x800) {
+        buffer[offset++] = (byte) (0xc0 + ((ch >> 6) & 0x1f));
+        buffer[offset++] = (byte) (0x80 + (ch & 0x3f));
+      }
+      else {
+        buffer[offset++] = (byte) (0xe0 + ((ch >> 12) & 0xf));
+        buffer[offset++] = (byte) (0x80 + ((ch >> 6) & 0x3f));
+        buffer[offset++] = (byte) (0x80 + (ch & 0x3f));
+      }
     }
+
+    return buffer;
   }
 
   /**
@@ -684,6 +1295,7 @@ public class Hessian2Output
     if (SIZE <= offset + 16) {
       flushBuffer();
       offset = _offset;
+      buffer = _buffer;
     }
 
     if (INT_DIRECT_MIN <= value && value <= INT_DIRECT_MAX)
@@ -727,6 +1339,7 @@ public class Hessian2Output
     if (SIZE <= offset + 16) {
       flushBuffer();
       offset = _offset;
+      buffer = _buffer;
     }
 
     if (LONG_DIRECT_MIN <= value && value <= LONG_DIRECT_MAX) {
@@ -786,6 +1399,7 @@ public class Hessian2Output
     if (SIZE <= offset + 16) {
       flushBuffer();
       offset = _offset;
+      buffer = _buffer;
     }
 
     int intValue = (int) value;
@@ -921,6 +1535,7 @@ public class Hessian2Output
     if (SIZE <= offset + 16) {
       flushBuffer();
       offset = _offset;
+      buffer = _buffer;
     }
 
     buffer[offset++] = 'N';
@@ -953,6 +1568,7 @@ public class Hessian2Output
     if (SIZE <= offset + 16) {
       flushBuffer();
       offset = _offset;
+      buffer = _buffer;
     }
 
     if (value == null) {
@@ -972,6 +1588,7 @@ public class Hessian2Output
         if (SIZE <= offset + 16) {
           flushBuffer();
           offset = _offset;
+          buffer = _buffer;
         }
 
         // chunk can't end in high surrogate
@@ -997,6 +1614,7 @@ public class Hessian2Output
       if (SIZE <= offset + 16) {
         flushBuffer();
         offset = _offset;
+        buffer = _buffer;
       }
 
       if (length <= STRING_DIRECT_MAX) {
@@ -1297,6 +1915,9 @@ public class Hessian2Output
     if (SIZE < _offset + 16)
       flushBuffer();
 
+    if (_segment != null)
+      _segment.addRef(_offset, value);
+
     _buffer[_offset++] = (byte) BC_REF;
 
     writeInt(value);
@@ -1316,6 +1937,16 @@ public class Hessian2Output
       return false;
     }
     
+    if (_segment != null) {
+      int ref = _segment.getParent()._refs.get(object);
+
+      if (ref != IdentityIntMap.NULL) {
+        writeRef(ref);
+
+        return true;
+      }
+    }
+
     int newRef = _refCount;
 
     int ref = addRef(object, newRef, false);
@@ -1440,9 +2071,7 @@ public class Hessian2Output
   {
     int offset = _offset;
 
-    OutputStream os = _os;
-
-    if (os == null) {
+    if (_os == null && _bufferPool == null) {
       _offset = 0;
       return;
     }
@@ -1461,13 +2090,11 @@ public class Hessian2Output
     _isPacket = false;
     _offset = 0;
 
-    if (os == null) {
-    }
-    else if (len < 0x7e) {
-      os.write(_buffer, 2, offset - 2);
+    if (len < 0x7e) {
+      writeBuffer(2, offset);
     }
     else {
-      os.write(_buffer, 0, offset);
+      writeBuffer(0, offset);
     }
   }
 
@@ -1522,6 +2149,7 @@ public class Hessian2Output
         _offset = offset;
         flushBuffer();
         offset = _offset;
+        buffer = _buffer;
       }
 
       char ch = v.charAt(i + strOffset);
@@ -1558,6 +2186,7 @@ public class Hessian2Output
         _offset = offset;
         flushBuffer();
         offset = _offset;
+        buffer = _buffer;
       }
 
       char ch = v[i + strOffset];
@@ -1602,12 +2231,9 @@ public class Hessian2Output
   {
     int offset = _offset;
 
-    OutputStream os = _os;
-
     if (! _isPacket && offset > 0) {
       _offset = 0;
-      if (os != null)
-        os.write(_buffer, 0, offset);
+      writeBuffer(0, offset);
     }
     else if (_isPacket && offset > 4) {
       int len = offset - 4;
@@ -1618,8 +2244,7 @@ public class Hessian2Output
       _buffer[3] = (byte) (len);
       _offset = 4;
 
-      if (os != null)
-        os.write(_buffer, 0, offset);
+      writeBuffer(0, offset);
 
       _buffer[0] = (byte) 0x00;
       _buffer[1] = (byte) 0x56;
@@ -1648,10 +2273,147 @@ public class Hessian2Output
   {
     reset();
 
+    releaseSegments();
+    _bufferPool = null;
+
+    setClassDictionary(null);
+    _isPackedArrays = false;
+    _isColumnarLists = false;
+    _columnarThreshold = COLUMNAR_THRESHOLD;
+    _parallelPool = null;
+    _parallelThreshold = PARALLEL_THRESHOLD;
+    _segment = null;
+
     _os = null;
     _isCloseStreamOnClose = false;
   }
 
+  /**
+   * Writes a range of the buffer to the stream, or, when encoding into
+   * memory, hands the buffer off as a segment and continues in a fresh
+   * one from the pool.
+   */
+  private void writeBuffer(int start, int end)
+    throws IOException
+  {
+    HessianBufferPool pool = _bufferPool;
+
+    if (pool != null) {
+      _segments.add(ByteBuffer.wrap(_buffer, start, end - start));
+      _buffer = pool.allocate();
+    }
+    else if (_os != null)
+      _os.write(_buffer, start, end - start);
+  }
+
+  /**
+   * Returns the number of bytes encoded into memory since
+   * <code>initBuffer</code>.
+   */
+  public int getBufferLength()
+  {
+    checkBufferMode();
+
+    int length = _offset;
+
+    ArrayList<ByteBuffer> segments = _segments;
+    for (int i = 0; i < segments.size(); i++)
+      length += segments.get(i).remaining();
+
+    return length;
+  }
+
+  /**
+   * Returns a copy of the bytes encoded into memory.
+   */
+  public byte []toByteArray()
+  {
+    byte []data = new byte[getBufferLength()];
+    int offset = 0;
+
+    ArrayList<ByteBuffer> segments = _segments;
+    for (int i = 0; i < segments.size(); i++) {
+      ByteBuffer segment = segments.get(i);
+      int length = segment.remaining();
+
+      System.arraycopy(segment.array(), segment.position(),
+                       data, offset, length);
+      offset += length;
+    }
+
+    System.arraycopy(_buffer, 0, data, offset, _offset);
+
+    return data;
+  }
+
+  /**
+   * Returns the bytes encoded into memory as a read-only buffer.  When the
+   * message fits in a single segment the buffer is a view of the segment,
+   * valid until the output is written to again or freed.
+   */
+  public ByteBuffer toByteBuffer()
+  {
+    checkBufferMode();
+
+    ArrayList<ByteBuffer> segments = _segments;
+
+    if (segments.size() == 0)
+      return ByteBuffer.wrap(_buffer, 0, _offset).slice().asReadOnlyBuffer();
+    else if (segments.size() == 1 && _offset == 0)
+      return segments.get(0).slice().asReadOnlyBuffer();
+    else
+      return ByteBuffer.wrap(toByteArray()).asReadOnlyBuffer();
+  }
+
+  /**
+   * Returns read-only views of the segments encoded into memory, in order.
+   * The views are valid until the output is written to again or freed.
+   */
+  public List<ByteBuffer> getSegments()
+  {
+    checkBufferMode();
+
+    ArrayList<ByteBuffer> segments = _segments;
+    ArrayList<ByteBuffer> views
+      = new ArrayList<ByteBuffer>(segments.size() + 1);
+
+    for (int i = 0; i < segments.size(); i++)
+      views.add(segments.get(i).slice().asReadOnlyBuffer());
+
+    if (_offset > 0)
+      views.add(ByteBuffer.wrap(_buffer, 0, _offset).slice().asReadOnlyBuffer());
+
+    return views;
+  }
+
+  private void checkBufferMode()
+  {
+    if (_bufferPool == null)
+      throw new IllegalStateException("Hessian2Output is not writing to a buffer. Call initBuffer() first.");
+    else if (_isPacket)
+      throw new IllegalStateException("Hessian2Output has an open packet");
+  }
+
+  /**
+   * Returns any completed segments to the pool.
+   */
+  private void releaseSegments()
+  {
+    ArrayList<ByteBuffer> segments = _segments;
+
+    if (segments == null || segments.size() == 0)
+      return;
+
+    HessianBufferPool pool = _bufferPool;
+
+    if (pool != null) {
+      for (int i = 0; i < segments.size(); i++)
+        pool.free(segments.get(i).array());
+    }
+
+    segments.clear();
+  }
+
   /**
    * Resets the references for streaming.
    */
@@ -1675,7 +2437,9 @@ public class Hessian2Output
     }
 
     _classRefs.clear();
+    _classDefCount = _classDictionary != null ? _classDictionary.getSize() : 0;
     _typeRefs = null;
+    _typeCount = 0;
     _offset = 0;
     _isPacket = false;
     _isUnshared = false;
@@ -0,0 +1,824 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.io;
+
+import com.caucho.hessian.util.HessianFreeList;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads a packet stream written by <code>Hessian2StreamingOutput</code>,
+ * decoding packets in parallel.
+ *
+ * <code><pre>
+ * Hessian2PipelinedInput in = new Hessian2PipelinedInput(is, executor);
+ *
+ * while (in.hasNext())
+ *   handle(in.readObject());
+ *
+ * in.close();
+ * </pre></code>
+ *
+ * A framing thread splits the stream into packets and hands them to the
+ * executor, which decodes them concurrently.  Values are returned in
+ * packet order, or as they complete when unordered.  At most the queue
+ * size of packets are framed ahead of the reader.
+ * <p/>
+ * Packets share class definitions and types with the packets before
+ * them.  The framing thread scans each packet's definitions, so a
+ * packet's decoder starts with those of the preceding packets.
+ */
+public class Hessian2PipelinedInput
+{
+  private static final Logger log
+    = Logger.getLogger(Hessian2PipelinedInput.class.getName());
+
+  private static final PacketTask END = new PacketTask(null, null, 0);
+
+  // the reader rechecks the framer's state at least this often
+  private static final long POLL_TIMEOUT = 100L;
+
+  private final InputStream _is;
+  private final Executor _executor;
+
+  private SerializerFactory _serializerFactory;
+  private int _queueSize = 256;
+  private boolean _isOrdered = true;
+
+  private final HessianFreeList<Hessian2Input> _freeInputs
+    = new HessianFreeList<Hessian2Input>(32);
+
+  private BlockingQueue<PacketTask> _queue;
+  // packets in flight when unordered
+  private Semaphore _permits;
+  private Thread _framer;
+  private volatile boolean _isClosed;
+
+  // packets framed, set before _isFramed
+  private int _packetCount;
+  private volatile boolean _isFramed;
+  private int _readCount;
+  private boolean _isEnd;
+  private PacketTask _next;
+
+  /**
+   * Creates a pipelined input.
+   *
+   * @param is the packet stream
+   * @param executor the executor decoding the packets
+   */
+  public Hessian2PipelinedInput(InputStream is, Executor executor)
+  {
+    _is = is;
+    _executor = executor;
+  }
+
+  public void setSerializerFactory(SerializerFactory factory)
+  {
+    checkNotStarted();
+
+    _serializerFactory = factory;
+  }
+
+  public SerializerFactory getSerializerFactory()
+  {
+    return _serializerFactory;
+  }
+
+  /**
+   * Sets the number of packets framed ahead of the reader.
+   */
+  public void setQueueSize(int size)
+  {
+    checkNotStarted();
+
+    if (size <= 0)
+      throw new IllegalArgumentException("queue size " + size + " must be positive");
+
+    _queueSize = size;
+  }
+
+  public int getQueueSize()
+  {
+    return _queueSize;
+  }
+
+  /**
+   * Set false to return values as their packets are decoded, rather
+   * than in stream order.
+   */
+  public void setOrdered(boolean isOrdered)
+  {
+    checkNotStarted();
+
+    _isOrdered = isOrdered;
+  }
+
+  public boolean isOrdered()
+  {
+    return _isOrdered;
+  }
+
+  /**
+   * Starts framing the stream.  Called by the first read if needed.
+   */
+  public synchronized void start()
+  {
+    if (_framer != null)
+      return;
+
+    if (_serializerFactory == null)
+      _serializerFactory = SerializerFactory.createDefault();
+
+    if (_isOrdered)
+      _queue = new ArrayBlockingQueue<PacketTask>(_queueSize);
+    else {
+      _queue = new LinkedBlockingQueue<PacketTask>();
+      _permits = new Semaphore(_queueSize);
+    }
+
+    _framer = new Thread(new Framer(), "hessian-packet-framer");
+    _framer.setDaemon(true);
+    _framer.start();
+  }
+
+  private void checkNotStarted()
+  {
+    if (_framer != null)
+      throw new IllegalStateException("pipelined input has already started");
+  }
+
+  /**
+   * Returns true if another value is available, waiting for it to be
+   * framed.
+   */
+  public boolean hasNext()
+    throws IOException
+  {
+    return nextTask() != END;
+  }
+
+  /**
+   * Returns the next value, waiting for its packet to be decoded.
+   *
+   * @throws EOFException at the end of the stream
+   */
+  public Object readObject()
+    throws IOException
+  {
+    PacketTask task = nextTask();
+
+    if (task == END)
+      throw new EOFException("end of packet stream");
+
+    try {
+      Object value = task.get();
+
+      _next = null;
+
+      return value;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+      throw new InterruptedIOException(e.toString());
+    } catch (ExecutionException e) {
+      _next = null;
+
+      Throwable cause = e.getCause();
+
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      else if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      else if (cause instanceof Error)
+        throw (Error) cause;
+      else
+        throw new IOExceptionWrapper(cause);
+    }
+  }
+
+  private PacketTask nextTask()
+    throws IOException
+  {
+    if (_next != null)
+      return _next;
+
+    if (_framer == null)
+      start();
+
+    try {
+      while (true) {
+        if (_isClosed)
+          throw new IOException("pipelined input is closed");
+
+        if (_isFramed)
+          _isEnd = true;
+
+        if (_isEnd && _packetCount <= _readCount)
+          return END;
+
+        PacketTask task = _queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+
+        if (task == null || task == END)
+          continue;
+
+        if (_permits != null)
+          _permits.release();
+
+        if (task.isPacket())
+          _readCount++;
+
+        _next = task;
+
+        return task;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+      throw new InterruptedIOException(e.toString());
+    }
+  }
+
+  /**
+   * Stops framing and closes the stream.  A reader waiting for a value
+   * fails with an <code>IOException</code>.
+   */
+  public void close()
+    throws IOException
+  {
+    _isClosed = true;
+
+    Thread framer = _framer;
+
+    if (framer != null)
+      framer.interrupt();
+
+    // wakes a waiting reader
+    BlockingQueue<PacketTask> queue = _queue;
+
+    if (queue != null)
+      queue.offer(END);
+
+    _is.close();
+  }
+
+  /**
+   * Decodes a packet with a pooled input.
+   */
+  private Object decode(byte []data, int length,
+                        Hessian2Input.ObjectDefinition []defs, int defCount,
+                        String []types, int typeCount)
+    throws IOException
+  {
+    Hessian2Input in = _freeInputs.allocate();
+
+    if (in == null)
+      in = new Hessian2Input();
+
+    in.setSerializerFactory(_serializerFactory);
+    in.init(data, 0, length);
+    in.initDefinitions(defs, defCount, types, typeCount);
+
+    Object value;
+
+    try {
+      value = in.readObject();
+
+      in.resetBuffer();
+    } finally {
+      // the pooled input must not keep the packet or its values
+      in.reset();
+      in.releaseBuffer();
+    }
+
+    _freeInputs.free(in);
+
+    return value;
+  }
+
+  /**
+   * Splits the stream into packets, scanning their class definitions
+   * and types.
+   */
+  private class Framer implements Runnable {
+    private final PacketScanner _scanner
+      = new PacketScanner(_serializerFactory);
+
+    public void run()
+    {
+      Hessian2StreamingInput.StreamingInputStream is
+        = new Hessian2StreamingInput.StreamingInputStream(_is);
+
+      int count = 0;
+      Throwable failure = null;
+
+      try {
+        while (! _isClosed && is.startPacket()) {
+          byte []data = readPacket(is);
+          int length = _length;
+
+          is.endPacket();
+
+          PacketScanner scanner = _scanner;
+
+          PacketTask task
+            = new PacketTask(Hessian2PipelinedInput.this,
+                             new PacketDecoder(data, length,
+                                               scanner._defs, scanner._defCount,
+                                               scanner._types, scanner._typeCount),
+                             count);
+
+          scanner.scan(data, length);
+
+          submit(task);
+          count++;
+        }
+      } catch (InterruptedException e) {
+        failure = new InterruptedIOException(e.toString());
+      } catch (Throwable e) {
+        failure = e;
+      } finally {
+        finish(count, failure);
+      }
+    }
+
+    /**
+     * Reports the end of the stream to the reader, after a failure in
+     * order with the packets framed before it.
+     */
+    private void finish(int count, Throwable failure)
+    {
+      if (failure != null && _isClosed)
+        log.log(Level.FINEST, failure.toString(), failure);
+      else if (failure != null) {
+        PacketTask task = new PacketTask(null, null, count);
+        task.fail(failure);
+
+        try {
+          submitFailed(task);
+          count++;
+        } catch (InterruptedException e) {
+          log.log(Level.FINEST, e.toString(), e);
+        }
+      }
+
+      _packetCount = count;
+      _isFramed = true;
+
+      // wakes a waiting reader; if the queue is full it isn't waiting
+      _queue.offer(END);
+    }
+
+    private int _length;
+    private byte []_buffer = new byte[1024];
+
+    private byte []readPacket(InputStream is)
+      throws IOException
+    {
+      byte []buffer = _buffer;
+      int length = 0;
+      int sublen;
+
+      while ((sublen = is.read(buffer, length, buffer.length - length)) >= 0) {
+        length += sublen;
+
+        if (length == buffer.length)
+          buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+      }
+
+      _buffer = buffer.length <= 64 * 1024 ? new byte[buffer.length] : new byte[1024];
+      _length = length;
+
+      return buffer;
+    }
+
+    private void submit(PacketTask task)
+      throws InterruptedException
+    {
+      if (_isOrdered)
+        _queue.put(task);
+      else
+        _permits.acquire();
+
+      try {
+        _executor.execute(task);
+      } catch (RejectedExecutionException e) {
+        log.log(Level.FINER, e.toString(), e);
+
+        // decode on the framing thread when the executor is saturated
+        task.run();
+      }
+    }
+
+    private void submitFailed(PacketTask task)
+      throws InterruptedException
+    {
+      if (! _isOrdered)
+        _permits.acquire();
+
+      _queue.put(task);
+    }
+  }
+
+  /**
+   * Decodes one packet.
+   */
+  private final class PacketDecoder implements Callable<Object> {
+    private final byte []_data;
+    private final int _length;
+    private final Hessian2Input.ObjectDefinition []_defs;
+    private final int _defCount;
+    private final String []_types;
+    private final int _typeCount;
+
+    PacketDecoder(byte []data, int length,
+                  Hessian2Input.ObjectDefinition []defs, int defCount,
+                  String []types, int typeCount)
+    {
+      _data = data;
+      _length = length;
+      _defs = defs;
+      _defCount = defCount;
+      _types = types;
+      _typeCount = typeCount;
+    }
+
+    public Object call()
+      throws IOException
+    {
+      return decode(_data, _length, _defs, _defCount, _types, _typeCount);
+    }
+  }
+
+  /**
+   * A packet's pending value.  Unordered tasks queue themselves when
+   * they complete.
+   */
+  private static final class PacketTask extends FutureTask<Object> {
+    private static final Callable<Object> NONE = new Callable<Object>() {
+      public Object call()
+      {
+        return null;
+      }
+    };
+
+    private final Hessian2PipelinedInput _input;
+    private final int _index;
+
+    PacketTask(Hessian2PipelinedInput input, Callable<Object> decoder,
+               int index)
+    {
+      super(decoder != null ? decoder : NONE);
+
+      _input = input;
+      _index = index;
+    }
+
+    boolean isPacket()
+    {
+      return this != END;
+    }
+
+    void fail(Throwable e)
+    {
+      setException(e);
+    }
+
+    @Override
+    protected void done()
+    {
+      Hessian2PipelinedInput input = _input;
+
+      if (input != null && ! input._isOrdered)
+        input._queue.add(this);
+    }
+
+    @Override
+    public String toString()
+    {
+      return getClass().getSimpleName() + "[" + _index + "]";
+    }
+  }
+
+  /**
+   * Scans a packet's tokens for class definitions and types, without
+   * following its structure.
+   */
+  private static final class PacketScanner {
+    private final SerializerFactory _factory;
+
+    private Hessian2Input.ObjectDefinition []_defs
+      = new Hessian2Input.ObjectDefinition[16];
+    private int _defCount;
+
+    private String []_types = new String[16];
+    private int _typeCount;
+
+    private byte []_buffer;
+    private int _offset;
+
+    PacketScanner(SerializerFactory factory)
+    {
+      _factory = factory;
+    }
+
+    void scan(byte []buffer, int length)
+      throws IOException
+    {
+      _buffer = buffer;
+      _offset = 0;
+
+      try {
+        while (_offset < length)
+          scanToken();
+      } catch (ArrayIndexOutOfBoundsException e) {
+        throw new HessianProtocolException("truncated packet", e);
+      } finally {
+        _buffer = null;
+      }
+
+      if (length < _offset)
+        throw new HessianProtocolException("truncated packet");
+    }
+
+    private void scanToken()
+      throws IOException
+    {
+      int tag = read();
+
+      if (tag <= 0x1f)
+        skipChars(tag);
+      else if (tag <= 0x2f)
+        _offset += tag - 0x20;
+      else if (tag <= 0x33)
+        skipChars(((tag - 0x30) << 8) + read());
+      else if (tag <= 0x37)
+        _offset += ((tag - 0x34) << 8) + read();
+      else if (tag <= 0x3f)
+        _offset += 2;
+      else if (tag >= 0x60 && tag <= 0x6f) {
+      }
+      else if (tag >= 0x70 && tag <= 0x77)
+        scanType();
+      else if (tag >= 0x78 && tag <= 0xbf) {
+      }
+      else if (tag <= 0xcf && tag >= 0xc0 || tag >= 0xf0)
+        _offset += 1;
+      else if (tag <= 0xd7 && tag >= 0xd0)
+        _offset += 2;
+      else if (tag >= 0xd8) {
+      }
+      else {
+        switch (tag) {
+        case 'N': case 'T': case 'F': case 'Z': case 'H':
+        case Hessian2Constants.BC_LIST_VARIABLE_UNTYPED:
+        case Hessian2Constants.BC_DOUBLE_ZERO:
+        case Hessian2Constants.BC_DOUBLE_ONE:
+          break;
+
+        case Hessian2Constants.BC_DOUBLE_BYTE:
+          _offset += 1;
+          break;
+
+        case Hessian2Constants.BC_DOUBLE_SHORT:
+          _offset += 2;
+          break;
+
+        case 'I':
+        case Hessian2Constants.BC_LONG_INT:
+        case Hessian2Constants.BC_DOUBLE_MILL:
+        case Hessian2Constants.BC_DATE_MINUTE:
+          _offset += 4;
+          break;
+
+        case 'L': case 'D':
+        case Hessian2Constants.BC_DATE:
+          _offset += 8;
+          break;
+
+        case 'S': case 'R':
+          skipChars(readShort());
+          break;
+
+        case 'B': case 'A':
+          _offset += readShort();
+          break;
+
+        case 'O':
+        case Hessian2Constants.BC_REF:
+        case Hessian2Constants.BC_LIST_FIXED_UNTYPED:
+          readInt();
+          break;
+
+        case Hessian2Constants.BC_LIST_VARIABLE:
+        case 'M':
+          scanType();
+          break;
+
+        case 'V':
+          scanType();
+          readInt();
+          break;
+
+        case 'C':
+          scanDefinition();
+          break;
+
+        case Hessian2Constants.BC_PACKED_ARRAY:
+          scanPackedArray();
+          break;
+
+        default:
+          throw new HessianProtocolException("unknown code 0x"
+                                             + Integer.toHexString(tag));
+        }
+      }
+    }
+
+    private void scanDefinition()
+      throws IOException
+    {
+      String type = readString();
+      int length = readInt();
+
+      if (length < 0)
+        throw new HessianProtocolException("illegal field count " + length);
+
+      String []fieldNames = new String[length];
+
+      for (int i = 0; i < length; i++)
+        fieldNames[i] = readString();
+
+      if (_defs.length == _defCount)
+        _defs = Arrays.copyOf(_defs, 2 * _defCount);
+
+      _defs[_defCount++] = _factory.getObjectDefinition(type, fieldNames);
+    }
+
+    private void scanType()
+      throws IOException
+    {
+      int tag = _buffer[_offset] & 0xff;
+
+      if (tag <= 0x1f || tag >= 0x30 && tag <= 0x33
+          || tag == 'S' || tag == 'R') {
+        if (_types.length == _typeCount)
+          _types = Arrays.copyOf(_types, 2 * _typeCount);
+
+        _types[_typeCount++] = readString();
+      }
+      else
+        readInt();
+    }
+
+    private void scanPackedArray()
+      throws IOException
+    {
+      int code = read();
+      int length = readInt();
+
+      switch (code) {
+      case 'D': case 'J':
+        _offset += 8 * length;
+        break;
+      case 'I': case 'F':
+        _offset += 4 * length;
+        break;
+      case 'S':
+        _offset += 2 * length;
+        break;
+      default:
+        throw new HessianProtocolException("unknown packed array code 0x"
+                                           + Integer.toHexString(code));
+      }
+    }
+
+    private void skipChars(int length)
+      throws IOException
+    {
+      byte []buffer = _buffer;
+      int offset = _offset;
+
+      for (; length > 0; length--) {
+        int ch = buffer[offset] & 0xff;
+
+        if (ch < 0x80)
+          offset += 1;
+        else if ((ch & 0xe0) == 0xc0)
+          offset += 2;
+        else if ((ch & 0xf0) == 0xe0)
+          offset += 3;
+        else
+          throw new HessianProtocolException("bad utf-8 encoding at 0x"
+                                             + Integer.toHexString(ch));
+      }
+
+      _offset = offset;
+    }
+
+    private String readString()
+      throws IOException
+    {
+      StringBuilder sb = new StringBuilder();
+
+      while (true) {
+        int tag = read();
+        int length;
+        boolean isLast = true;
+
+        if (tag <= 0x1f)
+          length = tag;
+        else if (tag >= 0x30 && tag <= 0x33)
+          length = ((tag - 0x30) << 8) + read();
+        else if (tag == 'S' || tag == 'R') {
+          length = readShort();
+          isLast = tag == 'S';
+        }
+        else
+          throw new HessianProtocolException("expected string at 0x"
+                                             + Integer.toHexString(tag));
+
+        for (; length > 0; length--) {
+          int ch = read();
+
+          if (ch < 0x80)
+            sb.append((char) ch);
+          else if ((ch & 0xe0) == 0xc0)
+            sb.append((char) (((ch & 0x1f) << 6) + (read() & 0x3f)));
+          else if ((ch & 0xf0) == 0xe0) {
+            int ch1 = read();
+            int ch2 = read();
+
+            sb.append((char) (((ch & 0x0f) << 12)
+                              + ((ch1 & 0x3f) << 6) + (ch2 & 0x3f)));
+          }
+          else
+            throw new HessianProtocolException("bad utf-8 encoding at 0x"
+                                               + Integer.toHexString(ch));
+        }
+
+        if (isLast)
+          return sb.toString();
+      }
+    }
+
+    private int readInt()
+      throws IOException
+    {
+      int tag = read();
+
+      if (tag >= 0x80 && tag <= 0xbf)
+        return tag - Hessian2Constants.BC_INT_ZERO;
+      else if (tag >= 0xc0 && tag <= 0xcf)
+        return ((tag - Hessian2Constants.BC_INT_BYTE_ZERO) << 8) + read();
+      else if (tag >= 0xd0 && tag <= 0xd7)
+        return ((tag - Hessian2Constants.BC_INT_SHORT_ZERO) << 16) + readShort();
+      else if (tag == 'I')
+        return (readShort() << 16) + readShort();
+      else
+        throw new HessianProtocolException("expected integer at 0x"
+                                           + Integer.toHexString(tag));
+    }
+
+    private int readShort()
+    {
+      return (read() << 8) + read();
+    }
+
+    private int read()
+    {
+      return _buffer[_offset++] & 0xff;
+    }
+  }
+}
@@ -0,0 +1,320 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A segment of a large list or map, encoded concurrently with the
+ * other segments by its own <code>Hessian2Output</code>.
+ *
+ * A segment output sees the references, class definitions and types of
+ * the parent, which are written as usual.  Its own are numbered as if
+ * the segment were first, and each use of one is recorded as a patch.
+ * When the segments are appended to the parent in order, the patched
+ * numbers are shifted past the preceding segments', so the result is a
+ * plain Hessian stream.
+ */
+final class Hessian2Segment implements Callable<Hessian2Segment>
+{
+  // smallest number of elements worth a segment
+  private static final int MIN_SEGMENT_LENGTH = 1024;
+
+  private static final int PATCH_REF = 0;
+  private static final int PATCH_CLASS = 1;
+  private static final int PATCH_TYPE = 2;
+
+  private final Hessian2Output _parent;
+  private final Object []_values;
+  private final boolean _isEntries;
+  private final int _start;
+  private final int _end;
+
+  private final int _refBase;
+  private final int _classBase;
+  private final int _typeBase;
+
+  private final SegmentStream _os = new SegmentStream();
+  private final Hessian2Output _out = new Hessian2Output(_os);
+
+  // position, kind and value of each patch
+  private int []_patches = new int[48];
+  private int _patchLength;
+
+  private Hessian2Segment(Hessian2Output parent,
+                          Object []values, boolean isEntries,
+                          int start, int end)
+  {
+    _parent = parent;
+    _values = values;
+    _isEntries = isEntries;
+    _start = start;
+    _end = end;
+
+    _refBase = parent.getRefCount();
+    _classBase = parent.getClassDefCount();
+    _typeBase = parent.getTypeCount();
+
+    _out.initSegment(this, parent);
+  }
+
+  /**
+   * Writes the values to the parent output in parallel segments.
+   */
+  static void write(Hessian2Output out,
+                    Object []values, boolean isEntries,
+                    ForkJoinPool pool)
+    throws IOException
+  {
+    int count = Math.min(4 * pool.getParallelism(),
+                         values.length / MIN_SEGMENT_LENGTH);
+
+    if (count <= 1) {
+      writeValues(out, values, isEntries, 0, values.length);
+      return;
+    }
+
+    List<Hessian2Segment> segments = new ArrayList<Hessian2Segment>(count);
+
+    for (int i = 0; i < count; i++) {
+      int start = (int) ((long) values.length * i / count);
+      int end = (int) ((long) values.length * (i + 1) / count);
+
+      segments.add(new Hessian2Segment(out, values, isEntries, start, end));
+    }
+
+    List<Future<Hessian2Segment>> futures = pool.invokeAll(segments);
+
+    int refs = 0;
+    int classDefs = 0;
+    int types = 0;
+
+    for (int i = 0; i < futures.size(); i++) {
+      Hessian2Segment segment = getSegment(futures.get(i));
+
+      segment.append(out, refs, classDefs, types);
+
+      refs += segment.getRefCount();
+      classDefs += segment.getClassDefCount();
+      types += segment.getTypeCount();
+    }
+
+    out.addSegmentCounts(refs, classDefs, types);
+  }
+
+  private static Hessian2Segment getSegment(Future<Hessian2Segment> future)
+    throws IOException
+  {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+      throw new IOExceptionWrapper(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      else if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      else if (cause instanceof Error)
+        throw (Error) cause;
+      else
+        throw new IOExceptionWrapper(cause);
+    }
+  }
+
+  private static void writeValues(Hessian2Output out,
+                                  Object []values, boolean isEntries,
+                                  int start, int end)
+    throws IOException
+  {
+    if (isEntries) {
+      for (int i = start; i < end; i++) {
+        Map.Entry<?,?> entry = (Map.Entry<?,?>) values[i];
+
+        out.writeObject(entry.getKey());
+        out.writeObject(entry.getValue());
+      }
+    }
+    else {
+      for (int i = start; i < end; i++)
+        out.writeObject(values[i]);
+    }
+  }
+
+  Hessian2Output getParent()
+  {
+    return _parent;
+  }
+
+  /**
+   * Encodes the segment.
+   */
+  @Override
+  public Hessian2Segment call()
+    throws IOException
+  {
+    writeValues(_out, _values, _isEntries, _start, _end);
+
+    _out.flushBuffer();
+
+    return this;
+  }
+
+  int getRefCount()
+  {
+    return _out.getRefCount() - _refBase;
+  }
+
+  int getClassDefCount()
+  {
+    return _out.getClassDefCount() - _classBase;
+  }
+
+  int getTypeCount()
+  {
+    return _out.getTypeCount() - _typeBase;
+  }
+
+  /**
+   * Records a value reference at the buffer offset.
+   */
+  void addRef(int offset, int ref)
+  {
+    if (_refBase <= ref)
+      addPatch(offset, PATCH_REF, ref);
+  }
+
+  /**
+   * Records a class definition reference at the buffer offset.
+   */
+  void addClassRef(int offset, int ref)
+  {
+    if (_classBase <= ref)
+      addPatch(offset, PATCH_CLASS, ref);
+  }
+
+  /**
+   * Records a type reference at the buffer offset.
+   */
+  void addTypeRef(int offset, int ref)
+  {
+    if (_typeBase <= ref)
+      addPatch(offset, PATCH_TYPE, ref);
+  }
+
+  private void addPatch(int offset, int kind, int value)
+  {
+    if (_patches.length < _patchLength + 3)
+      _patches = Arrays.copyOf(_patches, 2 * _patches.length);
+
+    // the flushed bytes precede the buffer
+    _patches[_patchLength++] = _os.size() + offset;
+    _patches[_patchLength++] = kind;
+    _patches[_patchLength++] = value;
+  }
+
+  /**
+   * Appends the encoded segment, shifting its own references,
+   * class definitions and types past the preceding segments'.
+   */
+  private void append(Hessian2Output out,
+                      int refDelta, int classDelta, int typeDelta)
+    throws IOException
+  {
+    byte []data = _os.getBuffer();
+    int length = _os.size();
+    int offset = 0;
+
+    int []patches = _patches;
+
+    for (int i = 0; i < _patchLength; i += 3) {
+      int position = patches[i];
+      int value = patches[i + 2];
+
+      out.writeRaw(data, offset, position - offset);
+
+      switch (patches[i + 1]) {
+      case PATCH_REF:
+        out.writeRef(value + refDelta);
+        offset = position + 1 + getIntLength(data[position + 1]);
+        break;
+
+      case PATCH_CLASS:
+        out.writeObjectRef(value + classDelta);
+
+        if (data[position] == 'O')
+          offset = position + 1 + getIntLength(data[position + 1]);
+        else
+          offset = position + 1;
+        break;
+
+      default:
+        out.writeInt(value + typeDelta);
+        offset = position + getIntLength(data[position]);
+        break;
+      }
+    }
+
+    out.writeRaw(data, offset, length - offset);
+  }
+
+  /**
+   * Returns the encoded length of an int from its first byte.
+   */
+  private static int getIntLength(byte tag)
+  {
+    int code = tag & 0xff;
+
+    if (code >= 0x80 && code <= 0xbf)
+      return 1;
+    else if (code >= 0xc0 && code <= 0xcf)
+      return 2;
+    else if (code >= 0xd0 && code <= 0xd7)
+      return 3;
+    else
+      return 5;
+  }
+
+  /**
+   * Exposes the buffer to append without copying.
+   */
+  private static final class SegmentStream extends ByteArrayOutputStream
+  {
+    SegmentStream()
+    {
+      super(Hessian2Output.SIZE);
+    }
+
+    byte []getBuffer()
+    {
+      return buf;
+    }
+  }
+}
@@ -0,0 +1,522 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pull reader exposing a Hessian 2 stream as a sequence of tokens, so
+ * callers can look at selected parts of a message and skip the rest
+ * without materializing it.
+ *
+ * <code><pre>
+ * Hessian2TokenReader reader = new Hessian2TokenReader(in);
+ *
+ * reader.beginObject();
+ *
+ * while (reader.hasNext()) {
+ *   String field = reader.nextField();
+ *
+ *   if ("id".equals(field))
+ *     id = reader.readLong();
+ *   else
+ *     reader.skipValue();
+ * }
+ *
+ * reader.endObject();
+ * </pre></code>
+ *
+ * Object fields are reported by name as <code>FIELD</code> tokens,
+ * followed by the field's value.  Map keys and values are reported as
+ * plain values.  References and packed arrays are read with
+ * <code>readObject</code> or skipped.
+ */
+public class Hessian2TokenReader
+{
+  public enum Token {
+    NULL,
+    BOOLEAN,
+    INT,
+    LONG,
+    DOUBLE,
+    DATE,
+    STRING,
+    BINARY,
+    REF,
+    PACKED_ARRAY,
+    START_OBJECT,
+    FIELD,
+    END_OBJECT,
+    START_LIST,
+    END_LIST,
+    START_MAP,
+    END_MAP,
+    END_DOCUMENT;
+  }
+
+  private static final Token []TOKENS = new Token[256];
+
+  private static final int OBJECT = 1;
+  private static final int LIST = 2;
+  private static final int MAP = 3;
+
+  private final Hessian2Input _in;
+
+  // one frame per open object, list or map
+  private int []_kinds = new int[16];
+  private int []_remaining = new int[16];
+  private boolean []_isValue = new boolean[16];
+  private Hessian2Input.ObjectDefinition []_defs
+    = new Hessian2Input.ObjectDefinition[16];
+  private int _depth;
+
+  public Hessian2TokenReader(Hessian2Input in)
+  {
+    _in = in;
+  }
+
+  /**
+   * Returns the underlying input.
+   */
+  public Hessian2Input getInput()
+  {
+    return _in;
+  }
+
+  /**
+   * Returns the number of open objects, lists and maps.
+   */
+  public int getDepth()
+  {
+    return _depth;
+  }
+
+  /**
+   * Returns the next token without consuming it.
+   */
+  public Token peek()
+    throws IOException
+  {
+    if (_depth > 0) {
+      int top = _depth - 1;
+
+      switch (_kinds[top]) {
+      case OBJECT:
+        if (! _isValue[top])
+          return _remaining[top] > 0 ? Token.FIELD : Token.END_OBJECT;
+        break;
+
+      case LIST:
+        if (_remaining[top] == 0
+            || _remaining[top] < 0 && _in.isEnd())
+          return Token.END_LIST;
+        break;
+
+      case MAP:
+        if (_in.isEnd())
+          return Token.END_MAP;
+        break;
+      }
+    }
+
+    int code = _in.peekValueCode();
+
+    if (code < 0)
+      return Token.END_DOCUMENT;
+
+    Token token = TOKENS[code];
+
+    if (token == null)
+      throw new HessianProtocolException("unexpected code 0x"
+                                         + Integer.toHexString(code));
+
+    return token;
+  }
+
+  /**
+   * Returns true if the current object, list or map has more entries.
+   */
+  public boolean hasNext()
+    throws IOException
+  {
+    switch (peek()) {
+    case END_OBJECT:
+    case END_LIST:
+    case END_MAP:
+    case END_DOCUMENT:
+      return false;
+
+    default:
+      return true;
+    }
+  }
+
+  /**
+   * Starts reading an object.  Objects which encode themselves, like
+   * <code>External</code> classes, have no fields to report and must be
+   * read with <code>readObject</code> or skipped.  For those this
+   * throws before consuming the object, so the caller can still do so.
+   *
+   * @return the object's type
+   */
+  public String beginObject()
+    throws IOException
+  {
+    beginValue();
+
+    Hessian2Input.ObjectDefinition def = _in.peekObjectDefinition();
+
+    if (def != null && Hessian2Input.isCustomEncoding(def))
+      throw new HessianProtocolException(def.getType()
+                                         + " has a custom encoding and must be read with readObject()");
+
+    def = _in.readObjectHeader();
+
+    push(OBJECT, def.getFieldNames().length, def);
+
+    return def.getType();
+  }
+
+  /**
+   * Returns the name of the next field of the current object.  The
+   * field's value must be read or skipped next.
+   */
+  public String nextField()
+  {
+    int top = _depth - 1;
+
+    if (top < 0 || _kinds[top] != OBJECT || _isValue[top])
+      throw new IllegalStateException("expected a value, not a field");
+    else if (_remaining[top] <= 0)
+      throw new IllegalStateException("no fields remain in "
+                                      + _defs[top].getType());
+
+    String []fieldNames = _defs[top].getFieldNames();
+
+    _isValue[top] = true;
+
+    return fieldNames[fieldNames.length - _remaining[top]];
+  }
+
+  /**
+   * Finishes the current object, skipping any fields not yet read.
+   */
+  public void endObject()
+    throws IOException
+  {
+    int top = checkFrame(OBJECT);
+
+    if (_isValue[top])
+      skipValue();
+
+    for (; _remaining[top] > 0; _remaining[top]--)
+      _in.skipValue();
+
+    pop();
+  }
+
+  /**
+   * Starts reading a list.
+   *
+   * @return the list's length, or -1 for a variable length list
+   */
+  public int beginList()
+    throws IOException
+  {
+    beginValue();
+
+    int length = _in.readListHeader();
+
+    push(LIST, length, null);
+
+    return length;
+  }
+
+  /**
+   * Finishes the current list, skipping any elements not yet read.
+   */
+  public void endList()
+    throws IOException
+  {
+    int top = checkFrame(LIST);
+
+    if (_remaining[top] < 0) {
+      while (! _in.isEnd())
+        _in.skipValue();
+
+      _in.readListEnd();
+    }
+    else {
+      for (; _remaining[top] > 0; _remaining[top]--)
+        _in.skipValue();
+    }
+
+    pop();
+  }
+
+  /**
+   * Starts reading a map, whose keys and values follow as
+   * alternating values.
+   */
+  public void beginMap()
+    throws IOException
+  {
+    beginValue();
+
+    _in.readMapHeader();
+
+    push(MAP, -1, null);
+  }
+
+  /**
+   * Finishes the current map, skipping any entries not yet read.
+   */
+  public void endMap()
+    throws IOException
+  {
+    checkFrame(MAP);
+
+    while (! _in.isEnd())
+      _in.skipValue();
+
+    _in.readMapEnd();
+
+    pop();
+  }
+
+  public void readNull()
+    throws IOException
+  {
+    beginValue();
+    _in.readNull();
+    endValue();
+  }
+
+  public boolean readBoolean()
+    throws IOException
+  {
+    beginValue();
+    boolean value = _in.readBoolean();
+    endValue();
+
+    return value;
+  }
+
+  public int readInt()
+    throws IOException
+  {
+    beginValue();
+    int value = _in.readInt();
+    endValue();
+
+    return value;
+  }
+
+  public long readLong()
+    throws IOException
+  {
+    beginValue();
+    long value = _in.readLong();
+    endValue();
+
+    return value;
+  }
+
+  public double readDouble()
+    throws IOException
+  {
+    beginValue();
+    double value = _in.readDouble();
+    endValue();
+
+    return value;
+  }
+
+  public long readUTCDate()
+    throws IOException
+  {
+    beginValue();
+    long value = _in.readUTCDate();
+    endValue();
+
+    return value;
+  }
+
+  public String readString()
+    throws IOException
+  {
+    beginValue();
+    String value = _in.readString();
+    endValue();
+
+    return value;
+  }
+
+  public byte []readBytes()
+    throws IOException
+  {
+    beginValue();
+    byte []value = _in.readBytes();
+    endValue();
+
+    return value;
+  }
+
+  /**
+   * Materializes the next value.  A reference to a value which was
+   * skipped reads as null.
+   */
+  public Object readObject()
+    throws IOException
+  {
+    beginValue();
+    Object value = _in.readObject();
+    endValue();
+
+    return value;
+  }
+
+  /**
+   * Skips the next value without materializing it.  At a field, skips
+   * both the field and its value.
+   */
+  public void skipValue()
+    throws IOException
+  {
+    int top = _depth - 1;
+
+    if (top >= 0 && _kinds[top] == OBJECT && ! _isValue[top])
+      nextField();
+
+    beginValue();
+    _in.skipValue();
+    endValue();
+  }
+
+  private void beginValue()
+  {
+    int top = _depth - 1;
+
+    if (top < 0)
+      return;
+    else if (_kinds[top] == OBJECT && ! _isValue[top])
+      throw new IllegalStateException("expected nextField() in "
+                                      + _defs[top].getType());
+    else if (_kinds[top] == LIST && _remaining[top] == 0)
+      throw new IllegalStateException("no elements remain in list");
+  }
+
+  private void endValue()
+  {
+    int top = _depth - 1;
+
+    if (top < 0)
+      return;
+
+    switch (_kinds[top]) {
+    case OBJECT:
+      _isValue[top] = false;
+      _remaining[top]--;
+      break;
+
+    case LIST:
+      if (_remaining[top] > 0)
+        _remaining[top]--;
+      break;
+    }
+  }
+
+  private int checkFrame(int kind)
+  {
+    int top = _depth - 1;
+
+    if (top < 0 || _kinds[top] != kind)
+      throw new IllegalStateException("no open "
+                                      + (kind == OBJECT ? "object"
+                                         : kind == LIST ? "list" : "map"));
+
+    return top;
+  }
+
+  private void push(int kind, int remaining,
+                    Hessian2Input.ObjectDefinition def)
+  {
+    if (_depth == _kinds.length) {
+      int length = 2 * _depth;
+
+      _kinds = Arrays.copyOf(_kinds, length);
+      _remaining = Arrays.copyOf(_remaining, length);
+      _isValue = Arrays.copyOf(_isValue, length);
+      _defs = Arrays.copyOf(_defs, length);
+    }
+
+    _kinds[_depth] = kind;
+    _remaining[_depth] = remaining;
+    _isValue[_depth] = false;
+    _defs[_depth] = def;
+    _depth++;
+  }
+
+  private void pop()
+  {
+    _depth--;
+    _defs[_depth] = null;
+
+    endValue();
+  }
+
+  private static void setTokens(int start, int end, Token token)
+  {
+    for (int i = start; i <= end; i++)
+      TOKENS[i] = token;
+  }
+
+  static {
+    setTokens(0x00, 0x1f, Token.STRING);
+    setTokens(0x20, 0x2f, Token.BINARY);
+    setTokens(0x30, 0x33, Token.STRING);
+    setTokens(0x34, 0x37, Token.BINARY);
+    setTokens(0x38, 0x3f, Token.LONG);
+    setTokens(0x60, 0x6f, Token.START_OBJECT);
+    setTokens(0x70, 0x7f, Token.START_LIST);
+    setTokens(0x80, 0xd7, Token.INT);
+    setTokens(0xd8, 0xff, Token.LONG);
+    setTokens(0x55, 0x58, Token.START_LIST);
+    setTokens(0x5b, 0x5f, Token.DOUBLE);
+
+    TOKENS[Hessian2Constants.BC_PACKED_ARRAY] = Token.PACKED_ARRAY;
+    TOKENS['A'] = Token.BINARY;
+    TOKENS['B'] = Token.BINARY;
+    TOKENS['D'] = Token.DOUBLE;
+    TOKENS['F'] = Token.BOOLEAN;
+    TOKENS['T'] = Token.BOOLEAN;
+    TOKENS['H'] = Token.START_MAP;
+    TOKENS['M'] = Token.START_MAP;
+    TOKENS['I'] = Token.INT;
+    TOKENS['L'] = Token.LONG;
+    TOKENS[Hessian2Constants.BC_LONG_INT] = Token.LONG;
+    TOKENS[Hessian2Constants.BC_DATE] = Token.DATE;
+    TOKENS[Hessian2Constants.BC_DATE_MINUTE] = Token.DATE;
+    TOKENS['N'] = Token.NULL;
+    TOKENS['C'] = Token.START_OBJECT;
+    TOKENS['O'] = Token.START_OBJECT;
+    TOKENS[Hessian2Constants.BC_REF] = Token.REF;
+    TOKENS['R'] = Token.STRING;
+    TOKENS['S'] = Token.STRING;
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package com.caucho.hessian.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * The start of a method call, encoded once for both protocol versions.
+ * Clients making the same call many times write it with
+ * {@link AbstractHessianOutput#call(HessianCallHeader, Object[])}
+ * instead of encoding the method name again for every request.
+ *
+ * <code><pre>
+ * Hessian 1.0:  m b16 b8 method-name
+ * Hessian 2.0:  C string int
+ * </pre></code>
+ */
+public final class HessianCallHeader {
+  private final String _method;
+  private final int _length;
+
+  private final byte []_hessian1Method;
+  private final byte []_hessian2Header;
+
+  /**
+   * Encodes the call header.
+   *
+   * @param method the (mangled) method name
+   * @param length the number of arguments
+   */
+  public HessianCallHeader(String method, int length)
+  {
+    if (method == null)
+      throw new NullPointerException();
+
+    _method = method;
+    _length = length;
+
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      HessianOutput out1 = new HessianOutput(bos);
+      out1.writeMethod(method);
+      out1.flush();
+      _hessian1Method = bos.toByteArray();
+
+      bos = new ByteArrayOutputStream();
+      Hessian2Output out2 = new Hessian2Output(bos);
+      out2.startCall(method, length);
+      out2.flush();
+      _hessian2Header = bos.toByteArray();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns the method name.
+   */
+  public String getMethod()
+  {
+    return _method;
+  }
+
+  /**
+   * Returns the number of arguments.
+   */
+  public int getLength()
+  {
+    return _length;
+  }
+
+  byte []getHessian1Method()
+  {
+    return _hessian1Method;
+  }
+
+  byte []getHessian2Header()
+  {
+    return _hessian2Header;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _method + "," + _length + "]";
+  }
+}
@@ -0,0 +1,324 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Shared dictionary of class definitions for Hessian 2.0 messages.
+ *
+ * <p>Normally every message repeats the definition (type and field names)
+ * of each class it contains.  When a writer and reader share a dictionary,
+ * classes in the dictionary are written by reference only: dictionary
+ * entries take the first class references of every message and classes
+ * defined in the message itself are numbered after them.
+ *
+ * <p>Dictionaries are immutable and can be shared between threads.
+ * Adding definitions returns a new dictionary.  Its version is a hash of
+ * all definitions in order, so dictionaries with different classes have
+ * different versions even when they have the same size.  Writer and
+ * reader must use the same version; since definitions are only appended,
+ * a reader holding a later dictionary can decode older messages with
+ * <code>toVersion</code>.
+ *
+ * <pre>
+ * HessianClassDictionary dict = new HessianClassDictionary()
+ *   .addSamples(factory, new Quote(), new Trade());
+ *
+ * out.setClassDictionary(dict);
+ * in.setClassDictionary(dict);
+ * </pre>
+ *
+ * The dictionary itself can be sent once per connection or stored once per
+ * file with <code>writeDictionary</code> and <code>readDictionary</code>.
+ */
+public final class HessianClassDictionary {
+  private final String []_types;
+  private final String [][]_fieldNames;
+  private final HashMap<String,Integer> _refMap;
+
+  // _versions[i] is the version of the first i definitions
+  private final long []_versions;
+
+  /**
+   * Creates an empty dictionary.
+   */
+  public HessianClassDictionary()
+  {
+    this(new String[0], new String[0][]);
+  }
+
+  private HessianClassDictionary(String []types, String [][]fieldNames)
+  {
+    _types = types;
+    _fieldNames = fieldNames;
+
+    _refMap = new HashMap<String,Integer>();
+
+    for (int i = 0; i < types.length; i++)
+      _refMap.put(types[i], Integer.valueOf(i));
+
+    _versions = new long[types.length + 1];
+
+    for (int i = 0; i < types.length; i++)
+      _versions[i + 1] = nextVersion(_versions[i], types[i], fieldNames[i]);
+  }
+
+  /**
+   * Returns the number of definitions in the dictionary.
+   */
+  public int getSize()
+  {
+    return _types.length;
+  }
+
+  /**
+   * Returns the version of the dictionary, a hash of its definitions in
+   * order.  The empty dictionary has version 0.
+   */
+  public long getVersion()
+  {
+    return _versions[_types.length];
+  }
+
+  /**
+   * Returns the dictionary as it was at an earlier version.
+   */
+  public HessianClassDictionary toVersion(long version)
+  {
+    int size = _types.length;
+
+    if (version == _versions[size])
+      return this;
+
+    for (size--; size >= 0 && _versions[size] != version; size--) {
+    }
+
+    if (size < 0)
+      throw new IllegalArgumentException("class dictionary version "
+                                         + Long.toHexString(version)
+                                         + " is not an earlier version of "
+                                         + this);
+
+    String []types = new String[size];
+    System.arraycopy(_types, 0, types, 0, size);
+
+    String [][]names = new String[size][];
+    System.arraycopy(_fieldNames, 0, names, 0, size);
+
+    return new HessianClassDictionary(types, names);
+  }
+
+  /**
+   * Chains the FNV-1a hash of a definition onto the previous version.
+   */
+  private static long nextVersion(long version,
+                                  String type,
+                                  String []fieldNames)
+  {
+    long hash = version == 0 ? 0xcbf29ce484222325L : version;
+
+    hash = hash(hash, type);
+    hash = hash(hash, fieldNames.length);
+
+    for (int i = 0; i < fieldNames.length; i++)
+      hash = hash(hash, fieldNames[i]);
+
+    // 0 is reserved for the empty dictionary
+    return hash != 0 ? hash : 1;
+  }
+
+  private static long hash(long hash, String value)
+  {
+    hash = hash(hash, value.length());
+
+    for (int i = 0; i < value.length(); i++)
+      hash = hash(hash, value.charAt(i));
+
+    return hash;
+  }
+
+  private static long hash(long hash, int value)
+  {
+    return (hash ^ value) * 0x100000001b3L;
+  }
+
+  /**
+   * Returns the class reference of a type, or -1 if it is not defined.
+   */
+  public int getRef(String type)
+  {
+    Integer ref = _refMap.get(type);
+
+    if (ref != null)
+      return ref.intValue();
+    else
+      return -1;
+  }
+
+  /**
+   * Returns the type of a class reference.
+   */
+  public String getType(int ref)
+  {
+    return _types[ref];
+  }
+
+  /**
+   * Returns the field names of a class reference.
+   */
+  public String []getFieldNames(int ref)
+  {
+    return _fieldNames[ref].clone();
+  }
+
+  String []getFieldNamesRef(int ref)
+  {
+    return _fieldNames[ref];
+  }
+
+  /**
+   * Returns a new dictionary with an added definition.  The field names
+   * must be the ones the type's serializer writes, in the same order.
+   */
+  public HessianClassDictionary addDefinition(String type,
+                                              String []fieldNames)
+  {
+    if (type == null || fieldNames == null)
+      throw new NullPointerException();
+
+    if (_refMap.containsKey(type))
+      throw new IllegalArgumentException("'" + type + "' is already defined in the class dictionary");
+
+    int length = _types.length;
+
+    String []types = new String[length + 1];
+    System.arraycopy(_types, 0, types, 0, length);
+    types[length] = type;
+
+    String [][]names = new String[length + 1][];
+    System.arraycopy(_fieldNames, 0, names, 0, length);
+    names[length] = fieldNames.clone();
+
+    return new HessianClassDictionary(types, names);
+  }
+
+  /**
+   * Returns a new dictionary with the definitions of all classes written
+   * for the sample objects, including nested ones, as the factory's
+   * serializers write them.  Types already in the dictionary are kept.
+   */
+  public HessianClassDictionary addSamples(SerializerFactory factory,
+                                           Object ...samples)
+    throws IOException
+  {
+    Hessian2Output out = new Hessian2Output();
+    out.setSerializerFactory(factory);
+    out.setClassDictionary(this);
+    out.initBuffer();
+
+    for (Object sample : samples)
+      out.writeObject(sample);
+
+    byte []data = out.toByteArray();
+    out.free();
+
+    Hessian2Input in = new Hessian2Input(data, 0, data.length);
+    in.setSerializerFactory(factory);
+    in.setClassDictionary(this);
+
+    for (int i = 0; i < samples.length; i++)
+      in.readObject();
+
+    HessianClassDictionary dictionary = this;
+
+    int count = in.getClassDefinitionCount();
+    for (int i = 0; i < count; i++) {
+      dictionary = dictionary.addDefinition(in.getClassDefinitionType(i),
+                                            in.getClassDefinitionFieldNames(i));
+    }
+
+    return dictionary;
+  }
+
+  /**
+   * Writes the dictionary, e.g. at the start of a connection or file,
+   * followed by its version.
+   */
+  public void writeDictionary(AbstractHessianOutput out)
+    throws IOException
+  {
+    out.writeInt(_types.length);
+
+    for (int i = 0; i < _types.length; i++) {
+      String []fieldNames = _fieldNames[i];
+
+      out.writeString(_types[i]);
+      out.writeInt(fieldNames.length);
+
+      for (int j = 0; j < fieldNames.length; j++)
+        out.writeString(fieldNames[j]);
+    }
+
+    out.writeLong(getVersion());
+  }
+
+  /**
+   * Reads a dictionary written by <code>writeDictionary</code>, checking
+   * its definitions against the version written with them.
+   */
+  public static HessianClassDictionary readDictionary(AbstractHessianInput in)
+    throws IOException
+  {
+    int length = in.readInt();
+
+    String []types = new String[length];
+    String [][]names = new String[length][];
+
+    for (int i = 0; i < length; i++) {
+      types[i] = in.readString();
+
+      String []fieldNames = new String[in.readInt()];
+      for (int j = 0; j < fieldNames.length; j++)
+        fieldNames[j] = in.readString();
+
+      names[i] = fieldNames;
+    }
+
+    HessianClassDictionary dictionary = new HessianClassDictionary(types, names);
+
+    long version = in.readLong();
+
+    if (version != dictionary.getVersion())
+      throw new HessianProtocolException("class dictionary version "
+                                         + Long.toHexString(version)
+                                         + " does not match its definitions "
+                                         + dictionary);
+
+    return dictionary;
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[size=" + getSize()
+            + ",version=" + Long.toHexString(getVersion()) + "]");
+  }
+}
@@ -0,0 +1,304 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.io;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.caucho.hessian.HessianException;
+
+/**
+ * A list of beans decoded from its columns.
+ *
+ * <p>By default a columnar list is decoded straight into an ArrayList of
+ * beans.  With <code>Hessian2Input.setColumnarView(true)</code> the reader
+ * returns this view instead, which gives direct access to the columns and
+ * creates a bean only when an element is requested.
+ *
+ * <p>Integral fields are returned as arrays of the field's type, e.g.
+ * <code>int[]</code>, boolean, float and double fields as primitive arrays,
+ * and other fields as <code>Object[]</code>, or <code>String[]</code> for
+ * strings.  Columns for fields the local class doesn't have are kept,
+ * integral ones as <code>long[]</code>.
+ */
+public class HessianColumnarList extends AbstractList<Object>
+  implements RandomAccess
+{
+  private final Class<?> _type;
+  private final String []_fieldNames;
+  private final Field []_fields;
+  private final Object []_columns;
+  private final int _size;
+  private final Deserializer _deserializer;
+
+  HessianColumnarList(Class<?> type,
+                      String []fieldNames,
+                      Field []fields,
+                      Object []columns,
+                      int size,
+                      Deserializer deserializer)
+  {
+    _type = type;
+    _fieldNames = fieldNames;
+    _fields = fields;
+    _columns = columns;
+    _size = size;
+    _deserializer = deserializer;
+  }
+
+  /**
+   * Returns the class of the elements.
+   */
+  public Class<?> getType()
+  {
+    return _type;
+  }
+
+  /**
+   * Returns the names of the columns, in the order they were written.
+   */
+  public String []getFieldNames()
+  {
+    return _fieldNames.clone();
+  }
+
+  /**
+   * Returns the values of a field as an array, or null if the list has no
+   * such column.
+   */
+  public Object getColumn(String fieldName)
+  {
+    for (int i = 0; i < _fieldNames.length; i++) {
+      if (_fieldNames[i].equals(fieldName))
+        return _columns[i];
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the values of the i-th column as an array.
+   */
+  public Object getColumn(int index)
+  {
+    return _columns[index];
+  }
+
+  @Override
+  public int size()
+  {
+    return _size;
+  }
+
+  /**
+   * Creates the bean for a row.  Each call returns a new instance.
+   */
+  @Override
+  public Object get(int index)
+  {
+    if (index < 0 || _size <= index)
+      throw new IndexOutOfBoundsException("index " + index + " size " + _size);
+
+    try {
+      Object bean = instantiate();
+
+      for (int i = 0; i < _fields.length; i++) {
+        Field field = _fields[i];
+
+        if (field != null)
+          setValue(field, bean, Array.get(_columns[i], index));
+      }
+
+      return resolve(bean);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new HessianException(_type.getName() + ": " + e, e);
+    }
+  }
+
+  /**
+   * Creates the beans for all rows, filling them one column at a time.
+   */
+  public ArrayList<Object> toArrayList()
+  {
+    ArrayList<Object> list = new ArrayList<Object>(_size);
+
+    fillList(list);
+
+    return list;
+  }
+
+  /**
+   * Adds the beans for all rows to the list.
+   */
+  void fillList(List<Object> list)
+  {
+    try {
+      Object []beans = new Object[_size];
+
+      for (int i = 0; i < _size; i++)
+        beans[i] = instantiate();
+
+      for (int i = 0; i < _fields.length; i++) {
+        if (_fields[i] != null)
+          fillColumn(_fields[i], _columns[i], beans);
+      }
+
+      for (int i = 0; i < _size; i++)
+        list.add(resolve(beans[i]));
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new HessianException(_type.getName() + ": " + e, e);
+    }
+  }
+
+  private void fillColumn(Field field, Object column, Object []beans)
+    throws IllegalAccessException
+  {
+    Class<?> type = field.getType();
+    int size = _size;
+
+    if (column instanceof int []) {
+      int []values = (int []) column;
+
+      for (int i = 0; i < size; i++)
+        field.setInt(beans[i], values[i]);
+    }
+    else if (column instanceof long [] && type == long.class) {
+      long []values = (long []) column;
+
+      for (int i = 0; i < size; i++)
+        field.setLong(beans[i], values[i]);
+    }
+    else if (column instanceof double [] && type == double.class) {
+      double []values = (double []) column;
+
+      for (int i = 0; i < size; i++)
+        field.setDouble(beans[i], values[i]);
+    }
+    else if (column instanceof boolean [] && type == boolean.class) {
+      boolean []values = (boolean []) column;
+
+      for (int i = 0; i < size; i++)
+        field.setBoolean(beans[i], values[i]);
+    }
+    else if (column instanceof Object []) {
+      Object []values = (Object []) column;
+
+      for (int i = 0; i < size; i++)
+        setValue(field, beans[i], values[i]);
+    }
+    else {
+      for (int i = 0; i < size; i++)
+        setValue(field, beans[i], Array.get(column, i));
+    }
+  }
+
+  private static void setValue(Field field, Object bean, Object value)
+    throws IllegalAccessException
+  {
+    Class<?> type = field.getType();
+
+    value = convert(value, type);
+
+    if (value != null || ! type.isPrimitive())
+      field.set(bean, value);
+  }
+
+  /**
+   * Converts a decoded value to the field's type, e.g. an integer column
+   * read into a short field, or a string into a char.
+   */
+  static Object convert(Object value, Class<?> type)
+  {
+    if (value == null || type.isInstance(value))
+      return value;
+
+    if (value instanceof Number) {
+      Number number = (Number) value;
+
+      if (type == int.class || type == Integer.class)
+        return Integer.valueOf(number.intValue());
+      else if (type == long.class || type == Long.class)
+        return Long.valueOf(number.longValue());
+      else if (type == short.class || type == Short.class)
+        return Short.valueOf(number.shortValue());
+      else if (type == byte.class || type == Byte.class)
+        return Byte.valueOf(number.byteValue());
+      else if (type == double.class || type == Double.class)
+        return Double.valueOf(number.doubleValue());
+      else if (type == float.class || type == Float.class)
+        return Float.valueOf(number.floatValue());
+      else if (type == char.class || type == Character.class)
+        return Character.valueOf((char) number.intValue());
+    }
+    else if (value instanceof String
+             && (type == char.class || type == Character.class)) {
+      String s = (String) value;
+
+      return s.length() > 0 ? Character.valueOf(s.charAt(0)) : null;
+    }
+    else if (value instanceof Character
+             && (type == int.class || type == Integer.class)) {
+      return Integer.valueOf(((Character) value).charValue());
+    }
+
+    return value;
+  }
+
+  private Object instantiate()
+    throws Exception
+  {
+    if (_deserializer instanceof UnsafeDeserializer)
+      return ((UnsafeDeserializer) _deserializer).instantiate();
+    else if (_deserializer instanceof JavaDeserializer)
+      return ((JavaDeserializer) _deserializer).instantiate();
+
+    try {
+      return _type.getDeclaredConstructor().newInstance();
+    } catch (InvocationTargetException e) {
+      // the constructor's own exception, not the reflection wrapper
+      Throwable cause = e.getCause();
+
+      if (cause instanceof Exception)
+        throw (Exception) cause;
+      else if (cause instanceof Error)
+        throw (Error) cause;
+      else
+        throw e;
+    }
+  }
+
+  private Object resolve(Object bean)
+    throws Exception
+  {
+    if (_deserializer instanceof UnsafeDeserializer)
+      return ((UnsafeDeserializer) _deserializer).resolve(null, bean);
+    else if (_deserializer instanceof JavaDeserializer)
+      return ((JavaDeserializer) _deserializer).resolve(null, bean);
+    else
+      return bean;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+import java.util.zip.Adler32;
+
+/**
+ * Preset dictionary for <code>DictionaryDeflation</code>.
+ *
+ * <p>Deflate compresses short messages poorly because every message
+ * starts with an empty window.  A dictionary of the class names, field
+ * names and strings common to the messages primes the window, so even a
+ * message of a few hundred bytes can refer back to them.
+ *
+ * <p>Dictionaries are built by <code>DeflateDictionaryTrainer</code> and
+ * identified by an id which is written in the envelope header.  Writer
+ * and reader must hold the dictionary with the same id.
+ */
+public final class HessianDeflateDictionary {
+  // dictionary bytes beyond the deflate window are never referenced
+  public static final int MAX_LENGTH = 32 * 1024 - 262;
+
+  private final int _id;
+  private final byte []_data;
+
+  /**
+   * Creates a dictionary.
+   *
+   * @param id the id written with each message
+   * @param data the dictionary contents, most useful strings last
+   */
+  public HessianDeflateDictionary(int id, byte []data)
+  {
+    if (data.length > MAX_LENGTH)
+      throw new IllegalArgumentException("dictionary length " + data.length
+                                         + " is larger than " + MAX_LENGTH);
+
+    _id = id;
+    _data = data.clone();
+  }
+
+  /**
+   * Creates a dictionary identified by the checksum of its contents.
+   */
+  public HessianDeflateDictionary(byte []data)
+  {
+    this(checksum(data), data);
+  }
+
+  public int getId()
+  {
+    return _id;
+  }
+
+  public int getLength()
+  {
+    return _data.length;
+  }
+
+  /**
+   * Returns a copy of the dictionary contents.
+   */
+  public byte []getData()
+  {
+    return _data.clone();
+  }
+
+  byte []getDataBuffer()
+  {
+    return _data;
+  }
+
+  private static int checksum(byte []data)
+  {
+    Adler32 adler = new Adler32();
+    adler.update(data, 0, data.length);
+
+    return (int) adler.getValue() & 0x7fffffff;
+  }
+
+  /**
+   * Writes the dictionary, e.g. to a file shared by writers and readers.
+   */
+  public void writeDictionary(AbstractHessianOutput out)
+    throws IOException
+  {
+    out.writeInt(_id);
+    out.writeBytes(_data);
+  }
+
+  /**
+   * Reads a dictionary written by <code>writeDictionary</code>.
+   */
+  public static HessianDeflateDictionary readDictionary(AbstractHessianInput in)
+    throws IOException
+  {
+    int id = in.readInt();
+    byte []data = in.readBytes();
+
+    return new HessianDeflateDictionary(id, data);
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName() + "[id=" + _id
+            + ",length=" + _data.length + "]");
+  }
+}
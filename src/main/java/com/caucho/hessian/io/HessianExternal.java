@@ -0,0 +1,42 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.io;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class for compile-time generation of its Hessian 2.0 codec.
+ *
+ * The hessian-sm-processor annotation processor generates
+ * <code>FooHessianSerializer</code> and <code>FooHessianDeserializer</code>
+ * next to class <code>Foo</code>, which write and read the fields directly
+ * like a hand-written {@link External}.  SerializerFactory picks them up by
+ * name, so no registration is needed.
+ *
+ * The class needs a non-private no-argument constructor, and each
+ * non-static, non-transient field must be non-private or have a getter
+ * and setter.  Both sides of a connection need the generated codec.
+ */
+@Target({ElementType.TYPE })
+@Retention(RetentionPolicy.CLASS)
+public @interface HessianExternal
+{
+}
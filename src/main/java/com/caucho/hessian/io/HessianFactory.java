@@ -30,6 +30,7 @@ public class HessianFactory
 
   private SerializerFactory _serializerFactory;
   private SerializerFactory _defaultSerializerFactory;
+  private HessianClassDictionary _classDictionary;
 
   private final HessianFreeList<Hessian2Output> _freeHessian2Output
     = new HessianFreeList<Hessian2Output>(32);
@@ -65,6 +66,20 @@ public class HessianFactory
     return _serializerFactory;
   }
 
+  /**
+   * Sets the class dictionary shared by the Hessian 2.0 streams
+   * created by the factory.
+   */
+  public void setClassDictionary(HessianClassDictionary dictionary)
+  {
+    _classDictionary = dictionary;
+  }
+
+  public HessianClassDictionary getClassDictionary()
+  {
+    return _classDictionary;
+  }
+
   /**
    * Creates a new Hessian 2.0 deserializer.
    */
@@ -80,6 +95,31 @@ public class HessianFactory
       in.init(is);
     }
 
+    in.setClassDictionary(_classDictionary);
+
+    return in;
+  }
+
+  /**
+   * Creates a new Hessian 2.0 deserializer which decodes directly from
+   * a byte array slice.
+   */
+  public Hessian2Input createHessian2Input(byte []buffer,
+                                           int offset,
+                                           int length)
+  {
+    Hessian2Input in = _freeHessian2Input.allocate();
+    
+    if (in == null) {
+      in = new Hessian2Input(buffer, offset, length);
+      in.setSerializerFactory(getSerializerFactory());
+    }
+    else {
+      in.init(buffer, offset, length);
+    }
+
+    in.setClassDictionary(_classDictionary);
+
     return in;
   }
 
@@ -147,6 +187,8 @@ public class HessianFactory
       out.setSerializerFactory(getSerializerFactory());
     }
 
+    out.setClassDictionary(_classDictionary);
+
     return out;
   }
 
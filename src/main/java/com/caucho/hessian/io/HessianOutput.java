@@ -102,6 +102,27 @@ public class HessianOutput extends AbstractHessianOutput {
     completeCall();
   }
 
+  /**
+   * Writes a complete method call, copying the pre-encoded method name.
+   */
+  @Override
+  public void call(HessianCallHeader header, Object []args)
+    throws IOException
+  {
+    int length = args != null ? args.length : 0;
+
+    os.write('c');
+    os.write(_version);
+    os.write(0);
+
+    os.write(header.getHessian1Method());
+
+    for (int i = 0; i < length; i++)
+      writeObject(args[i]);
+
+    completeCall();
+  }
+
   /**
    * Starts the method call.  Clients would use <code>startCall</code>
    * instead of <code>call</code> if they wanted finer control over
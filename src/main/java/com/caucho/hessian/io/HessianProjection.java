@@ -0,0 +1,181 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Selects the fields of objects to materialize when reading.  Fields
+ * outside the projection are left at their default values; strings,
+ * binaries and numbers in them are skipped without being decoded.
+ * Objects, lists and maps in them are still read, because a later back
+ * reference may point to them.
+ *
+ * <code><pre>
+ * HessianProjection projection
+ *   = HessianProjection.create("id", "customer.name", "items.price");
+ *
+ * Order order = (Order) in.readObject(Order.class, projection);
+ * </pre></code>
+ *
+ * A path names a field of the object being read and, after a '.', a
+ * field of that field's value.  Paths pass through lists, arrays and
+ * maps, applying to their elements.  A field named without a sub-path
+ * is read whole.  Projections are immutable and may be shared between
+ * threads and inputs.
+ */
+public final class HessianProjection
+{
+  private static final int FIELDS_MAX = 256;
+
+  // child projection per field, null to read the field whole
+  private final HashMap<String,HessianProjection> _fields;
+
+  // resolved field readers per class definition
+  private final ConcurrentHashMap<Hessian2Input.ObjectDefinition,ProjectedFields> _fieldsMap
+    = new ConcurrentHashMap<Hessian2Input.ObjectDefinition,ProjectedFields>();
+
+  private HessianProjection(HashMap<String,HessianProjection> fields)
+  {
+    _fields = fields;
+  }
+
+  /**
+   * Creates a projection from dotted field paths.
+   */
+  public static HessianProjection create(String ...paths)
+  {
+    HashMap<String,Object> tree = new HashMap<String,Object>();
+
+    for (String path : paths) {
+      if (path == null || path.length() == 0)
+        throw new IllegalArgumentException("empty projection path");
+
+      addPath(tree, path);
+    }
+
+    return create(tree);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void addPath(HashMap<String,Object> tree, String path)
+  {
+    int p = path.indexOf('.');
+
+    if (p < 0) {
+      // the whole field replaces any narrower paths
+      tree.put(path, Boolean.TRUE);
+      return;
+    }
+
+    String field = path.substring(0, p);
+    String tail = path.substring(p + 1);
+
+    if (field.length() == 0 || tail.length() == 0)
+      throw new IllegalArgumentException("illegal projection path '" + path + "'");
+
+    Object child = tree.get(field);
+
+    if (child == Boolean.TRUE)
+      return;
+    else if (child == null) {
+      child = new HashMap<String,Object>();
+      tree.put(field, child);
+    }
+
+    addPath((HashMap<String,Object>) child, tail);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static HessianProjection create(HashMap<String,Object> tree)
+  {
+    HashMap<String,HessianProjection> fields
+      = new HashMap<String,HessianProjection>();
+
+    Iterator<Map.Entry<String,Object>> iter = tree.entrySet().iterator();
+
+    while (iter.hasNext()) {
+      Map.Entry<String,Object> entry = iter.next();
+      Object child = entry.getValue();
+
+      if (child == Boolean.TRUE)
+        fields.put(entry.getKey(), null);
+      else
+        fields.put(entry.getKey(), create((HashMap<String,Object>) child));
+    }
+
+    return new HessianProjection(fields);
+  }
+
+  /**
+   * True if the field is part of the projection.
+   */
+  public boolean isIncluded(String field)
+  {
+    return _fields.containsKey(field);
+  }
+
+  /**
+   * Returns the projection of the field's value, or null if the field
+   * is read whole or isn't included.
+   */
+  public HessianProjection getProjection(String field)
+  {
+    return _fields.get(field);
+  }
+
+  /**
+   * Returns the reader's projected fields for the definition, or null
+   * if the reader doesn't support projections.
+   */
+  Object []getFields(Hessian2Input.ObjectDefinition def,
+                     AbstractDeserializer reader)
+  {
+    ProjectedFields fields = _fieldsMap.get(def);
+
+    if (fields != null && fields._reader == reader)
+      return fields._fields;
+
+    Object []projected
+      = reader.createProjectedFields(def.getFieldNames(), this);
+
+    if (_fieldsMap.size() < FIELDS_MAX)
+      _fieldsMap.put(def, new ProjectedFields(reader, projected));
+
+    return projected;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + _fields;
+  }
+
+  private static final class ProjectedFields {
+    private final AbstractDeserializer _reader;
+    private final Object []_fields;
+
+    ProjectedFields(AbstractDeserializer reader, Object []fields)
+    {
+      _reader = reader;
+      _fields = fields;
+    }
+  }
+}
@@ -0,0 +1,319 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package com.caucho.hessian.io;
+
+import com.caucho.hessian.util.HessianFreeList;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Memory-mapped reader for files written by {@link HessianRecordWriter}.
+ * Records are located through the file's offset index, so reading a
+ * record or a range of records doesn't scan the file.
+ *
+ * <code><pre>
+ * HessianRecordFile file = new HessianRecordFile(new File("snapshot.hrc"));
+ *
+ * Object value = file.readRecord(12345);
+ * </pre></code>
+ *
+ * The file is mapped in overlapping windows, since a single mapping is
+ * limited to 2G.  Reads are thread-safe.
+ */
+public class HessianRecordFile implements Closeable
+{
+  // windows start every SEGMENT_SIZE bytes and map twice that, so any
+  // record up to SEGMENT_SIZE fits in the window where it starts
+  private static final long SEGMENT_SIZE = 1L << 29;
+
+  private final RandomAccessFile _file;
+  private final FileChannel _channel;
+
+  private final MappedByteBuffer []_segments;
+  private final ByteBuffer _index;
+
+  private final long _dataStart;
+  private final long _indexOffset;
+  private final long _count;
+
+  private final HessianClassDictionary _classDictionary;
+
+  private final HessianFreeList<Hessian2Input> _freeInputs
+    = new HessianFreeList<Hessian2Input>(16);
+
+  private SerializerFactory _serializerFactory;
+
+  public HessianRecordFile(File file)
+    throws IOException
+  {
+    _file = new RandomAccessFile(file, "r");
+
+    boolean isValid = false;
+
+    try {
+      _channel = _file.getChannel();
+
+      long size = _channel.size();
+
+      if (size < HessianRecordWriter.MAGIC.length + 4
+                 + HessianRecordWriter.FOOTER_LENGTH)
+        throw new HessianProtocolException(file + " is not a Hessian record file");
+
+      ByteBuffer footer = _channel.map(FileChannel.MapMode.READ_ONLY,
+                                       size - HessianRecordWriter.FOOTER_LENGTH,
+                                       HessianRecordWriter.FOOTER_LENGTH);
+
+      _indexOffset = footer.getLong();
+      _count = footer.getLong();
+
+      ByteBuffer header = _channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                       HessianRecordWriter.MAGIC.length + 4);
+
+      if (! isMagic(footer) || ! isMagic(header))
+        throw new HessianProtocolException(file + " is not a Hessian record file");
+
+      int dictionaryLength = header.getInt();
+
+      _dataStart = HessianRecordWriter.MAGIC.length + 4 + dictionaryLength;
+
+      long indexLength = 8 * _count;
+
+      if (_indexOffset < _dataStart
+          || _indexOffset + indexLength
+             != size - HessianRecordWriter.FOOTER_LENGTH)
+        throw new HessianProtocolException(file + " has a corrupted index");
+
+      if (HessianRecordWriter.MAX_RECORDS < _count)
+        throw new HessianProtocolException(file + " has too many records");
+
+      _index = _channel.map(FileChannel.MapMode.READ_ONLY,
+                            _indexOffset, indexLength);
+
+      int segmentCount = (int) ((_indexOffset + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+
+      _segments = new MappedByteBuffer[segmentCount];
+
+      for (int i = 0; i < segmentCount; i++) {
+        long start = i * SEGMENT_SIZE;
+        long length = Math.min(2 * SEGMENT_SIZE, _indexOffset - start);
+
+        _segments[i] = _channel.map(FileChannel.MapMode.READ_ONLY,
+                                    start, length);
+      }
+
+      if (dictionaryLength > 0)
+        _classDictionary = readDictionary(dictionaryLength);
+      else
+        _classDictionary = null;
+
+      isValid = true;
+    } finally {
+      if (! isValid)
+        _file.close();
+    }
+  }
+
+  private static boolean isMagic(ByteBuffer buffer)
+  {
+    byte []magic = new byte[HessianRecordWriter.MAGIC.length];
+
+    buffer.get(magic);
+
+    return Arrays.equals(magic, HessianRecordWriter.MAGIC);
+  }
+
+  private HessianClassDictionary readDictionary(int length)
+    throws IOException
+  {
+    ByteBuffer buffer = _segments[0].duplicate();
+
+    buffer.position(HessianRecordWriter.MAGIC.length + 4);
+    buffer.limit(HessianRecordWriter.MAGIC.length + 4 + length);
+
+    Hessian2Input in = new Hessian2Input();
+    in.init(buffer);
+
+    return HessianClassDictionary.readDictionary(in);
+  }
+
+  public void setSerializerFactory(SerializerFactory factory)
+  {
+    _serializerFactory = factory;
+  }
+
+  public SerializerFactory getSerializerFactory()
+  {
+    return _serializerFactory;
+  }
+
+  /**
+   * Returns the class dictionary stored in the file's header, or null.
+   */
+  public HessianClassDictionary getClassDictionary()
+  {
+    return _classDictionary;
+  }
+
+  /**
+   * Returns the number of records.
+   */
+  public long getRecordCount()
+  {
+    return _count;
+  }
+
+  /**
+   * Returns the encoded bytes of a record as a read-only buffer.
+   */
+  public ByteBuffer getRecord(long index)
+    throws IOException
+  {
+    if (index < 0 || _count <= index)
+      throw new IndexOutOfBoundsException("record " + index
+                                          + " of " + _count);
+
+    long start = getOffset(index);
+    long end = index + 1 < _count ? getOffset(index + 1) : _indexOffset;
+    long length = end - start;
+
+    if (start < _dataStart || length < 0 || _indexOffset < end)
+      throw new HessianProtocolException("record " + index + " has a corrupted offset");
+
+    if (length <= SEGMENT_SIZE) {
+      int segment = (int) (start / SEGMENT_SIZE);
+      int offset = (int) (start - segment * SEGMENT_SIZE);
+
+      ByteBuffer buffer = _segments[segment].duplicate();
+      buffer.limit(offset + (int) length);
+      buffer.position(offset);
+
+      return buffer.slice();
+    }
+    else if (length <= Integer.MAX_VALUE)
+      return _channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+    else
+      throw new HessianProtocolException("record " + index + " is larger than 2G");
+  }
+
+  /**
+   * Decodes a record.
+   */
+  public Object readRecord(long index)
+    throws IOException
+  {
+    return readRecord(index, null, null);
+  }
+
+  /**
+   * Decodes a record with an expected type and an optional projection,
+   * see {@link Hessian2Input#readObject(Class,HessianProjection)}.
+   */
+  public Object readRecord(long index, Class<?> cl,
+                           HessianProjection projection)
+    throws IOException
+  {
+    Hessian2Input in = openRecord(index);
+
+    try {
+      return in.readObject(cl, projection);
+    } finally {
+      freeInput(in);
+    }
+  }
+
+  /**
+   * Decodes a range of records.
+   */
+  public List<Object> readRecords(long start, int length)
+    throws IOException
+  {
+    if (start < 0 || length < 0 || _count < start + length)
+      throw new IndexOutOfBoundsException("records " + start
+                                          + "+" + length + " of " + _count);
+
+    ArrayList<Object> values = new ArrayList<Object>(length);
+
+    for (int i = 0; i < length; i++)
+      values.add(readRecord(start + i));
+
+    return values;
+  }
+
+  /**
+   * Returns an input positioned at the start of a record, for token
+   * reading or skipping.  The input may be returned with
+   * <code>freeInput</code> after use.
+   */
+  public Hessian2Input openRecord(long index)
+    throws IOException
+  {
+    ByteBuffer buffer = getRecord(index);
+
+    Hessian2Input in = _freeInputs.allocate();
+
+    if (in == null)
+      in = new Hessian2Input();
+
+    in.init(buffer);
+    in.setClassDictionary(_classDictionary);
+
+    if (_serializerFactory != null)
+      in.setSerializerFactory(_serializerFactory);
+
+    return in;
+  }
+
+  /**
+   * Returns an input from <code>openRecord</code> for reuse.
+   */
+  public void freeInput(Hessian2Input in)
+  {
+    in.free();
+
+    _freeInputs.free(in);
+  }
+
+  private long getOffset(long index)
+  {
+    return _index.getLong((int) (8 * index));
+  }
+
+  /**
+   * Closes the file.  Records already returned by
+   * <code>getRecord</code> remain mapped until they are collected.
+   */
+  public void close()
+    throws IOException
+  {
+    _file.close();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _count + " records]";
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes a container file of independently decodable Hessian 2
+ * records, read back with {@link HessianRecordFile}.
+ *
+ * <code><pre>
+ * file   ::= header record* index footer
+ * header ::= 'H' 'r' 'c' x01 b32 b24 b16 b8 dictionary
+ * index  ::= (b64)*                   # record offsets
+ * footer ::= b64 b64 'H' 'r' 'c' x01  # index offset, record count
+ * </pre></code>
+ *
+ * The header's dictionary length is 0 when the file has no shared
+ * class dictionary.  Each record starts with fresh references, so any
+ * record can be decoded on its own.  The index is written by
+ * <code>close</code>; a file which isn't closed can't be read.
+ */
+public class HessianRecordWriter
+{
+  static final byte []MAGIC = { 'H', 'r', 'c', 0x01 };
+  static final int FOOTER_LENGTH = 8 + 8 + MAGIC.length;
+  // the reader maps the 8-byte offset index as a single buffer
+  static final int MAX_RECORDS = Integer.MAX_VALUE / 8;
+
+  private final CountingOutputStream _os;
+  private final Hessian2Output _out;
+
+  private long []_offsets = new long[1024];
+  private long _count;
+
+  private boolean _isClosed;
+
+  /**
+   * Creates a record file without a class dictionary.
+   */
+  public HessianRecordWriter(File file)
+    throws IOException
+  {
+    this(file, null);
+  }
+
+  /**
+   * Creates a record file whose records share the class dictionary.
+   * The dictionary is stored in the file's header.
+   */
+  public HessianRecordWriter(File file, HessianClassDictionary dictionary)
+    throws IOException
+  {
+    _os = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+
+    _out = new Hessian2Output(_os);
+
+    try {
+      writeHeader(dictionary);
+    } catch (IOException e) {
+      _os.close();
+
+      throw e;
+    }
+
+    _out.setClassDictionary(dictionary);
+  }
+
+  public void setSerializerFactory(SerializerFactory factory)
+  {
+    _out.setSerializerFactory(factory);
+  }
+
+  /**
+   * Writes primitive arrays as packed blocks, see
+   * {@link Hessian2Output#setPackedArrays}.
+   */
+  public void setPackedArrays(boolean isPackedArrays)
+  {
+    _out.setPackedArrays(isPackedArrays);
+  }
+
+  /**
+   * Returns the number of records written.
+   */
+  public long getRecordCount()
+  {
+    return _count;
+  }
+
+  /**
+   * Appends a record.
+   *
+   * @return the record's index
+   */
+  public long writeRecord(Object value)
+    throws IOException
+  {
+    if (_isClosed)
+      throw new IllegalStateException("record file is closed");
+
+    if (_count == MAX_RECORDS)
+      throw new IllegalStateException("too many records");
+
+    if (_count == _offsets.length) {
+      int length = (int) Math.min(2L * _offsets.length, MAX_RECORDS);
+
+      _offsets = Arrays.copyOf(_offsets, length);
+    }
+
+    _out.reset();
+
+    _offsets[(int) _count] = _os.getPosition();
+
+    _out.writeObject(value);
+    _out.flushBuffer();
+
+    return _count++;
+  }
+
+  /**
+   * Writes the index and closes the file.
+   */
+  public void close()
+    throws IOException
+  {
+    if (_isClosed)
+      return;
+
+    _isClosed = true;
+
+    try {
+      long indexOffset = _os.getPosition();
+
+      for (int i = 0; i < _count; i++)
+        writeLong(_offsets[i]);
+
+      writeLong(indexOffset);
+      writeLong(_count);
+      _os.write(MAGIC);
+    } finally {
+      _os.close();
+    }
+  }
+
+  private void writeHeader(HessianClassDictionary dictionary)
+    throws IOException
+  {
+    _os.write(MAGIC);
+
+    if (dictionary == null || dictionary.getSize() == 0) {
+      writeInt(0);
+      return;
+    }
+
+    Hessian2Output out = new Hessian2Output();
+    out.initBuffer();
+
+    try {
+      dictionary.writeDictionary(out);
+
+      byte []data = out.toByteArray();
+
+      writeInt(data.length);
+      _os.write(data);
+    } finally {
+      out.free();
+    }
+  }
+
+  private void writeInt(int v)
+    throws IOException
+  {
+    _os.write(v >> 24);
+    _os.write(v >> 16);
+    _os.write(v >> 8);
+    _os.write(v);
+  }
+
+  private void writeLong(long v)
+    throws IOException
+  {
+    writeInt((int) (v >> 32));
+    writeInt((int) v);
+  }
+
+  static class CountingOutputStream extends OutputStream {
+    private final OutputStream _os;
+    private long _position;
+
+    CountingOutputStream(OutputStream os)
+    {
+      _os = os;
+    }
+
+    long getPosition()
+    {
+      return _position;
+    }
+
+    @Override
+    public void write(int ch)
+      throws IOException
+    {
+      _os.write(ch);
+      _position++;
+    }
+
+    @Override
+    public void write(byte []buffer, int offset, int length)
+      throws IOException
+    {
+      _os.write(buffer, offset, length);
+      _position += length;
+    }
+
+    @Override
+    public void flush()
+      throws IOException
+    {
+      _os.flush();
+    }
+
+    @Override
+    public void close()
+      throws IOException
+    {
+      _os.close();
+    }
+  }
+}
@@ -139,6 +139,26 @@ public class JavaDeserializer extends AbstractMapDeserializer {
     return reader;
   }
 
+  @Override
+  public Object []createProjectedFields(String []fieldNames,
+                                        HessianProjection projection)
+  {
+    FieldDeserializer []fields = new FieldDeserializer[fieldNames.length];
+
+    for (int i = 0; i < fieldNames.length; i++) {
+      String name = fieldNames[i];
+      FieldDeserializer reader = _fieldMap.get(name);
+
+      if (reader == null || ! projection.isIncluded(name))
+        fields[i] = SkipFieldDeserializer.DESER;
+      else
+        fields[i] = new ProjectedFieldDeserializer(reader,
+                                                   projection.getProjection(name));
+    }
+
+    return fields;
+  }
+
   @Override
   public Object readObject(AbstractHessianInput in,
                            Object []fields)
@@ -427,6 +447,50 @@ public class JavaDeserializer extends AbstractMapDeserializer {
     }
   }
 
+  /**
+   * Drops a field outside a projection, still reading any value a later
+   * back reference can point to.
+   */
+  static class SkipFieldDeserializer extends FieldDeserializer {
+    static SkipFieldDeserializer DESER = new SkipFieldDeserializer();
+
+    @Override
+    void deserialize(AbstractHessianInput in, Object obj)
+      throws IOException
+    {
+      in.skipFieldValue();
+    }
+  }
+
+  /**
+   * Reads an included field with the projection of its value.
+   */
+  static class ProjectedFieldDeserializer extends FieldDeserializer {
+    private final FieldDeserializer _reader;
+    private final HessianProjection _projection;
+
+    ProjectedFieldDeserializer(FieldDeserializer reader,
+                               HessianProjection projection)
+    {
+      _reader = reader;
+      _projection = projection;
+    }
+
+    @Override
+    void deserialize(AbstractHessianInput in, Object obj)
+      throws IOException
+    {
+      Hessian2Input in2 = (Hessian2Input) in;
+      HessianProjection oldProjection = in2.setProjection(_projection);
+
+      try {
+        _reader.deserialize(in, obj);
+      } finally {
+        in2.setProjection(oldProjection);
+      }
+    }
+  }
+
   static class ObjectFieldDeserializer extends FieldDeserializer {
     private final Field _field;
 
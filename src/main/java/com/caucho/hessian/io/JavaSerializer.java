@@ -19,12 +19,10 @@ package com.caucho.hessian.io;
 import com.caucho.hessian.HessianUnshared;
 
 import java.io.IOException;
-import java.lang.ref.SoftReference;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
-import java.util.WeakHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,12 +34,25 @@ public class JavaSerializer extends AbstractSerializer
   private static final Logger log
     = Logger.getLogger(JavaSerializer.class.getName());
 
-  private static final WeakHashMap<Class<?>,SoftReference<JavaSerializer>> _serializerMap
-    = new WeakHashMap<Class<?>,SoftReference<JavaSerializer>>();
+  // the serializer lives as long as its class, without a global lock
+  private static final ClassValue<JavaSerializer> _serializerValue
+    = new ClassValue<JavaSerializer>() {
+    @Override
+    protected JavaSerializer computeValue(Class<?> cl)
+    {
+      if (cl.isAnnotationPresent(HessianUnshared.class))
+        return new JavaUnsharedSerializer(cl);
+      else
+        return new JavaSerializer(cl);
+    }
+  };
 
   private Field []_fields;
   private FieldSerializer []_fieldSerializers;
 
+  // the encoded class definition, written once per stream
+  private byte []_definition;
+
   private Object _writeReplaceFactory;
   private Method _writeReplace;
   
@@ -53,6 +64,8 @@ public class JavaSerializer extends AbstractSerializer
       // _writeReplace is always nul
     introspect(cl);
 
+    _definition = encodeDefinition(cl, _fields);
+
 //    _writeReplace = getWriteReplace(cl);
 //
 //    if (_writeReplace != null)
@@ -61,24 +74,7 @@ public class JavaSerializer extends AbstractSerializer
 
   public static Serializer create(Class<?> cl)
   {
-    synchronized (_serializerMap) {
-      SoftReference<JavaSerializer> baseRef
-        = _serializerMap.get(cl);
-      
-      JavaSerializer base = baseRef != null ? baseRef.get() : null;
-
-      if (base == null) {
-        if (cl.isAnnotationPresent(HessianUnshared.class))
-          base = new JavaUnsharedSerializer(cl);
-        else
-          base = new JavaSerializer(cl);
-        
-        baseRef = new SoftReference<JavaSerializer>(base);
-        _serializerMap.put(cl, baseRef);
-      }
-
-      return base;
-    }
+    return _serializerValue.get(cl);
   }
 
   protected void introspect(Class<?> cl)
@@ -211,7 +207,7 @@ public class JavaSerializer extends AbstractSerializer
       throw new RuntimeException(e);
     }
 
-    int ref = out.writeObjectBegin(cl.getName());
+    int ref = out.writeObjectBegin(cl.getName(), _definition);
 
     if (ref < -1) {
       writeObject10(obj, out);
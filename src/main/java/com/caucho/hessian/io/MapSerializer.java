@@ -76,12 +76,16 @@ public class MapSerializer extends AbstractSerializer {
       out.writeMapBegin(cl.getName());
     }
 
-    Iterator iter = map.entrySet().iterator();
-    while (iter.hasNext()) {
-      Map.Entry entry = (Map.Entry) iter.next();
+    if (out.isParallel(map.size()))
+      out.writeParallel(map.entrySet().toArray(), true);
+    else {
+      Iterator iter = map.entrySet().iterator();
+      while (iter.hasNext()) {
+        Map.Entry entry = (Map.Entry) iter.next();
 
-      out.writeObject(entry.getKey());
-      out.writeObject(entry.getValue());
+        out.writeObject(entry.getKey());
+        out.writeObject(entry.getValue());
+      }
     }
     out.writeMapEnd();
   }
@@ -27,6 +27,7 @@ import java.lang.annotation.Annotation;
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import javax.management.*;
 
 /**
@@ -40,6 +41,9 @@ public class SerializerFactory extends AbstractSerializerFactory
   private static final Deserializer OBJECT_DESERIALIZER
     = new BasicDeserializer(BasicDeserializer.OBJECT);
 
+  // bound on cached class definitions, since streams can define any number
+  private static final int OBJECT_DEFINITION_MAX = 4096;
+
   private static final ClassLoader _systemClassLoader;
 
   private static final HashMap _staticTypeMap;
@@ -62,9 +66,23 @@ public class SerializerFactory extends AbstractSerializerFactory
 
   private Deserializer _hashMapDeserializer;
   private Deserializer _arrayListDeserializer;
-  private ConcurrentHashMap _cachedSerializerMap;
-  private ConcurrentHashMap _cachedDeserializerMap;
-  private HashMap _cachedTypeDeserializerMap;
+
+  // per-class serializer and deserializer, read without locking
+  private final ClassValue<ClassSlot> _classSlots = new ClassValue<ClassSlot>() {
+    @Override
+    protected ClassSlot computeValue(Class<?> cl)
+    {
+      return new ClassSlot();
+    }
+  };
+
+  private final ConcurrentHashMap<String,Deserializer> _cachedTypeDeserializerMap
+    = new ConcurrentHashMap<String,Deserializer>(8);
+
+  // resolved Hessian 2.0 class definitions, by type and field names
+  private final ConcurrentHashMap<ObjectDefinitionKey,Hessian2Input.ObjectDefinition>
+    _objectDefinitionMap
+    = new ConcurrentHashMap<ObjectDefinitionKey,Hessian2Input.ObjectDefinition>();
 
   private boolean _isAllowNonSerializable;
   private boolean _isEnableUnsafeSerializer
@@ -181,22 +199,14 @@ public class SerializerFactory extends AbstractSerializerFactory
   public Serializer getSerializer(Class cl)
     throws HessianProtocolException
   {
-    Serializer serializer;
+    ClassSlot slot = _classSlots.get(cl);
 
-    if (_cachedSerializerMap != null) {
-      serializer = (Serializer) _cachedSerializerMap.get(cl);
+    Serializer serializer = slot._serializer;
 
-      if (serializer != null)
-        return serializer;
+    if (serializer == null) {
+      serializer = slot.setSerializer(loadSerializer(cl));
     }
 
-    serializer = loadSerializer(cl);
-
-    if (_cachedSerializerMap == null)
-      _cachedSerializerMap = new ConcurrentHashMap(8);
-
-    _cachedSerializerMap.put(cl, serializer);
-
     return serializer;
   }
 
@@ -327,22 +337,14 @@ public class SerializerFactory extends AbstractSerializerFactory
   public Deserializer getDeserializer(Class cl)
     throws HessianProtocolException
   {
-    Deserializer deserializer;
+    ClassSlot slot = _classSlots.get(cl);
 
-    if (_cachedDeserializerMap != null) {
-      deserializer = (Deserializer) _cachedDeserializerMap.get(cl);
+    Deserializer deserializer = slot._deserializer;
 
-      if (deserializer != null)
-        return deserializer;
+    if (deserializer == null) {
+      deserializer = slot.setDeserializer(loadDeserializer(cl));
     }
 
-    deserializer = loadDeserializer(cl);
-
-    if (_cachedDeserializerMap == null)
-      _cachedDeserializerMap = new ConcurrentHashMap(8);
-
-    _cachedDeserializerMap.put(cl, deserializer);
-
     return deserializer;
   }
 
@@ -559,6 +561,42 @@ public class SerializerFactory extends AbstractSerializerFactory
     }
   }
 
+  /**
+   * Returns the resolved definition of a class read from a Hessian 2.0
+   * stream, with its deserializer and field deserializers bound.
+   */
+  Hessian2Input.ObjectDefinition getObjectDefinition(String type,
+                                                     String []fieldNames)
+    throws HessianProtocolException
+  {
+    ObjectDefinitionKey key = null;
+    Hessian2Input.ObjectDefinition def;
+
+    if (type != null) {
+      key = new ObjectDefinitionKey(type, fieldNames);
+
+      def = _objectDefinitionMap.get(key);
+
+      if (def != null)
+        return def;
+    }
+
+    Deserializer reader = getObjectDeserializer(type, null);
+
+    Object []fields = reader.createFields(fieldNames.length);
+
+    for (int i = 0; i < fieldNames.length; i++) {
+      fields[i] = reader.createField(fieldNames[i]);
+    }
+
+    def = new Hessian2Input.ObjectDefinition(type, reader, fields, fieldNames);
+
+    if (key != null && _objectDefinitionMap.size() < OBJECT_DEFINITION_MAX)
+      _objectDefinitionMap.putIfAbsent(key, def);
+
+    return def;
+  }
+
   /**
    * Reads the object as a map.
    */
@@ -609,17 +647,10 @@ public class SerializerFactory extends AbstractSerializerFactory
     if (type == null || type.equals(""))
       return null;
 
-    Deserializer deserializer;
-
-    if (_cachedTypeDeserializerMap != null) {
-      synchronized (_cachedTypeDeserializerMap) {
-        deserializer = (Deserializer) _cachedTypeDeserializerMap.get(type);
-      }
-
-      if (deserializer != null)
-        return deserializer;
-    }
+    Deserializer deserializer = _cachedTypeDeserializerMap.get(type);
 
+    if (deserializer != null)
+      return deserializer;
 
     deserializer = (Deserializer) _staticTypeMap.get(type);
     if (deserializer != null)
@@ -645,17 +676,88 @@ public class SerializerFactory extends AbstractSerializerFactory
     }
 
     if (deserializer != null) {
-      if (_cachedTypeDeserializerMap == null)
-        _cachedTypeDeserializerMap = new HashMap(8);
+      Deserializer oldDeserializer
+        = _cachedTypeDeserializerMap.putIfAbsent(type, deserializer);
 
-      synchronized (_cachedTypeDeserializerMap) {
-        _cachedTypeDeserializerMap.put(type, deserializer);
-      }
+      if (oldDeserializer != null)
+        deserializer = oldDeserializer;
     }
 
     return deserializer;
   }
 
+  /**
+   * The serializer and deserializer of a class, each loaded on first
+   * use.  Concurrent first uses may both load, but only the first
+   * result is published.
+   */
+  private static final class ClassSlot {
+    private static final AtomicReferenceFieldUpdater<ClassSlot,Serializer>
+      _serializerUpdater
+      = AtomicReferenceFieldUpdater.newUpdater(ClassSlot.class,
+                                               Serializer.class,
+                                               "_serializer");
+
+    private static final AtomicReferenceFieldUpdater<ClassSlot,Deserializer>
+      _deserializerUpdater
+      = AtomicReferenceFieldUpdater.newUpdater(ClassSlot.class,
+                                               Deserializer.class,
+                                               "_deserializer");
+
+    volatile Serializer _serializer;
+    volatile Deserializer _deserializer;
+
+    Serializer setSerializer(Serializer serializer)
+    {
+      if (_serializerUpdater.compareAndSet(this, null, serializer))
+        return serializer;
+      else
+        return _serializer;
+    }
+
+    Deserializer setDeserializer(Deserializer deserializer)
+    {
+      if (_deserializerUpdater.compareAndSet(this, null, deserializer))
+        return deserializer;
+      else
+        return _deserializer;
+    }
+  }
+
+  private static final class ObjectDefinitionKey {
+    private final String _type;
+    private final String []_fieldNames;
+    private final int _hashCode;
+
+    ObjectDefinitionKey(String type, String []fieldNames)
+    {
+      _type = type;
+      _fieldNames = fieldNames;
+      _hashCode = 65521 * type.hashCode() + Arrays.hashCode(fieldNames);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return _hashCode;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (this == o)
+        return true;
+      else if (! (o instanceof ObjectDefinitionKey))
+        return false;
+
+      ObjectDefinitionKey key = (ObjectDefinitionKey) o;
+
+      return (_hashCode == key._hashCode
+              && _type.equals(key._type)
+              && Arrays.equals(_fieldNames, key._fieldNames));
+    }
+  }
+
   private static void addBasic(Class cl, String typeName, int type)
   {
     Deserializer deserializer = new BasicDeserializer(type);
@@ -702,6 +804,8 @@ public class SerializerFactory extends AbstractSerializerFactory
 
     Deserializer objectDeserializer = new JavaDeserializer(Object.class);
     _staticTypeMap.put("object", objectDeserializer);
+    _staticTypeMap.put(HessianColumnarList.class.getName(),
+                       new ColumnarListDeserializer());
     _staticTypeMap.put(HessianRemote.class.getName(),
                        RemoteDeserializer.DESER);
 
@@ -0,0 +1,797 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import sun.misc.Unsafe;
+
+/**
+ * Generates a field writer and reader class per bean type for
+ * UnsafeSerializer and UnsafeDeserializer.  The generated code reads and
+ * writes every field in one straight-line method with constant field
+ * offsets, instead of a virtual FieldSerializer call per field, so the JIT
+ * can inline the whole object.
+ *
+ * <p>Generation is off by default.  Enable it with the system property
+ * <code>com.caucho.hessian.unsafe.generate=true</code> or
+ * <code>setEnabled(true)</code> before the serializers are created.  Types
+ * the generator does not handle keep the per-field serializers.
+ *
+ * <p>The classes are written directly as Java 7 (version 51) class files
+ * and defined in their own class loader.  The code has no branches, so
+ * the only stack map frame is the one at the reader's error handler.
+ * This keeps the library free of a bytecode dependency on its Java 7
+ * baseline, where MethodHandles can bind fields but cannot define
+ * classes.
+ */
+@SuppressWarnings("restriction")
+public final class UnsafeCodecGenerator {
+  private static final Logger log
+    = Logger.getLogger(UnsafeCodecGenerator.class.getName());
+
+  // HotSpot does not compile methods with more bytecode than this
+  private static final int MAX_CODE_LENGTH = 8000;
+
+  private static final String GENERATED_PACKAGE
+    = "com/caucho/hessian/io/generated/";
+
+  private static final String WRITER = "com/caucho/hessian/io/UnsafeFieldWriter";
+  private static final String READER = "com/caucho/hessian/io/UnsafeFieldReader";
+  private static final String OUTPUT = "com/caucho/hessian/io/AbstractHessianOutput";
+  private static final String INPUT = "com/caucho/hessian/io/AbstractHessianInput";
+  private static final String UNSAFE = "sun/misc/Unsafe";
+  private static final String UNSAFE_DESC = "Lsun/misc/Unsafe;";
+
+  private static final int BOOLEAN = 1;
+  private static final int BYTE = 2;
+  private static final int SHORT = 3;
+  private static final int INT = 4;
+  private static final int LONG = 5;
+  private static final int FLOAT = 6;
+  private static final int DOUBLE = 7;
+  private static final int CHAR = 8;
+  private static final int STRING = 9;
+  private static final int DATE = 10;
+  private static final int SQL_DATE = 11;
+  private static final int OBJECT = 12;
+
+  private static final Unsafe _unsafe;
+  private static volatile boolean _isEnabled;
+
+  private static final AtomicInteger _classCount = new AtomicInteger();
+
+  private UnsafeCodecGenerator()
+  {
+  }
+
+  /**
+   * True if serializers created from now on use generated code.
+   */
+  public static boolean isEnabled()
+  {
+    return _isEnabled && _unsafe != null;
+  }
+
+  public static void setEnabled(boolean isEnabled)
+  {
+    _isEnabled = isEnabled;
+  }
+
+  static Unsafe getUnsafe()
+  {
+    return _unsafe;
+  }
+
+  /**
+   * Returns a generated writer for the fields, in order, or null if
+   * generation is disabled or fails.
+   */
+  static UnsafeFieldWriter createWriter(Class<?> cl, Field []fields)
+  {
+    if (! isEnabled())
+      return null;
+
+    try {
+      String name = getClassName(cl, "FieldWriter");
+      ClassBuilder builder = new ClassBuilder(name, WRITER);
+
+      int unsafe = builder.fieldRef(WRITER, "_unsafe", UNSAFE_DESC);
+
+      for (Field field : fields) {
+        int kind = getKind(field.getType());
+        long offset = _unsafe.objectFieldOffset(field);
+
+        builder.op(0x2c); // aload_2 (out)
+        builder.op(0xb2, unsafe); // getstatic
+        builder.op(0x2b); // aload_1 (obj)
+        builder.op(0x14, builder.longConst(offset)); // ldc2_w
+
+        switch (kind) {
+        case BOOLEAN:
+          getField(builder, "getBoolean", "Z");
+          writeValue(builder, "writeBoolean", "(Z)V");
+          break;
+
+        case BYTE:
+          getField(builder, "getByte", "B");
+          writeValue(builder, "writeInt", "(I)V");
+          break;
+
+        case SHORT:
+          getField(builder, "getShort", "S");
+          writeValue(builder, "writeInt", "(I)V");
+          break;
+
+        case INT:
+          getField(builder, "getInt", "I");
+          writeValue(builder, "writeInt", "(I)V");
+          break;
+
+        case LONG:
+          getField(builder, "getLong", "J");
+          writeValue(builder, "writeLong", "(J)V");
+          break;
+
+        case FLOAT:
+          getField(builder, "getFloat", "F");
+          builder.op(0x8d); // f2d
+          writeValue(builder, "writeDouble", "(D)V");
+          break;
+
+        case DOUBLE:
+          getField(builder, "getDouble", "D");
+          writeValue(builder, "writeDouble", "(D)V");
+          break;
+
+        case CHAR:
+          getField(builder, "getChar", "C");
+          builder.op(0xb8, builder.methodRef(WRITER, "writeChar",
+                                             "(L" + OUTPUT + ";C)V"));
+          break;
+
+        case STRING:
+          getField(builder, "getObject", "Ljava/lang/Object;");
+          builder.op(0xc0, builder.classRef("java/lang/String")); // checkcast
+          writeValue(builder, "writeString", "(Ljava/lang/String;)V");
+          break;
+
+        case DATE:
+        case SQL_DATE:
+          getField(builder, "getObject", "Ljava/lang/Object;");
+          builder.op(0xb8, builder.methodRef(WRITER, "writeDate",
+                                             "(L" + OUTPUT + ";Ljava/lang/Object;)V"));
+          break;
+
+        default:
+          getField(builder, "getObject", "Ljava/lang/Object;");
+          writeValue(builder, "writeObject", "(Ljava/lang/Object;)V");
+          break;
+        }
+      }
+
+      builder.op(0xb1); // return
+
+      byte []bytes = builder.toByteArray("writeFields",
+                                         "(Ljava/lang/Object;L" + OUTPUT + ";)V",
+                                         6, 3);
+
+      if (bytes == null)
+        return null;
+
+      return (UnsafeFieldWriter) define(name, bytes)
+        .getDeclaredConstructor().newInstance();
+    } catch (Throwable e) {
+      log.log(Level.FINE, cl.getName() + ": cannot generate field writer: " + e, e);
+
+      return null;
+    }
+  }
+
+  /**
+   * Returns a generated reader for the fields, in order, or null if
+   * generation is disabled, fails, or a field type needs the special
+   * handling of the per-field deserializers.
+   *
+   * <p>The reader keeps the index of the field being read and the last
+   * object value in locals, so a failure is reported for its field as
+   * the per-field deserializers report it.
+   */
+  static UnsafeFieldReader createReader(Class<?> cl, Field []fields)
+  {
+    if (! isEnabled())
+      return null;
+
+    try {
+      String name = getClassName(cl, "FieldReader");
+      ClassBuilder builder = new ClassBuilder(name, READER);
+
+      int unsafe = builder.fieldRef(READER, "_unsafe", UNSAFE_DESC);
+      Class<?> []types = new Class<?>[fields.length];
+
+      builder.op(0x03); // iconst_0
+      builder.op(0x3e); // istore_3 (field index)
+      builder.op(0x01); // aconst_null
+      builder.varOp(0x3a, 4); // astore 4 (value)
+
+      int tryStart = builder.getCodeLength();
+      boolean isValue = false;
+
+      for (int i = 0; i < fields.length; i++) {
+        Field field = fields[i];
+        int kind = getKind(field.getType());
+        long offset = _unsafe.objectFieldOffset(field);
+
+        types[i] = field.getType();
+
+        if (kind == SQL_DATE)
+          return null;
+
+        builder.pushInt(i);
+        builder.op(0x3e); // istore_3
+
+        if (isValue) {
+          builder.op(0x01); // aconst_null
+          builder.varOp(0x3a, 4); // astore 4
+          isValue = false;
+        }
+
+        builder.op(0xb2, unsafe); // getstatic
+        builder.op(0x2b); // aload_1 (obj)
+        builder.op(0x14, builder.longConst(offset)); // ldc2_w
+
+        switch (kind) {
+        case BOOLEAN:
+          readValue(builder, "readBoolean", "()Z");
+          putField(builder, "putBoolean", "Z");
+          break;
+
+        case BYTE:
+          readValue(builder, "readInt", "()I");
+          builder.op(0x91); // i2b
+          putField(builder, "putByte", "B");
+          break;
+
+        case SHORT:
+          readValue(builder, "readInt", "()I");
+          builder.op(0x93); // i2s
+          putField(builder, "putShort", "S");
+          break;
+
+        case INT:
+          readValue(builder, "readInt", "()I");
+          putField(builder, "putInt", "I");
+          break;
+
+        case LONG:
+          readValue(builder, "readLong", "()J");
+          putField(builder, "putLong", "J");
+          break;
+
+        case FLOAT:
+          readValue(builder, "readDouble", "()D");
+          builder.op(0x90); // d2f
+          putField(builder, "putFloat", "F");
+          break;
+
+        case DOUBLE:
+          readValue(builder, "readDouble", "()D");
+          putField(builder, "putDouble", "D");
+          break;
+
+        case CHAR:
+          builder.op(0x2c); // aload_2 (in)
+          builder.op(0xb8, builder.methodRef(READER, "readChar",
+                                             "(L" + INPUT + ";)C"));
+          putField(builder, "putChar", "C");
+          break;
+
+        case STRING:
+          readValue(builder, "readString", "()Ljava/lang/String;");
+          putField(builder, "putObject", "Ljava/lang/Object;");
+          break;
+
+        default:
+          // _types[i].cast(in.readObject(_types[i]))
+          builder.op(0x2a); // aload_0
+          builder.op(0xb4, builder.fieldRef(READER, "_types",
+                                            "[Ljava/lang/Class;"));
+          builder.pushInt(i);
+          builder.op(0x32); // aaload
+          builder.op(0x59); // dup
+          builder.op(0x2c); // aload_2 (in)
+          builder.op(0x5f); // swap
+          builder.op(0xb6, builder.methodRef(INPUT, "readObject",
+                                             "(Ljava/lang/Class;)Ljava/lang/Object;"));
+          builder.op(0x59); // dup
+          builder.varOp(0x3a, 4); // astore 4
+          builder.op(0xb6, builder.methodRef("java/lang/Class", "cast",
+                                             "(Ljava/lang/Object;)Ljava/lang/Object;"));
+          putField(builder, "putObject", "Ljava/lang/Object;");
+          isValue = true;
+          break;
+        }
+      }
+
+      int tryEnd = builder.getCodeLength();
+
+      builder.op(0xb1); // return
+
+      if (tryStart < tryEnd) {
+        // catch (Exception e) { fieldError(obj, index, value, e); }
+        int handler = builder.getCodeLength();
+
+        builder.varOp(0x3a, 5); // astore 5
+        builder.op(0x2a); // aload_0
+        builder.op(0x2b); // aload_1 (obj)
+        builder.op(0x1d); // iload_3 (field index)
+        builder.varOp(0x19, 4); // aload 4 (value)
+        builder.varOp(0x19, 5); // aload 5 (exception)
+        builder.op(0xb6, builder.methodRef(READER, "fieldError",
+                                           "(Ljava/lang/Object;ILjava/lang/Object;Ljava/lang/Exception;)V"));
+        builder.op(0xb1); // return
+
+        builder.setHandler(tryStart, tryEnd, handler, "java/lang/Exception",
+                           new String[] { name, "java/lang/Object", INPUT,
+                                          "I", "java/lang/Object" });
+      }
+
+      byte []bytes = builder.toByteArray("readFields",
+                                         "(Ljava/lang/Object;L" + INPUT + ";)V",
+                                         8, 6);
+
+      if (bytes == null)
+        return null;
+
+      UnsafeFieldReader reader
+        = (UnsafeFieldReader) define(name, bytes)
+          .getDeclaredConstructor().newInstance();
+
+      reader._types = types;
+      reader._fields = fields;
+
+      return reader;
+    } catch (Throwable e) {
+      log.log(Level.FINE, cl.getName() + ": cannot generate field reader: " + e, e);
+
+      return null;
+    }
+  }
+
+  private static void getField(ClassBuilder builder, String method, String type)
+    throws IOException
+  {
+    builder.op(0xb6, builder.methodRef(UNSAFE, method,
+                                       "(Ljava/lang/Object;J)" + type));
+  }
+
+  private static void putField(ClassBuilder builder, String method, String type)
+    throws IOException
+  {
+    builder.op(0xb6, builder.methodRef(UNSAFE, method,
+                                       "(Ljava/lang/Object;J" + type + ")V"));
+  }
+
+  private static void writeValue(ClassBuilder builder, String method, String desc)
+    throws IOException
+  {
+    builder.op(0xb6, builder.methodRef(OUTPUT, method, desc));
+  }
+
+  private static void readValue(ClassBuilder builder, String method, String desc)
+    throws IOException
+  {
+    builder.op(0x2c); // aload_2 (in)
+    builder.op(0xb6, builder.methodRef(INPUT, method, desc));
+  }
+
+  private static int getKind(Class<?> type)
+  {
+    if (boolean.class.equals(type))
+      return BOOLEAN;
+    else if (byte.class.equals(type))
+      return BYTE;
+    else if (short.class.equals(type))
+      return SHORT;
+    else if (int.class.equals(type))
+      return INT;
+    else if (long.class.equals(type))
+      return LONG;
+    else if (float.class.equals(type))
+      return FLOAT;
+    else if (double.class.equals(type))
+      return DOUBLE;
+    else if (char.class.equals(type))
+      return CHAR;
+    else if (String.class.equals(type))
+      return STRING;
+    else if (java.util.Date.class.equals(type))
+      return DATE;
+    else if (java.sql.Date.class.equals(type)
+             || java.sql.Timestamp.class.equals(type)
+             || java.sql.Time.class.equals(type))
+      return SQL_DATE;
+    else
+      return OBJECT;
+  }
+
+  private static String getClassName(Class<?> cl, String suffix)
+  {
+    return (GENERATED_PACKAGE + cl.getSimpleName() + "$" + suffix
+            + _classCount.incrementAndGet());
+  }
+
+  private static Class<?> define(String name, byte []bytes)
+  {
+    GeneratedClassLoader loader
+      = new GeneratedClassLoader(UnsafeCodecGenerator.class.getClassLoader());
+
+    return loader.define(name.replace('/', '.'), bytes);
+  }
+
+  /**
+   * Each generated class has its own loader, so it can be collected
+   * with its serializer.
+   */
+  static final class GeneratedClassLoader extends ClassLoader {
+    GeneratedClassLoader(ClassLoader parent)
+    {
+      super(parent);
+    }
+
+    Class<?> define(String name, byte []bytes)
+    {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+
+  /**
+   * Minimal class file writer for a final class with a default constructor
+   * and one straight-line method.  Without branches, the only stack map
+   * frame is the one at the optional exception handler.
+   */
+  static final class ClassBuilder {
+    private final ByteArrayOutputStream _poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream _pool = new DataOutputStream(_poolBytes);
+    private final HashMap<String,Integer> _poolMap = new HashMap<String,Integer>();
+    private int _poolCount = 1;
+
+    private final ByteArrayOutputStream _codeBytes = new ByteArrayOutputStream();
+    private final DataOutputStream _code = new DataOutputStream(_codeBytes);
+
+    private final String _name;
+    private final String _superName;
+
+    // the method's one exception handler, if any
+    private int _tryStart;
+    private int _tryEnd;
+    private int _handlerPc = -1;
+    private int _catchType;
+    private byte []_handlerFrame;
+
+    ClassBuilder(String name, String superName)
+    {
+      _name = name;
+      _superName = superName;
+    }
+
+    void op(int code)
+      throws IOException
+    {
+      _code.writeByte(code);
+    }
+
+    void op(int code, int index)
+      throws IOException
+    {
+      _code.writeByte(code);
+      _code.writeShort(index);
+    }
+
+    /**
+     * Writes an instruction with a one-byte local variable index.
+     */
+    void varOp(int code, int index)
+      throws IOException
+    {
+      _code.writeByte(code);
+      _code.writeByte(index);
+    }
+
+    int getCodeLength()
+    {
+      return _codeBytes.size();
+    }
+
+    /**
+     * Catches the exception class in the code from start to end.  The
+     * locals at the handler are given as "I" for an int or an internal
+     * class name.
+     */
+    void setHandler(int start, int end, int handler,
+                    String exceptionClass, String []locals)
+      throws IOException
+    {
+      _tryStart = start;
+      _tryEnd = end;
+      _handlerPc = handler;
+      _catchType = classRef(exceptionClass);
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream frame = new DataOutputStream(bytes);
+
+      frame.writeByte(255); // full_frame
+      frame.writeShort(handler); // the first frame's offset is absolute
+      frame.writeShort(locals.length);
+
+      for (String local : locals) {
+        if ("I".equals(local))
+          frame.writeByte(1); // Integer
+        else {
+          frame.writeByte(7); // Object
+          frame.writeShort(classRef(local));
+        }
+      }
+
+      frame.writeShort(1);
+      frame.writeByte(7);
+      frame.writeShort(_catchType);
+
+      _handlerFrame = bytes.toByteArray();
+    }
+
+    void pushInt(int value)
+      throws IOException
+    {
+      if (value <= 5)
+        _code.writeByte(0x03 + value); // iconst_n
+      else if (value <= Byte.MAX_VALUE) {
+        _code.writeByte(0x10); // bipush
+        _code.writeByte(value);
+      }
+      else {
+        _code.writeByte(0x11); // sipush
+        _code.writeShort(value);
+      }
+    }
+
+    int utf8(String value)
+      throws IOException
+    {
+      Integer index = _poolMap.get("U" + value);
+
+      if (index == null) {
+        _pool.writeByte(1);
+        _pool.writeUTF(value);
+        index = addEntry("U" + value, 1);
+      }
+
+      return index;
+    }
+
+    int classRef(String name)
+      throws IOException
+    {
+      Integer index = _poolMap.get("C" + name);
+
+      if (index == null) {
+        int nameIndex = utf8(name);
+
+        _pool.writeByte(7);
+        _pool.writeShort(nameIndex);
+        index = addEntry("C" + name, 1);
+      }
+
+      return index;
+    }
+
+    int longConst(long value)
+      throws IOException
+    {
+      Integer index = _poolMap.get("J" + value);
+
+      if (index == null) {
+        _pool.writeByte(5);
+        _pool.writeLong(value);
+        index = addEntry("J" + value, 2);
+      }
+
+      return index;
+    }
+
+    int fieldRef(String owner, String name, String desc)
+      throws IOException
+    {
+      return memberRef(9, owner, name, desc);
+    }
+
+    int methodRef(String owner, String name, String desc)
+      throws IOException
+    {
+      return memberRef(10, owner, name, desc);
+    }
+
+    private int memberRef(int tag, String owner, String name, String desc)
+      throws IOException
+    {
+      String key = tag + owner + "." + name + desc;
+      Integer index = _poolMap.get(key);
+
+      if (index == null) {
+        int ownerIndex = classRef(owner);
+        int typeIndex = nameAndType(name, desc);
+
+        _pool.writeByte(tag);
+        _pool.writeShort(ownerIndex);
+        _pool.writeShort(typeIndex);
+        index = addEntry(key, 1);
+      }
+
+      return index;
+    }
+
+    private int nameAndType(String name, String desc)
+      throws IOException
+    {
+      String key = "N" + name + desc;
+      Integer index = _poolMap.get(key);
+
+      if (index == null) {
+        int nameIndex = utf8(name);
+        int descIndex = utf8(desc);
+
+        _pool.writeByte(12);
+        _pool.writeShort(nameIndex);
+        _pool.writeShort(descIndex);
+        index = addEntry(key, 1);
+      }
+
+      return index;
+    }
+
+    private Integer addEntry(String key, int size)
+    {
+      Integer index = Integer.valueOf(_poolCount);
+
+      _poolMap.put(key, index);
+      _poolCount += size;
+
+      return index;
+    }
+
+    /**
+     * Returns the class file, with the code written so far as the body
+     * of the given method, or null if the method is too large.
+     */
+    byte []toByteArray(String methodName, String methodDesc,
+                       int maxStack, int maxLocals)
+      throws IOException
+    {
+      byte []code = _codeBytes.toByteArray();
+
+      if (MAX_CODE_LENGTH < code.length)
+        return null;
+
+      int thisClass = classRef(_name);
+      int superClass = classRef(_superName);
+      int superInit = methodRef(_superName, "<init>", "()V");
+      int codeName = utf8("Code");
+      int initName = utf8("<init>");
+      int initDesc = utf8("()V");
+      int methodNameIndex = utf8(methodName);
+      int methodDescIndex = utf8(methodDesc);
+      int stackMapName = _handlerPc >= 0 ? utf8("StackMapTable") : 0;
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+
+      out.writeInt(0xcafebabe);
+      out.writeShort(0);
+      out.writeShort(51); // Java 7
+      out.writeShort(_poolCount);
+      _pool.flush();
+      _poolBytes.writeTo(out);
+
+      out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(0); // interfaces
+      out.writeShort(0); // fields
+      out.writeShort(2); // methods
+
+      // public <init>() { super(); }
+      out.writeShort(0x0001);
+      out.writeShort(initName);
+      out.writeShort(initDesc);
+      out.writeShort(1);
+      out.writeShort(codeName);
+      out.writeInt(12 + 5);
+      out.writeShort(1); // max stack
+      out.writeShort(1); // max locals
+      out.writeInt(5);
+      out.writeByte(0x2a); // aload_0
+      out.writeByte(0xb7); // invokespecial
+      out.writeShort(superInit);
+      out.writeByte(0xb1); // return
+      out.writeShort(0); // exception table
+      out.writeShort(0); // attributes
+
+      // public void method(Object obj, stream)
+      out.writeShort(0x0001);
+      out.writeShort(methodNameIndex);
+      out.writeShort(methodDescIndex);
+      out.writeShort(1);
+      out.writeShort(codeName);
+
+      if (_handlerPc < 0) {
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+      }
+      else {
+        int stackMapLength = 2 + _handlerFrame.length;
+
+        out.writeInt(12 + code.length + 8 + 6 + stackMapLength);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(1); // exception table
+        out.writeShort(_tryStart);
+        out.writeShort(_tryEnd);
+        out.writeShort(_handlerPc);
+        out.writeShort(_catchType);
+        out.writeShort(1); // attributes
+        out.writeShort(stackMapName);
+        out.writeInt(stackMapLength);
+        out.writeShort(1); // entries
+        out.write(_handlerFrame);
+      }
+
+      out.writeShort(0); // class attributes
+
+      return bytes.toByteArray();
+    }
+  }
+
+  static {
+    Unsafe unsafe = null;
+
+    try {
+      Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      unsafe = (Unsafe) theUnsafe.get(null);
+    } catch (Throwable e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+
+    _unsafe = unsafe;
+    _isEnabled = "true".equals(System.getProperty("com.caucho.hessian.unsafe.generate"));
+  }
+}
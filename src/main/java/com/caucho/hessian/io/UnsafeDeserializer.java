@@ -22,6 +22,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import java.util.logging.*;
@@ -46,6 +47,12 @@ public class UnsafeDeserializer extends AbstractMapDeserializer {
   private HashMap<String,FieldDeserializer> _fieldMap;
   private Method _readResolve;
 
+  // generated straight-line reader for the serializer's field order
+  private UnsafeFieldReader _fieldReader;
+  private FieldDeserializer []_readerFields;
+  // last field array known to match _readerFields
+  private Object []_readerFieldsMatch;
+
   public UnsafeDeserializer(Class<?> cl)
   {
     _type = cl;
@@ -56,6 +63,34 @@ public class UnsafeDeserializer extends AbstractMapDeserializer {
     if (_readResolve != null) {
       _readResolve.setAccessible(true);
     }
+
+    if (UnsafeCodecGenerator.isEnabled())
+      introspectReader(cl);
+  }
+
+  /**
+   * Generates the reader for streams written by UnsafeSerializer, whose
+   * field order is the common case.
+   */
+  private void introspectReader(Class<?> cl)
+  {
+    Field []fields = UnsafeSerializer.getSerializedFields(cl);
+    FieldDeserializer []readerFields = new FieldDeserializer[fields.length];
+
+    for (int i = 0; i < fields.length; i++) {
+      FieldDeserializer reader = _fieldMap.get(fields[i].getName());
+
+      readerFields[i] = reader;
+
+      // a hidden superclass field can't be matched by name
+      for (int j = 0; j < i; j++) {
+        if (readerFields[j] == reader)
+          return;
+      }
+    }
+
+    _fieldReader = UnsafeCodecGenerator.createReader(cl, fields);
+    _readerFields = readerFields;
   }
   
   public static boolean isEnabled()
@@ -107,6 +142,26 @@ public class UnsafeDeserializer extends AbstractMapDeserializer {
     return reader;
   }
 
+  @Override
+  public Object []createProjectedFields(String []fieldNames,
+                                        HessianProjection projection)
+  {
+    FieldDeserializer []fields = new FieldDeserializer[fieldNames.length];
+
+    for (int i = 0; i < fieldNames.length; i++) {
+      String name = fieldNames[i];
+      FieldDeserializer reader = _fieldMap.get(name);
+
+      if (reader == null || ! projection.isIncluded(name))
+        fields[i] = SkipFieldDeserializer.DESER;
+      else
+        fields[i] = new ProjectedFieldDeserializer(reader,
+                                                   projection.getProjection(name));
+    }
+
+    return fields;
+  }
+
   @Override
   public Object readObject(AbstractHessianInput in,
                            Object []fields)
@@ -115,6 +170,9 @@ public class UnsafeDeserializer extends AbstractMapDeserializer {
     try {
       Object obj = instantiate();
 
+      if (_fieldReader != null && isReaderFields(fields))
+        return readObject(in, obj, _fieldReader);
+
       return readObject(in, obj, (FieldDeserializer []) fields);
     } catch (IOException e) {
       throw e;
@@ -220,6 +278,41 @@ public class UnsafeDeserializer extends AbstractMapDeserializer {
     }
   }
 
+  private boolean isReaderFields(Object []fields)
+  {
+    if (fields == _readerFieldsMatch)
+      return true;
+    else if (Arrays.equals(fields, _readerFields)) {
+      _readerFieldsMatch = fields;
+      return true;
+    }
+    else
+      return false;
+  }
+
+  private Object readObject(AbstractHessianInput in,
+                            Object obj,
+                            UnsafeFieldReader fieldReader)
+    throws IOException
+  {
+    try {
+      int ref = in.addRef(obj);
+
+      fieldReader.readFields(obj, in);
+
+      Object resolve = resolve(in, obj);
+
+      if (obj != resolve)
+        in.setRef(ref, resolve);
+
+      return resolve;
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOExceptionWrapper(obj.getClass().getName() + ":" + e, e);
+    }
+  }
+
   public Object readObject(AbstractHessianInput in,
                            Object obj,
                            String []fieldNames)
@@ -366,6 +459,50 @@ public class UnsafeDeserializer extends AbstractMapDeserializer {
     }
   }
 
+  /**
+   * Drops a field outside a projection, still reading any value a later
+   * back reference can point to.
+   */
+  static class SkipFieldDeserializer extends FieldDeserializer {
+    static SkipFieldDeserializer DESER = new SkipFieldDeserializer();
+
+    @Override
+    void deserialize(AbstractHessianInput in, Object obj)
+      throws IOException
+    {
+      in.skipFieldValue();
+    }
+  }
+
+  /**
+   * Reads an included field with the projection of its value.
+   */
+  static class ProjectedFieldDeserializer extends FieldDeserializer {
+    private final FieldDeserializer _reader;
+    private final HessianProjection _projection;
+
+    ProjectedFieldDeserializer(FieldDeserializer reader,
+                               HessianProjection projection)
+    {
+      _reader = reader;
+      _projection = projection;
+    }
+
+    @Override
+    void deserialize(AbstractHessianInput in, Object obj)
+      throws IOException
+    {
+      Hessian2Input in2 = (Hessian2Input) in;
+      HessianProjection oldProjection = in2.setProjection(_projection);
+
+      try {
+        _reader.deserialize(in, obj);
+      } finally {
+        in2.setProjection(oldProjection);
+      }
+    }
+  }
+
   static class ObjectFieldDeserializer extends FieldDeserializer {
     private final Field _field;
     private final long _offset;
@@ -0,0 +1,66 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+import sun.misc.Unsafe;
+
+/**
+ * Base class of the field readers generated by {@link UnsafeCodecGenerator}.
+ * It is public only so the generated classes, which live in their own
+ * class loader, can extend it.
+ */
+@SuppressWarnings("restriction")
+abstract public class UnsafeFieldReader {
+  protected static final Unsafe _unsafe = UnsafeCodecGenerator.getUnsafe();
+
+  // declared types of the object fields, indexed by field
+  protected Class<?> []_types;
+
+  // the fields, for error reports
+  protected Field []_fields;
+
+  /**
+   * Reads the instance fields of the object, in serializer order.
+   */
+  abstract public void readFields(Object obj, AbstractHessianInput in)
+    throws IOException;
+
+  /**
+   * Reports a failure reading a field, as the per-field deserializers
+   * do.
+   */
+  protected void fieldError(Object obj, int index, Object value, Exception e)
+    throws IOException
+  {
+    UnsafeDeserializer.logDeserializeError(_fields[index], obj, value, e);
+  }
+
+  protected static char readChar(AbstractHessianInput in)
+    throws IOException
+  {
+    String value = in.readString();
+
+    if (value != null && value.length() > 0)
+      return value.charAt(0);
+    else
+      return 0;
+  }
+}
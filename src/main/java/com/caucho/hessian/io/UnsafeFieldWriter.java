@@ -0,0 +1,53 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+
+import sun.misc.Unsafe;
+
+/**
+ * Base class of the field writers generated by {@link UnsafeCodecGenerator}.
+ * It is public only so the generated classes, which live in their own
+ * class loader, can extend it.
+ */
+@SuppressWarnings("restriction")
+abstract public class UnsafeFieldWriter {
+  protected static final Unsafe _unsafe = UnsafeCodecGenerator.getUnsafe();
+
+  /**
+   * Writes the instance fields of the object, in serializer order.
+   */
+  abstract public void writeFields(Object obj, AbstractHessianOutput out)
+    throws IOException;
+
+  protected static void writeChar(AbstractHessianOutput out, char value)
+    throws IOException
+  {
+    out.writeString(String.valueOf(value));
+  }
+
+  protected static void writeDate(AbstractHessianOutput out, Object value)
+    throws IOException
+  {
+    if (value == null)
+      out.writeNull();
+    else
+      out.writeUTCDate(((java.util.Date) value).getTime());
+  }
+}
@@ -18,12 +18,10 @@ package com.caucho.hessian.io;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.lang.ref.SoftReference;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
-import java.util.WeakHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -42,13 +40,28 @@ public class UnsafeSerializer extends AbstractSerializer
   private static boolean _isEnabled;
   private static final Unsafe _unsafe;
   
-  private static final WeakHashMap<Class<?>,SoftReference<UnsafeSerializer>> _serializerMap
-    = new WeakHashMap<Class<?>,SoftReference<UnsafeSerializer>>();
+  // the serializer lives as long as its class, without a global lock
+  private static final ClassValue<UnsafeSerializer> _serializerValue
+    = new ClassValue<UnsafeSerializer>() {
+    @Override
+    protected UnsafeSerializer computeValue(Class<?> cl)
+    {
+      if (cl.isAnnotationPresent(HessianUnshared.class))
+        return new UnsafeUnsharedSerializer(cl);
+      else
+        return new UnsafeSerializer(cl);
+    }
+  };
 
   private static Object []NULL_ARGS = new Object[0];
 
   private Field []_fields;
   private FieldSerializer []_fieldSerializers;
+
+  // the encoded class definition, written once per stream
+  private byte []_definition;
+  // generated straight-line writer, if enabled
+  private UnsafeFieldWriter _fieldWriter;
   
   public static boolean isEnabled()
   {
@@ -58,33 +71,33 @@ public class UnsafeSerializer extends AbstractSerializer
   public UnsafeSerializer(Class<?> cl)
   {
     introspect(cl);
+
+    _definition = encodeDefinition(cl, _fields);
   }
 
   public static UnsafeSerializer create(Class<?> cl)
   {
-    ClassLoader loader = cl.getClassLoader();
-
-    synchronized (_serializerMap) {
-      SoftReference<UnsafeSerializer> baseRef
-        = _serializerMap.get(cl);
+    return _serializerValue.get(cl);
+  }
 
-      UnsafeSerializer base = baseRef != null ? baseRef.get() : null;
+  protected void introspect(Class<?> cl)
+  {
+    _fields = getSerializedFields(cl);
 
-      if (base == null) {
-        if (cl.isAnnotationPresent(HessianUnshared.class))
-          base = new UnsafeUnsharedSerializer(cl);
-        else
-          base = new UnsafeSerializer(cl);
-        
-        baseRef = new SoftReference<UnsafeSerializer>(base);
-        _serializerMap.put(cl, baseRef);
-      }
+    _fieldSerializers = new FieldSerializer[_fields.length];
 
-      return base;
+    for (int i = 0; i < _fields.length; i++) {
+      _fieldSerializers[i] = getFieldSerializer(_fields[i]);
     }
+
+    _fieldWriter = UnsafeCodecGenerator.createWriter(cl, _fields);
   }
 
-  protected void introspect(Class<?> cl)
+  /**
+   * Returns the serialized fields of a class, in the order they are written:
+   * primitive and java.lang fields first.
+   */
+  static Field []getSerializedFields(Class<?> cl)
   {
     ArrayList<Field> primitiveFields = new ArrayList<Field>();
     ArrayList<Field> compoundFields = new ArrayList<Field>();
@@ -114,14 +127,7 @@ public class UnsafeSerializer extends AbstractSerializer
     fields.addAll(primitiveFields);
     fields.addAll(compoundFields);
 
-    _fields = new Field[fields.size()];
-    fields.toArray(_fields);
-
-    _fieldSerializers = new FieldSerializer[_fields.length];
-
-    for (int i = 0; i < _fields.length; i++) {
-      _fieldSerializers[i] = getFieldSerializer(_fields[i]);
-    }
+    return fields.toArray(new Field[fields.size()]);
   }
 
   @Override
@@ -134,7 +140,7 @@ public class UnsafeSerializer extends AbstractSerializer
     
     Class<?> cl = obj.getClass();
 
-    int ref = out.writeObjectBegin(cl.getName());
+    int ref = out.writeObjectBegin(cl.getName(), _definition);
 
     if (ref >= 0) {
       writeInstance(obj, out);
@@ -179,6 +185,13 @@ public class UnsafeSerializer extends AbstractSerializer
     throws IOException
   {
     try {
+      UnsafeFieldWriter fieldWriter = _fieldWriter;
+
+      if (fieldWriter != null) {
+        fieldWriter.writeFields(obj, out);
+        return;
+      }
+
       FieldSerializer []fieldSerializers = _fieldSerializers;
       int length = fieldSerializers.length;
       
@@ -21,6 +21,10 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.servlet.GenericServlet;
@@ -35,6 +39,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import com.caucho.hessian.io.Hessian2Input;
 import com.caucho.hessian.io.SerializerFactory;
+import com.caucho.hessian.util.HessianDeflaterPool;
 import com.caucho.services.server.Service;
 import com.caucho.services.server.ServiceContext;
 
@@ -54,6 +59,8 @@ public class HessianServlet extends HttpServlet {
 
   private SerializerFactory _serializerFactory;
 
+  private ExecutorService _batchExecutor;
+
   public HessianServlet()
   {
   }
@@ -257,6 +264,30 @@ public class HessianServlet extends HttpServlet {
 
       if ("false".equals(getInitParameter("send-collection-type")))
         setSendCollectionType(false);
+
+      String deflateLevel = getInitParameter("deflate-level");
+      String deflateThreshold = getInitParameter("deflate-threshold");
+
+      if (deflateLevel != null || deflateThreshold != null) {
+        int level = deflateLevel != null ? Integer.parseInt(deflateLevel) : -1;
+        int threshold = (deflateThreshold != null
+                         ? Integer.parseInt(deflateThreshold) : 0);
+
+        HessianDeflaterPool pool = new HessianDeflaterPool(level, threshold, 64);
+
+        _homeSkeleton.setDeflaterPool(pool);
+        _objectSkeleton.setDeflaterPool(pool);
+      }
+
+      String batchThreads = getInitParameter("batch-threads");
+
+      if (batchThreads != null) {
+        _batchExecutor = Executors.newFixedThreadPool(Integer.parseInt(batchThreads),
+                                                      new BatchThreadFactory());
+
+        _homeSkeleton.setBatchExecutor(_batchExecutor);
+        _objectSkeleton.setBatchExecutor(_batchExecutor);
+      }
     } catch (ServletException e) {
       throw e;
     } catch (Exception e) {
@@ -264,6 +295,18 @@ public class HessianServlet extends HttpServlet {
     }
   }
 
+  @Override
+  public void destroy()
+  {
+    ExecutorService batchExecutor = _batchExecutor;
+    _batchExecutor = null;
+
+    if (batchExecutor != null)
+      batchExecutor.shutdown();
+
+    super.destroy();
+  }
+
   private Class<?> findRemoteAPI(Class<?> implClass)
   {
     // hessian/34d0
@@ -413,4 +456,16 @@ public class HessianServlet extends HttpServlet {
     {
     }
   }
+
+  static class BatchThreadFactory implements ThreadFactory {
+    private final AtomicInteger _count = new AtomicInteger();
+
+    public Thread newThread(Runnable task)
+    {
+      Thread thread = new Thread(task, "hessian-batch-" + _count.incrementAndGet());
+      thread.setDaemon(true);
+
+      return thread;
+    }
+  }
 }
@@ -16,6 +16,8 @@
 
 package com.caucho.hessian.server;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -23,16 +25,28 @@ import java.io.PrintWriter;
 import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import com.caucho.hessian.io.AbstractHessianInput;
 import com.caucho.hessian.io.AbstractHessianOutput;
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
 import com.caucho.hessian.io.HessianDebugInputStream;
 import com.caucho.hessian.io.HessianDebugOutputStream;
 import com.caucho.hessian.io.HessianFactory;
+import com.caucho.hessian.io.HessianInput;
 import com.caucho.hessian.io.HessianInputFactory;
 import com.caucho.hessian.io.SerializerFactory;
+import com.caucho.hessian.util.HessianDeflaterPool;
 import com.caucho.services.server.AbstractSkeleton;
 import com.caucho.services.server.ServiceContext;
 
@@ -48,6 +62,11 @@ public class HessianSkeleton extends AbstractSkeleton {
   private HessianInputFactory _inputFactory = new HessianInputFactory();
   private HessianFactory _hessianFactory = new HessianFactory();
 
+  private HessianDeflaterPool _deflaterPool;
+
+  private Executor _batchExecutor;
+  private int _maxBatchCalls = 256;
+
   private Object _service;
 
   /**
@@ -90,6 +109,48 @@ public class HessianSkeleton extends AbstractSkeleton {
     return _isDebug;
   }
   
+  /**
+   * Sets the pool used to deflate replies for clients which accept
+   * deflate encoding.  Replies shorter than the pool's threshold are sent
+   * unencoded.  By default replies are not compressed.
+   */
+  public void setDeflaterPool(HessianDeflaterPool pool)
+  {
+    _deflaterPool = pool;
+  }
+
+  public HessianDeflaterPool getDeflaterPool()
+  {
+    return _deflaterPool;
+  }
+
+  /**
+   * Sets the executor which runs the calls of a batch in parallel.  By
+   * default a batch's calls run one after another in the request thread.
+   */
+  public void setBatchExecutor(Executor executor)
+  {
+    _batchExecutor = executor;
+  }
+
+  public Executor getBatchExecutor()
+  {
+    return _batchExecutor;
+  }
+
+  /**
+   * Sets the maximum number of calls accepted in one batch.
+   */
+  public void setMaxBatchCalls(int max)
+  {
+    _maxBatchCalls = max;
+  }
+
+  public int getMaxBatchCalls()
+  {
+    return _maxBatchCalls;
+  }
+
   public void setHessianFactory(HessianFactory factory)
   {
     _hessianFactory = factory;
@@ -119,6 +180,17 @@ public class HessianSkeleton extends AbstractSkeleton {
   {
     boolean isDebug = false;
 
+    DeflateReplyStream deflateOs = null;
+
+    if (_deflaterPool != null) {
+      HttpServletResponse response = getDeflateResponse();
+
+      if (response != null) {
+        deflateOs = new DeflateReplyStream(os, _deflaterPool, response);
+        os = deflateOs;
+      }
+    }
+
     if (isDebugInvoke()) {
       isDebug = true;
 
@@ -133,35 +205,17 @@ public class HessianSkeleton extends AbstractSkeleton {
 
     HessianInputFactory.HeaderType header = _inputFactory.readHeader(is);
 
-    AbstractHessianInput in;
-    AbstractHessianOutput out;
-
-    switch (header) {
-    case CALL_1_REPLY_1:
-      in = _hessianFactory.createHessianInput(is);
-      out = _hessianFactory.createHessianOutput(os);
-      break;
-
-    case CALL_1_REPLY_2:
-      in = _hessianFactory.createHessianInput(is);
-      out = _hessianFactory.createHessian2Output(os);
-      break;
-
-    case HESSIAN_2:
-      in = _hessianFactory.createHessian2Input(is);
-      in.readCall();
-      out = _hessianFactory.createHessian2Output(os);
-      break;
-
-    default:
-      throw new IllegalStateException(header + " is an unknown Hessian call");
-    }
+    AbstractHessianInput in = createInput(header, is);
+    AbstractHessianOutput out = createOutput(header, os);
 
     if (serializerFactory != null) {
       in.setSerializerFactory(serializerFactory);
       out.setSerializerFactory(serializerFactory);
     }
 
+    if (out instanceof Hessian2Output && isPackedArraysAccepted())
+      ((Hessian2Output) out).setPackedArrays(true);
+
     try {
       invoke(_service, in, out);
     } finally {
@@ -170,9 +224,78 @@ public class HessianSkeleton extends AbstractSkeleton {
 
       if (isDebug)
         os.close();
+
+      if (deflateOs != null)
+        deflateOs.finish();
     }
   }
 
+  private AbstractHessianInput createInput(HessianInputFactory.HeaderType header,
+                                          InputStream is)
+    throws IOException
+  {
+    switch (header) {
+    case CALL_1_REPLY_1:
+    case CALL_1_REPLY_2:
+      return _hessianFactory.createHessianInput(is);
+
+    case HESSIAN_2:
+      AbstractHessianInput in = _hessianFactory.createHessian2Input(is);
+      in.readCall();
+      return in;
+
+    default:
+      throw new IllegalStateException(header + " is an unknown Hessian call");
+    }
+  }
+
+  private AbstractHessianOutput createOutput(HessianInputFactory.HeaderType header,
+                                             OutputStream os)
+  {
+    switch (header) {
+    case CALL_1_REPLY_1:
+      return _hessianFactory.createHessianOutput(os);
+
+    default:
+      return _hessianFactory.createHessian2Output(os);
+    }
+  }
+
+  /**
+   * Returns the response if the calling client accepts deflate encoding.
+   */
+  private static HttpServletResponse getDeflateResponse()
+  {
+    ServletRequest request = ServiceContext.getContextRequest();
+    ServletResponse response = ServiceContext.getContextResponse();
+
+    if (! (request instanceof HttpServletRequest)
+        || ! (response instanceof HttpServletResponse))
+      return null;
+
+    String value = ((HttpServletRequest) request).getHeader("Accept-Encoding");
+
+    if (value != null && value.indexOf("deflate") >= 0)
+      return (HttpServletResponse) response;
+    else
+      return null;
+  }
+
+  /**
+   * True if the calling client advertised it can read packed arrays.
+   */
+  private static boolean isPackedArraysAccepted()
+  {
+    ServletRequest request = ServiceContext.getContextRequest();
+
+    if (! (request instanceof HttpServletRequest))
+      return false;
+
+    String value = ((HttpServletRequest) request).getHeader(PACKED_ARRAYS_HEADER);
+
+    return "true".equals(value);
+  }
+
   /**
    * Invoke the object with the request from the input stream.
    *
@@ -195,6 +318,15 @@ public class HessianSkeleton extends AbstractSkeleton {
                      AbstractHessianInput in,
                      AbstractHessianOutput out)
     throws Exception
+  {
+    invoke(service, in, out, true);
+  }
+
+  private void invoke(Object service,
+                      AbstractHessianInput in,
+                      AbstractHessianOutput out,
+                      boolean isBatchAllowed)
+    throws Exception
   {
     ServiceContext context = ServiceContext.getContext();
 
@@ -239,6 +371,10 @@ public class HessianSkeleton extends AbstractSkeleton {
       out.close();
       return;
     }
+    else if (BATCH_METHOD.equals(methodName) && isBatchAllowed) {
+      invokeBatch(service, in, out);
+      return;
+    }
     else if (method == null) {
       out.writeFault("NoSuchMethodException",
                      escapeMessage("The service has no method named: " + in.getMethod()),
@@ -291,6 +427,160 @@ public class HessianSkeleton extends AbstractSkeleton {
     out.close();
   }
   
+  /**
+   * Runs each call of a batch as if it were its own request, and replies
+   * with all of their replies.
+   */
+  private void invokeBatch(final Object service,
+                           AbstractHessianInput in,
+                           AbstractHessianOutput out)
+    throws Exception
+  {
+    final Object []calls = (Object []) in.readObject(Object[].class);
+    in.completeCall();
+
+    if (calls == null) {
+      out.writeFault("ProtocolException", "batch has no calls", null);
+      out.close();
+      return;
+    }
+
+    for (int i = 0; i < calls.length; i++) {
+      if (! (calls[i] instanceof byte[])) {
+        out.writeFault("ProtocolException",
+                       escapeMessage("batch call " + i + " is not an encoded call"),
+                       null);
+        out.close();
+        return;
+      }
+    }
+
+    if (calls.length > _maxBatchCalls) {
+      out.writeFault("ServiceException",
+                     escapeMessage("batch of " + calls.length + " calls exceeds the maximum of " + _maxBatchCalls),
+                     null);
+      out.close();
+      return;
+    }
+
+    SerializerFactory inputFactory = null;
+
+    if (in instanceof Hessian2Input)
+      inputFactory = ((Hessian2Input) in).getSerializerFactory();
+    else if (in instanceof HessianInput)
+      inputFactory = ((HessianInput) in).getSerializerFactory();
+
+    final SerializerFactory serializerFactory = inputFactory;
+    final boolean isPackedArrays = (out instanceof Hessian2Output
+                                    && ((Hessian2Output) out).isPackedArrays());
+
+    final Object []replies = new Object[calls.length];
+
+    Executor executor = _batchExecutor;
+
+    if (executor == null || calls.length < 2) {
+      for (int i = 0; i < calls.length; i++) {
+        replies[i] = invokeBatchCall(service, (byte []) calls[i],
+                                     serializerFactory, isPackedArrays);
+      }
+    }
+    else {
+      final CountDownLatch latch = new CountDownLatch(calls.length);
+
+      final ServletRequest request = ServiceContext.getContextRequest();
+      final ServletResponse response = ServiceContext.getContextResponse();
+      final String serviceName = ServiceContext.getContextServiceName();
+      final String objectId = ServiceContext.getContextObjectId();
+
+      for (int i = 0; i < calls.length; i++) {
+        final int index = i;
+
+        executor.execute(new Runnable() {
+            public void run()
+            {
+              try {
+                ServiceContext.begin(request, response, serviceName, objectId);
+
+                try {
+                  replies[index] = invokeBatchCall(service, (byte []) calls[index],
+                                                   serializerFactory,
+                                                   isPackedArrays);
+                } finally {
+                  ServiceContext.end();
+                }
+              } catch (Throwable e) {
+                log.log(Level.FINE, this + " " + e.toString(), e);
+
+                replies[index] = encodeFault(e);
+              } finally {
+                latch.countDown();
+              }
+            }
+          });
+      }
+
+      latch.await();
+    }
+
+    out.writeReply(replies);
+    out.close();
+  }
+
+  /**
+   * Invokes one encoded call of a batch, returning its encoded reply.
+   */
+  private byte []invokeBatchCall(Object service,
+                                 byte []call,
+                                 SerializerFactory serializerFactory,
+                                 boolean isPackedArrays)
+  {
+    try {
+      InputStream is = new ByteArrayInputStream(call);
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+      HessianInputFactory.HeaderType header = _inputFactory.readHeader(is);
+
+      AbstractHessianInput in = createInput(header, is);
+      AbstractHessianOutput out = createOutput(header, os);
+
+      if (serializerFactory != null) {
+        in.setSerializerFactory(serializerFactory);
+        out.setSerializerFactory(serializerFactory);
+      }
+
+      if (out instanceof Hessian2Output)
+        ((Hessian2Output) out).setPackedArrays(isPackedArrays);
+
+      try {
+        invoke(service, in, out, false);
+      } finally {
+        in.close();
+        out.close();
+      }
+
+      return os.toByteArray();
+    } catch (Throwable e) {
+      log.log(Level.FINE, this + " " + e.toString(), e);
+
+      return encodeFault(e);
+    }
+  }
+
+  private byte []encodeFault(Throwable e)
+  {
+    try {
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      AbstractHessianOutput out = _hessianFactory.createHessian2Output(os);
+
+      out.writeFault("ProtocolException", escapeMessage(e.toString()), null);
+      out.close();
+
+      return os.toByteArray();
+    } catch (IOException e1) {
+      throw new IllegalStateException(e1);
+    }
+  }
+
   private String escapeMessage(String msg)
   {
     if (msg == null)
@@ -340,6 +630,39 @@ public class HessianSkeleton extends AbstractSkeleton {
     return new PrintWriter(new LogWriter(log));
   }
 
+  /**
+   * Reply stream which holds back the first threshold bytes.  Short
+   * replies are sent unencoded; longer ones set the deflate content
+   * encoding and are compressed with a pooled deflater.
+   */
+  static class DeflateReplyStream
+    extends HessianDeflaterPool.PooledDeflaterOutputStream
+  {
+    private final HttpServletResponse _response;
+
+    DeflateReplyStream(OutputStream os,
+                       HessianDeflaterPool pool,
+                       HttpServletResponse response)
+    {
+      super(pool, os, true, null);
+
+      _response = response;
+    }
+
+    @Override
+    protected void startDeflate()
+    {
+      _response.setHeader("Content-Encoding", "deflate");
+    }
+
+    @Override
+    protected void writeShort(byte []buffer, int length)
+      throws IOException
+    {
+      out.write(buffer, 0, length);
+    }
+  }
+
   static class LogWriter extends Writer {
     private Logger _log;
     private StringBuilder _sb = new StringBuilder();
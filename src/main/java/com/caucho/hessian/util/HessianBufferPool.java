@@ -0,0 +1,80 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.util;
+
+/**
+ * Pool of fixed-size byte[] segments, used by Hessian2Output when it
+ * encodes into memory instead of an OutputStream.
+ *
+ * <p>The pool is bounded; segments freed when it is full are left to the
+ * garbage collector.
+ */
+public final class HessianBufferPool {
+  private static final HessianBufferPool _default
+    = new HessianBufferPool(8 * 1024, 256);
+
+  private final int _segmentSize;
+  private final HessianFreeList<byte[]> _freeList;
+
+  /**
+   * Create a new segment pool.
+   *
+   * @param segmentSize the size of each segment in bytes
+   * @param capacity the maximum number of free segments to keep
+   */
+  public HessianBufferPool(int segmentSize, int capacity)
+  {
+    _segmentSize = segmentSize;
+    _freeList = new HessianFreeList<byte[]>(capacity);
+  }
+
+  /**
+   * Returns the shared pool of 8k segments.
+   */
+  public static HessianBufferPool getDefault()
+  {
+    return _default;
+  }
+
+  public int getSegmentSize()
+  {
+    return _segmentSize;
+  }
+
+  /**
+   * Returns a free segment, allocating a new one if the pool is empty.
+   */
+  public byte []allocate()
+  {
+    byte []segment = _freeList.allocate();
+
+    if (segment == null)
+      segment = new byte[_segmentSize];
+
+    return segment;
+  }
+
+  /**
+   * Returns a segment to the pool.  Segments of the wrong size are ignored.
+   */
+  public void free(byte []segment)
+  {
+    if (segment != null && segment.length == _segmentSize)
+      _freeList.free(segment);
+  }
+}
@@ -0,0 +1,403 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package com.caucho.hessian.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Pool of Deflater and Inflater instances.  Each instance owns native zlib
+ * memory which is otherwise only released by finalization, and creating
+ * one is expensive compared to compressing a short message.
+ *
+ * <p>Raw (nowrap) instances, as used for HTTP deflate content, are pooled
+ * separately from zlib-wrapped ones.  Instances freed when the pool is full
+ * are ended immediately.
+ *
+ * <p>Payloads shorter than the threshold are written as stored (level 0)
+ * deflate blocks, which any inflater reads, without spending CPU on
+ * compression.
+ */
+public final class HessianDeflaterPool {
+  private static final HessianDeflaterPool _default
+    = new HessianDeflaterPool(Deflater.DEFAULT_COMPRESSION, 0, 64);
+
+  private final int _level;
+  private final int _threshold;
+
+  private final HessianFreeList<Deflater> _deflaterFreeList;
+  private final HessianFreeList<Deflater> _rawDeflaterFreeList;
+  private final HessianFreeList<Inflater> _inflaterFreeList;
+  private final HessianFreeList<Inflater> _rawInflaterFreeList;
+
+  /**
+   * Create a new pool.
+   *
+   * @param level the compression level, 0-9 or -1 for the zlib default
+   * @param threshold payloads shorter than this are not compressed
+   * @param capacity the maximum number of free instances of each kind
+   */
+  public HessianDeflaterPool(int level, int threshold, int capacity)
+  {
+    if (level < Deflater.DEFAULT_COMPRESSION || Deflater.BEST_COMPRESSION < level)
+      throw new IllegalArgumentException("invalid compression level " + level);
+
+    _level = level;
+    _threshold = Math.max(0, threshold);
+
+    _deflaterFreeList = new HessianFreeList<Deflater>(capacity);
+    _rawDeflaterFreeList = new HessianFreeList<Deflater>(capacity);
+    _inflaterFreeList = new HessianFreeList<Inflater>(capacity);
+    _rawInflaterFreeList = new HessianFreeList<Inflater>(capacity);
+  }
+
+  /**
+   * Returns the shared pool, using the default level and no threshold.
+   */
+  public static HessianDeflaterPool getDefault()
+  {
+    return _default;
+  }
+
+  public int getLevel()
+  {
+    return _level;
+  }
+
+  public int getThreshold()
+  {
+    return _threshold;
+  }
+
+  /**
+   * Returns a deflater at the pool's level.
+   *
+   * @param isRaw true for a raw deflate stream without the zlib wrapper
+   */
+  public Deflater allocateDeflater(boolean isRaw)
+  {
+    Deflater deflater;
+
+    if (isRaw)
+      deflater = _rawDeflaterFreeList.allocate();
+    else
+      deflater = _deflaterFreeList.allocate();
+
+    if (deflater == null)
+      deflater = new Deflater(_level, isRaw);
+
+    return deflater;
+  }
+
+  /**
+   * Returns a deflater to the pool, ending it if the pool is full.
+   */
+  public void freeDeflater(Deflater deflater, boolean isRaw)
+  {
+    deflater.reset();
+    deflater.setLevel(_level);
+
+    HessianFreeList<Deflater> freeList
+      = isRaw ? _rawDeflaterFreeList : _deflaterFreeList;
+
+    if (! freeList.free(deflater))
+      deflater.end();
+  }
+
+  /**
+   * Returns an inflater.
+   *
+   * @param isRaw true for a raw deflate stream without the zlib wrapper
+   */
+  public Inflater allocateInflater(boolean isRaw)
+  {
+    Inflater inflater;
+
+    if (isRaw)
+      inflater = _rawInflaterFreeList.allocate();
+    else
+      inflater = _inflaterFreeList.allocate();
+
+    if (inflater == null)
+      inflater = new Inflater(isRaw);
+
+    return inflater;
+  }
+
+  /**
+   * Returns an inflater to the pool, ending it if the pool is full.
+   */
+  public void freeInflater(Inflater inflater, boolean isRaw)
+  {
+    inflater.reset();
+
+    HessianFreeList<Inflater> freeList
+      = isRaw ? _rawInflaterFreeList : _inflaterFreeList;
+
+    if (! freeList.free(inflater))
+      inflater.end();
+  }
+
+  /**
+   * Opens a compressing stream using a pooled deflater, which is returned
+   * when the stream is closed.
+   */
+  public OutputStream openOutputStream(OutputStream os, boolean isRaw)
+  {
+    return new PooledDeflaterOutputStream(this, os, isRaw, null);
+  }
+
+  /**
+   * Opens a compressing raw stream primed with a preset dictionary.  The
+   * reader must open its stream with the same dictionary.
+   */
+  public OutputStream openOutputStream(OutputStream os, byte []dictionary)
+  {
+    return new PooledDeflaterOutputStream(this, os, true, dictionary);
+  }
+
+  /**
+   * Opens a decompressing stream using a pooled inflater, which is returned
+   * when the stream is closed.
+   */
+  public InputStream openInputStream(InputStream is, boolean isRaw)
+  {
+    return new PooledInflaterInputStream(this, is, isRaw, null);
+  }
+
+  /**
+   * Opens a decompressing raw stream primed with a preset dictionary.
+   */
+  public InputStream openInputStream(InputStream is, byte []dictionary)
+  {
+    return new PooledInflaterInputStream(this, is, true, dictionary);
+  }
+
+  /**
+   * Deflating stream which holds back the first threshold bytes, so a
+   * short payload can be stored instead of compressed.  The deflater is
+   * only taken from the pool once the stream writes deflate output.
+   *
+   * <p>Subclasses can act when compression starts and can write a short
+   * payload some other way, e.g. unencoded.
+   */
+  public static class PooledDeflaterOutputStream extends FilterOutputStream {
+    private HessianDeflaterPool _pool;
+    private final boolean _isRaw;
+    private final byte []_dictionary;
+
+    private Deflater _deflater;
+    private DeflaterOutputStream _deflateOut;
+
+    private byte []_pending;
+    private int _pendingLength;
+
+    protected PooledDeflaterOutputStream(HessianDeflaterPool pool,
+                                         OutputStream os,
+                                         boolean isRaw,
+                                         byte []dictionary)
+    {
+      super(os);
+
+      _pool = pool;
+      _isRaw = isRaw;
+      _dictionary = dictionary;
+
+      _pending = new byte[pool.getThreshold()];
+    }
+
+    @Override
+    public void write(int ch)
+      throws IOException
+    {
+      byte []pending = _pending;
+
+      if (pending != null && _pendingLength < pending.length)
+        pending[_pendingLength++] = (byte) ch;
+      else
+        getDeflateOut().write(ch);
+    }
+
+    @Override
+    public void write(byte []buffer, int offset, int length)
+      throws IOException
+    {
+      byte []pending = _pending;
+
+      if (pending != null && _pendingLength + length <= pending.length) {
+        System.arraycopy(buffer, offset, pending, _pendingLength, length);
+        _pendingLength += length;
+      }
+      else
+        getDeflateOut().write(buffer, offset, length);
+    }
+
+    /**
+     * Returns the deflating stream, opening it and writing the held back
+     * bytes on the first call.
+     */
+    private DeflaterOutputStream getDeflateOut()
+      throws IOException
+    {
+      if (_deflateOut == null) {
+        startDeflate();
+
+        _deflater = _pool.allocateDeflater(_isRaw);
+
+        if (_dictionary != null)
+          _deflater.setDictionary(_dictionary);
+
+        _deflateOut = new DeflaterOutputStream(out, _deflater);
+      }
+
+      if (_pending != null) {
+        byte []pending = _pending;
+        _pending = null;
+
+        _deflateOut.write(pending, 0, _pendingLength);
+      }
+
+      return _deflateOut;
+    }
+
+    /**
+     * Called before the first deflate output is written.
+     */
+    protected void startDeflate()
+      throws IOException
+    {
+    }
+
+    /**
+     * Writes a payload which fit within the threshold.  The default writes
+     * it as a stored deflate block, which any inflater reads.
+     */
+    protected void writeShort(byte []buffer, int length)
+      throws IOException
+    {
+      startDeflate();
+
+      _deflater = _pool.allocateDeflater(_isRaw);
+
+      if (_dictionary != null)
+        _deflater.setDictionary(_dictionary);
+
+      _deflater.setLevel(Deflater.NO_COMPRESSION);
+
+      _deflateOut = new DeflaterOutputStream(out, _deflater);
+      _deflateOut.write(buffer, 0, length);
+      _deflateOut.finish();
+    }
+
+    /**
+     * Flushes are deferred to finish, since the threshold can only be
+     * decided once the whole payload is known.
+     */
+    @Override
+    public void flush()
+    {
+    }
+
+    /**
+     * Completes the compressed stream without closing the underlying one.
+     */
+    public void finish()
+      throws IOException
+    {
+      HessianDeflaterPool pool = _pool;
+
+      if (pool == null)
+        return;
+
+      try {
+        if (_pending != null) {
+          byte []pending = _pending;
+          _pending = null;
+
+          writeShort(pending, _pendingLength);
+        }
+        else
+          _deflateOut.finish();
+
+        out.flush();
+      } finally {
+        _pool = null;
+
+        if (_deflater != null) {
+          pool.freeDeflater(_deflater, _isRaw);
+          _deflater = null;
+        }
+      }
+    }
+
+    @Override
+    public void close()
+      throws IOException
+    {
+      try {
+        finish();
+      } finally {
+        out.close();
+      }
+    }
+  }
+
+  /**
+   * Inflating stream which returns its inflater to the pool on close.
+   */
+  static class PooledInflaterInputStream extends InflaterInputStream {
+    private HessianDeflaterPool _pool;
+    private final boolean _isRaw;
+
+    PooledInflaterInputStream(HessianDeflaterPool pool,
+                              InputStream is,
+                              boolean isRaw,
+                              byte []dictionary)
+    {
+      super(is, pool.allocateInflater(isRaw));
+
+      _pool = pool;
+      _isRaw = isRaw;
+
+      // a raw stream takes its dictionary before any input
+      if (dictionary != null)
+        inf.setDictionary(dictionary);
+    }
+
+    @Override
+    public void close()
+      throws IOException
+    {
+      HessianDeflaterPool pool = _pool;
+      _pool = null;
+
+      try {
+        super.close();
+      } finally {
+        if (pool != null)
+          pool.freeInflater(inf, _isRaw);
+      }
+    }
+  }
+}
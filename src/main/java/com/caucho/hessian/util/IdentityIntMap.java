@@ -16,12 +16,20 @@
 
 package com.caucho.hessian.util;
 
+import java.util.Arrays;
+
 /**
  * The IntMap provides a simple hashmap from keys to integers.  The API is
  * an abbreviation of the HashMap collection API.
  *
  * <p>The convenience of IntMap is avoiding all the silly wrapping of
  * integers.
+ *
+ * <p>The table is a power of two, probed linearly.  Each slot is stamped
+ * with the generation that filled it, so <code>clear</code> just starts a
+ * new generation instead of walking the table.  Keys from earlier
+ * generations stay reachable until overwritten, so a table left large by
+ * an outlier is replaced after a few clears with few entries.
  */
 public class IdentityIntMap {
   /**
@@ -30,22 +38,44 @@ public class IdentityIntMap {
    */
   public final static int NULL = 0xdeadbeef; // Integer.MIN_VALUE + 1;
 
+  private static final int MIN_CAPACITY = 16;
+  // clears using at most 1/SHRINK_RATIO of the table before shrinking
+  private static final int SHRINK_RATIO = 16;
+  private static final int SHRINK_CLEARS = 4;
+
+  private final int _initialCapacity;
+
   private Object []_keys;
   private int []_values;
+  private int []_generations;
+
+  private int _mask;
+  private int _generation = 1;
 
   private int _size;
-  private int _prime;
+  private int _sparseClears;
 
   /**
    * Create a new IntMap.  Default size is 16.
    */
   public IdentityIntMap(int capacity)
+  {
+    int size = MIN_CAPACITY;
+
+    while (size < capacity)
+      size <<= 1;
+
+    _initialCapacity = size;
+
+    allocate(size);
+  }
+
+  private void allocate(int capacity)
   {
     _keys = new Object[capacity];
     _values = new int[capacity];
-
-    _prime = getBiggestPrime(_keys.length);
-    _size = 0;
+    _generations = new int[capacity];
+    _mask = capacity - 1;
   }
 
   /**
@@ -53,16 +83,30 @@ public class IdentityIntMap {
    */
   public void clear()
   {
-    final Object []keys = _keys;
-    final int []values = _values;
+    int capacity = _keys.length;
 
-    for (int i = keys.length - 1; i >= 0; i--) {
-      keys[i] = null;
-      values[i] = 0;
+    if (_initialCapacity < capacity && _size <= capacity / SHRINK_RATIO) {
+      if (SHRINK_CLEARS <= ++_sparseClears) {
+        _sparseClears = 0;
+        _size = 0;
+        _generation = 1;
+
+        allocate(_initialCapacity);
+        return;
+      }
     }
+    else
+      _sparseClears = 0;
 
     _size = 0;
+
+    if (++_generation == 0) {
+      Arrays.fill(_keys, null);
+      Arrays.fill(_generations, 0);
+      _generation = 1;
+    }
   }
+
   /**
    * Returns the current number of entries in the map.
    */
@@ -71,26 +115,40 @@ public class IdentityIntMap {
     return _size;
   }
 
+  /**
+   * Returns the number of slots in the table.
+   */
+  public final int capacity()
+  {
+    return _keys.length;
+  }
+
+  private static int hash(Object key)
+  {
+    int h = System.identityHashCode(key) * 0x9e3779b9;
+
+    return h ^ (h >>> 16);
+  }
+
   /**
    * Puts a new value in the property table with the appropriate flags
    */
   public final int get(Object key)
   {
-    int prime = _prime;
-    int hash = System.identityHashCode(key) % prime;
-    // int hash = key.hashCode() & mask;
-
     final Object []keys = _keys;
+    final int []generations = _generations;
+    final int generation = _generation;
+    final int mask = _mask;
 
-    while (true) {
-      Object mapKey = keys[hash];
+    int hash = hash(key) & mask;
 
-      if (mapKey == null)
+    while (true) {
+      if (generations[hash] != generation)
         return NULL;
-      else if (mapKey == key)
+      else if (keys[hash] == key)
         return _values[hash];
 
-      hash = (hash + 1) % prime;
+      hash = (hash + 1) & mask;
     }
   }
 
@@ -99,32 +157,30 @@ public class IdentityIntMap {
    */
   public final int put(Object key, int value, boolean isReplace)
   {
-    int prime = _prime;
-    int hash = Math.abs(System.identityHashCode(key) % prime);
-    // int hash = key.hashCode() % prime;
+    final Object []keys = _keys;
+    final int []generations = _generations;
+    final int generation = _generation;
+    final int mask = _mask;
 
-    Object []keys = _keys;
+    int hash = hash(key) & mask;
 
     while (true) {
-      Object testKey = keys[hash];
-
-      if (testKey == null) {
+      if (generations[hash] != generation) {
         keys[hash] = key;
         _values[hash] = value;
+        generations[hash] = generation;
 
         _size++;
 
-        if (keys.length <= 4 * _size)
-          resize(4 * keys.length);
+        if (keys.length <= 2 * _size)
+          resize(2 * keys.length);
 
         return value;
       }
-      else if (key != testKey) {
-        hash = (hash + 1) % prime;
-
-        continue;
+      else if (key != keys[hash]) {
+        hash = (hash + 1) & mask;
       }
-      else if (isReplace){
+      else if (isReplace) {
         int old = _values[hash];
 
         _values[hash] = value;
@@ -153,19 +209,20 @@ public class IdentityIntMap {
   private void resize(int newSize)
   {
     Object []keys = _keys;
-    int values[] = _values;
+    int []values = _values;
+    int []generations = _generations;
+    int generation = _generation;
 
-    _keys = new Object[newSize];
-    _values = new int[newSize];
-    _size = 0;
+    allocate(newSize);
 
-    _prime = getBiggestPrime(_keys.length);
+    _size = 0;
+    _generation = 1;
 
     for (int i = keys.length - 1; i >= 0; i--) {
       Object key = keys[i];
       int value = values[i];
 
-      if (key != null && value != NULL) {
+      if (generations[i] == generation && value != NULL) {
         put(key, value, true);
       }
     }
@@ -183,8 +240,8 @@ public class IdentityIntMap {
     sbuf.append("IntMap[");
     boolean isFirst = true;
 
-    for (int i = 0; i <= _keys.length; i++) {
-      if (_keys[i] != null) {
+    for (int i = 0; i < _keys.length; i++) {
+      if (_generations[i] == _generation) {
         if (! isFirst)
           sbuf.append(", ");
 
@@ -24,6 +24,19 @@ import java.util.HashMap;
  * Proxy class for Hessian services.
  */
 abstract public class AbstractSkeleton {
+  /**
+   * Request header a client sends when it can read packed primitive
+   * arrays in the reply.
+   */
+  public static final String PACKED_ARRAYS_HEADER = "X-Hessian-Packed-Arrays";
+
+  /**
+   * Method name of a batch call.  Its single argument is an array of
+   * complete encoded calls, and its reply is an array of the encoded
+   * replies, in the same order.
+   */
+  public static final String BATCH_METHOD = "_hessian_batch";
+
   private Class _apiClass;
   private Class _homeClass;
   private Class _objectClass;
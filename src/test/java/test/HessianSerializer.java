@@ -19,9 +19,6 @@ package test;
 import com.caucho.hessian.io.Hessian2Input;
 import com.caucho.hessian.io.Hessian2Output;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-
 /**
  * Created by IntelliJ IDEA.
  * User: mhsieh
@@ -32,16 +29,18 @@ import java.io.ByteArrayOutputStream;
 public class HessianSerializer<T>  {
 
     public byte[] toBytes(Object object) {
-  	    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		try {
-			Hessian2Output oos = new Hessian2Output(baos);
-			oos.writeObject(object);
-			oos.flushBuffer();
-		}
-		catch (java.io.IOException ioe) {
-			throw new RuntimeException(ioe.getMessage(), ioe);
-		}
-		return baos.toByteArray();
+        Hessian2Output oos = new Hessian2Output();
+        try {
+            oos.initBuffer();
+            oos.writeObject(object);
+            return oos.toByteArray();
+        }
+        catch (java.io.IOException ioe) {
+            throw new RuntimeException(ioe.getMessage(), ioe);
+        }
+        finally {
+            oos.free();
+        }
     }
 
     public T toObject(byte[] bytes) {
@@ -51,7 +50,7 @@ public class HessianSerializer<T>  {
     public T toObject(byte[] bytes, int offset, int length) {
         T object = null;
         try {
-            object = (T) new Hessian2Input(new ByteArrayInputStream(bytes, offset, length)).readObject();
+            object = (T) new Hessian2Input(bytes, offset, length).readObject();
             return object;
         }
         catch (java.io.IOException ioe) {
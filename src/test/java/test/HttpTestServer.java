@@ -0,0 +1,161 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package test;
+
+import com.caucho.hessian.server.HessianSkeleton;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal HTTP/1.1 server for client tests.  Serves Hessian calls with
+ * Content-Length or chunked replies, optionally delaying each reply or
+ * closing the connection after it.
+ */
+public class HttpTestServer implements Runnable {
+    final ServerSocket serverSocket;
+    final HessianSkeleton skeleton;
+    final AtomicInteger acceptCount = new AtomicInteger();
+    final AtomicInteger requestCount = new AtomicInteger();
+    volatile boolean isChunked;
+    volatile int maxRequestsPerConnection = Integer.MAX_VALUE;
+    volatile boolean isSilentClose;
+    volatile long delay;
+
+    HttpTestServer(Object service, Class<?> api) throws IOException {
+        skeleton = new HessianSkeleton(service, api);
+        serverSocket = new ServerSocket(0);
+        Thread thread = new Thread(this, "test-http-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    String getURL() {
+        return "http://localhost:" + serverSocket.getLocalPort() + "/service";
+    }
+
+    public void run() {
+        try {
+            while (true) {
+                final Socket socket = serverSocket.accept();
+                acceptCount.incrementAndGet();
+                Thread thread = new Thread(new Runnable() {
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException e) {
+            // closed
+        }
+    }
+
+    void serve(Socket socket) {
+        try {
+            InputStream is = new BufferedInputStream(socket.getInputStream());
+            OutputStream os = socket.getOutputStream();
+
+            for (int n = 1; ; n++) {
+                int length = -1;
+                String line = readLine(is);
+                if (line == null) {
+                    break;
+                }
+                while ((line = readLine(is)) != null && line.length() > 0) {
+                    if (line.toLowerCase().startsWith("content-length:")) {
+                        length = Integer.parseInt(line.substring(15).trim());
+                    }
+                }
+
+                byte[] request = new byte[length];
+                for (int offset = 0; offset < length; ) {
+                    offset += is.read(request, offset, length - offset);
+                }
+                requestCount.incrementAndGet();
+
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+
+                ByteArrayOutputStream reply = new ByteArrayOutputStream();
+                skeleton.invoke(new ByteArrayInputStream(request), reply);
+
+                boolean isClose = n >= maxRequestsPerConnection;
+                boolean isSilent = isSilentClose;
+                StringBuilder head = new StringBuilder("HTTP/1.1 200 OK\r\n");
+                if (isClose) {
+                    head.append("Connection: close\r\n");
+                }
+                byte[] body = reply.toByteArray();
+
+                if (isChunked) {
+                    head.append("Transfer-Encoding: chunked\r\n\r\n");
+                    os.write(head.toString().getBytes("ISO-8859-1"));
+                    for (int offset = 0; offset < body.length; offset += 100) {
+                        int sublen = Math.min(100, body.length - offset);
+                        os.write((Integer.toHexString(sublen) + "\r\n").getBytes("ISO-8859-1"));
+                        os.write(body, offset, sublen);
+                        os.write("\r\n".getBytes("ISO-8859-1"));
+                    }
+                    os.write("0\r\n\r\n".getBytes("ISO-8859-1"));
+                } else {
+                    head.append("Content-Length: ").append(body.length).append("\r\n\r\n");
+                    os.write(head.toString().getBytes("ISO-8859-1"));
+                    os.write(body);
+                }
+                os.flush();
+
+                if (isClose || isSilent) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            // client went away
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private static String readLine(InputStream is) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int ch;
+        while ((ch = is.read()) >= 0 && ch != '\n') {
+            if (ch != '\r') {
+                sb.append((char) ch);
+            }
+        }
+        return ch < 0 && sb.length() == 0 ? null : sb.toString();
+    }
+
+    void close() throws IOException {
+        serverSocket.close();
+    }
+}
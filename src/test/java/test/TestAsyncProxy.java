@@ -0,0 +1,318 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package test;
+
+import com.caucho.hessian.client.HessianCallback;
+import com.caucho.hessian.client.HessianConnectionException;
+import com.caucho.hessian.client.HessianFuture;
+import com.caucho.hessian.client.HessianProxyFactory;
+import org.testng.annotations.Test;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Proxy methods returning futures, sent through the non-blocking transport.
+ */
+public class TestAsyncProxy {
+
+    public interface Service {
+        String echo(String value);
+
+        int[] range(int n);
+
+        String fail(String message);
+    }
+
+    public interface AsyncService {
+        HessianFuture<String> echo(String value);
+
+        Future<int[]> range(int n);
+
+        HessianFuture<String> fail(String message);
+    }
+
+    public static class ServiceImpl implements Service {
+        public String echo(String value) {
+            return value;
+        }
+
+        public int[] range(int n) {
+            int[] values = new int[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = i;
+            }
+            return values;
+        }
+
+        public String fail(String message) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    private AsyncService createProxy(HessianProxyFactory factory, String url) throws Exception {
+        return (AsyncService) factory.create(AsyncService.class, url);
+    }
+
+    @Test(groups = {"test"})
+    public void testFuture() throws Exception {
+        HttpTestServer server = new HttpTestServer(new ServiceImpl(), Service.class);
+        HessianProxyFactory factory = new HessianProxyFactory();
+
+        try {
+            AsyncService service = createProxy(factory, server.getURL());
+
+            for (int i = 0; i < 20; i++) {
+                assertEquals(service.echo("hello " + i).get(5, TimeUnit.SECONDS), "hello " + i);
+            }
+
+            server.isChunked = true;
+
+            int[] values = service.range(10000).get(5, TimeUnit.SECONDS);
+            assertEquals(values.length, 10000);
+            assertEquals(values[9999], 9999);
+
+            assertEquals(server.acceptCount.get(), 1);
+            assertEquals(factory.getAsyncTransport().getCreateCount(), 1L);
+            assertEquals(factory.getAsyncTransport().getReuseCount(), 20L);
+        } finally {
+            factory.getAsyncTransport().close();
+            server.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testFanOut() throws Exception {
+        HttpTestServer server = new HttpTestServer(new ServiceImpl(), Service.class);
+        server.delay = 200;
+        HessianProxyFactory factory = new HessianProxyFactory();
+        factory.getAsyncTransport().setMaxConnectionsPerHost(25);
+
+        try {
+            AsyncService service = createProxy(factory, server.getURL());
+            List<HessianFuture<String>> futures = new ArrayList<HessianFuture<String>>();
+
+            long start = System.currentTimeMillis();
+
+            for (int i = 0; i < 50; i++) {
+                futures.add(service.echo("v" + i));
+            }
+
+            for (int i = 0; i < 50; i++) {
+                assertEquals(futures.get(i).get(10, TimeUnit.SECONDS), "v" + i);
+            }
+
+            long elapsed = System.currentTimeMillis() - start;
+
+            // 50 sequential calls would take 10s
+            assertTrue(elapsed < 3000, "elapsed " + elapsed);
+            assertTrue(server.acceptCount.get() <= 25, "accepted " + server.acceptCount.get());
+        } finally {
+            factory.getAsyncTransport().close();
+            server.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testCallback() throws Exception {
+        HttpTestServer server = new HttpTestServer(new ServiceImpl(), Service.class);
+        HessianProxyFactory factory = new HessianProxyFactory();
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                return new Thread(task, "test-callback");
+            }
+        });
+        factory.setAsyncExecutor(executor);
+
+        try {
+            AsyncService service = createProxy(factory, server.getURL());
+
+            final CountDownLatch latch = new CountDownLatch(2);
+            final AtomicReference<String> result = new AtomicReference<String>();
+            final AtomicReference<Throwable> fault = new AtomicReference<Throwable>();
+            final AtomicReference<String> threadName = new AtomicReference<String>();
+
+            service.echo("callback").addCallback(new HessianCallback<String>() {
+                public void onResult(String value) {
+                    result.set(value);
+                    threadName.set(Thread.currentThread().getName());
+                    latch.countDown();
+                }
+
+                public void onFault(Throwable e) {
+                    latch.countDown();
+                }
+            });
+
+            service.fail("expected").addCallback(new HessianCallback<Object>() {
+                public void onResult(Object value) {
+                    latch.countDown();
+                }
+
+                public void onFault(Throwable e) {
+                    fault.set(e);
+                    latch.countDown();
+                }
+            });
+
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertEquals(result.get(), "callback");
+            assertEquals(threadName.get(), "test-callback");
+            assertTrue(fault.get() instanceof IllegalStateException, String.valueOf(fault.get()));
+            assertEquals(fault.get().getMessage(), "expected");
+        } finally {
+            executor.shutdownNow();
+            factory.getAsyncTransport().close();
+            server.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testFault() throws Exception {
+        HttpTestServer server = new HttpTestServer(new ServiceImpl(), Service.class);
+        HessianProxyFactory factory = new HessianProxyFactory();
+
+        try {
+            AsyncService service = createProxy(factory, server.getURL());
+
+            try {
+                service.fail("remote").get(5, TimeUnit.SECONDS);
+                throw new AssertionError("expected ExecutionException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException, String.valueOf(e.getCause()));
+            }
+
+            // the connection survives a fault reply
+            assertEquals(service.echo("after").get(5, TimeUnit.SECONDS), "after");
+            assertEquals(server.acceptCount.get(), 1);
+        } finally {
+            factory.getAsyncTransport().close();
+            server.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testConnectFailure() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+
+        HessianProxyFactory factory = new HessianProxyFactory();
+
+        try {
+            AsyncService service = createProxy(factory, "http://localhost:" + port + "/service");
+
+            try {
+                service.echo("x").get(5, TimeUnit.SECONDS);
+                throw new AssertionError("expected ExecutionException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof HessianConnectionException, String.valueOf(e.getCause()));
+            }
+        } finally {
+            factory.getAsyncTransport().close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testUnknownHost() throws Exception {
+        HttpTestServer server = new HttpTestServer(new ServiceImpl(), Service.class);
+        HessianProxyFactory factory = new HessianProxyFactory();
+
+        try {
+            AsyncService unknown = createProxy(factory, "http://no-such-host.invalid/service");
+
+            try {
+                unknown.echo("x").get(5, TimeUnit.SECONDS);
+                throw new AssertionError("expected ExecutionException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof HessianConnectionException, String.valueOf(e.getCause()));
+            }
+
+            // the failed lookup leaves the transport running
+            AsyncService service = createProxy(factory, server.getURL());
+            assertEquals(service.echo("a").get(5, TimeUnit.SECONDS), "a");
+        } finally {
+            factory.getAsyncTransport().close();
+            server.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testRejectedExecutor() throws Exception {
+        HttpTestServer server = new HttpTestServer(new ServiceImpl(), Service.class);
+        HessianProxyFactory factory = new HessianProxyFactory();
+        factory.setAsyncExecutor(new Executor() {
+            public void execute(Runnable task) {
+                throw new RejectedExecutionException();
+            }
+        });
+
+        try {
+            AsyncService service = createProxy(factory, server.getURL());
+
+            assertEquals(service.echo("a").get(5, TimeUnit.SECONDS), "a");
+        } finally {
+            factory.getAsyncTransport().close();
+            server.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testCancel() throws Exception {
+        HessianFuture<String> future = new HessianFuture<String>(null);
+
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+        assertTrue(! future.complete("late"));
+
+        final AtomicReference<Throwable> fault = new AtomicReference<Throwable>();
+        future.addCallback(new HessianCallback<String>() {
+            public void onResult(String value) {
+            }
+
+            public void onFault(Throwable e) {
+                fault.set(e);
+            }
+        });
+
+        assertTrue(fault.get() instanceof CancellationException, String.valueOf(fault.get()));
+
+        try {
+            future.get();
+            throw new AssertionError("expected CancellationException");
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+}
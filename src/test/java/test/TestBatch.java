@@ -0,0 +1,235 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package test;
+
+import com.caucho.hessian.client.HessianBatch;
+import com.caucho.hessian.client.HessianFuture;
+import com.caucho.hessian.client.HessianProxyFactory;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Several proxy calls sent in one batch request.
+ */
+public class TestBatch {
+
+    public interface Service {
+        String echo(String value);
+
+        int add(int a, int b);
+
+        String slow(String value);
+
+        String fail(String message);
+    }
+
+    public interface BatchService {
+        HessianFuture<String> echo(String value);
+
+        HessianFuture<Integer> add(int a, int b);
+
+        HessianFuture<String> slow(String value);
+
+        HessianFuture<String> fail(String message);
+    }
+
+    public interface SyncService {
+        String echo(String value);
+
+        int add(int a, int b);
+    }
+
+    public interface RawBatchService {
+        Object[] _hessian_batch(Object[] calls) throws Exception;
+    }
+
+    public static class ServiceImpl implements Service {
+        public String echo(String value) {
+            return value;
+        }
+
+        public int add(int a, int b) {
+            return a + b;
+        }
+
+        public String slow(String value) {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return value;
+        }
+
+        public String fail(String message) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testBatch() throws Exception {
+        HttpTestServer server = new HttpTestServer(new ServiceImpl(), Service.class);
+        HessianProxyFactory factory = new HessianProxyFactory();
+
+        try {
+            BatchService async = (BatchService) factory.create(BatchService.class, server.getURL());
+            SyncService sync = (SyncService) factory.create(SyncService.class, server.getURL());
+
+            HessianBatch batch = factory.beginBatch();
+            HessianFuture<String> a;
+            HessianFuture<Integer> b;
+            HessianFuture<String> c;
+            int sum;
+
+            try {
+                a = async.echo("a");
+                b = async.add(2, 3);
+                c = async.fail("expected");
+
+                assertEquals(batch.getPendingCount(), 3);
+                assertTrue(! a.isDone());
+
+                // a synchronous call sends the queue along with itself
+                sum = sync.add(40, 2);
+                assertEquals(batch.getPendingCount(), 0);
+            } finally {
+                batch.close();
+            }
+
+            assertEquals(sum, 42);
+            assertEquals(a.get(5, TimeUnit.SECONDS), "a");
+            assertEquals(b.get(5, TimeUnit.SECONDS), Integer.valueOf(5));
+
+            try {
+                c.get(5, TimeUnit.SECONDS);
+                throw new AssertionError("expected ExecutionException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException, String.valueOf(e.getCause()));
+            }
+
+            assertEquals(server.requestCount.get(), 1);
+            assertNull(factory.getBatch());
+
+            // outside the scope calls go out one by one
+            assertEquals(sync.echo("x"), "x");
+            assertEquals(server.requestCount.get(), 2);
+        } finally {
+            factory.getAsyncTransport().close();
+            server.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testMaxCalls() throws Exception {
+        HttpTestServer server = new HttpTestServer(new ServiceImpl(), Service.class);
+        HessianProxyFactory factory = new HessianProxyFactory();
+
+        try {
+            BatchService async = (BatchService) factory.create(BatchService.class, server.getURL());
+
+            HessianBatch batch = factory.beginBatch();
+            batch.setMaxCalls(10);
+
+            HessianFuture<Integer>[] futures = new HessianFuture[25];
+
+            try {
+                for (int i = 0; i < futures.length; i++) {
+                    futures[i] = async.add(i, i);
+                }
+            } finally {
+                batch.close();
+            }
+
+            for (int i = 0; i < futures.length; i++) {
+                assertEquals(futures[i].get(5, TimeUnit.SECONDS), Integer.valueOf(2 * i));
+            }
+
+            assertEquals(server.requestCount.get(), 3);
+        } finally {
+            factory.getAsyncTransport().close();
+            server.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testParallel() throws Exception {
+        HttpTestServer server = new HttpTestServer(new ServiceImpl(), Service.class);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        server.skeleton.setBatchExecutor(executor);
+        HessianProxyFactory factory = new HessianProxyFactory();
+
+        try {
+            BatchService async = (BatchService) factory.create(BatchService.class, server.getURL());
+
+            HessianFuture<String>[] futures = new HessianFuture[8];
+            long start = System.currentTimeMillis();
+
+            HessianBatch batch = factory.beginBatch();
+            try {
+                for (int i = 0; i < futures.length; i++) {
+                    futures[i] = async.slow("v" + i);
+                }
+            } finally {
+                batch.close();
+            }
+
+            for (int i = 0; i < futures.length; i++) {
+                assertEquals(futures[i].get(5, TimeUnit.SECONDS), "v" + i);
+            }
+
+            long elapsed = System.currentTimeMillis() - start;
+
+            // eight calls in a row would take 1.6s
+            assertTrue(elapsed < 1000, "elapsed " + elapsed);
+            assertEquals(server.requestCount.get(), 1);
+        } finally {
+            executor.shutdownNow();
+            factory.getAsyncTransport().close();
+            server.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testMalformedBatch() throws Exception {
+        HttpTestServer server = new HttpTestServer(new ServiceImpl(), Service.class);
+        HessianProxyFactory factory = new HessianProxyFactory();
+
+        try {
+            RawBatchService raw = (RawBatchService) factory.create(RawBatchService.class, server.getURL());
+
+            try {
+                raw._hessian_batch(new Object[] { "not a call" });
+                throw new AssertionError("expected a protocol fault");
+            } catch (Exception e) {
+                assertTrue(String.valueOf(e.getMessage()).indexOf("not an encoded call") >= 0,
+                           String.valueOf(e));
+            }
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package test;
+
+import com.caucho.hessian.io.Hessian2Input;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Decoding directly from byte array slices and ByteBuffers.
+ */
+public class TestBufferInput {
+
+    HessianSerializer hs;
+
+    @BeforeTest
+    public void init() {
+        hs = new HessianSerializer();
+    }
+
+    private List<T1> createList(int size) {
+        List<T1> list = new ArrayList<T1>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(new T1(i, i + 0.5, "test-" + i));
+        }
+        return list;
+    }
+
+    @Test(groups = {"test"})
+    public void testArraySlice() throws Exception {
+        List<T1> list = createList(200);
+        byte[] bs = hs.toBytes(list);
+
+        // surround the message with garbage to check the slice bounds
+        byte[] padded = new byte[bs.length + 20];
+        System.arraycopy(bs, 0, padded, 10, bs.length);
+
+        List<T1> list1 = (List<T1>) new Hessian2Input(padded, 10, bs.length).readObject();
+        assertEquals(list1.size(), list.size());
+        assertEquals(list1.get(199).toString(), list.get(199).toString());
+    }
+
+    @Test(groups = {"test"})
+    public void testHeapByteBuffer() throws Exception {
+        String value = "buffer-" + new String(new char[3000]).replace('\0', 'x');
+        byte[] bs = hs.toBytes(value);
+
+        ByteBuffer buffer = ByteBuffer.allocate(bs.length + 5);
+        buffer.position(5);
+        buffer.put(bs);
+        buffer.position(5);
+
+        Hessian2Input in = new Hessian2Input();
+        in.init(buffer);
+
+        assertEquals(in.readObject(), value);
+        assertEquals(buffer.position(), 5);
+    }
+
+    @Test(groups = {"test"})
+    public void testDirectByteBuffer() throws Exception {
+        List<T1> list = createList(200);
+        byte[] bs = hs.toBytes(list);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bs.length);
+        buffer.put(bs);
+        buffer.flip();
+
+        Hessian2Input in = new Hessian2Input();
+        in.init(buffer);
+
+        List<T1> list1 = (List<T1>) in.readObject();
+        assertEquals(list1.size(), list.size());
+        assertEquals(list1.get(150).toString(), list.get(150).toString());
+        assertEquals(buffer.position(), 0);
+    }
+}
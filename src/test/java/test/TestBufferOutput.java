@@ -0,0 +1,129 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package test;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.util.HessianBufferPool;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Encoding directly into pooled memory segments.
+ */
+public class TestBufferOutput {
+
+    private List<T1> createList(int size) {
+        List<T1> list = new ArrayList<T1>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(new T1(i, i + 0.5, "test-" + i));
+        }
+        return list;
+    }
+
+    private byte[] toStreamBytes(Object value) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Hessian2Output out = new Hessian2Output(bos);
+        out.writeObject(value);
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    @Test(groups = {"test"})
+    public void testSegments() throws Exception {
+        List<T1> list = createList(5000);
+        byte[] expected = toStreamBytes(list);
+
+        HessianBufferPool pool = new HessianBufferPool(Hessian2Output.SIZE, 4);
+        Hessian2Output out = new Hessian2Output();
+        out.initBuffer(pool);
+        out.writeObject(list);
+
+        assertEquals(out.getBufferLength(), expected.length);
+        assertEquals(out.toByteArray(), expected);
+
+        List<ByteBuffer> segments = out.getSegments();
+        assertEquals(segments.size() > 1, true);
+
+        ByteBuffer joined = ByteBuffer.allocate(expected.length);
+        for (ByteBuffer segment : segments) {
+            joined.put(segment);
+        }
+        assertEquals(joined.array(), expected);
+
+        ByteBuffer buffer = out.toByteBuffer();
+        assertEquals(buffer.isReadOnly(), true);
+        Hessian2Input in = new Hessian2Input();
+        in.init(buffer);
+        List<T1> list1 = (List<T1>) in.readObject();
+        assertEquals(list1.size(), list.size());
+        assertEquals(list1.get(4999).getS1(), "test-4999");
+
+        out.free();
+    }
+
+    @Test(groups = {"test"})
+    public void testSmallMessage() throws Exception {
+        Hessian2Output out = new Hessian2Output();
+        out.initBuffer();
+        out.writeString("hello");
+
+        ByteBuffer buffer = out.toByteBuffer();
+        assertEquals(buffer.remaining(), toStreamBytes("hello").length);
+        Hessian2Input in = new Hessian2Input();
+        in.init(buffer);
+        assertEquals(in.readString(), "hello");
+
+        // reinitializing starts an empty message
+        out.initBuffer();
+        assertEquals(out.getBufferLength(), 0);
+        out.free();
+    }
+
+    @Test(groups = {"test"})
+    public void testPackets() throws Exception {
+        List<T1> list = createList(2000);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Hessian2Output streamOut = new Hessian2Output(bos);
+        streamOut.startPacket();
+        streamOut.writeObject(list);
+        streamOut.endPacket();
+        streamOut.startPacket();
+        streamOut.writeInt(7);
+        streamOut.endPacket();
+
+        Hessian2Output out = new Hessian2Output();
+        out.initBuffer();
+        out.startPacket();
+        out.writeObject(list);
+        out.endPacket();
+        out.startPacket();
+        out.writeInt(7);
+        out.endPacket();
+
+        assertEquals(out.toByteArray(), bos.toByteArray());
+        out.free();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package test;
+
+import com.caucho.hessian.client.HessianProxyFactory;
+import com.caucho.hessian.io.AbstractHessianOutput;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.HessianCallHeader;
+import com.caucho.hessian.io.HessianOutput;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Pre-encoded call headers and the proxy's per-method call plans.
+ */
+public class TestCallHeader {
+
+    public interface Service {
+        String echo(String value);
+
+        int add(int a, int b);
+
+        int add(int a, int b, int c);
+
+        String gr\u00f6\u00dfe(String value);
+    }
+
+    public static class ServiceImpl implements Service {
+        public String echo(String value) {
+            return value;
+        }
+
+        public int add(int a, int b) {
+            return a + b;
+        }
+
+        public int add(int a, int b, int c) {
+            return a + b + c;
+        }
+
+        public String gr\u00f6\u00dfe(String value) {
+            return value.toUpperCase();
+        }
+    }
+
+    private byte[] encode(boolean isHessian2, HessianCallHeader header, String method, Object[] args) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        AbstractHessianOutput out = isHessian2 ? new Hessian2Output(bos) : new HessianOutput(bos);
+
+        if (header != null) {
+            out.call(header, args);
+        } else {
+            out.call(method, args);
+        }
+
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    @Test(groups = {"test"})
+    public void testEncoding() throws Exception {
+        String[] methods = {"echo", "add__3", "gr\u00f6\u00dfe", "a_rather_long_method_name_" + new String(new char[40]).replace('\0', 'x')};
+        Object[] args = {"value", 7, null};
+
+        for (String method : methods) {
+            HessianCallHeader header = new HessianCallHeader(method, args.length);
+
+            for (boolean isHessian2 : new boolean[]{false, true}) {
+                assertEquals(encode(isHessian2, header, null, args), encode(isHessian2, null, method, args));
+            }
+
+            // a header for another argument count is not used
+            Object[] shortArgs = {"value"};
+            assertEquals(encode(true, header, null, shortArgs), encode(true, null, method, shortArgs));
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testProxy() throws Exception {
+        HttpTestServer server = new HttpTestServer(new ServiceImpl(), Service.class);
+
+        try {
+            for (boolean isHessian2 : new boolean[]{false, true}) {
+                HessianProxyFactory factory = new HessianProxyFactory();
+                factory.setOverloadEnabled(true);
+                factory.setHessian2Request(isHessian2);
+
+                final Service service = (Service) factory.create(Service.class, server.getURL());
+
+                assertEquals(service.add(1, 2), 3);
+                assertEquals(service.add(1, 2, 3), 6);
+                assertEquals(service.gr\u00f6\u00dfe("abc"), "ABC");
+                assertTrue(service.equals(factory.create(Service.class, server.getURL())));
+                assertEquals(service.hashCode(), new URL(server.getURL()).hashCode());
+                assertTrue(service.toString().startsWith("HessianProxy["));
+
+                ExecutorService executor = Executors.newFixedThreadPool(16);
+
+                try {
+                    List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+
+                    for (int t = 0; t < 16; t++) {
+                        final int id = t;
+
+                        futures.add(executor.submit(new Callable<Boolean>() {
+                            public Boolean call() {
+                                for (int i = 0; i < 20; i++) {
+                                    if (service.add(id, i) != id + i
+                                        || service.add(id, i, 1) != id + i + 1
+                                        || ! service.echo("v" + i).equals("v" + i)) {
+                                        return false;
+                                    }
+                                }
+                                return true;
+                            }
+                        }));
+                    }
+
+                    for (Future<Boolean> future : futures) {
+                        assertTrue(future.get());
+                    }
+                } finally {
+                    executor.shutdownNow();
+                }
+            }
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package test;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Pre-encoded class definitions and type names.
+ */
+public class TestClassDefinition {
+
+    public static class Point implements Serializable, Cloneable {
+        int x;
+        int y;
+        String label;
+
+        @Override
+        public Point clone() throws CloneNotSupportedException {
+            return (Point) super.clone();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testEncodeDefinition() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Hessian2Output out = new Hessian2Output(bos);
+
+        assertEquals(out.writeObjectBegin("test.Point"), -1);
+        out.writeClassFieldLength(3);
+        out.writeString("x");
+        out.writeString("y");
+        out.writeString("label");
+        out.flush();
+
+        byte[] definition = Hessian2Output.encodeDefinition("test.Point",
+            new String[]{"x", "y", "label"});
+
+        assertEquals(definition, bos.toByteArray());
+    }
+
+    @Test(groups = {"test"})
+    public void testRoundTrip() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Hessian2Output out = new Hessian2Output(bos);
+
+        List<Object> values = new ArrayList<Object>();
+        for (int i = 0; i < 3; i++) {
+            Point point = new Point();
+            point.x = i;
+            point.y = -i;
+            point.label = "p" + i;
+            values.add(point);
+
+            LinkedList<String> names = new LinkedList<String>();
+            names.add(point.label);
+            values.add(names);
+
+            LinkedHashMap<String, Integer> map = new LinkedHashMap<String, Integer>();
+            map.put(point.label, i);
+            values.add(map);
+        }
+
+        out.writeObject(values);
+        out.writeObject(values.get(0).getClass().getName());
+        out.writeObject(new ArrayList<Object>(values));
+        out.flush();
+
+        byte[] data = bos.toByteArray();
+        String encoded = new String(data, "ISO-8859-1");
+        assertEquals(encoded.indexOf("label"), encoded.lastIndexOf("label"));
+        assertEquals(encoded.indexOf("java.util.LinkedList"),
+            encoded.lastIndexOf("java.util.LinkedList"));
+
+        Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(data));
+
+        assertValues((List<?>) in.readObject(), values);
+        assertEquals(in.readObject(), Point.class.getName());
+        assertValues((List<?>) in.readObject(), values);
+    }
+
+    @Test(groups = {"test"})
+    public void testTypeNames() throws Exception {
+        StringBuilder longName = new StringBuilder("test.");
+        for (int i = 0; i < 300; i++) {
+            longName.append("Type");
+        }
+
+        String[] types = {
+            "test.T", "test.\u00dcn\u00efc\u00f6d\u00e9\u20ac",
+            "test.AnEntirelyReasonableButLongTypeName", longName.toString()
+        };
+
+        for (String type : types) {
+            // the type is written, and then cached, like writeString writes it
+            for (int i = 0; i < 2; i++) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                Hessian2Output out = new Hessian2Output(bos);
+                out.writeListBegin(-1, type);
+                out.flush();
+
+                ByteArrayOutputStream stringBos = new ByteArrayOutputStream();
+                Hessian2Output stringOut = new Hessian2Output(stringBos);
+                stringOut.writeString(type);
+                stringOut.flush();
+
+                byte[] data = bos.toByteArray();
+                byte[] typeData = new byte[data.length - 1];
+                System.arraycopy(data, 1, typeData, 0, typeData.length);
+
+                assertEquals(typeData, stringBos.toByteArray());
+            }
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testObjectBeginOverride() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        CountingOutput out = new CountingOutput(bos);
+
+        Point point = new Point();
+        point.x = 3;
+        point.label = "p";
+        out.writeObject(point);
+        out.writeObject(point.clone());
+        out.flush();
+
+        // the pre-encoded definition doesn't bypass the override
+        assertTrue(out.count >= 2, "count " + out.count);
+
+        Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(bos.toByteArray()));
+        assertEquals(((Point) in.readObject()).x, 3);
+        assertEquals(((Point) in.readObject()).label, "p");
+    }
+
+    static class CountingOutput extends Hessian2Output {
+        int count;
+
+        CountingOutput(ByteArrayOutputStream bos) {
+            super(bos);
+        }
+
+        @Override
+        public int writeObjectBegin(String type) throws IOException {
+            count++;
+            return super.writeObjectBegin(type);
+        }
+    }
+
+    private void assertValues(List<?> result, List<Object> values) {
+        assertEquals(result.size(), values.size());
+
+        for (int i = 0; i < result.size(); i += 3) {
+            Point point = (Point) result.get(i);
+            Point expected = (Point) values.get(i);
+            assertEquals(point.x, expected.x);
+            assertEquals(point.y, expected.y);
+            assertEquals(point.label, expected.label);
+            assertTrue(result.get(i + 1) instanceof LinkedList);
+            assertEquals(result.get(i + 1), values.get(i + 1));
+            assertTrue(result.get(i + 2) instanceof LinkedHashMap);
+            assertEquals(result.get(i + 2), values.get(i + 2));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package test;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.HessianClassDictionary;
+import com.caucho.hessian.io.HessianProtocolException;
+import com.caucho.hessian.io.SerializerFactory;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Messages sharing a class definition dictionary.
+ */
+public class TestClassDictionary {
+
+    private byte[] write(HessianClassDictionary dictionary, Object value) throws Exception {
+        Hessian2Output out = new Hessian2Output();
+        out.setClassDictionary(dictionary);
+        out.initBuffer();
+        out.writeObject(value);
+        byte[] bs = out.toByteArray();
+        out.free();
+        return bs;
+    }
+
+    private Object read(HessianClassDictionary dictionary, byte[] bs) throws Exception {
+        Hessian2Input in = new Hessian2Input(bs, 0, bs.length);
+        in.setClassDictionary(dictionary);
+        return in.readObject();
+    }
+
+    @Test(groups = {"test"})
+    public void testDictionary() throws Exception {
+        HessianClassDictionary dictionary = new HessianClassDictionary()
+                .addSamples(new SerializerFactory(), new T4("a", "b"), new T1(1, 1, "c"));
+
+        assertEquals(dictionary.getSize(), 2);
+        assertEquals(dictionary.getType(0), T4.class.getName());
+        assertEquals(dictionary.getFieldNames(0), new String[]{"s1", "t1"});
+        assertEquals(dictionary.getRef(T1.class.getName()), 1);
+
+        T4 t4 = new T4("x", "y");
+        byte[] plain = write(null, t4);
+        byte[] shared = write(dictionary, t4);
+        assertTrue(shared.length < plain.length);
+
+        T4 t4a = (T4) read(dictionary, shared);
+        assertEquals(t4a.s1, "x");
+        assertEquals(t4a.t1, "y");
+
+        // classes outside the dictionary are still defined in the message
+        List<Object> list = new ArrayList<Object>();
+        list.add(new T1(7, 7.5, "seven"));
+        list.add(new T2(new T1(1, 1, "one"), 2, 3.0));
+        list.add(new T4("u", "v"));
+        list.add(new T2(new T1(8, 8, "eight"), 4, 5.0));
+
+        List<Object> list1 = (List<Object>) read(dictionary, write(dictionary, list));
+        assertEquals(list1.size(), 4);
+        assertEquals(((T1) list1.get(0)).getS1(), "seven");
+        assertEquals(((T4) list1.get(2)).t1, "v");
+        assertEquals(list1.get(3).toString(), list.get(3).toString());
+    }
+
+    @Test(groups = {"test"})
+    public void testWriteDictionary() throws Exception {
+        HessianClassDictionary dictionary = new HessianClassDictionary()
+                .addDefinition(T4.class.getName(), new String[]{"s1", "t1"});
+
+        Hessian2Output out = new Hessian2Output();
+        out.initBuffer();
+        dictionary.writeDictionary(out);
+        byte[] bs = out.toByteArray();
+
+        HessianClassDictionary dictionary1
+                = HessianClassDictionary.readDictionary(new Hessian2Input(bs, 0, bs.length));
+
+        assertEquals(dictionary1.getSize(), 1);
+        assertEquals(dictionary1.getVersion(), dictionary.getVersion());
+        assertEquals(dictionary1.getFieldNames(0), new String[]{"s1", "t1"});
+
+        // a reader with a later version of the dictionary decodes earlier messages
+        HessianClassDictionary dictionary2 = dictionary1
+                .addDefinition(T2.class.getName(), new String[]{"t1", "maps", "list", "i1", "d1"});
+        List<Object> list = new ArrayList<Object>();
+        list.add(new T1(1, 2, "three"));
+        list.add(new T4("a", "b"));
+        byte[] bs1 = write(dictionary, list);
+        List<Object> list1 = (List<Object>) read(dictionary2.toVersion(dictionary.getVersion()), bs1);
+        assertEquals(((T1) list1.get(0)).getS1(), "three");
+        assertEquals(((T4) list1.get(1)).s1, "a");
+    }
+
+    @Test(groups = {"test"})
+    public void testVersion() throws Exception {
+        HessianClassDictionary t4 = new HessianClassDictionary()
+                .addDefinition(T4.class.getName(), new String[]{"s1", "t1"});
+        HessianClassDictionary t1 = new HessianClassDictionary()
+                .addDefinition(T1.class.getName(), new String[]{"i1", "d1", "s1"});
+        HessianClassDictionary t4b = new HessianClassDictionary()
+                .addDefinition(T4.class.getName(), new String[]{"t1", "s1"});
+
+        assertEquals(new HessianClassDictionary().getVersion(), 0L);
+        assertEquals(t4.getSize(), t1.getSize());
+        assertTrue(t4.getVersion() != t1.getVersion());
+        assertTrue(t4.getVersion() != t4b.getVersion());
+        assertEquals(t4.getVersion(), new HessianClassDictionary()
+                .addDefinition(T4.class.getName(), new String[]{"s1", "t1"}).getVersion());
+
+        try {
+            t1.toVersion(t4.getVersion());
+            throw new AssertionError("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+
+        // a dictionary whose definitions do not match its version is rejected
+        Hessian2Output out = new Hessian2Output();
+        out.initBuffer();
+        out.writeInt(1);
+        out.writeString(T1.class.getName());
+        out.writeInt(3);
+        out.writeString("i1");
+        out.writeString("d1");
+        out.writeString("s1");
+        out.writeLong(t4.getVersion());
+        byte[] bs = out.toByteArray();
+
+        try {
+            HessianClassDictionary.readDictionary(new Hessian2Input(bs, 0, bs.length));
+            throw new AssertionError("expected HessianProtocolException");
+        } catch (HessianProtocolException e) {
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package test;
+
+import com.caucho.hessian.io.AbstractSerializerFactory;
+import com.caucho.hessian.io.Deserializer;
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.HessianColumnarList;
+import com.caucho.hessian.io.HessianProtocolException;
+import com.caucho.hessian.io.JavaSerializer;
+import com.caucho.hessian.io.Serializer;
+import com.caucho.hessian.io.SerializerFactory;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Columnar encoding of homogeneous lists of beans.
+ */
+public class TestColumnarList {
+
+    public enum Side {BUY, SELL}
+
+    public static class Venue implements Serializable {
+        String name;
+    }
+
+    public static class Trade implements Serializable {
+        int id;
+        long timestamp;
+        short lot;
+        byte flags;
+        char kind;
+        boolean settled;
+        float ratio;
+        double price;
+        String symbol;
+        String comment;
+        Integer quantity;
+        Date date;
+        Side side;
+        Venue venue;
+    }
+
+    public static class Member implements Serializable {
+        int id;
+        List<Member> group;
+    }
+
+    public static class Batch implements Serializable {
+        List<Trade> trades;
+        List<Trade> sameTrades;
+    }
+
+    private List<Trade> createTrades(int n, Venue venue) {
+        List<Trade> trades = new ArrayList<Trade>();
+        String[] symbols = {"AAPL", "MSFT", "GOOG", "AMZN"};
+
+        for (int i = 0; i < n; i++) {
+            Trade trade = new Trade();
+            trade.id = 1000 + i;
+            trade.timestamp = 1400000000000L + i * 250L + (i % 3);
+            trade.lot = (short) (100 * (1 + i % 5));
+            trade.flags = (byte) (i % 2 == 0 ? -1 : 3);
+            trade.kind = (char) ('A' + i % 4);
+            trade.settled = i % 3 == 0;
+            trade.ratio = i / 7.0f;
+            trade.price = 100.0 + i * 0.01;
+            trade.symbol = symbols[i % symbols.length];
+            trade.comment = i % 10 == 0 ? null : "comment " + i;
+            trade.quantity = i % 4 == 0 ? null : Integer.valueOf(i * 10);
+            trade.date = new Date(1400000000000L + i);
+            trade.side = i % 2 == 0 ? Side.BUY : Side.SELL;
+            trade.venue = venue;
+            trades.add(trade);
+        }
+
+        return trades;
+    }
+
+    private byte[] write(Object value, boolean isColumnar) throws Exception {
+        return write(value, isColumnar, new SerializerFactory());
+    }
+
+    private byte[] write(Object value, boolean isColumnar, SerializerFactory factory)
+            throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Hessian2Output out = new Hessian2Output(bos);
+        out.setSerializerFactory(factory);
+        out.setColumnarLists(isColumnar);
+        out.writeObject(value);
+        out.close();
+        return bos.toByteArray();
+    }
+
+    private void assertTrade(Trade actual, Trade expected) {
+        assertEquals(actual.id, expected.id);
+        assertEquals(actual.timestamp, expected.timestamp);
+        assertEquals(actual.lot, expected.lot);
+        assertEquals(actual.flags, expected.flags);
+        assertEquals(actual.kind, expected.kind);
+        assertEquals(actual.settled, expected.settled);
+        assertEquals(actual.ratio, expected.ratio, 0.0);
+        assertEquals(actual.price, expected.price, 0.0);
+        assertEquals(actual.symbol, expected.symbol);
+        assertEquals(actual.comment, expected.comment);
+        assertEquals(actual.quantity, expected.quantity);
+        assertEquals(actual.date, expected.date);
+        assertSame(actual.side, expected.side);
+        assertEquals(actual.venue.name, expected.venue.name);
+    }
+
+    @Test(groups = {"test"})
+    public void testRoundTrip() throws Exception {
+        Venue venue = new Venue();
+        venue.name = "NYSE";
+
+        Batch batch = new Batch();
+        batch.trades = createTrades(1000, venue);
+        batch.sameTrades = batch.trades;
+
+        byte[] columnar = write(batch, true);
+        byte[] rows = write(batch, false);
+
+        assertTrue(columnar.length < rows.length,
+            "columnar " + columnar.length + " rows " + rows.length);
+
+        Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(columnar));
+        Batch result = (Batch) in.readObject();
+
+        assertTrue(result.trades instanceof ArrayList);
+        assertSame(result.sameTrades, result.trades);
+        assertEquals(result.trades.size(), batch.trades.size());
+
+        for (int i = 0; i < batch.trades.size(); i++) {
+            assertTrade(result.trades.get(i), batch.trades.get(i));
+        }
+
+        // the shared venue is still written once, by reference
+        assertSame(result.trades.get(1).venue, result.trades.get(0).venue);
+    }
+
+    @Test(groups = {"test"})
+    public void testColumnarView() throws Exception {
+        Venue venue = new Venue();
+        venue.name = "LSE";
+        List<Trade> trades = createTrades(200, venue);
+
+        Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(write(trades, true)));
+        in.setColumnarView(true);
+
+        HessianColumnarList list = (HessianColumnarList) in.readObject();
+
+        assertEquals(list.size(), 200);
+        assertSame(list.getType(), Trade.class);
+
+        int[] ids = (int[]) list.getColumn("id");
+        long[] timestamps = (long[]) list.getColumn("timestamp");
+        String[] symbols = (String[]) list.getColumn("symbol");
+        double[] prices = (double[]) list.getColumn("price");
+        boolean[] settled = (boolean[]) list.getColumn("settled");
+
+        for (int i = 0; i < 200; i++) {
+            Trade trade = trades.get(i);
+            assertEquals(ids[i], trade.id);
+            assertEquals(timestamps[i], trade.timestamp);
+            assertEquals(symbols[i], trade.symbol);
+            assertEquals(prices[i], trade.price, 0.0);
+            assertEquals(settled[i], trade.settled);
+        }
+
+        assertNull(list.getColumn("missing"));
+        assertTrade((Trade) list.get(17), trades.get(17));
+    }
+
+    @Test(groups = {"test"})
+    public void testFallback() throws Exception {
+        List<Object> mixed = new ArrayList<Object>();
+        for (int i = 0; i < 100; i++) {
+            mixed.add(i % 2 == 0 ? (Object) Integer.valueOf(i) : "s" + i);
+        }
+
+        List<Trade> small = createTrades(3, new Venue());
+
+        assertEquals(write(mixed, true), write(mixed, false));
+        assertEquals(write(small, true), write(small, false));
+
+        Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(write(mixed, true)));
+        assertEquals(in.readObject(), mixed);
+    }
+
+    @Test(groups = {"test"})
+    public void testBackReference() throws Exception {
+        List<Member> group = new ArrayList<Member>();
+        for (int i = 0; i < 100; i++) {
+            Member member = new Member();
+            member.id = i;
+            member.group = group;
+            group.add(member);
+        }
+
+        Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(write(group, true)));
+        List<?> result = (List<?>) in.readObject();
+
+        assertEquals(result.size(), 100);
+        for (int i = 0; i < 100; i++) {
+            Member member = (Member) result.get(i);
+            assertEquals(member.id, i);
+            assertSame(member.group, result);
+        }
+
+        in = new Hessian2Input(new ByteArrayInputStream(write(group, true)));
+        in.setColumnarView(true);
+        HessianColumnarList view = (HessianColumnarList) in.readObject();
+
+        assertSame(((Member) view.get(5)).group, view);
+    }
+
+    @Test(groups = {"test"})
+    public void testCustomSerializer() throws Exception {
+        List<Venue> venues = new ArrayList<Venue>();
+        for (int i = 0; i < 100; i++) {
+            Venue venue = new Venue();
+            venue.name = "venue " + i;
+            venues.add(venue);
+        }
+
+        SerializerFactory factory = new SerializerFactory();
+        factory.addFactory(new AbstractSerializerFactory() {
+            public Serializer getSerializer(Class cl) throws HessianProtocolException {
+                return cl == Venue.class ? new JavaSerializer(cl) { } : null;
+            }
+
+            public Deserializer getDeserializer(Class cl) throws HessianProtocolException {
+                return null;
+            }
+        });
+
+        // a subclass of the field serializer may change the encoding,
+        // so the list is written row by row
+        assertEquals(write(venues, true, factory), write(venues, false, factory));
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package test;
+
+import com.caucho.hessian.io.Deflation;
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.util.HessianDeflaterPool;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Pooled deflaters and the compression threshold.
+ */
+public class TestDeflaterPool {
+
+    @Test(groups = {"test"})
+    public void testPooling() throws Exception {
+        HessianDeflaterPool pool = new HessianDeflaterPool(1, 0, 4);
+
+        Deflater deflater = pool.allocateDeflater(true);
+        pool.freeDeflater(deflater, true);
+        assertSame(pool.allocateDeflater(true), deflater);
+
+        Inflater inflater = pool.allocateInflater(false);
+        pool.freeInflater(inflater, false);
+        assertSame(pool.allocateInflater(false), inflater);
+    }
+
+    @Test(groups = {"test"})
+    public void testEnvelope() throws Exception {
+        String small = "short message";
+        String large = repeat("a larger, repetitive message ", 200);
+
+        HessianDeflaterPool pool = new HessianDeflaterPool(6, 1024, 4);
+
+        byte[] smallData = writeEnvelope(new Deflation(pool), small);
+        byte[] largeData = writeEnvelope(new Deflation(pool), large);
+
+        // below the threshold the payload is stored, so the text is visible
+        assertTrue(new String(smallData, "ISO-8859-1").indexOf(small) > 0);
+        assertTrue(largeData.length < large.length() / 4);
+
+        assertEquals(readEnvelope(new Deflation(), smallData), small);
+        assertEquals(readEnvelope(new Deflation(), largeData), large);
+
+        for (int i = 0; i < 3; i++) {
+            byte[] data = writeEnvelope(new Deflation(), large);
+            assertEquals(readEnvelope(new Deflation(pool), data), large);
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testRawStream() throws Exception {
+        HessianDeflaterPool pool = new HessianDeflaterPool(-1, 16, 4);
+        byte[] data = repeat("0123456789", 100).getBytes("UTF-8");
+
+        for (int i = 0; i < 3; i++) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            OutputStream os = pool.openOutputStream(bos, true);
+            os.write(data, 0, 10);
+            os.write(data, 10, data.length - 10);
+            os.close();
+
+            InputStream is = pool.openInputStream(new ByteArrayInputStream(bos.toByteArray()), true);
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            int ch;
+            while ((ch = is.read()) >= 0) {
+                result.write(ch);
+            }
+            is.close();
+
+            assertEquals(result.toByteArray(), data);
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testUnencodedShort() throws Exception {
+        HessianDeflaterPool pool = new HessianDeflaterPool(-1, 64, 4);
+        byte[] data = repeat("0123456789", 100).getBytes("UTF-8");
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        UnencodedShortStream os = new UnencodedShortStream(pool, bos);
+        os.write(data, 0, 50);
+        os.close();
+
+        assertTrue(! os.isDeflated);
+        assertEquals(bos.toByteArray(), Arrays.copyOf(data, 50));
+
+        bos = new ByteArrayOutputStream();
+        os = new UnencodedShortStream(pool, bos);
+        os.write(data, 0, 50);
+        os.write(data, 50, data.length - 50);
+        os.close();
+
+        assertTrue(os.isDeflated);
+        assertTrue(bos.size() < data.length / 4);
+
+        InputStream is = pool.openInputStream(new ByteArrayInputStream(bos.toByteArray()), true);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        int ch;
+        while ((ch = is.read()) >= 0) {
+            result.write(ch);
+        }
+        is.close();
+
+        assertEquals(result.toByteArray(), data);
+    }
+
+    /**
+     * Sends payloads within the threshold unencoded, like a servlet reply.
+     */
+    static class UnencodedShortStream extends HessianDeflaterPool.PooledDeflaterOutputStream {
+        boolean isDeflated;
+
+        UnencodedShortStream(HessianDeflaterPool pool, OutputStream os) {
+            super(pool, os, true, null);
+        }
+
+        @Override
+        protected void startDeflate() {
+            isDeflated = true;
+        }
+
+        @Override
+        protected void writeShort(byte[] buffer, int length) throws IOException {
+            out.write(buffer, 0, length);
+        }
+    }
+
+    private byte[] writeEnvelope(Deflation envelope, Object value) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Hessian2Output out = new Hessian2Output(bos);
+        Hessian2Output filter = envelope.wrap(out);
+        filter.writeObject(value);
+        filter.close();
+        return bos.toByteArray();
+    }
+
+    private Object readEnvelope(Deflation envelope, byte[] data) throws Exception {
+        Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(data));
+        Hessian2Input filter = envelope.unwrap(in);
+        Object value = filter.readObject();
+        filter.close();
+        return value;
+    }
+
+    private static String repeat(String value, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package test;
+
+import com.caucho.hessian.io.DeflateDictionaryTrainer;
+import com.caucho.hessian.io.Deflation;
+import com.caucho.hessian.io.DictionaryDeflation;
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.HessianDeflateDictionary;
+import com.caucho.hessian.io.HessianEnvelope;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Preset-dictionary deflate envelope and dictionary training.
+ */
+public class TestDictionaryDeflation {
+
+    public static class Order implements Serializable {
+        long orderId;
+        String customerName;
+        String status;
+        List<OrderLine> lines;
+    }
+
+    public static class OrderLine implements Serializable {
+        String productCode;
+        int quantity;
+        double unitPrice;
+    }
+
+    private static final String[] STATUS = {"PENDING", "SHIPPED", "DELIVERED", "CANCELLED"};
+
+    private Order createOrder(int i) {
+        Order order = new Order();
+        order.orderId = 1000000L + i * 7919L;
+        order.customerName = "customer-" + (i % 13);
+        order.status = STATUS[i % STATUS.length];
+        order.lines = new ArrayList<OrderLine>();
+        for (int j = 0; j < 1 + i % 3; j++) {
+            OrderLine line = new OrderLine();
+            line.productCode = "SKU-" + ((i * 31 + j) % 97);
+            line.quantity = 1 + j;
+            line.unitPrice = 9.99 * (j + 1);
+            order.lines.add(line);
+        }
+        return order;
+    }
+
+    @Test(groups = {"test"})
+    public void testCompression() throws Exception {
+        DeflateDictionaryTrainer trainer = new DeflateDictionaryTrainer(4096);
+        for (int i = 0; i < 50; i++) {
+            trainer.addSampleObject(createOrder(i));
+        }
+
+        HessianDeflateDictionary dictionary = trainer.train();
+        assertTrue(dictionary.getLength() > 0);
+        assertTrue(dictionary.getLength() <= 4096);
+
+        DictionaryDeflation envelope = new DictionaryDeflation(dictionary);
+        int plainSize = 0;
+        int deflateSize = 0;
+        int dictionarySize = 0;
+
+        for (int i = 100; i < 110; i++) {
+            Order order = createOrder(i);
+            plainSize += writePlain(order).length;
+            deflateSize += writeEnvelope(new Deflation(), order).length;
+
+            byte[] data = writeEnvelope(envelope, order);
+            dictionarySize += data.length;
+
+            Order result = (Order) readEnvelope(envelope, data);
+            assertEquals(result.orderId, order.orderId);
+            assertEquals(result.customerName, order.customerName);
+            assertEquals(result.status, order.status);
+            assertEquals(result.lines.size(), order.lines.size());
+            assertEquals(result.lines.get(0).productCode, order.lines.get(0).productCode);
+        }
+
+        assertTrue(dictionarySize < deflateSize,
+            "dictionary " + dictionarySize + " deflate " + deflateSize);
+        assertTrue(dictionarySize < plainSize,
+            "dictionary " + dictionarySize + " plain " + plainSize);
+    }
+
+    @Test(groups = {"test"})
+    public void testDictionaryId() throws Exception {
+        DeflateDictionaryTrainer trainer = new DeflateDictionaryTrainer();
+        for (int i = 0; i < 20; i++) {
+            trainer.addSampleObject(createOrder(i));
+        }
+
+        HessianDeflateDictionary oldDictionary = trainer.train(1);
+        HessianDeflateDictionary newDictionary = new HessianDeflateDictionary(2,
+            "customer-SKU-PENDING".getBytes("UTF-8"));
+
+        byte[] data = writeEnvelope(new DictionaryDeflation(oldDictionary), "hello");
+
+        try {
+            readEnvelope(new DictionaryDeflation(newDictionary), data);
+            throw new AssertionError("expected unknown dictionary");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().indexOf("1") > 0);
+        }
+
+        DictionaryDeflation reader = new DictionaryDeflation(newDictionary)
+            .addDictionary(oldDictionary);
+        assertEquals(readEnvelope(reader, data), "hello");
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Hessian2Output out = new Hessian2Output(bos);
+        oldDictionary.writeDictionary(out);
+        out.flush();
+
+        Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(bos.toByteArray()));
+        HessianDeflateDictionary copy = HessianDeflateDictionary.readDictionary(in);
+        assertEquals(copy.getId(), 1);
+        assertEquals(copy.getData(), oldDictionary.getData());
+    }
+
+    private byte[] writePlain(Object value) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Hessian2Output out = new Hessian2Output(bos);
+        out.writeObject(value);
+        out.close();
+        return bos.toByteArray();
+    }
+
+    private byte[] writeEnvelope(HessianEnvelope envelope, Object value) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Hessian2Output out = new Hessian2Output(bos);
+        Hessian2Output filter = envelope.wrap(out);
+        filter.writeObject(value);
+        filter.close();
+        return bos.toByteArray();
+    }
+
+    private Object readEnvelope(HessianEnvelope envelope, byte[] data) throws Exception {
+        Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(data));
+        Hessian2Input filter = envelope.unwrap(in);
+        Object value = filter.readObject();
+        filter.close();
+        return value;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package test;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * External objects after the first of their class, which are read through
+ * a compact class reference.
+ */
+public class TestExternal {
+
+    @Test(groups = {"test"})
+    public void testList() throws Exception {
+        List<T1> list = new ArrayList<T1>();
+        for (int i = 0; i < 20; i++) {
+            list.add(new T1(i, i + 0.5, "test-" + i));
+        }
+
+        List<?> result = (List<?>) read(write(list));
+
+        assertEquals(result.size(), list.size());
+        for (int i = 0; i < list.size(); i++) {
+            assertEquals(result.get(i).toString(), list.get(i).toString());
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testTypedArray() throws Exception {
+        T1[] array = new T1[5];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = new T1(i, i * 2.0, "item-" + i);
+        }
+
+        T1[] result = (T1[]) read(write(array));
+
+        assertEquals(result.length, array.length);
+        for (int i = 0; i < array.length; i++) {
+            assertEquals(result[i].toString(), array[i].toString());
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testReadAsClass() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Hessian2Output out = new Hessian2Output(bos);
+        out.writeObject(new T1(1, 1.5, "one"));
+        out.writeObject(new T1(2, 2.5, "two"));
+        out.close();
+
+        Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(bos.toByteArray()));
+
+        assertEquals(in.readObject(T1.class).toString(), new T1(1, 1.5, "one").toString());
+        assertEquals(in.readObject(T1.class).toString(), new T1(2, 2.5, "two").toString());
+    }
+
+    private static byte[] write(Object value) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Hessian2Output out = new Hessian2Output(bos);
+        out.writeObject(value);
+        out.close();
+        return bos.toByteArray();
+    }
+
+    private static Object read(byte[] data) throws Exception {
+        Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(data));
+        return in.readObject();
+    }
+}
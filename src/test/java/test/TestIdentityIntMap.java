@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package test;
+
+import com.caucho.hessian.util.IdentityIntMap;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Identity map of references, with generation-based clearing.
+ */
+public class TestIdentityIntMap {
+
+    @Test(groups = {"test"})
+    public void testPutGet() throws Exception {
+        IdentityIntMap map = new IdentityIntMap(16);
+        Object[] keys = new Object[10000];
+
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new String("k" + i);
+            assertEquals(map.put(keys[i], i, false), i);
+        }
+
+        assertEquals(map.size(), keys.length);
+
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(map.get(keys[i]), i);
+            // existing value is kept unless replacing
+            assertEquals(map.put(keys[i], -i, false), i);
+        }
+
+        // identity, not equality
+        assertEquals(map.get(new String("k1")), IdentityIntMap.NULL);
+
+        assertEquals(map.put(keys[7], 70, true), 7);
+        assertEquals(map.get(keys[7]), 70);
+
+        map.remove(keys[8]);
+        assertEquals(map.get(keys[8]), IdentityIntMap.NULL);
+        assertEquals(map.size(), keys.length - 1);
+    }
+
+    @Test(groups = {"test"})
+    public void testClear() throws Exception {
+        IdentityIntMap map = new IdentityIntMap(256);
+        Object[] keys = new Object[100];
+
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = new Object();
+
+        for (int round = 0; round < 1000; round++) {
+            map.clear();
+
+            assertEquals(map.size(), 0);
+
+            for (int i = 0; i < keys.length; i++)
+                assertEquals(map.get(keys[i]), IdentityIntMap.NULL);
+
+            int count = round % keys.length;
+
+            for (int i = 0; i < count; i++)
+                map.put(keys[i], i + round, false);
+
+            for (int i = 0; i < count; i++)
+                assertEquals(map.get(keys[i]), i + round);
+
+            assertEquals(map.size(), count);
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testShrink() throws Exception {
+        IdentityIntMap map = new IdentityIntMap(256);
+
+        for (int i = 0; i < 100000; i++)
+            map.put(new Object(), i, false);
+
+        assertTrue(map.capacity() > 100000);
+
+        Object key = new Object();
+
+        for (int i = 0; i < 10; i++) {
+            map.clear();
+            map.put(key, i, false);
+            assertEquals(map.get(key), i);
+        }
+
+        assertEquals(map.capacity(), 256);
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package test;
+
+import com.caucho.hessian.io.External;
+import com.caucho.hessian.io.Hessian2IncrementalInput;
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.HessianProtocolException;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Incremental decoding of values fed in partial buffers.
+ */
+public class TestIncrementalInput {
+
+    public static class Message implements Serializable {
+        int id;
+        String text;
+        byte[] payload;
+        Map<String, Object> headers;
+        List<Object> items;
+        T1 external;
+    }
+
+    public static class FailingExternal implements External {
+        public void writeExternal(Hessian2Output out) throws IOException {
+            out.writeInt(1);
+        }
+
+        public void readExternal(Hessian2Input in) throws IOException {
+            in.readInt();
+            throw new IllegalStateException("bad external");
+        }
+    }
+
+    private Message createMessage(int id) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 40000; i++) {
+            sb.append((char) ('a' + i % 26));
+            if (i % 100 == 0)
+                sb.append('\u00e9').append('\u4e2d');
+        }
+
+        Message message = new Message();
+        message.id = id;
+        message.text = sb.toString();
+        message.payload = new byte[70000];
+        message.payload[69999] = (byte) id;
+        message.headers = new HashMap<String, Object>();
+        message.headers.put("id", (long) id);
+        message.headers.put("ratio", 0.25 * id);
+        message.items = new ArrayList<Object>();
+        for (int i = 0; i < 50; i++)
+            message.items.add("item-" + i);
+        message.items.add(new int[]{1, 2, 3});
+        message.external = new T1(id, id * 0.5, "t" + id);
+        return message;
+    }
+
+    private byte[] toBytes(boolean isPacked, Object... values) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Hessian2Output out = new Hessian2Output(bos);
+        out.setPackedArrays(isPacked);
+        for (Object value : values)
+            out.writeObject(value);
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    private List<Object> decode(byte[] bs, int chunk) throws Exception {
+        Hessian2IncrementalInput in = new Hessian2IncrementalInput();
+        List<Object> values = new ArrayList<Object>();
+
+        for (int offset = 0; offset < bs.length; offset += chunk) {
+            int length = Math.min(chunk, bs.length - offset);
+            in.feed(ByteBuffer.wrap(bs, offset, length));
+
+            while (in.hasObject())
+                values.add(in.readObject());
+        }
+
+        assertEquals(in.getBufferedLength(), 0);
+        return values;
+    }
+
+    private void checkValues(List<Object> values, Message m1, Message m2, List<Object> shared) {
+        assertEquals(values.size(), 6);
+
+        Message v1 = (Message) values.get(0);
+        assertEquals(v1.id, m1.id);
+        assertEquals(v1.text, m1.text);
+        assertTrue(Arrays.equals(v1.payload, m1.payload));
+        assertEquals(v1.headers, m1.headers);
+        assertEquals(v1.items.size(), m1.items.size());
+        assertEquals(v1.external.toString(), m1.external.toString());
+
+        assertEquals(values.get(1), shared);
+
+        Message v2 = (Message) values.get(2);
+        assertEquals(v2.id, m2.id);
+        assertTrue(Arrays.equals(v2.payload, m2.payload));
+        assertTrue(Arrays.equals((int[]) v2.items.get(50), new int[]{1, 2, 3}));
+
+        assertEquals(values.get(3).toString(), new T1(3, 1.5, "ext").toString());
+        assertEquals(values.get(4), 7);
+        // back reference to an earlier value
+        assertSame(values.get(5), values.get(1));
+    }
+
+    @Test(groups = {"test"})
+    public void testChunks() throws Exception {
+        Message m1 = createMessage(1);
+        Message m2 = createMessage(2);
+        List<Object> shared = new ArrayList<Object>();
+        shared.add("shared");
+        shared.add(42L);
+
+        for (boolean isPacked : new boolean[]{false, true}) {
+            byte[] bs = toBytes(isPacked, m1, shared, m2, new T1(3, 1.5, "ext"), 7, shared);
+
+            checkValues(decode(bs, bs.length), m1, m2, shared);
+            checkValues(decode(bs, 4093), m1, m2, shared);
+            checkValues(decode(bs, 7), m1, m2, shared);
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testByteAtATime() throws Exception {
+        byte[] bs = toBytes(false, "a", new T1(1, 2, "x"), new int[]{5, 6},
+                            new T1(2, 3, "y"), null, 1L << 40);
+
+        List<Object> values = decode(bs, 1);
+        assertEquals(values.size(), 6);
+        assertEquals(values.get(0), "a");
+        assertEquals(values.get(1).toString(), new T1(1, 2, "x").toString());
+        assertTrue(Arrays.equals((int[]) values.get(2), new int[]{5, 6}));
+        assertEquals(values.get(3).toString(), new T1(2, 3, "y").toString());
+        assertEquals(values.get(4), null);
+        assertEquals(values.get(5), 1L << 40);
+    }
+
+    @Test(groups = {"test"})
+    public void testIncomplete() throws Exception {
+        byte[] bs = toBytes(false, createMessage(5));
+
+        Hessian2IncrementalInput in = new Hessian2IncrementalInput();
+        in.feed(bs, 0, bs.length - 1);
+        assertFalse(in.hasObject());
+
+        try {
+            in.readObject();
+            throw new AssertionError("expected incomplete value");
+        } catch (IllegalStateException e) {
+        }
+
+        in.feed(bs, bs.length - 1, 1);
+        assertTrue(in.hasObject());
+        assertEquals(((Message) in.readObject()).id, 5);
+        assertFalse(in.hasObject());
+    }
+
+    @Test(groups = {"test"})
+    public void testMaxValueLength() throws Exception {
+        byte[] bs = toBytes(false, createMessage(6));
+
+        Hessian2IncrementalInput in = new Hessian2IncrementalInput();
+        in.setMaxValueLength(1024);
+        in.feed(bs, 0, 4096);
+
+        try {
+            in.hasObject();
+            throw new AssertionError("expected value length error");
+        } catch (HessianProtocolException e) {
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testMalformed() throws Exception {
+        // an External that fails is not waiting for more bytes
+        byte[] bs = toBytes(false, new FailingExternal(), "after");
+
+        Hessian2IncrementalInput in = new Hessian2IncrementalInput();
+        in.feed(bs, 0, bs.length);
+
+        try {
+            in.hasObject();
+            throw new AssertionError("expected the External's failure");
+        } catch (RuntimeException e) {
+            Throwable cause = e;
+            while (cause.getCause() != null)
+                cause = cause.getCause();
+            assertEquals(cause.getMessage(), "bad external");
+        }
+
+        // a bad code in place of an External's first field, the int 1
+        bs = toBytes(false, new T1(1, 2, "x"));
+        int offset = 0;
+        while ((bs[offset] & 0xff) != 0x91)
+            offset++;
+        bs[offset] = 'Z';
+
+        in = new Hessian2IncrementalInput();
+        in.feed(bs, 0, bs.length);
+
+        try {
+            in.hasObject();
+            throw new AssertionError("expected a protocol error");
+        } catch (Exception e) {
+        }
+    }
+}
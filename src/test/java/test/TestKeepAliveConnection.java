@@ -0,0 +1,241 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package test;
+
+import com.caucho.hessian.client.HessianKeepAliveConnectionFactory;
+import com.caucho.hessian.client.HessianProxyFactory;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Connection reuse by the keep-alive connection factory, against a minimal
+ * HTTP/1.1 server.
+ */
+public class TestKeepAliveConnection {
+
+    public interface Echo {
+        String echo(String value);
+
+        int[] range(int n);
+    }
+
+    public static class EchoImpl implements Echo {
+        public String echo(String value) {
+            return value;
+        }
+
+        public int[] range(int n) {
+            int[] values = new int[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = i;
+            }
+            return values;
+        }
+    }
+
+    private Echo createProxy(HttpTestServer server, HessianKeepAliveConnectionFactory pool) throws Exception {
+        HessianProxyFactory factory = new HessianProxyFactory();
+        pool.setHessianProxyFactory(factory);
+        factory.setConnectionFactory(pool);
+        return (Echo) factory.create(Echo.class, server.getURL());
+    }
+
+    @Test(groups = {"test"})
+    public void testReuse() throws Exception {
+        HttpTestServer server = new HttpTestServer(new EchoImpl(), Echo.class);
+        HessianKeepAliveConnectionFactory pool = new HessianKeepAliveConnectionFactory();
+
+        try {
+            Echo echo = createProxy(server, pool);
+
+            for (int i = 0; i < 50; i++) {
+                assertEquals(echo.echo("hello " + i), "hello " + i);
+            }
+
+            server.isChunked = true;
+
+            for (int i = 0; i < 50; i++) {
+                assertEquals(echo.range(i * 10).length, i * 10);
+            }
+
+            assertEquals(server.acceptCount.get(), 1);
+            assertEquals(pool.getCreateCount(), 1L);
+            assertEquals(pool.getReuseCount(), 99L);
+            assertEquals(pool.getIdleCount(), 1);
+            assertEquals(pool.getActiveCount(), 0);
+        } finally {
+            pool.close();
+            server.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testServerClose() throws Exception {
+        HttpTestServer server = new HttpTestServer(new EchoImpl(), Echo.class);
+        server.maxRequestsPerConnection = 3;
+        HessianKeepAliveConnectionFactory pool = new HessianKeepAliveConnectionFactory();
+        pool.setHealthCheckInterval(-1);
+
+        try {
+            Echo echo = createProxy(server, pool);
+
+            for (int i = 0; i < 9; i++) {
+                assertEquals(echo.echo("v" + i), "v" + i);
+            }
+
+            assertEquals(server.acceptCount.get(), 3);
+            assertEquals(server.requestCount.get(), 9);
+        } finally {
+            pool.close();
+            server.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testStaleConnection() throws Exception {
+        HttpTestServer server = new HttpTestServer(new EchoImpl(), Echo.class);
+        HessianKeepAliveConnectionFactory pool = new HessianKeepAliveConnectionFactory();
+        pool.setHealthCheckInterval(-1);
+
+        try {
+            Echo echo = createProxy(server, pool);
+            assertEquals(echo.echo("a"), "a");
+
+            // the server drops the idle connection without telling the client
+            server.isSilentClose = true;
+            assertEquals(echo.echo("b"), "b");
+            Thread.sleep(50);
+            assertEquals(echo.echo("c"), "c");
+
+            assertEquals(pool.getRetryCount(), 1L, "retries");
+            assertEquals(server.requestCount.get(), 3);
+        } finally {
+            pool.close();
+            server.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testTimeoutNotRetried() throws Exception {
+        HttpTestServer server = new HttpTestServer(new EchoImpl(), Echo.class);
+        HessianKeepAliveConnectionFactory pool = new HessianKeepAliveConnectionFactory();
+        pool.setHealthCheckInterval(-1);
+
+        try {
+            HessianProxyFactory factory = new HessianProxyFactory();
+            factory.setReadTimeout(200);
+            pool.setHessianProxyFactory(factory);
+            factory.setConnectionFactory(pool);
+            Echo echo = (Echo) factory.create(Echo.class, server.getURL());
+            assertEquals(echo.echo("a"), "a");
+
+            // the reused connection times out while the server is still working
+            server.delay = 1000;
+
+            try {
+                echo.echo("b");
+                throw new AssertionError("expected a timeout");
+            } catch (RuntimeException e) {
+            }
+
+            Thread.sleep(1000);
+
+            assertEquals(pool.getRetryCount(), 0L, "retries");
+            assertEquals(server.requestCount.get(), 2);
+        } finally {
+            pool.close();
+            server.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testHealthCheck() throws Exception {
+        HttpTestServer server = new HttpTestServer(new EchoImpl(), Echo.class);
+        server.maxRequestsPerConnection = 1;
+        HessianKeepAliveConnectionFactory pool = new HessianKeepAliveConnectionFactory();
+        pool.setHealthCheckInterval(0);
+
+        try {
+            Echo echo = createProxy(server, pool);
+            assertEquals(echo.echo("a"), "a");
+            assertEquals(echo.echo("b"), "b");
+
+            // Connection: close replies are never pooled
+            assertEquals(pool.getIdleCount(), 0);
+            assertEquals(pool.getRetryCount(), 0L);
+            assertEquals(server.acceptCount.get(), 2);
+        } finally {
+            pool.close();
+            server.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testMaxPerHost() throws Exception {
+        HttpTestServer server = new HttpTestServer(new EchoImpl(), Echo.class);
+        final HessianKeepAliveConnectionFactory pool = new HessianKeepAliveConnectionFactory();
+        pool.setMaxConnectionsPerHost(2);
+        pool.setIdleTimeout(60000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            final Echo echo = createProxy(server, pool);
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        for (int i = 0; i < 20; i++) {
+                            if (echo.range(1000).length != 1000) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+
+            assertTrue(server.acceptCount.get() <= 2, "accepted " + server.acceptCount.get());
+            assertEquals(server.requestCount.get(), 160);
+            assertEquals(pool.getActiveCount(), 0);
+
+            pool.setIdleTimeout(0);
+            pool.evictIdleConnections();
+            assertEquals(pool.getIdleCount(), 0);
+        } finally {
+            executor.shutdownNow();
+            pool.close();
+            server.close();
+        }
+    }
+}
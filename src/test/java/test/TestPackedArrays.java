@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package test;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Packed encoding of primitive arrays.
+ */
+public class TestPackedArrays {
+
+    public static class Vectors implements Serializable {
+        double[] doubles;
+        float[] floats;
+        long[] longs;
+        int[] ints;
+        short[] shorts;
+        int[] sameInts;
+    }
+
+    private Vectors createVectors(int size) {
+        Vectors vectors = new Vectors();
+        vectors.doubles = new double[size];
+        vectors.floats = new float[size];
+        vectors.longs = new long[size];
+        vectors.ints = new int[size];
+        vectors.shorts = new short[size];
+        for (int i = 0; i < size; i++) {
+            vectors.doubles[i] = Math.sqrt(i) - 17;
+            vectors.floats[i] = i * 0.5f;
+            vectors.longs[i] = Long.MAX_VALUE - i;
+            vectors.ints[i] = -i * 31;
+            vectors.shorts[i] = (short) i;
+        }
+        vectors.sameInts = vectors.ints;
+        return vectors;
+    }
+
+    private byte[] toBytes(Object value, boolean isPacked) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Hessian2Output out = new Hessian2Output(bos);
+        out.setPackedArrays(isPacked);
+        out.writeObject(value);
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    private void assertVectors(Vectors expected, Vectors actual) {
+        assertTrue(Arrays.equals(expected.doubles, actual.doubles));
+        assertTrue(Arrays.equals(expected.floats, actual.floats));
+        assertTrue(Arrays.equals(expected.longs, actual.longs));
+        assertTrue(Arrays.equals(expected.ints, actual.ints));
+        assertTrue(Arrays.equals(expected.shorts, actual.shorts));
+        assertSame(actual.sameInts, actual.ints);
+    }
+
+    @Test(groups = {"test"})
+    public void testRoundTrip() throws Exception {
+        Vectors vectors = createVectors(3001);
+        byte[] packed = toBytes(vectors, true);
+        byte[] plain = toBytes(vectors, false);
+
+        Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(packed));
+        assertVectors(vectors, (Vectors) in.readObject());
+
+        in = new Hessian2Input();
+        in.init(packed, 0, packed.length);
+        assertVectors(vectors, (Vectors) in.readObject(Vectors.class));
+
+        in = new Hessian2Input(new ByteArrayInputStream(plain));
+        assertVectors(vectors, (Vectors) in.readObject());
+    }
+
+    @Test(groups = {"test"})
+    public void testTopLevel() throws Exception {
+        double[] doubles = createVectors(100).doubles;
+        byte[] packed = toBytes(doubles, true);
+
+        assertEquals(packed.length, 4 + doubles.length * 8);
+        assertTrue(packed.length < toBytes(doubles, false).length);
+
+        Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(packed));
+        assertTrue(Arrays.equals((double[]) in.readObject(double[].class), doubles));
+
+        double[] empty = new double[0];
+        in = new Hessian2Input(new ByteArrayInputStream(toBytes(empty, true)));
+        assertEquals(((double[]) in.readObject()).length, 0);
+    }
+}
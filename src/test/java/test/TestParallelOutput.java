@@ -0,0 +1,179 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package test;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Parallel encoding of large lists, arrays and maps.
+ */
+public class TestParallelOutput {
+
+    public static class Node implements Serializable {
+        int id;
+        String name;
+        Node peer;
+        Object parent;
+        List<String> tags;
+        Object[] values;
+    }
+
+    public static class Leaf implements Serializable {
+        long value;
+    }
+
+    public static class Snapshot implements Serializable {
+        String label;
+        List<Node> nodes;
+        Object[] array;
+        Map<String, Object> index;
+        Leaf leaf;
+        Leaf sameLeaf;
+        Node last;
+    }
+
+    private Snapshot createSnapshot(int n) {
+        Snapshot snapshot = new Snapshot();
+        snapshot.label = "snapshot";
+        snapshot.nodes = new ArrayList<Node>();
+        snapshot.array = new Object[n];
+        snapshot.index = new HashMap<String, Object>();
+
+        Node head = null;
+        for (int i = 0; i < n; i++) {
+            Node node = new Node();
+            node.id = i;
+            node.name = "node-" + i;
+            node.parent = snapshot;
+            node.tags = new LinkedList<String>();
+            node.tags.add("t" + (i % 7));
+            if (i % 3 == 0) {
+                node.values = new Object[]{(long) i, "v" + i, new Leaf()};
+            }
+            // groups are usually in the same segment
+            if (i % 10 == 0)
+                head = node;
+            node.peer = head;
+
+            snapshot.nodes.add(node);
+            snapshot.array[i] = i % 2 == 0 ? node : "a" + i;
+            snapshot.index.put("k" + i, i % 5 == 0 ? node.tags : (Object) i);
+        }
+
+        snapshot.leaf = new Leaf();
+        snapshot.leaf.value = 99;
+        snapshot.sameLeaf = snapshot.leaf;
+        snapshot.last = snapshot.nodes.get(n - 1);
+        return snapshot;
+    }
+
+    private byte[] toBytes(Object value, ForkJoinPool pool) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Hessian2Output out = new Hessian2Output(bos);
+        out.setParallelPool(pool);
+        out.setParallelThreshold(4096);
+        out.writeObject(value);
+        out.writeObject(value);
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    private void checkSnapshot(Snapshot s, int n) {
+        assertEquals(s.label, "snapshot");
+        assertEquals(s.nodes.size(), n);
+        for (int i = 0; i < n; i++) {
+            Node node = s.nodes.get(i);
+            assertEquals(node.id, i);
+            assertEquals(node.name, "node-" + i);
+            assertSame(node.parent, s);
+            assertEquals(node.tags.get(0), "t" + (i % 7));
+            assertEquals(node.peer.id, i - i % 10);
+            if (i % 3 == 0) {
+                assertEquals(node.values[0], (long) i);
+                assertEquals(node.values[1], "v" + i);
+                assertTrue(node.values[2] instanceof Leaf);
+            }
+            if (i % 2 == 0)
+                assertEquals(((Node) s.array[i]).id, i);
+            else
+                assertEquals(s.array[i], "a" + i);
+        }
+        assertEquals(s.index.size(), n);
+        assertEquals(s.index.get("k1"), 1);
+        assertEquals(((List) s.index.get("k5")).get(0), "t5");
+        assertEquals(s.leaf.value, 99L);
+        assertSame(s.sameLeaf, s.leaf);
+        assertEquals(s.last.id, n - 1);
+    }
+
+    @Test(groups = {"test"})
+    public void testParallel() throws Exception {
+        int n = 20000;
+        Snapshot snapshot = createSnapshot(n);
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            byte[] bs = toBytes(snapshot, pool);
+
+            Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(bs));
+            Snapshot s = (Snapshot) in.readObject();
+            checkSnapshot(s, n);
+            // reference to the first value after the segments
+            assertSame(in.readObject(), s);
+
+            // matches the values of the serial encoding
+            byte[] serial = toBytes(snapshot, null);
+            Snapshot t = (Snapshot) new Hessian2Input(new ByteArrayInputStream(serial)).readObject();
+            checkSnapshot(t, n);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testSmallList() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(2);
+
+        try {
+            Snapshot snapshot = createSnapshot(100);
+
+            byte[] parallel = toBytes(snapshot, pool);
+            byte[] serial = toBytes(snapshot, null);
+
+            assertTrue(java.util.Arrays.equals(parallel, serial));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package test;
+
+import com.caucho.hessian.io.Hessian2PipelinedInput;
+import com.caucho.hessian.io.Hessian2StreamingInput;
+import com.caucho.hessian.io.Hessian2StreamingOutput;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Parallel decoding of streaming packets.
+ */
+public class TestPipelinedInput {
+
+    public static class Event implements Serializable {
+        int id;
+        String name;
+        List<String> tags;
+        Map<String, Object> attributes;
+        T1 external;
+    }
+
+    public static class Marker implements Serializable {
+        long time;
+    }
+
+    private byte[] createStream(int n) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Hessian2StreamingOutput out = new Hessian2StreamingOutput(bos);
+
+        for (int i = 0; i < n; i++) {
+            if (i % 10 == 9) {
+                // classes first defined after many packets
+                Marker marker = new Marker();
+                marker.time = i;
+                out.writeObject(marker);
+                continue;
+            }
+
+            Event event = new Event();
+            event.id = i;
+            event.name = i % 100 == 0 ? createText(i) : "event-" + i;
+            event.tags = new LinkedList<String>();
+            event.tags.add("t" + i);
+            event.attributes = new HashMap<String, Object>();
+            event.attributes.put("n", i);
+            event.external = new T1(i, i * 0.5, "x" + i);
+            out.writeObject(event);
+        }
+
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    private String createText(int i) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < 20000; j++)
+            sb.append((char) ('a' + (i + j) % 26)).append(j % 50 == 0 ? "\u00e9\u4e2d" : "");
+        return sb.toString();
+    }
+
+    private int getId(Object value) {
+        if (value instanceof Marker)
+            return (int) ((Marker) value).time;
+
+        Event event = (Event) value;
+        assertEquals(event.tags.get(0), "t" + event.id);
+        assertEquals(event.attributes.get("n"), event.id);
+        assertEquals(event.external.getI1(), event.id);
+        if (event.id % 100 == 0)
+            assertEquals(event.name, createText(event.id));
+        else
+            assertEquals(event.name, "event-" + event.id);
+        return event.id;
+    }
+
+    @Test(groups = {"test"})
+    public void testOrdered() throws Exception {
+        int n = 2000;
+        byte[] bs = createStream(n);
+
+        // matches the serial reader
+        Hessian2StreamingInput serial = new Hessian2StreamingInput(new ByteArrayInputStream(bs));
+        for (int i = 0; i < 20; i++)
+            assertEquals(getId(serial.readObject()), i);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            Hessian2PipelinedInput in
+                = new Hessian2PipelinedInput(new ByteArrayInputStream(bs), executor);
+            in.setQueueSize(8);
+
+            for (int i = 0; i < n; i++) {
+                assertTrue(in.hasNext());
+                assertEquals(getId(in.readObject()), i);
+            }
+
+            assertFalse(in.hasNext());
+
+            try {
+                in.readObject();
+                throw new AssertionError("expected end of stream");
+            } catch (EOFException e) {
+            }
+
+            in.close();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testUnordered() throws Exception {
+        int n = 2000;
+        byte[] bs = createStream(n);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            Hessian2PipelinedInput in
+                = new Hessian2PipelinedInput(new ByteArrayInputStream(bs), executor);
+            in.setOrdered(false);
+            in.setQueueSize(16);
+
+            boolean[] seen = new boolean[n];
+            List<Integer> ids = new ArrayList<Integer>();
+
+            while (in.hasNext()) {
+                int id = getId(in.readObject());
+                assertFalse(seen[id]);
+                seen[id] = true;
+                ids.add(id);
+            }
+
+            assertEquals(ids.size(), n);
+            in.close();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testTruncated() throws Exception {
+        byte[] bs = createStream(30);
+        byte[] truncated = new byte[bs.length - 3];
+        System.arraycopy(bs, 0, truncated, 0, truncated.length);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Hessian2PipelinedInput in
+                = new Hessian2PipelinedInput(new ByteArrayInputStream(truncated), executor);
+
+            int count = 0;
+            try {
+                while (in.hasNext()) {
+                    getId(in.readObject());
+                    count++;
+                }
+                throw new AssertionError("expected a truncated packet");
+            } catch (java.io.IOException e) {
+            }
+
+            assertEquals(count, 29);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testCloseWakesReader() throws Exception {
+        PipedOutputStream os = new PipedOutputStream();
+        PipedInputStream is = new PipedInputStream(os);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            final Hessian2PipelinedInput in = new Hessian2PipelinedInput(is, executor);
+            final AtomicReference<Object> result = new AtomicReference<Object>();
+
+            Thread reader = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        result.set(in.hasNext());
+                    } catch (Throwable e) {
+                        result.set(e);
+                    }
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+
+            // the reader waits for a packet that never comes
+            Thread.sleep(200);
+            assertTrue(reader.isAlive());
+
+            in.close();
+            reader.join(5000);
+
+            assertFalse(reader.isAlive());
+            assertTrue(result.get() instanceof IOException, String.valueOf(result.get()));
+
+            try {
+                in.hasNext();
+                throw new AssertionError("expected a closed input");
+            } catch (IOException e) {
+            }
+        } finally {
+            os.close();
+            executor.shutdown();
+        }
+    }
+}
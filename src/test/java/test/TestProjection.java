@@ -0,0 +1,186 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package test;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.HessianProjection;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+/**
+ * Reading selected fields of objects.
+ */
+public class TestProjection {
+
+    public static class Customer implements Serializable {
+        String name;
+        String address;
+    }
+
+    public static class Item implements Serializable {
+        double price;
+        String description;
+    }
+
+    public static class Order implements Serializable {
+        long id;
+        Customer customer;
+        List<Item> items;
+        Map<String, Object> attributes;
+    }
+
+    public static class OrderSummary implements Serializable {
+        long id;
+        Customer customer;
+    }
+
+    public static class OrderItems implements Serializable {
+        long id;
+        List<Item> items;
+    }
+
+    public static class Wide implements Serializable {
+        Customer a;
+        Customer b;
+    }
+
+    public static class Narrow implements Serializable {
+        Customer b;
+    }
+
+    private Order createOrder() {
+        Order order = new Order();
+        order.id = 17;
+        order.customer = new Customer();
+        order.customer.name = "ann";
+        order.customer.address = "1 main st";
+        order.items = new ArrayList<Item>();
+        for (int i = 0; i < 3; i++) {
+            Item item = new Item();
+            item.price = i + 0.5;
+            item.description = "item " + i;
+            order.items.add(item);
+        }
+        order.attributes = new HashMap<String, Object>();
+        order.attributes.put("customer", order.customer);
+        order.attributes.put("notes", new char[10000]);
+        return order;
+    }
+
+    private Hessian2Input createInput(Object value) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Hessian2Output out = new Hessian2Output(bos);
+        out.writeObject(value);
+        out.writeObject("after");
+        out.flush();
+        return new Hessian2Input(new ByteArrayInputStream(bos.toByteArray()));
+    }
+
+    @Test(groups = {"test"})
+    public void testFieldPaths() throws Exception {
+        HessianProjection projection
+            = HessianProjection.create("id", "customer.name", "items.price");
+
+        for (int i = 0; i < 2; i++) {
+            Hessian2Input in = createInput(createOrder());
+            Order order = (Order) in.readObject(Order.class, projection);
+
+            assertEquals(order.id, 17L);
+            assertEquals(order.customer.name, "ann");
+            assertNull(order.customer.address);
+            assertEquals(order.items.size(), 3);
+            assertEquals(order.items.get(2).price, 2.5);
+            assertNull(order.items.get(2).description);
+            assertNull(order.attributes);
+            assertEquals(in.readString(), "after");
+        }
+
+        Hessian2Input in = createInput(createOrder());
+        Order order = (Order) in.readObject(null, HessianProjection.create("customer", "customer.name"));
+        assertEquals(order.customer.address, "1 main st");
+        assertNull(order.items);
+    }
+
+    @Test(groups = {"test"})
+    public void testNarrowClass() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            Hessian2Input in = createInput(createOrder());
+            OrderSummary summary = (OrderSummary) in.readObject(OrderSummary.class);
+
+            assertEquals(summary.id, 17L);
+            assertEquals(summary.customer.address, "1 main st");
+            assertEquals(in.readString(), "after");
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testNarrowClasses() throws Exception {
+        // alternating target classes of the same definition
+        for (int i = 0; i < 3; i++) {
+            OrderSummary summary = (OrderSummary) createInput(createOrder()).readObject(OrderSummary.class);
+            assertEquals(summary.customer.name, "ann");
+
+            OrderItems items = (OrderItems) createInput(createOrder()).readObject(OrderItems.class);
+            assertEquals(items.items.size(), 3);
+            assertEquals(items.items.get(1).description, "item 1");
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testSharedReference() throws Exception {
+        Wide wide = new Wide();
+        wide.a = new Customer();
+        wide.a.name = "ann";
+        wide.a.address = "1 main st";
+        wide.b = wide.a;
+
+        // the dropped field holds the object the kept field refers to
+        Hessian2Input in = createInput(wide);
+        Narrow narrow = (Narrow) in.readObject(Narrow.class);
+        assertEquals(narrow.b.name, "ann");
+        assertEquals(in.readString(), "after");
+
+        in = createInput(wide);
+        Wide projected = (Wide) in.readObject(Wide.class, HessianProjection.create("b"));
+        assertNull(projected.a);
+        assertEquals(projected.b.name, "ann");
+        assertEquals(projected.b.address, "1 main st");
+        assertEquals(in.readString(), "after");
+
+        // a reference from inside a dropped map
+        Order order = createOrder();
+        List<Object> list = new ArrayList<Object>();
+        list.add(order);
+        list.add(order.customer);
+
+        in = createInput(list);
+        List<?> result = (List<?>) in.readObject(List.class, HessianProjection.create("id"));
+        assertEquals(((Order) result.get(0)).id, 17L);
+        assertEquals(((Customer) result.get(1)).address, "1 main st");
+    }
+}
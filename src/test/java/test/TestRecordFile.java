@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package test;
+
+import com.caucho.hessian.io.HessianClassDictionary;
+import com.caucho.hessian.io.HessianProjection;
+import com.caucho.hessian.io.HessianRecordFile;
+import com.caucho.hessian.io.HessianRecordWriter;
+import com.caucho.hessian.io.SerializerFactory;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+/**
+ * Indexed record files.
+ */
+public class TestRecordFile {
+
+    private TestProjection.Order createOrder(int i) {
+        TestProjection.Order order = new TestProjection.Order();
+        order.id = i;
+        order.customer = new TestProjection.Customer();
+        order.customer.name = "customer-" + i;
+        order.customer.address = i + " main st";
+        return order;
+    }
+
+    private File writeFile(HessianClassDictionary dictionary, int count) throws Exception {
+        File file = File.createTempFile("records", ".hrc");
+        file.deleteOnExit();
+
+        HessianRecordWriter writer = new HessianRecordWriter(file, dictionary);
+        for (int i = 0; i < count; i++) {
+            assertEquals(writer.writeRecord(createOrder(i)), (long) i);
+        }
+        writer.close();
+        return file;
+    }
+
+    private void checkFile(File file, int count) throws Exception {
+        HessianRecordFile records = new HessianRecordFile(file);
+        try {
+            assertEquals(records.getRecordCount(), (long) count);
+
+            TestProjection.Order order = (TestProjection.Order) records.readRecord(count - 1);
+            assertEquals(order.id, (long) count - 1);
+            assertEquals(order.customer.name, "customer-" + (count - 1));
+
+            order = (TestProjection.Order) records.readRecord(7);
+            assertEquals(order.customer.address, "7 main st");
+
+            List<Object> range = records.readRecords(100, 10);
+            assertEquals(range.size(), 10);
+            assertEquals(((TestProjection.Order) range.get(9)).id, 109L);
+
+            order = (TestProjection.Order) records.readRecord(3, TestProjection.Order.class,
+                    HessianProjection.create("customer.name"));
+            assertEquals(order.customer.name, "customer-3");
+            assertNull(order.customer.address);
+        } finally {
+            records.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testRecords() throws Exception {
+        checkFile(writeFile(null, 1000), 1000);
+    }
+
+    @Test(groups = {"test"})
+    public void testDictionary() throws Exception {
+        HessianClassDictionary dictionary = new HessianClassDictionary()
+                .addSamples(new SerializerFactory(), createOrder(0));
+        File file = writeFile(dictionary, 500);
+
+        HessianRecordFile records = new HessianRecordFile(file);
+        try {
+            assertEquals(records.getClassDictionary().getVersion(), dictionary.getVersion());
+            // records refer to the header's definitions instead of defining them
+            assertEquals(records.getRecord(0).get(0) != 'C', true);
+        } finally {
+            records.close();
+        }
+
+        checkFile(file, 500);
+    }
+}
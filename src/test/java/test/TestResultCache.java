@@ -0,0 +1,308 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package test;
+
+import com.caucho.hessian.client.HessianCacheable;
+import com.caucho.hessian.client.HessianProxyFactory;
+import com.caucho.hessian.client.HessianResultCache;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Results of {@link HessianCacheable} methods served from the client cache.
+ */
+public class TestResultCache {
+
+    public interface Service {
+        @HessianCacheable(ttl = 60000)
+        String lookup(String key);
+
+        @HessianCacheable(ttl = 60000)
+        List<String> list(int size);
+
+        @HessianCacheable(ttl = 100)
+        int version();
+
+        @HessianCacheable(ttl = 100, staleWhileRevalidate = 60000)
+        int staleVersion();
+
+        @HessianCacheable(ttl = 100, staleWhileRevalidate = 60000)
+        int flakyVersion();
+
+        @HessianCacheable
+        String fail(String message);
+
+        int uncached();
+    }
+
+    public static class ServiceImpl implements Service {
+        final AtomicInteger version = new AtomicInteger();
+
+        public String lookup(String key) {
+            return key + "-value";
+        }
+
+        public List<String> list(int size) {
+            List<String> list = new ArrayList<String>();
+            for (int i = 0; i < size; i++) {
+                list.add("item-" + i);
+            }
+            return list;
+        }
+
+        public int version() {
+            return version.incrementAndGet();
+        }
+
+        public int staleVersion() {
+            return version.incrementAndGet();
+        }
+
+        public int flakyVersion() {
+            int value = version.incrementAndGet();
+            if (value == 2) {
+                throw new IllegalStateException("refresh " + value);
+            }
+            return value;
+        }
+
+        public String fail(String message) {
+            throw new IllegalStateException(message);
+        }
+
+        public int uncached() {
+            return version.incrementAndGet();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testHit() throws Exception {
+        HttpTestServer server = new HttpTestServer(new ServiceImpl(), Service.class);
+        HessianProxyFactory factory = new HessianProxyFactory();
+
+        try {
+            Service service = (Service) factory.create(Service.class, server.getURL());
+            HessianResultCache cache = factory.getResultCache();
+
+            assertEquals(service.lookup("a"), "a-value");
+            assertEquals(service.lookup("a"), "a-value");
+            assertEquals(service.lookup("a"), "a-value");
+            assertEquals(server.requestCount.get(), 1);
+
+            // different arguments are a different entry
+            assertEquals(service.lookup("b"), "b-value");
+            assertEquals(server.requestCount.get(), 2);
+
+            // methods without the annotation always call
+            service.uncached();
+            service.uncached();
+            assertEquals(server.requestCount.get(), 4);
+
+            assertEquals(cache.getHitCount(), 2);
+            assertEquals(cache.getMissCount(), 2);
+            assertEquals(cache.getSize(), 2);
+            assertTrue(cache.getByteSize() > 0, "bytes " + cache.getByteSize());
+
+            cache.clear();
+            assertEquals(cache.getSize(), 0);
+            assertEquals(cache.getByteSize(), 0L);
+
+            assertEquals(service.lookup("a"), "a-value");
+            assertEquals(server.requestCount.get(), 5);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testNoAliasing() throws Exception {
+        HttpTestServer server = new HttpTestServer(new ServiceImpl(), Service.class);
+        HessianProxyFactory factory = new HessianProxyFactory();
+
+        try {
+            Service service = (Service) factory.create(Service.class, server.getURL());
+
+            List<String> list = service.list(3);
+            list.clear();
+
+            List<String> cached = service.list(3);
+            assertEquals(cached.size(), 3);
+            cached.set(0, "changed");
+
+            assertEquals(service.list(3).get(0), "item-0");
+            assertEquals(server.requestCount.get(), 1);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testExpire() throws Exception {
+        HttpTestServer server = new HttpTestServer(new ServiceImpl(), Service.class);
+        HessianProxyFactory factory = new HessianProxyFactory();
+
+        try {
+            Service service = (Service) factory.create(Service.class, server.getURL());
+            HessianResultCache cache = factory.getResultCache();
+
+            assertEquals(service.version(), 1);
+            assertEquals(service.version(), 1);
+
+            Thread.sleep(200);
+
+            assertEquals(service.version(), 2);
+            assertEquals(server.requestCount.get(), 2);
+            assertEquals(cache.getExpireCount(), 1);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testStaleWhileRevalidate() throws Exception {
+        HttpTestServer server = new HttpTestServer(new ServiceImpl(), Service.class);
+        HessianProxyFactory factory = new HessianProxyFactory();
+
+        try {
+            Service service = (Service) factory.create(Service.class, server.getURL());
+            HessianResultCache cache = factory.getResultCache();
+
+            assertEquals(service.staleVersion(), 1);
+
+            Thread.sleep(200);
+
+            // the stale value comes back at once, a refresh goes out behind it
+            assertEquals(service.staleVersion(), 1);
+            assertEquals(cache.getStaleHitCount(), 1);
+
+            for (int i = 0; i < 100 && cache.getRefreshCount() == 0; i++) {
+                Thread.sleep(20);
+            }
+
+            assertEquals(cache.getRefreshCount(), 1);
+            assertEquals(service.staleVersion(), 2);
+            assertEquals(server.requestCount.get(), 2);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testFailedRefresh() throws Exception {
+        HttpTestServer server = new HttpTestServer(new ServiceImpl(), Service.class);
+        HessianProxyFactory factory = new HessianProxyFactory();
+
+        try {
+            Service service = (Service) factory.create(Service.class, server.getURL());
+            HessianResultCache cache = factory.getResultCache();
+
+            assertEquals(service.flakyVersion(), 1);
+
+            Thread.sleep(200);
+
+            // the first refresh fails, so later stale hits must try again
+            for (int i = 0; i < 100 && cache.getRefreshCount() == 0; i++) {
+                assertEquals(service.flakyVersion(), 1);
+                Thread.sleep(20);
+            }
+
+            assertEquals(cache.getRefreshCount(), 1);
+            assertEquals(service.flakyVersion(), 3);
+            assertEquals(server.requestCount.get(), 3);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testFaultNotCached() throws Exception {
+        HttpTestServer server = new HttpTestServer(new ServiceImpl(), Service.class);
+        HessianProxyFactory factory = new HessianProxyFactory();
+
+        try {
+            Service service = (Service) factory.create(Service.class, server.getURL());
+
+            for (int i = 0; i < 2; i++) {
+                try {
+                    service.fail("expected");
+                    throw new AssertionError("expected IllegalStateException");
+                } catch (IllegalStateException e) {
+                    assertEquals(e.getMessage(), "expected");
+                }
+            }
+
+            assertEquals(server.requestCount.get(), 2);
+            assertEquals(factory.getResultCache().getSize(), 0);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testEvict() throws Exception {
+        HttpTestServer server = new HttpTestServer(new ServiceImpl(), Service.class);
+        HessianProxyFactory factory = new HessianProxyFactory();
+        HessianResultCache cache = new HessianResultCache(4, 1024 * 1024);
+        factory.setResultCache(cache);
+
+        try {
+            Service service = (Service) factory.create(Service.class, server.getURL());
+
+            service.lookup("hot");
+
+            for (int i = 0; i < 10; i++) {
+                service.lookup("k" + i);
+                // keeps its second chance on every pass
+                service.lookup("hot");
+            }
+
+            assertEquals(cache.getSize(), 4);
+            assertEquals(cache.getEvictCount(), 7L);
+
+            int count = server.requestCount.get();
+            service.lookup("hot");
+            assertEquals(server.requestCount.get(), count);
+
+            // a byte bound evicts as well
+            HessianResultCache small = new HessianResultCache(1000, 64);
+            factory.setResultCache(small);
+
+            for (int i = 0; i < 10; i++) {
+                service.lookup("k" + i);
+            }
+
+            assertTrue(small.getByteSize() <= 64, "bytes " + small.getByteSize());
+            assertTrue(small.getEvictCount() > 0, "evicted " + small.getEvictCount());
+
+            // results over the byte bound are not kept
+            count = server.requestCount.get();
+            service.list(100);
+            service.list(100);
+            assertEquals(server.requestCount.get(), count + 2);
+        } finally {
+            server.close();
+        }
+    }
+}
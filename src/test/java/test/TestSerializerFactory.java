@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+
+package test;
+
+import com.caucho.hessian.io.AbstractSerializerFactory;
+import com.caucho.hessian.io.Deserializer;
+import com.caucho.hessian.io.HessianProtocolException;
+import com.caucho.hessian.io.Serializer;
+import com.caucho.hessian.io.SerializerFactory;
+import com.caucho.hessian.io.StringValueSerializer;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertSame;
+
+/**
+ * Concurrent serializer and deserializer lookup.
+ */
+public class TestSerializerFactory {
+
+    @Test(groups = {"test"})
+    public void testConcurrentLookup() throws Exception {
+        final SerializerFactory factory = new SerializerFactory();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<Object[]>> futures = new ArrayList<Future<Object[]>>();
+
+            for (int i = 0; i < 32; i++) {
+                futures.add(executor.submit(new Callable<Object[]>() {
+                    public Object[] call() throws Exception {
+                        return new Object[]{
+                            factory.getSerializer(T1.class),
+                            factory.getDeserializer(T1.class),
+                            factory.getDeserializer(T1.class.getName()),
+                            factory.getDeserializer("[int"),
+                        };
+                    }
+                }));
+            }
+
+            Object[] expected = futures.get(0).get();
+
+            for (Future<Object[]> future : futures) {
+                Object[] value = future.get();
+
+                for (int i = 0; i < expected.length; i++) {
+                    assertNotNull(value[i]);
+                    assertSame(value[i], expected[i]);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testAddFactory() throws Exception {
+        final Serializer serializer = new StringValueSerializer();
+        SerializerFactory factory = new SerializerFactory();
+
+        factory.addFactory(new AbstractSerializerFactory() {
+            public Serializer getSerializer(Class cl) throws HessianProtocolException {
+                return cl == T1.class ? serializer : null;
+            }
+
+            public Deserializer getDeserializer(Class cl) throws HessianProtocolException {
+                return null;
+            }
+        });
+
+        assertSame(factory.getSerializer(T1.class), serializer);
+        assertSame(factory.getSerializer(T1.class), serializer);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package test;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.Hessian2TokenReader;
+import com.caucho.hessian.io.Hessian2TokenReader.Token;
+import com.caucho.hessian.io.HessianProtocolException;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Token reading and skipping of values.
+ */
+public class TestTokenReader {
+
+    public static class Envelope implements Serializable {
+        long id;
+        String route;
+        Map<String, Object> headers;
+        List<Object> body;
+        byte[] payload;
+        T1 external;
+        Envelope next;
+    }
+
+    private Envelope createEnvelope(long id) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 40000; i++) {
+            sb.append((char) ('a' + i % 26));
+            if (i % 100 == 0)
+                sb.append('\u00e9').append('\u4e2d');
+        }
+
+        Envelope envelope = new Envelope();
+        envelope.id = id;
+        envelope.headers = new HashMap<String, Object>();
+        envelope.headers.put("text", sb.toString());
+        envelope.headers.put("date", new Date(1234567890L));
+        envelope.headers.put("values", new double[]{0, 1, 0.5, 1e100, -3});
+        envelope.body = new ArrayList<Object>();
+        for (int i = 0; i < 100; i++) {
+            envelope.body.add(new T1(i, i * 0.1, "t" + i));
+            envelope.body.add((long) i * 1000000007L);
+        }
+        envelope.body.add(envelope.headers);
+        envelope.payload = new byte[70000];
+        envelope.external = new T1(7, 7.5, "seven");
+        envelope.route = "orders";
+        envelope.next = new Envelope();
+        envelope.next.id = id + 1;
+        envelope.next.route = "next";
+        return envelope;
+    }
+
+    private byte[] toBytes(Object... values) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Hessian2Output out = new Hessian2Output(bos);
+        for (Object value : values)
+            out.writeObject(value);
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    @Test(groups = {"test"})
+    public void testSkipValue() throws Exception {
+        Envelope envelope = createEnvelope(1);
+        List<Object> shared = new ArrayList<Object>();
+        shared.add("shared");
+        byte[] bs = toBytes(envelope, shared, "marker", shared);
+
+        Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(bs));
+        in.skipValue();
+        assertEquals(in.readObject(), shared);
+        assertEquals(in.readString(), "marker");
+        // back reference to a value read after the skipped one
+        assertEquals(in.readObject(), shared);
+
+        in = new Hessian2Input(new ByteArrayInputStream(bs));
+        in.skipValue();
+        in.skipValue();
+        in.skipValue();
+        in.skipValue();
+        assertEquals(in.isEnd(), true);
+    }
+
+    @Test(groups = {"test"})
+    public void testSkipTruncatedString() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Hessian2Output out = new Hessian2Output(bos);
+        out.writeString("abcdefghij-\u00e9-\u4e2d-klmnopqrstuvwxyz");
+        out.close();
+
+        byte[] data = bos.toByteArray();
+
+        for (int length = 1; length < data.length; length++) {
+            Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(data, 0, length));
+
+            try {
+                in.skipValue();
+                throw new AssertionError("expected EOFException at " + length);
+            } catch (EOFException e) {
+            }
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testBeginExternal() throws Exception {
+        byte[] bs = toBytes(new T1(1, 1.5, "one"), new T1(2, 2.5, "two"), "after");
+
+        checkBeginExternal(new ByteArrayInputStream(bs));
+
+        // the definition arrives a byte at a time
+        checkBeginExternal(new ByteArrayInputStream(bs) {
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) {
+                return super.read(buffer, offset, Math.min(length, 1));
+            }
+        });
+    }
+
+    private void checkBeginExternal(InputStream is) throws Exception {
+        Hessian2TokenReader reader = new Hessian2TokenReader(new Hessian2Input(is));
+
+        for (int i = 1; i <= 2; i++) {
+            assertEquals(reader.peek(), Token.START_OBJECT);
+
+            try {
+                reader.beginObject();
+                throw new AssertionError("expected HessianProtocolException");
+            } catch (HessianProtocolException e) {
+            }
+
+            // the object is still unread
+            assertEquals(((T1) reader.readObject()).getI1(), i);
+        }
+
+        assertEquals(reader.readString(), "after");
+        assertEquals(reader.peek(), Token.END_DOCUMENT);
+    }
+
+    @Test(groups = {"test"})
+    public void testTokens() throws Exception {
+        byte[] bs = toBytes(createEnvelope(42), "after");
+
+        Hessian2TokenReader reader
+            = new Hessian2TokenReader(new Hessian2Input(new ByteArrayInputStream(bs)));
+
+        assertEquals(reader.peek(), Token.START_OBJECT);
+        assertEquals(reader.beginObject(), Envelope.class.getName());
+
+        long id = -1;
+        String route = null;
+        long nextId = -1;
+
+        while (reader.hasNext()) {
+            String field = reader.nextField();
+
+            if ("id".equals(field)) {
+                assertEquals(reader.peek(), Token.LONG);
+                id = reader.readLong();
+            } else if ("route".equals(field)) {
+                route = reader.readString();
+            } else if ("body".equals(field)) {
+                assertEquals(reader.beginList(), 201);
+                assertEquals(reader.peek(), Token.START_OBJECT);
+                reader.skipValue();
+                assertEquals(reader.readLong(), 0L);
+                reader.endList();
+            } else if ("next".equals(field)) {
+                reader.beginObject();
+                assertEquals(reader.nextField(), "id");
+                nextId = reader.readLong();
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+
+        reader.endObject();
+
+        assertEquals(id, 42L);
+        assertEquals(route, "orders");
+        assertEquals(nextId, 43L);
+        assertEquals(reader.getDepth(), 0);
+        assertEquals(reader.readString(), "after");
+        assertEquals(reader.peek(), Token.END_DOCUMENT);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ *  Copyright 2012-2015 Viant.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+
+package test;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.HessianFieldException;
+import com.caucho.hessian.io.SerializerFactory;
+import com.caucho.hessian.io.UnsafeCodecGenerator;
+import com.caucho.hessian.io.UnsafeSerializer;
+import org.testng.annotations.Test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Generated field writers and readers must match the per-field serializers.
+ */
+public class TestUnsafeCodecGenerator {
+
+    public static class Base implements Serializable {
+        long id;
+        String name;
+    }
+
+    public static class Bean extends Base {
+        private boolean b;
+        private byte by;
+        private short s;
+        private int i;
+        private float f;
+        private double d;
+        private char c;
+        private Integer boxed;
+        private Date date;
+        private int[] ints;
+        private List<String> list;
+        private Bean next;
+        private transient String skipped;
+    }
+
+    public static class Boxed implements Serializable {
+        private Integer boxed;
+        private Number amount;
+    }
+
+    private Bean createBean() {
+        Bean bean = new Bean();
+        bean.id = 1L << 40;
+        bean.name = "bean";
+        bean.b = true;
+        bean.by = -3;
+        bean.s = 1234;
+        bean.i = 987654;
+        bean.f = 1.5f;
+        bean.d = -2.25;
+        bean.c = 'x';
+        bean.boxed = 17;
+        bean.date = new Date(1000000L);
+        bean.ints = new int[]{1, 2, 3};
+        bean.list = new ArrayList<String>(Arrays.asList("a", "b"));
+        bean.skipped = "skipped";
+        bean.next = bean;
+        return bean;
+    }
+
+    private byte[] write(Bean bean) throws Exception {
+        Hessian2Output out = new Hessian2Output();
+        out.setSerializerFactory(new SerializerFactory());
+        out.initBuffer();
+        new UnsafeSerializer(Bean.class).writeObject(bean, out);
+        byte[] bs = out.toByteArray();
+        out.free();
+        return bs;
+    }
+
+    @Test(groups = {"test"})
+    public void testGeneratedCodec() throws Exception {
+        boolean isEnabled = UnsafeCodecGenerator.isEnabled();
+
+        try {
+            Bean bean = createBean();
+
+            UnsafeCodecGenerator.setEnabled(false);
+            byte[] expected = write(bean);
+
+            UnsafeCodecGenerator.setEnabled(true);
+            byte[] bs = write(bean);
+            assertTrue(Arrays.equals(bs, expected));
+
+            Hessian2Input in = new Hessian2Input(bs, 0, bs.length);
+            in.setSerializerFactory(new SerializerFactory());
+            Bean bean1 = (Bean) in.readObject();
+
+            assertEquals(bean1.id, bean.id);
+            assertEquals(bean1.name, "bean");
+            assertEquals(bean1.b, true);
+            assertEquals(bean1.by, (byte) -3);
+            assertEquals(bean1.s, (short) 1234);
+            assertEquals(bean1.i, 987654);
+            assertEquals(bean1.f, 1.5f);
+            assertEquals(bean1.d, -2.25);
+            assertEquals(bean1.c, 'x');
+            assertEquals(bean1.boxed, Integer.valueOf(17));
+            assertEquals(bean1.date, bean.date);
+            assertTrue(Arrays.equals(bean1.ints, bean.ints));
+            assertEquals(bean1.list, bean.list);
+            assertEquals(bean1.skipped, null);
+            assertSame(bean1.next, bean1);
+        } finally {
+            UnsafeCodecGenerator.setEnabled(isEnabled);
+        }
+    }
+
+    @Test(groups = {"test"})
+    public void testFieldError() throws Exception {
+        boolean isEnabled = UnsafeCodecGenerator.isEnabled();
+
+        try {
+            UnsafeCodecGenerator.setEnabled(true);
+
+            // a string for an Integer fails in the read
+            checkFieldError(writeBoxed("not a number", 3),
+                            Boxed.class.getName() + ".boxed: ");
+
+            // a string for a Number fails in the assignment
+            checkFieldError(writeBoxed(5, "seven"),
+                            Boxed.class.getName() + ".amount: java.lang.String (seven) cannot be assigned");
+        } finally {
+            UnsafeCodecGenerator.setEnabled(isEnabled);
+        }
+    }
+
+    private byte[] writeBoxed(Object boxed, Object amount) throws Exception {
+        Hessian2Output out = new Hessian2Output();
+        out.initBuffer();
+        out.writeObjectBegin(Boxed.class.getName());
+        out.writeClassFieldLength(2);
+        out.writeString("boxed");
+        out.writeString("amount");
+        out.writeObjectBegin(Boxed.class.getName());
+        out.writeObject(boxed);
+        out.writeObject(amount);
+        byte[] bs = out.toByteArray();
+        out.free();
+        return bs;
+    }
+
+    private void checkFieldError(byte[] bs, String message) throws Exception {
+        Hessian2Input in = new Hessian2Input(bs, 0, bs.length);
+        in.setSerializerFactory(new SerializerFactory());
+
+        try {
+            in.readObject();
+            throw new AssertionError("expected HessianFieldException");
+        } catch (HessianFieldException e) {
+            assertTrue(e.getMessage().startsWith(message), e.getMessage());
+        }
+    }
+}